@@ -106,5 +106,15 @@ public enum Debug {
      * Value: <i>8</i>
      * </p>
      */
-    protocol;
+    protocol,
+
+    /**
+     * Capture the raw byte stream received from the server into a file in the
+     * user directory. The captured files can be played back using the
+     * {@link illarion.client.net.ProtocolReplay}.
+     * <p>
+     * Value: <i>512</i>
+     * </p>
+     */
+    capture;
 }
@@ -902,6 +902,7 @@ public final class IllaClient {
         cfg.setDefault(Journal.CFG_JOURNAL_LENGTH, 100);
         cfg.setDefault(Journal.CFG_JOURNAL_FONT,
             Journal.CFG_JOURNAL_FONT_LARGE);
+        cfg.setDefault(Game.CFG_TEXTURE_MEMORY, 256);
 
         final String locale = cfg.getString(Lang.LOCALE_CFG);
         if (locale == null) {
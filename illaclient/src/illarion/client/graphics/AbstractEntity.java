@@ -26,6 +26,7 @@ import illarion.common.config.Config;
 import illarion.common.config.ConfigChangeListener;
 import illarion.common.util.FastMath;
 import illarion.common.util.Location;
+import illarion.common.util.Rectangle;
 import illarion.common.util.RecycleObject;
 
 import illarion.graphics.Graphics;
@@ -507,6 +508,30 @@ public abstract class AbstractEntity implements RecycleObject, DisplayItem,
         return alpha;
     }
 
+    /**
+     * Get the area on the display the sprite of this entity is drawn in. This
+     * is the same area that is checked against the camera when drawing.
+     * 
+     * @param area the rectangle that receives the area of this entity
+     * @return always <code>true</code>
+     */
+    @Override
+    public boolean getDisplayArea(final Rectangle area) {
+        int xOffset;
+        int yOffset;
+        if (useScale) {
+            xOffset = sprite.getScaledOffsetX(scale);
+            yOffset = sprite.getScaledOffsetY(scale);
+        } else {
+            xOffset = sprite.getOffsetX();
+            yOffset = sprite.getOffsetY();
+        }
+
+        area.set(displayX + xOffset, displayY + yOffset, sprite.getWidth()
+            - offS, sprite.getHeight());
+        return true;
+    }
+
     /**
      * Get the current x location of this object on the screen relative to the
      * origin of the game map. That value is set with the screen position.
@@ -728,17 +753,17 @@ public abstract class AbstractEntity implements RecycleObject, DisplayItem,
      */
     public void setScreenPos(final int dispX, final int dispY,
         final int zLayer, final int typeLayer) {
+        final int newLayerZ = zLayer - typeLayer;
+        final boolean changed =
+            (dispX != displayX) || (dispY != displayY) || (newLayerZ != layerZ);
+
         displayX = dispX;
         displayY = dispY;
+        layerZ = newLayerZ;
 
-        if (shown) {
-            final int newLayerZ = zLayer - typeLayer;
-            if (newLayerZ != layerZ) {
-                Game.getDisplay().readd(this);
-                layerZ = newLayerZ;
-            }
-        } else {
-            layerZ = zLayer - typeLayer;
+        // the display list sorts the items by their area as well
+        if (shown && changed) {
+            Game.getDisplay().readd(this);
         }
     }
 
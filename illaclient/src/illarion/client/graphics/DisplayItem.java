@@ -18,6 +18,8 @@
  */
 package illarion.client.graphics;
 
+import illarion.common.util.Rectangle;
+
 /**
  * Interface for a object that can be rendered on the screen.
  * 
@@ -33,6 +35,17 @@ public interface DisplayItem {
      */
     boolean draw();
 
+    /**
+     * Get the area on the display this item is drawn in. The display list uses
+     * this area to skip the items that are outside of the viewport of the
+     * camera.
+     * 
+     * @param area the rectangle that receives the area of this item
+     * @return <code>false</code> in case the area of this item is not known,
+     *         such items are drawn in every frame
+     */
+    boolean getDisplayArea(Rectangle area);
+
     /**
      * Get the z order of the item. This order is used to sort the display items
      * in a proper order to be rendered.
@@ -0,0 +1,503 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.graphics;
+
+import java.util.Arrays;
+
+import javolution.util.FastComparator;
+import javolution.util.FastMap;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import illarion.common.util.Rectangle;
+
+/**
+ * The display list stores the items displayed on the map in the order they
+ * need to be drawn. Items with a higher Z order are drawn first.
+ * <p>
+ * The items are stored in one bucket for each Z order. Since the Z order
+ * follows the rows of the map, each bucket covers a small stripe of the
+ * display. Inside a bucket the items are stored in columns by the left border
+ * of their area on the display. When rendering only the buckets and columns
+ * that touch the viewport of the camera are visited. Items with the same Z
+ * order and column are drawn in the order they were added.
+ * </p>
+ * <p>
+ * The items that are not visited are not updated either. The time that
+ * passed is handed over to the item once its visited again.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class DisplayList {
+    /**
+     * The bucket that stores all items with one Z order.
+     * 
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    private static final class Bucket {
+        /**
+         * The columns of this bucket, starting with {@link #firstColumn}. This
+         * is <code>null</code> as long as there is no item with a known area in
+         * this bucket.
+         */
+        Cell[] columns;
+
+        /**
+         * The index of the first column stored in {@link #columns}.
+         */
+        int firstColumn;
+
+        /**
+         * The largest width of the items in this bucket.
+         */
+        int maxWidth;
+
+        /**
+         * The largest y coordinate covered by the items in this bucket.
+         */
+        int maxY;
+
+        /**
+         * The smallest y coordinate covered by the items in this bucket.
+         */
+        int minY;
+
+        /**
+         * The amount of items in this bucket.
+         */
+        int size;
+
+        /**
+         * The items of this bucket that do not have a known area.
+         */
+        final Cell unbounded;
+
+        /**
+         * The Z order of the items in this bucket.
+         */
+        final int zOrder;
+
+        /**
+         * Create a new empty bucket.
+         * 
+         * @param bucketZOrder the Z order of the items in this bucket
+         */
+        Bucket(final int bucketZOrder) {
+            zOrder = bucketZOrder;
+            unbounded = new Cell();
+            clear();
+        }
+
+        /**
+         * Reset the area covered by this bucket. This must only be called once
+         * the bucket is empty.
+         */
+        void clear() {
+            columns = null;
+            maxWidth = 0;
+            maxY = Integer.MIN_VALUE;
+            minY = Integer.MAX_VALUE;
+        }
+
+        /**
+         * Get the cell of a column and extend the area covered by this bucket
+         * by the area of a item that is stored in this cell.
+         * 
+         * @param area the area of the item
+         * @return the cell the item is stored in
+         */
+        Cell getCell(final Rectangle area) {
+            final int column = area.getX() >> COLUMN_BITS;
+            if (columns == null) {
+                columns = new Cell[1];
+                firstColumn = column;
+            } else if (column < firstColumn) {
+                final Cell[] newColumns =
+                    new Cell[(columns.length + firstColumn) - column];
+                System.arraycopy(columns, 0, newColumns, firstColumn - column,
+                    columns.length);
+                columns = newColumns;
+                firstColumn = column;
+            } else if (column >= (firstColumn + columns.length)) {
+                final Cell[] newColumns =
+                    new Cell[(column - firstColumn) + 1];
+                System.arraycopy(columns, 0, newColumns, 0, columns.length);
+                columns = newColumns;
+            }
+
+            maxWidth = Math.max(maxWidth, area.getWidth());
+            minY = Math.min(minY, area.getY());
+            maxY = Math.max(maxY, area.getY() + area.getHeight());
+
+            Cell cell = columns[column - firstColumn];
+            if (cell == null) {
+                cell = new Cell();
+                columns[column - firstColumn] = cell;
+            }
+            return cell;
+        }
+    }
+
+    /**
+     * One cell of a bucket that stores the items as linked list.
+     * 
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    private static final class Cell {
+        /**
+         * The first entry of this cell.
+         */
+        Entry first;
+
+        /**
+         * The last entry of this cell.
+         */
+        Entry last;
+
+        /**
+         * Create a new empty cell.
+         */
+        Cell() {
+            // nothing to do
+        }
+    }
+
+    /**
+     * The entry of one item in the linked list of a cell.
+     * 
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    private static final class Entry {
+        /**
+         * The bucket this entry is stored in.
+         */
+        Bucket bucket;
+
+        /**
+         * The cell this entry is stored in.
+         */
+        Cell cell;
+
+        /**
+         * The item of this entry.
+         */
+        final DisplayItem item;
+
+        /**
+         * The next entry in the cell.
+         */
+        Entry next;
+
+        /**
+         * The previous entry in the cell.
+         */
+        Entry previous;
+
+        /**
+         * The time of the display list when this item was updated last.
+         */
+        long updated;
+
+        /**
+         * Create a new entry for a item.
+         * 
+         * @param entryItem the item of this entry
+         */
+        Entry(final DisplayItem entryItem) {
+            item = entryItem;
+        }
+    }
+
+    /**
+     * The amount of bits the x coordinate of a item is shifted by to get the
+     * column of the item. So each column is 128 pixels wide.
+     */
+    private static final int COLUMN_BITS = 7;
+
+    /**
+     * The margin in pixels that is added around the viewport of the camera.
+     * This covers items that changed their size a little since they were
+     * added.
+     */
+    private static final int VIEWPORT_MARGIN = 64;
+
+    /**
+     * Remove a entry from the linked list of its cell.
+     * 
+     * @param entry the entry to remove
+     */
+    private static void unlink(final Entry entry) {
+        final Cell cell = entry.cell;
+        if (entry.previous == null) {
+            cell.first = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            cell.last = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+
+        final Bucket bucket = entry.bucket;
+        bucket.size--;
+        if (bucket.size == 0) {
+            bucket.clear();
+        }
+
+        entry.previous = null;
+        entry.next = null;
+        entry.cell = null;
+        entry.bucket = null;
+    }
+
+    /**
+     * The rectangle used to fetch the area of the items that are added.
+     */
+    private final Rectangle area;
+
+    /**
+     * The buckets of all Z orders that were used since the buckets were sorted
+     * last.
+     */
+    private final TIntObjectHashMap<Bucket> buckets;
+
+    /**
+     * The entries of all items in this list.
+     */
+    private final FastMap<DisplayItem, Entry> entries;
+
+    /**
+     * The buckets in the order they are drawn.
+     */
+    private Bucket[] order;
+
+    /**
+     * The amount of valid buckets in {@link #order}.
+     */
+    private int orderCount;
+
+    /**
+     * This flag is <code>true</code> in case a new bucket was created and the
+     * buckets need to be sorted again.
+     */
+    private boolean orderDirty;
+
+    /**
+     * The time in milliseconds that passed in all render runs of this list.
+     */
+    private long time;
+
+    /**
+     * The amount of items that were visited during the last render run.
+     */
+    private int visitedItems;
+
+    /**
+     * Create a new empty display list.
+     */
+    DisplayList() {
+        area = Rectangle.getInstance();
+        buckets = new TIntObjectHashMap<Bucket>();
+        entries = new FastMap<DisplayItem, Entry>();
+        entries.setKeyComparator(FastComparator.IDENTITY);
+        order = new Bucket[0];
+    }
+
+    /**
+     * Add a item to the list, using the current Z order and area of the item.
+     * In case the item is in the list already, its moved to the position of
+     * its current Z order and area.
+     * 
+     * @param item the item to add
+     */
+    void add(final DisplayItem item) {
+        Entry entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry(item);
+            entry.updated = time;
+            entries.put(item, entry);
+        } else {
+            unlink(entry);
+        }
+
+        final int zOrder = item.getZOrder();
+        Bucket bucket = buckets.get(zOrder);
+        if (bucket == null) {
+            bucket = new Bucket(zOrder);
+            buckets.put(zOrder, bucket);
+            orderDirty = true;
+        }
+
+        final Cell cell;
+        if (item.getDisplayArea(area)) {
+            cell = bucket.getCell(area);
+        } else {
+            cell = bucket.unbounded;
+        }
+
+        entry.bucket = bucket;
+        entry.cell = cell;
+        bucket.size++;
+        entry.previous = cell.last;
+        if (cell.last == null) {
+            cell.first = entry;
+        } else {
+            cell.last.next = entry;
+        }
+        cell.last = entry;
+    }
+
+    /**
+     * Get the amount of items that were visited during the last render run.
+     * 
+     * @return the amount of visited items
+     */
+    int getVisitedItems() {
+        return visitedItems;
+    }
+
+    /**
+     * Remove a item from the list.
+     * 
+     * @param item the item to remove
+     * @return <code>true</code> in case the item was in the list
+     */
+    boolean remove(final DisplayItem item) {
+        final Entry entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * Update and draw the items of the list that are inside the viewport of
+     * the camera in the order of their Z order.
+     * 
+     * @param delta the time since the last update in milliseconds
+     * @param camera the camera that supplies the viewport
+     */
+    void render(final int delta, final Camera camera) {
+        time += delta;
+        if (orderDirty) {
+            sortBuckets();
+        }
+
+        final int left = camera.getViewportOffsetX() - VIEWPORT_MARGIN;
+        final int right =
+            camera.getViewportOffsetX() + camera.getViewportWidth()
+                + VIEWPORT_MARGIN;
+        final int bottom = camera.getViewportOffsetY() - VIEWPORT_MARGIN;
+        final int top =
+            camera.getViewportOffsetY() + camera.getViewportHeight()
+                + VIEWPORT_MARGIN;
+
+        int visited = 0;
+        for (int i = 0; i < orderCount; i++) {
+            final Bucket bucket = order[i];
+            final Cell[] columns = bucket.columns;
+            if ((columns != null) && (bucket.maxY >= bottom)
+                && (bucket.minY <= top)) {
+                final int firstCell =
+                    Math.max(0, ((left - bucket.maxWidth) >> COLUMN_BITS)
+                        - bucket.firstColumn);
+                final int lastCell =
+                    Math.min(columns.length - 1, (right >> COLUMN_BITS)
+                        - bucket.firstColumn);
+                for (int c = firstCell; c <= lastCell; c++) {
+                    if (columns[c] != null) {
+                        visited += visit(columns[c]);
+                    }
+                }
+            }
+            visited += visit(bucket.unbounded);
+        }
+        visitedItems = visited;
+    }
+
+    /**
+     * Get the amount of items in this list.
+     * 
+     * @return the amount of items
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sort the buckets by their Z order. Buckets that are empty are dropped.
+     */
+    private void sortBuckets() {
+        final TIntObjectIterator<Bucket> itr = buckets.iterator();
+        while (itr.hasNext()) {
+            itr.advance();
+            if (itr.value().size == 0) {
+                itr.remove();
+            }
+        }
+
+        final int[] zOrders = buckets.keys();
+        Arrays.sort(zOrders);
+        if (order.length < zOrders.length) {
+            order = new Bucket[zOrders.length];
+        }
+        for (int i = 0; i < zOrders.length; i++) {
+            order[i] = buckets.get(zOrders[zOrders.length - 1 - i]);
+        }
+        for (int i = zOrders.length; i < orderCount; i++) {
+            order[i] = null;
+        }
+        orderCount = zOrders.length;
+        orderDirty = false;
+    }
+
+    /**
+     * Update and draw all items of one cell. The items receive all the time
+     * that passed since they were updated last.
+     * 
+     * @param cell the cell to visit
+     * @return the amount of visited items
+     */
+    private int visit(final Cell cell) {
+        int count = 0;
+        Entry entry = cell.first;
+        while (entry != null) {
+            final Entry next = entry.next;
+            final DisplayItem item = entry.item;
+            item.update((int) (time - entry.updated));
+            entry.updated = time;
+            item.draw();
+            entry = next;
+            count++;
+        }
+        return count;
+    }
+}
@@ -18,15 +18,16 @@
  */
 package illarion.client.graphics;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javolution.context.ObjectFactory;
-import javolution.util.FastTable;
 
-import illarion.client.graphics.particle.Particle;
 import illarion.client.graphics.particle.ParticlePool;
 import illarion.client.world.Game;
 import illarion.client.world.MapTile;
 
 import illarion.common.util.Location;
+import illarion.common.util.Rectangle;
 import illarion.common.util.Reusable;
 
 /**
@@ -98,9 +99,9 @@ public final class EffectPool implements DisplayItem, ParticlePool, Reusable {
     private MapTile parentTile;
 
     /**
-     * The list of particles that are a part of this pool.
+     * The amount of particles that are a part of this pool.
      */
-    private final FastTable<Particle> pool;
+    private final AtomicInteger particleCount;
 
     /**
      * A flag is the pool is currently shown on the display or not.
@@ -111,7 +112,7 @@ public final class EffectPool implements DisplayItem, ParticlePool, Reusable {
      * Create a new EffectPool.
      */
     EffectPool() {
-        pool = new FastTable<Particle>();
+        particleCount = new AtomicInteger();
     }
 
     /**
@@ -127,38 +128,26 @@ public final class EffectPool implements DisplayItem, ParticlePool, Reusable {
     }
 
     /**
-     * Add one particle to the pool. The render function of the particle will be
-     * triggered by this pool and so it will be at the same display layer as
+     * Add one particle to the pool. The particles of this pool are rendered
+     * when the pool is drawn, so they will be at the same display layer as
      * this pool. In case the first particle is added this pool is added to the
      * display list automatically.
-     * 
-     * @param addPart the particle that shall be added to the pool
      */
-    @SuppressWarnings("nls")
     @Override
-    public void addParticleToPool(final Particle addPart) {
-        if (addPart == null) {
-            throw new IllegalArgumentException(
-                "Added particle must not be null");
-        }
-        synchronized (pool) {
-            if (pool.isEmpty()) {
-                show();
-            }
-            pool.add(addPart);
+    public void addParticleToPool() {
+        if (particleCount.getAndIncrement() == 0) {
+            show();
         }
     }
 
     /**
      * Clean up the particle pool by killing all particles within this pool and
-     * throwing them out of the list back into the particle system.
+     * throwing them back into the particle system.
      */
     @Override
     public void clearPool() {
-        synchronized (pool) {
-            while (!pool.isEmpty()) {
-                pool.removeLast().kill();
-            }
+        if (particleCount.get() > 0) {
+            Game.getParticleSystem().removeParticles(this);
         }
         if (shown) {
             hide();
@@ -173,14 +162,24 @@ public final class EffectPool implements DisplayItem, ParticlePool, Reusable {
      */
     @Override
     public boolean draw() {
-        final int particleCount = pool.size();
-        for (int i = 0; i < particleCount; i++) {
-            pool.get(i).render();
+        if (particleCount.get() > 0) {
+            Game.getParticleSystem().render(this);
         }
-
         return true;
     }
 
+    /**
+     * The particles of this pool can be drawn anywhere on the display, so the
+     * area of the pool is not known.
+     * 
+     * @param area the rectangle that receives the area, it remains unchanged
+     * @return always <code>false</code>
+     */
+    @Override
+    public boolean getDisplayArea(final Rectangle area) {
+        return false;
+    }
+
     /**
      * Get the parent tile of this pool, so the map tile this particle pool was
      * created by.
@@ -228,17 +227,11 @@ public final class EffectPool implements DisplayItem, ParticlePool, Reusable {
      * Remove a particle from the pool. The particle will not be rendered
      * anymore out of this pool, also in case the last particle got removed the
      * pool is automatically removed from the display list.
-     * 
-     * @param remPart the particle that shall be removed from the list
      */
     @Override
-    public void removeParticleFromPool(final Particle remPart) {
-        synchronized (pool) {
-            pool.remove(remPart);
-
-            if (pool.isEmpty()) {
-                hide();
-            }
+    public void removeParticleFromPool() {
+        if (particleCount.decrementAndGet() == 0) {
+            hide();
         }
     }
 
@@ -288,7 +281,7 @@ public final class EffectPool implements DisplayItem, ParticlePool, Reusable {
      */
     @Override
     public void update(final int delta) {
-        if (pool.isEmpty()) {
+        if (particleCount.get() == 0) {
             hideOutSlowdown += delta;
             if (hideOutSlowdown >= HIDE_SLOWDOWN_FINISH) {
                 hide();
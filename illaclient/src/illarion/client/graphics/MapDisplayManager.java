@@ -18,15 +18,13 @@
  */
 package illarion.client.graphics;
 
-import javolution.util.FastComparator;
-import javolution.util.FastTable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.log4j.Logger;
 
 import illarion.client.ClientWindow;
 import illarion.client.graphics.particle.ParticlePool;
 import illarion.client.world.Game;
-import illarion.client.world.GameMap;
 
 import illarion.common.graphics.Layers;
 import illarion.common.graphics.MapConstants;
@@ -40,6 +38,13 @@ import illarion.graphics.SpriteColor;
  * The map display manager stores and manages all objects displayed on the map.
  * It takes care for rendering the objects in the proper order, for animations
  * of the entire map and it manages the current location of the avatar.
+ * <p>
+ * The display list is only accessed by the render thread. Adding, removing and
+ * reordering items from other threads is stored in a queue without any locking
+ * and applied by the render thread at the start of the next frame, so the
+ * frames are drawn from a list that is already sorted and that does not
+ * change while its drawn.
+ * </p>
  * 
  * @author Martin Karing
  * @author Nop
@@ -48,56 +53,58 @@ import illarion.graphics.SpriteColor;
  */
 public final class MapDisplayManager implements AnimatedMove {
     /**
-     * This comparator is used to order the display list in case it is needed.
+     * A change of the display list that waits to be applied by the render
+     * thread.
      * 
      * @author Martin Karing
      * @since 1.22
      * @version 1.22
      */
-    private static final class DisplayListComparator extends
-        FastComparator<DisplayItem> {
+    private static final class DisplayChange {
         /**
-         * The serialization UID.
+         * The item that is changed.
          */
-        private static final long serialVersionUID = 1L;
+        final DisplayItem item;
 
         /**
-         * Public constructor to allow the parent class creating instances.
+         * The type of the change. This is {@link #CHANGE_ADD},
+         * {@link #CHANGE_READD} or {@link #CHANGE_REMOVE}.
          */
-        public DisplayListComparator() {
-            // nothing to do
-        }
+        final int type;
 
         /**
-         * Test of two objects are equal. This returns <code>true</code> also in
-         * case both objects are <code>null</code>.
+         * Create a change of the display list.
+         * 
+         * @param changeItem the item that is changed
+         * @param changeType the type of the change
          */
-        @Override
-        public boolean areEqual(final DisplayItem o1, final DisplayItem o2) {
-            return (o1 == o2);
+        DisplayChange(final DisplayItem changeItem, final int changeType) {
+            item = changeItem;
+            type = changeType;
         }
+    }
 
-        /**
-         * Compare two instances of the object and there relative offset that is
-         * needed for ordering this objects.
-         */
-        @Override
-        public int compare(final DisplayItem o1, final DisplayItem o2) {
-            return (o2.getZOrder() - o1.getZOrder());
-        }
+    /**
+     * The type of the changes that add a item to the display list.
+     */
+    private static final int CHANGE_ADD = 0;
+
+    /**
+     * The type of the changes that sort a item into the display list again.
+     */
+    private static final int CHANGE_READD = 1;
+
+    /**
+     * The type of the changes that remove a item from the display list.
+     */
+    private static final int CHANGE_REMOVE = 2;
+
+    /**
+     * The amount of frames the frame time statistics are collected for before
+     * they are written to the log.
+     */
+    private static final int FRAME_STATS_INTERVAL = 1000;
 
-        /**
-         * Get the hash code of a object.
-         */
-        @Override
-        public int hashCodeOf(final DisplayItem obj) {
-            if (obj == null) {
-                return 0;
-            }
-            return obj.hashCode();
-        }
-    }
-    
     /**
      * The X coordinate of the center of the map. At this location the avatar is
      * displayed.
@@ -141,16 +148,28 @@ public final class MapDisplayManager implements AnimatedMove {
     @Deprecated
     private static final int MAP_GUI_BOTTOM_OVERLAP = 12;
 
-    boolean displayListDirty = false;
-
     private boolean active;
 
     // scrolling offset
     private final MoveAnimation ani;
 
+    /**
+     * The changes of the display list that were not applied yet.
+     */
+    private final ConcurrentLinkedQueue<DisplayChange> changes;
+
+    /**
+     * The amount of display list changes applied since the frame time
+     * statistics were written last.
+     */
+    private int changesApplied;
+
     private final FadingCorridor corridor;
-    private final FastTable<DisplayItem> display;
-    private final DisplayListComparator displayListComperator;
+
+    /**
+     * The display list. This list is only accessed by the render thread.
+     */
+    private final DisplayList display;
 
     private int dL;
     private int dX;
@@ -161,6 +180,35 @@ public final class MapDisplayManager implements AnimatedMove {
     private final SpriteColor fadeOutColor = Graphics.getInstance()
         .getSpriteColor();
 
+    /**
+     * The amount of frames rendered since the frame time statistics were
+     * written last.
+     */
+    private int frameCount;
+
+    /**
+     * The sum of the squared render times of the frames rendered since the
+     * frame time statistics were written last, in square microseconds.
+     */
+    private long frameTimeSquareSum;
+
+    /**
+     * The sum of the render times of the frames rendered since the frame time
+     * statistics were written last, in microseconds.
+     */
+    private long frameTimeSum;
+
+    /**
+     * The amount of display items visited since the frame time statistics
+     * were written last.
+     */
+    private long itemsVisited;
+
+    /**
+     * The time needed to render the last frame in nanoseconds.
+     */
+    private long lastFrameTime;
+
     private final MoveAnimation levelAni;
 
     private final Location origin;
@@ -175,9 +223,8 @@ public final class MapDisplayManager implements AnimatedMove {
         active = false;
         ani = new MoveAnimation(this);
 
-        display = new FastTable<DisplayItem>();
-        displayListComperator = new DisplayListComparator();
-        display.setValueComparator(displayListComperator);
+        changes = new ConcurrentLinkedQueue<DisplayChange>();
+        display = new DisplayList();
         corridor = FadingCorridor.getInstance();
         origin = new Location();
 
@@ -213,14 +260,7 @@ public final class MapDisplayManager implements AnimatedMove {
             return;
         }
 
-        synchronized (display) {
-            insertSorted(item);
-            // if (!display.add(item)) {
-            // LOGGER.warn("duplicate display entry " + item);
-            // } else {
-            // displayListDirty = true;
-            // }
-        }
+        changes.add(new DisplayChange(item, CHANGE_ADD));
     }
 
     /**
@@ -305,10 +345,53 @@ public final class MapDisplayManager implements AnimatedMove {
         // Game.getMap().clipMap();
     }
 
+    /**
+     * Apply all changes of the display list that were queued since the last
+     * frame. This must only be called by the render thread.
+     */
+    @SuppressWarnings("nls")
+    private void applyChanges() {
+        DisplayChange change = changes.poll();
+        while (change != null) {
+            switch (change.type) {
+                case CHANGE_ADD:
+                case CHANGE_READD:
+                    display.add(change.item);
+                    break;
+                case CHANGE_REMOVE:
+                    display.remove(change.item);
+                    break;
+                default:
+                    assert false : "Unknown display list change";
+            }
+            changesApplied++;
+            change = changes.poll();
+        }
+    }
+
     public int getElevation() {
         return elevation;
     }
 
+    /**
+     * Get the time needed to render the last frame of the map.
+     * 
+     * @return the render time of the last frame in nanoseconds
+     */
+    public long getFrameTime() {
+        return lastFrameTime;
+    }
+
+    /**
+     * Get the amount of display items that were updated and drawn in the last
+     * frame. Items outside of the viewport of the camera are not counted.
+     * 
+     * @return the amount of visited display items
+     */
+    public int getItemsVisited() {
+        return display.getVisitedItems();
+    }
+
     /**
      * Get the particle pool that is used to render the particles as overlay
      * over the entire map.
@@ -373,10 +456,45 @@ public final class MapDisplayManager implements AnimatedMove {
             return;
         }
 
-        synchronized (display) {
-            display.remove(item);
-            insertSorted(item);
+        changes.add(new DisplayChange(item, CHANGE_READD));
+    }
+
+    /**
+     * Add the render time of a frame to the frame time statistics. Once
+     * enough frames are collected, the mean frame time and its deviation are
+     * written to the log.
+     * 
+     * @param frameTime the time needed to render the frame in nanoseconds
+     */
+    @SuppressWarnings("nls")
+    private void recordFrameTime(final long frameTime) {
+        lastFrameTime = frameTime;
+        itemsVisited += display.getVisitedItems();
+        final long micros = frameTime / 1000L;
+        frameTimeSum += micros;
+        frameTimeSquareSum += micros * micros;
+        frameCount++;
+        if (frameCount < FRAME_STATS_INTERVAL) {
+            return;
         }
+
+        if (LOGGER.isDebugEnabled()) {
+            final double mean = (double) frameTimeSum / frameCount;
+            final double variance =
+                ((double) frameTimeSquareSum / frameCount) - (mean * mean);
+            LOGGER.debug("Rendered " + frameCount + " frames in "
+                + Math.round(mean) + "us (deviation "
+                + Math.round(Math.sqrt(Math.max(0.0, variance)))
+                + "us), applied " + changesApplied
+                + " display list changes, visited "
+                + (itemsVisited / frameCount) + " of " + display.size()
+                + " display items per frame");
+        }
+        frameCount = 0;
+        frameTimeSum = 0L;
+        frameTimeSquareSum = 0L;
+        changesApplied = 0;
+        itemsVisited = 0L;
     }
 
     /**
@@ -385,9 +503,7 @@ public final class MapDisplayManager implements AnimatedMove {
      * @param item
      */
     public void remove(final DisplayItem item) {
-        synchronized (display) {
-            display.remove(item);
-        }
+        changes.add(new DisplayChange(item, CHANGE_REMOVE));
     }
     
     public void render(final int delta) {
@@ -404,9 +520,12 @@ public final class MapDisplayManager implements AnimatedMove {
      */
     public void render(final int delta, final int width, final int height) {
         if (!active) {
+            applyChanges();
             return;
         }
 
+        final long frameStart = System.nanoTime();
+
         final int centerX = width >> 1;
         final int centerY = height >> 1;
 
@@ -423,18 +542,11 @@ public final class MapDisplayManager implements AnimatedMove {
 
         Camera.getInstance().setViewport(-offX, -offY, width, height + 100);
 
-        synchronized (display) {
-            DisplayItem currentItem;
-            synchronized (GameMap.LIGHT_LOCK) {
-                // draw all items
-                final int itemCount = display.size();
-                for (int i = 0; i < itemCount; i++) {
-                    currentItem = display.get(i);
-                    currentItem.update(delta);
-                    currentItem.draw();
-                }
-            }
-        }
+        applyChanges();
+        Game.getMap().publishLights();
+
+        // draw all items
+        display.render(delta, Camera.getInstance());
 
         overlayParticlePool.draw();
 
@@ -446,6 +558,8 @@ public final class MapDisplayManager implements AnimatedMove {
 
             DRAWER.drawRectangle(0, 0, width, height, fadeOutColor);
         }
+
+        recordFrameTime(System.nanoTime() - frameStart);
     }
 
     /**
@@ -535,29 +649,4 @@ public final class MapDisplayManager implements AnimatedMove {
         sayText(tempLoc.getDcX(), tempLoc.getDcY(), text, mode);
         tempLoc.recycle();
     }
-
-    private void insertSorted(final DisplayItem item) {
-        int currentStart = 0;
-        int currentEnd = display.size() - 1;
-        int middle;
-        DisplayItem foundItem;
-        int compareResult;
-
-        while (currentStart <= currentEnd) {
-            middle = currentStart + ((currentEnd - currentStart) >> 1);
-            foundItem = display.get(middle);
-            compareResult = displayListComperator.compare(foundItem, item);
-
-            if (compareResult < 0) {
-                currentStart = middle + 1;
-            } else if (compareResult > 0) {
-                currentEnd = middle - 1;
-            } else {
-                display.add(middle, item);
-                return;
-            }
-        }
-
-        display.add(currentStart, item);
-    }
 }
@@ -18,13 +18,10 @@
  */
 package illarion.client.graphics;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javolution.util.FastTable;
-
-import illarion.client.graphics.particle.Particle;
 import illarion.client.graphics.particle.ParticlePool;
+import illarion.client.world.Game;
 
 /**
  * This special particle pool is rendered on top of everything else. Its used
@@ -36,35 +33,24 @@ import illarion.client.graphics.particle.ParticlePool;
  */
 public final class OverlayPool implements ParticlePool {
     /**
-     * The list of particles that are a part of this pool.
-     */
-    private final FastTable<Particle> pool;
-
-    /**
-     * This is the lock used to protect the access on the pool.
+     * The amount of particles that are a part of this pool.
      */
-    private final ReadWriteLock poolLock;
+    private final AtomicInteger particleCount;
 
     /**
      * Create a new instance of the overlay pool. That should only be done by
      * the map display manager that takes care of rendering the map.
      */
     OverlayPool() {
-        pool = new FastTable<Particle>();
-        poolLock = new ReentrantReadWriteLock();
+        particleCount = new AtomicInteger();
     }
 
     /**
      * Add a single particle to the pool of particles.
      */
     @Override
-    public void addParticleToPool(final Particle addPart) {
-        poolLock.writeLock().lock();
-        try {
-            pool.add(addPart);
-        } finally {
-            poolLock.writeLock().unlock();
-        }
+    public void addParticleToPool() {
+        particleCount.incrementAndGet();
     }
 
     /**
@@ -72,13 +58,8 @@ public final class OverlayPool implements ParticlePool {
      */
     @Override
     public void clearPool() {
-        poolLock.writeLock().lock();
-        try {
-            while (!pool.isEmpty()) {
-                pool.removeLast().kill();
-            }
-        } finally {
-            poolLock.writeLock().unlock();
+        if (particleCount.get() > 0) {
+            Game.getParticleSystem().removeParticles(this);
         }
     }
 
@@ -86,31 +67,18 @@ public final class OverlayPool implements ParticlePool {
      * Draw all particles assigned to this pool.
      */
     public void draw() {
-        final int particleCount = pool.size();
-        if (particleCount == 0) {
+        if (particleCount.get() == 0) {
             return;
         }
-        poolLock.readLock().lock();
-        try {
-            for (int i = 0; i < particleCount; i++) {
-                pool.get(i).render();
-            }
-        } finally {
-            poolLock.readLock().unlock();
-        }
+        Game.getParticleSystem().render(this);
     }
 
     /**
      * Remove one particle from this pool that won't be rendered any longer.
      */
     @Override
-    public void removeParticleFromPool(final Particle remPart) {
-        poolLock.writeLock().lock();
-        try {
-            pool.remove(remPart);
-        } finally {
-            poolLock.writeLock().unlock();
-        }
+    public void removeParticleFromPool() {
+        particleCount.decrementAndGet();
     }
 
 }
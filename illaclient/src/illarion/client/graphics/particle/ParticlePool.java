@@ -28,12 +28,10 @@ package illarion.client.graphics.particle;
  */
 public interface ParticlePool {
     /**
-     * Add a particle to this pool. All particles are rendered at the very same
-     * time.
-     * 
-     * @param addPart the particle that shall be added to this particle pool
+     * Notify the pool that a particle was assigned to it. The particle system
+     * renders all particles of a pool when the pool is drawn.
      */
-    void addParticleToPool(Particle addPart);
+    void addParticleToPool();
 
     /**
      * Clearing the pool means no particles are drawn anymore from this pool and
@@ -42,12 +40,9 @@ public interface ParticlePool {
     void clearPool();
 
     /**
-     * Remove a particle from this pool. This needs to be done in case a
-     * particle changes to pool as it happens when particles on the map move
-     * across tiles. Also this needs to be done in case a particle dies and a
-     * new one needs to be set up.
-     * 
-     * @param remPart the particle that shall be removed from this pool
+     * Notify the pool that a particle was removed from it. This happens in
+     * case a particle changes to pool as it happens when particles on the map
+     * move across tiles. Also this happens in case a particle dies.
      */
-    void removeParticleFromPool(Particle remPart);
+    void removeParticleFromPool();
 }
@@ -18,9 +18,21 @@
  */
 package illarion.client.graphics.particle;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javolution.context.ConcurrentContext;
+import gnu.trove.list.array.TIntArrayList;
+
+import javolution.util.FastMap;
 import javolution.util.FastTable;
 
 import org.apache.log4j.Logger;
@@ -30,12 +42,34 @@ import illarion.client.graphics.particle.emitter.AbstractParticleEmitter;
 /**
  * The ParticleSystem causes the general updates of all particles and manages
  * the currently existing emitters.
+ * <p>
+ * The particles are not objects. All values of the particles are stored in
+ * arrays and a particle is addressed by its index in this arrays. Dead
+ * particles are removed by moving the last particle into their place, so the
+ * index of a particle is only valid until the next update of the system.
+ * </p>
+ * <p>
+ * To render the particles of a pool without looking at all particles, the
+ * indices of the particles are sorted into one bucket for each pool. This is
+ * done once the first pool is rendered after the particles changed.
+ * </p>
  * 
  * @author Martin Karing
  * @since 1.22
  * @version 1.22
  */
 public final class ParticleSystem {
+    /**
+     * The amount of particles updated at once by one worker.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * The amount of particles the arrays are able to store when the system is
+     * created.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
     /**
      * The logger instance that takes care for the logging output of this class.
      */
@@ -43,15 +77,108 @@ public final class ParticleSystem {
         .getLogger(ParticleSystem.class);
 
     /**
-     * The particle factory that is used to create and store the particles.
+     * The indices of the particles sorted by the pool they are rendered by.
+     */
+    private final FastMap<ParticlePool, TIntArrayList> buckets;
+
+    /**
+     * This flag is <code>true</code> in case the buckets contain the current
+     * indices of all particles.
+     */
+    private boolean bucketsValid;
+
+    /**
+     * The amount of particles that are currently in use.
+     */
+    private int count;
+
+    /**
+     * The flags that mark the particles that died during the current update.
+     */
+    private boolean[] dead;
+
+    /**
+     * The emitters that control the particles.
+     */
+    private AbstractParticleEmitter[] emitters;
+
+    /**
+     * The buckets that are currently not assigned to a pool. They are reused
+     * when the buckets are filled again.
+     */
+    private final FastTable<TIntArrayList> freeBuckets;
+
+    /**
+     * The lifetime of the particles.
+     */
+    private int[] lifetime;
+
+    /**
+     * The index of the first particle of the next chunk that is updated.
+     */
+    private final AtomicInteger nextChunk;
+
+    /**
+     * The pools the particles are rendered by.
+     */
+    private ParticlePool[] pools;
+
+    /**
+     * The X coordinates of the particle positions.
      */
-    private final ParticleFactory particleFactory;
+    private float[] posX;
 
     /**
-     * The list of particles that are currently in use. When updating all this
-     * particles need to be updated.
+     * The Y coordinates of the particle positions.
      */
-    private final FastTable<Particle> particleInUse;
+    private float[] posY;
+
+    /**
+     * The Z coordinates of the particle positions.
+     */
+    private float[] posZ;
+
+    /**
+     * The size of the particles.
+     */
+    private float[] size;
+
+    /**
+     * The speed of the particles along the X axis.
+     */
+    private float[] speedX;
+
+    /**
+     * The speed of the particles along the Y axis.
+     */
+    private float[] speedY;
+
+    /**
+     * The speed of the particles along the Z axis.
+     */
+    private float[] speedZ;
+
+    /**
+     * The amount of particles that are handled by the current update.
+     */
+    private int updateCount;
+
+    /**
+     * The time since the last update, used by the current update.
+     */
+    private int updateDelta;
+
+    /**
+     * The task that is executed by each worker during a update. It updates
+     * chunks of particles until all particles are done.
+     */
+    private final List<Callable<Object>> updateTasks;
+
+    /**
+     * The executor that updates the particles in parallel. This is
+     * <code>null</code> in case there is only one processor available.
+     */
+    private final ExecutorService workers;
 
     /**
      * The list of emitters that are currently working.
@@ -63,9 +190,51 @@ public final class ParticleSystem {
      * ParticleSystem that handles Emitters and particles.
      */
     public ParticleSystem() {
-        particleInUse = new FastTable<Particle>();
         workingEmitters = new FastTable<AbstractParticleEmitter>();
-        particleFactory = new ParticleFactory(this);
+        buckets = new FastMap<ParticlePool, TIntArrayList>();
+        freeBuckets = new FastTable<TIntArrayList>();
+        nextChunk = new AtomicInteger();
+
+        dead = new boolean[INITIAL_CAPACITY];
+        emitters = new AbstractParticleEmitter[INITIAL_CAPACITY];
+        lifetime = new int[INITIAL_CAPACITY];
+        pools = new ParticlePool[INITIAL_CAPACITY];
+        posX = new float[INITIAL_CAPACITY];
+        posY = new float[INITIAL_CAPACITY];
+        posZ = new float[INITIAL_CAPACITY];
+        size = new float[INITIAL_CAPACITY];
+        speedX = new float[INITIAL_CAPACITY];
+        speedY = new float[INITIAL_CAPACITY];
+        speedZ = new float[INITIAL_CAPACITY];
+
+        final int workerCount = Runtime.getRuntime().availableProcessors();
+        if (workerCount > 1) {
+            workers =
+                Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread =
+                            new Thread(r, "ParticleSystem Worker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+            final Callable<Object> task = new Callable<Object>() {
+                @Override
+                public Object call() {
+                    updateChunks();
+                    return null;
+                }
+            };
+            updateTasks = new ArrayList<Callable<Object>>(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                updateTasks.add(task);
+            }
+        } else {
+            workers = null;
+            updateTasks = null;
+        }
     }
 
     /**
@@ -78,13 +247,103 @@ public final class ParticleSystem {
         workingEmitters.add(newEmitter);
     }
 
+    /**
+     * Get the lifetime of a particle.
+     * 
+     * @param index the index of the particle
+     * @return the lifetime of the particle
+     */
+    public int getLifetime(final int index) {
+        return lifetime[index];
+    }
+
     /**
      * Get the amount of particles that are currently active.
      * 
      * @return the amount of active particles
      */
     public int getParticleCount() {
-        return particleInUse.size();
+        return count;
+    }
+
+    /**
+     * Get the pool a particle is rendered by.
+     * 
+     * @param index the index of the particle
+     * @return the pool of the particle or <code>null</code>
+     */
+    public ParticlePool getPool(final int index) {
+        return pools[index];
+    }
+
+    /**
+     * Get the X coordinate of the position of a particle.
+     * 
+     * @param index the index of the particle
+     * @return the X coordinate
+     */
+    public float getPosX(final int index) {
+        return posX[index];
+    }
+
+    /**
+     * Get the Y coordinate of the position of a particle.
+     * 
+     * @param index the index of the particle
+     * @return the Y coordinate
+     */
+    public float getPosY(final int index) {
+        return posY[index];
+    }
+
+    /**
+     * Get the Z coordinate of the position of a particle.
+     * 
+     * @param index the index of the particle
+     * @return the Z coordinate
+     */
+    public float getPosZ(final int index) {
+        return posZ[index];
+    }
+
+    /**
+     * Get the size of a particle.
+     * 
+     * @param index the index of the particle
+     * @return the size of the particle
+     */
+    public float getSize(final int index) {
+        return size[index];
+    }
+
+    /**
+     * Get the speed of a particle along the X axis.
+     * 
+     * @param index the index of the particle
+     * @return the speed along the X axis
+     */
+    public float getSpeedX(final int index) {
+        return speedX[index];
+    }
+
+    /**
+     * Get the speed of a particle along the Y axis.
+     * 
+     * @param index the index of the particle
+     * @return the speed along the Y axis
+     */
+    public float getSpeedY(final int index) {
+        return speedY[index];
+    }
+
+    /**
+     * Get the speed of a particle along the Z axis.
+     * 
+     * @param index the index of the particle
+     * @return the speed along the Z axis
+     */
+    public float getSpeedZ(final int index) {
+        return speedZ[index];
     }
 
     /**
@@ -97,13 +356,142 @@ public final class ParticleSystem {
     }
 
     /**
-     * Get a particle object. Either take one out of the storage or create a new
-     * particle.
+     * Remove all particles that are rendered by one pool.
+     * 
+     * @param pool the pool
+     */
+    public void removeParticles(final ParticlePool pool) {
+        int i = 0;
+        while (i < count) {
+            if (pools[i] == pool) {
+                removeParticle(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Render all particles that are rendered by one pool.
+     * 
+     * @param pool the pool
+     */
+    public void render(final ParticlePool pool) {
+        if (!bucketsValid) {
+            fillBuckets();
+        }
+        final TIntArrayList bucket = buckets.get(pool);
+        if (bucket == null) {
+            return;
+        }
+        final int particles = bucket.size();
+        for (int i = 0; i < particles; i++) {
+            final int index = bucket.getQuick(i);
+            emitters[index].render(index);
+        }
+    }
+
+    /**
+     * Set the lifetime of a particle.
+     * 
+     * @param index the index of the particle
+     * @param newLifetime the new lifetime
+     */
+    public void setLifetime(final int index, final int newLifetime) {
+        lifetime[index] = newLifetime;
+    }
+
+    /**
+     * Set the position of a particle.
+     * 
+     * @param index the index of the particle
+     * @param newPosX the new X coordinate
+     * @param newPosY the new Y coordinate
+     * @param newPosZ the new Z coordinate
+     */
+    public void setLocation(final int index, final float newPosX,
+        final float newPosY, final float newPosZ) {
+        posX[index] = newPosX;
+        posY[index] = newPosY;
+        posZ[index] = newPosZ;
+    }
+
+    /**
+     * Set the pool that renders a particle.
      * 
-     * @return the particle that can be used now
+     * @param index the index of the particle
+     * @param newPool the new pool of the particle
      */
-    public Particle requestParticle() {
-        return particleFactory.object();
+    public void setPool(final int index, final ParticlePool newPool) {
+        final ParticlePool oldPool = pools[index];
+        if (oldPool == newPool) {
+            return;
+        }
+        pools[index] = newPool;
+        bucketsValid = false;
+        if (oldPool != null) {
+            oldPool.removeParticleFromPool();
+        }
+        if (newPool != null) {
+            newPool.addParticleToPool();
+        }
+    }
+
+    /**
+     * Set the size of a particle. Values that are not greater then zero are
+     * ignored.
+     * 
+     * @param index the index of the particle
+     * @param newSize the new size
+     */
+    public void setSize(final int index, final float newSize) {
+        if (newSize > 0) {
+            size[index] = newSize;
+        }
+    }
+
+    /**
+     * Set the speed of a particle.
+     * 
+     * @param index the index of the particle
+     * @param newSpeedX the new speed along the X axis
+     * @param newSpeedY the new speed along the Y axis
+     * @param newSpeedZ the new speed along the Z axis
+     */
+    public void setSpeed(final int index, final float newSpeedX,
+        final float newSpeedY, final float newSpeedZ) {
+        speedX[index] = newSpeedX;
+        speedY[index] = newSpeedY;
+        speedZ[index] = newSpeedZ;
+    }
+
+    /**
+     * Stop the workers of this particle system. The system must not be updated
+     * anymore after this.
+     */
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Create a new particle. All values of the new particle are zero until
+     * the emitter sets them. The index is valid until the next update of the
+     * system.
+     * 
+     * @param emitter the emitter that controls the new particle
+     * @return the index of the new particle
+     */
+    public int spawnParticle(final AbstractParticleEmitter emitter) {
+        if (count == emitters.length) {
+            grow();
+        }
+        final int index = count;
+        emitters[index] = emitter;
+        count++;
+        bucketsValid = false;
+        return index;
     }
 
     /**
@@ -118,112 +506,166 @@ public final class ParticleSystem {
             workingEmitters.get(i).updateEmitter(delta);
         }
 
-        update(delta, particleInUse);
+        if (count == 0) {
+            return;
+        }
+
+        bucketsValid = false;
+        updateDelta = delta;
+        updateCount = count;
+        nextChunk.set(0);
+        if ((workers == null) || (count <= CHUNK_SIZE)
+            || !updateParallel()) {
+            updateChunks();
+        }
+
+        int i = 0;
+        while (i < count) {
+            if (dead[i]) {
+                removeParticle(i);
+            } else {
+                i++;
+            }
+        }
     }
 
     /**
-     * Activate a particle so its handled by the particle system.
-     * 
-     * @param part the particle to activate
+     * Sort the indices of all particles into the buckets of their pools. The
+     * buckets of pools that have no particles anymore are kept for reuse.
      */
-    void activateParticle(final Particle part) {
-        particleInUse.add(part);
+    private void fillBuckets() {
+        freeBuckets.addAll(buckets.values());
+        buckets.clear();
+
+        final int particles = count;
+        for (int i = 0; i < particles; i++) {
+            final ParticlePool pool = pools[i];
+            if (pool == null) {
+                continue;
+            }
+            TIntArrayList bucket = buckets.get(pool);
+            if (bucket == null) {
+                if (freeBuckets.isEmpty()) {
+                    bucket = new TIntArrayList();
+                } else {
+                    bucket = freeBuckets.removeLast();
+                    bucket.resetQuick();
+                }
+                buckets.put(pool, bucket);
+            }
+            bucket.add(i);
+        }
+        bucketsValid = true;
     }
 
     /**
-     * This is the special update implementation that is used to update all
-     * particles that are currently active in the particle system concurrent.
+     * Double the capacity of the arrays that store the particles.
+     */
+    private void grow() {
+        final int capacity = emitters.length * 2;
+        dead = Arrays.copyOf(dead, capacity);
+        emitters = Arrays.copyOf(emitters, capacity);
+        lifetime = Arrays.copyOf(lifetime, capacity);
+        pools = Arrays.copyOf(pools, capacity);
+        posX = Arrays.copyOf(posX, capacity);
+        posY = Arrays.copyOf(posY, capacity);
+        posZ = Arrays.copyOf(posZ, capacity);
+        size = Arrays.copyOf(size, capacity);
+        speedX = Arrays.copyOf(speedX, capacity);
+        speedY = Arrays.copyOf(speedY, capacity);
+        speedZ = Arrays.copyOf(speedZ, capacity);
+    }
+
+    /**
+     * Remove a particle. The last particle is moved into the place of the
+     * removed particle.
      * 
-     * @param delta the time since the last update
-     * @param list the list of particles that is handled
+     * @param index the index of the particle to remove
      */
-    void update(final int delta, final FastTable<Particle> list) {
-        final int size = list.size();
-        if (size == 0) {
-            return;
-        }
-        if (size < 100) {
-            // in case there are less then 100 particles in the list: just
-            // perform the update!
-            final FastTable<Particle> result = FastTable.newInstance();
-            Particle currentPart;
-            for (int i = 0; i < size; i++) {
-                currentPart = list.get(i);
-                if (currentPart.update(delta)) {
-                    result.add(currentPart);
-                } else {
-                    currentPart.clean();
-                    particleFactory.recycle(currentPart);
-                }
-            }
+    private void removeParticle(final int index) {
+        final AbstractParticleEmitter emitter = emitters[index];
+        final ParticlePool pool = pools[index];
 
-            // Only update the entire old list in case there were any changes
-            // done to this list.
-            final int resultSize = result.size();
-            if (size > resultSize) {
-                for (int i = 0; i < resultSize; i++) {
-                    list.set(i, result.get(i));
-                }
-                while (list.size() > resultSize) {
-                    list.removeLast();
-                }
-            }
-            FastTable.recycle(result);
-        } else {
-            // Split the particle list in two parts and operate on each part
-            // independent.
-            final FastTable<Particle> table1 = FastTable.newInstance();
-            final FastTable<Particle> table2 = FastTable.newInstance();
-
-            ConcurrentContext.enter();
-            try {
-                ConcurrentContext.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        table1.addAll(list.subList(0, size / 2));
-                        update(delta, table1); // Recursive.
-                    }
-                });
-                ConcurrentContext.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        table2.addAll(list.subList(size / 2, size));
-                        update(delta, table2); // Recursive.
-                    }
-                });
-            } finally {
-                ConcurrentContext.exit();
-            }
+        count--;
+        bucketsValid = false;
+        final int last = count;
+        dead[index] = dead[last];
+        emitters[index] = emitters[last];
+        lifetime[index] = lifetime[last];
+        pools[index] = pools[last];
+        posX[index] = posX[last];
+        posY[index] = posY[last];
+        posZ[index] = posZ[last];
+        size[index] = size[last];
+        speedX[index] = speedX[last];
+        speedY[index] = speedY[last];
+        speedZ[index] = speedZ[last];
 
-            final int table1Size = table1.size();
-            final int table2Size = table2.size();
+        dead[last] = false;
+        emitters[last] = null;
+        lifetime[last] = 0;
+        pools[last] = null;
+        posX[last] = 0.f;
+        posY[last] = 0.f;
+        posZ[last] = 0.f;
+        size[last] = 0.f;
+        speedX[last] = 0.f;
+        speedY[last] = 0.f;
+        speedZ[last] = 0.f;
 
-            if (size > (table1Size + table2Size)) {
-                for (int i = 0; i < table1Size; i++) {
-                    list.set(i, table1.get(i));
-                }
-                for (int i = 0; i < table2Size; i++) {
-                    list.set(i + table1Size, table2.get(i));
-                }
-                while (list.size() > (table1Size + table2Size)) {
-                    list.removeLast();
-                }
-            }
+        emitter.particleDied();
+        if (pool != null) {
+            pool.removeParticleFromPool();
+        }
+    }
 
-            table1.clear();
-            table2.clear();
-            FastTable.recycle(table1);
-            FastTable.recycle(table2);
+    /**
+     * Update chunks of particles until all particles of the current update are
+     * done. This is called by the workers and the thread that runs the update
+     * at the same time.
+     */
+    void updateChunks() {
+        final int particles = updateCount;
+        final int delta = updateDelta;
+        int start = nextChunk.getAndAdd(CHUNK_SIZE);
+        while (start < particles) {
+            final int end = Math.min(particles, start + CHUNK_SIZE);
+            for (int i = start; i < end; i++) {
+                dead[i] = !emitters[i].updateParticle(i, delta);
+            }
+            start = nextChunk.getAndAdd(CHUNK_SIZE);
         }
     }
 
     /**
-     * Put a particle back into the storage so the object is used again later.
+     * Update the particles using the workers.
      * 
-     * @param part the particle that is not in use anymore
+     * @return <code>true</code> in case the workers updated all particles
      */
-    protected void recycle(final Particle part) {
-        particleInUse.remove(part);
-        particleFactory.recycle(part);
+    @SuppressWarnings("nls")
+    private boolean updateParallel() {
+        try {
+            final int chunks = ((updateCount - 1) / CHUNK_SIZE) + 1;
+            final List<Future<Object>> results =
+                workers.invokeAll(updateTasks.subList(0,
+                    Math.min(updateTasks.size(), chunks)));
+            for (final Future<Object> result : results) {
+                result.get();
+            }
+            return true;
+        } catch (final RejectedExecutionException e) {
+            LOGGER.debug("Workers shut down, updating directly", e);
+        } catch (final InterruptedException e) {
+            LOGGER.debug("Interrupted while updating the particles", e);
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Updating the particles failed",
+                cause);
+        }
+        return false;
     }
 }
@@ -18,7 +18,6 @@
  */
 package illarion.client.graphics.particle.emitter;
 
-import illarion.client.graphics.particle.Particle;
 import illarion.client.graphics.particle.ParticleSystem;
 
 /**
@@ -57,7 +56,12 @@ public abstract class AbstractParticleEmitter {
         particleCount--;
     }
 
-    public abstract void render(final Particle renderParticle);
+    /**
+     * Render a particle controlled by this emitter.
+     * 
+     * @param index the index of the particle in the particle system
+     */
+    public abstract void render(final int index);
 
     /**
      * Update the Emitter. Sending out more particles is done by this.
@@ -66,13 +70,15 @@ public abstract class AbstractParticleEmitter {
 
     /**
      * Update a particle. Updating the location of the particle is done by this.
+     * This is called by multiple threads at the same time for different
+     * particles, so its only allowed to change the values of the particle
+     * itself.
      * 
-     * @param updateParticle the particle that needs to be updated
+     * @param index the index of the particle in the particle system
      * @param delta the time in ms since the last update
      * @return true in case the particle stays alive, false if not
      */
-    public abstract boolean updateParticle(final Particle updateParticle,
-        final int delta);
+    public abstract boolean updateParticle(final int index, final int delta);
 
     protected void setLocation(final float x, final float y, final float z) {
     }
@@ -18,7 +18,6 @@
  */
 package illarion.client.graphics.particle.emitter;
 
-import illarion.client.graphics.particle.Particle;
 import illarion.client.graphics.particle.ParticleSystem;
 
 import illarion.common.util.Location;
@@ -56,10 +55,10 @@ public final class SmokeEmitter extends AbstractParticleEmitter {
      * 
      * @see
      * illarion.client.graphics.particle.emitter.AbstractParticleEmitter#render
-     * (illarion.client.graphics.particle.Particle)
+     * (int)
      */
     @Override
-    public void render(final Particle renderParticle) {
+    public void render(final int index) {
         // TODO Auto-generated method stub
 
     }
@@ -90,11 +89,10 @@ public final class SmokeEmitter extends AbstractParticleEmitter {
      * (non-Javadoc)
      * 
      * @see illarion.client.graphics.particle.emitter.AbstractParticleEmitter#
-     * updateParticle(illarion.client.graphics.particle.Particle, int)
+     * updateParticle(int, int)
      */
     @Override
-    public boolean updateParticle(final Particle updateParticle,
-        final int delta) {
+    public boolean updateParticle(final int index, final int delta) {
         // TODO Auto-generated method stub
         return false;
     }
@@ -21,7 +21,7 @@ package illarion.client.graphics.particle.emitter;
 import java.util.Random;
 
 import illarion.client.graphics.Camera;
-import illarion.client.graphics.particle.Particle;
+import illarion.client.graphics.particle.ParticlePool;
 import illarion.client.graphics.particle.ParticleSystem;
 import illarion.client.world.Game;
 import illarion.client.world.Weather;
@@ -146,24 +146,23 @@ public final class WeatherRainEmitter2 extends AbstractParticleEmitter {
      * (non-Javadoc)
      * 
      * @see
-     * illarion.client.graphics.particle.AbstractParticleEmitter#render(illarion
-     * .client.graphics.particle.Particle)
+     * illarion.client.graphics.particle.AbstractParticleEmitter#render(int)
      */
     @Override
-    public void render(final Particle renderParticle) {
+    public void render(final int index) {
         if (!renderRain) {
             return;
         }
 
         final Drawer drawer = Graphics.getInstance().getDrawer();
 
-        final int posX = (int) renderParticle.getPosX();
-        final int posY = (int) renderParticle.getPosY();
+        final int posX = (int) system.getPosX(index);
+        final int posY = (int) system.getPosY(index);
 
-        final int partSpeedX = (int) renderParticle.getSpeedX();
-        final int partSpeedY = (int) renderParticle.getSpeedY();
+        final int partSpeedX = (int) system.getSpeedX(index);
+        final int partSpeedY = (int) system.getSpeedY(index);
 
-        final float width = renderParticle.getSize();
+        final float width = system.getSize(index);
 
         final int targetX = posX + partSpeedX;
         final int targetY = posY + partSpeedY;
@@ -171,7 +170,7 @@ public final class WeatherRainEmitter2 extends AbstractParticleEmitter {
         drawer.drawLine(posX, posY, targetX, targetY, width, rainColor);
 
         // draw the splash in case it hits the ground
-        if (renderParticle.getLifetime() == 0) {
+        if (system.getLifetime(index) == 0) {
             drawer.drawLine(posX, posY, posX + splashSize, posY + splashSize,
                 width, rainColor);
             drawer.drawLine(posX, posY, posX - splashSize, posY + splashSize,
@@ -251,20 +250,19 @@ public final class WeatherRainEmitter2 extends AbstractParticleEmitter {
 
         final float initialSize =
             DROP_SIZE.getInterpolated(percStrength) / DROP_SIZE_DIV;
+        final ParticlePool overlayPool =
+            Game.getDisplay().getOverlayParticlePool();
 
         for (int i = 0; i < spawnDrops; ++i) {
             final int startX = rnd.nextInt(viewportWidth) + offsetX;
             final int targetY = rnd.nextInt(viewportHeight) + offsetY;
 
-            final Particle addedPart = system.requestParticle();
-            addedPart.setSize(initialSize);
-            addedPart.setLocation(startX, viewportHeight + offsetY, 0);
-            addedPart.setSpeed(speedX, speedY, 0);
-            addedPart.insertIntoPool(Game.getDisplay()
-                .getOverlayParticlePool());
-            addedPart.setLifetime(targetY);
-            addedPart.bind(this);
-            addedPart.activate();
+            final int drop = system.spawnParticle(this);
+            system.setSize(drop, initialSize);
+            system.setLocation(drop, startX, viewportHeight + offsetY, 0);
+            system.setSpeed(drop, speedX, speedY, 0);
+            system.setPool(drop, overlayPool);
+            system.setLifetime(drop, targetY);
             particleCount++;
         }
     }
@@ -273,34 +271,33 @@ public final class WeatherRainEmitter2 extends AbstractParticleEmitter {
      * Move a rain drop along its path and render it on the next location. In
      * case it hits the ground the particle needs to be removed.
      * 
-     * @param updateParticle the particle that needs to be updated
+     * @param index the index of the particle that needs to be updated
      * @param delta the time since the last update
      * @return <code>true</code> in case the particle stays alive,
      *         <code>false</code> if not
      */
     @Override
-    public boolean updateParticle(final Particle updateParticle,
-        final int delta) {
-        if (!renderRain || (updateParticle.getLifetime() == 0)) {
+    public boolean updateParticle(final int index, final int delta) {
+        if (!renderRain || (system.getLifetime(index) == 0)) {
             return false;
         }
         final float timeMod = delta / 50.f;
 
-        final float lifetime = updateParticle.getLifetime();
+        final float lifetime = system.getLifetime(index);
 
         // current location
-        final float posX = updateParticle.getPosX();
-        final float posY = updateParticle.getPosY();
+        final float posX = system.getPosX(index);
+        final float posY = system.getPosY(index);
 
-        final float partSpeedX = updateParticle.getSpeedX();
-        final float partSpeedY = updateParticle.getSpeedY();
+        final float partSpeedX = system.getSpeedX(index);
+        final float partSpeedY = system.getSpeedY(index);
 
         float newPosX = posX - (partSpeedX * timeMod);
         float newPosY = posY - (partSpeedY * timeMod);
 
         if (newPosY < lifetime) {
             newPosY = lifetime;
-            updateParticle.setLifetime(0);
+            system.setLifetime(index, 0);
         }
 
         final int viewportWidth = Camera.getInstance().getViewportWidth();
@@ -312,7 +309,7 @@ public final class WeatherRainEmitter2 extends AbstractParticleEmitter {
             newPosX = newPosX - viewportWidth;
         }
 
-        updateParticle.setLocation(newPosX, newPosY, 0);
+        system.setLocation(index, newPosX, newPosY, 0);
 
         return true;
     }
@@ -0,0 +1,536 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+
+import org.apache.log4j.Logger;
+
+import illarion.client.Debug;
+import illarion.client.IllaClient;
+
+/**
+ * The frame decoder splits the byte stream received from the server into the
+ * single message frames. The received data is stored in a growing buffer that
+ * is only compacted in case the free space at its end runs out, searching the
+ * start of a frame after invalid data only moves the read cursor. Every
+ * complete frame is provided as read only view on the buffer that is read
+ * using the {@link NetCommReader} functions of this class.
+ *
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class FrameDecoder implements NetCommReader {
+    /**
+     * The XOR mask the command ID is masked with to decode the checking ID and
+     * ensure that the start of a command was found.
+     */
+    private static final int COMMAND_XOR_MASK = 0xFF;
+
+    /**
+     * The initial length of the byte buffer used to store the data from the
+     * server.
+     */
+    private static final int INITIAL_LENGTH = 10000;
+
+    /**
+     * The initial length of the buffer used to decode strings.
+     */
+    private static final int INITIAL_STRING_LENGTH = 255;
+
+    /**
+     * The instance of the logger that is used to write out the data.
+     */
+    private static final Logger LOGGER = Logger.getLogger(FrameDecoder.class);
+
+    /**
+     * The minimal amount of free bytes at the end of the buffer that are
+     * required before new data is read from the channel. In case less bytes
+     * are free, the buffer is compacted or enlarged.
+     */
+    private static final int MIN_READ_SPACE = 1024;
+
+    /**
+     * Time the decoder waits for more data before throwing away the incomplete
+     * frame it already got.
+     */
+    private static final int RECEIVER_TIMEOUT = 1000;
+
+    /**
+     * The buffer that stores the bytes received from the server. The bytes
+     * between {@link #readIndex} and {@link #writeIndex} are not decoded yet.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The channel that receives a copy of all bytes read from the server. In
+     * case this is <code>null</code> nothing is captured.
+     */
+    private WritableByteChannel capture;
+
+    /**
+     * The checksum of the frame at the read index. Its calculated while the
+     * data of the frame is received.
+     */
+    private final NetChecksum checksum;
+
+    /**
+     * The amount of bytes of the frame at the read index that were already
+     * added to the checksum.
+     */
+    private int checksummedBytes;
+
+    /**
+     * The decoder that is used to decode the strings that are send to the
+     * client by the server.
+     */
+    private final CharsetDecoder decoder;
+
+    /**
+     * The buffer that is used to temporary store the decoded characters that
+     * were send to the player.
+     */
+    private CharBuffer decodingBuffer;
+
+    /**
+     * The read only view on the buffer that covers the frame that is currently
+     * decoded.
+     */
+    private ByteBuffer frame;
+
+    /**
+     * The ID of the frame that is currently decoded.
+     */
+    private int frameId;
+
+    /**
+     * The amount of bytes that were skipped since the decoding started because
+     * they did not belong to any valid frame.
+     */
+    private long skippedBytes;
+
+    /**
+     * The index of the first byte in the buffer that was not decoded yet.
+     */
+    private int readIndex;
+
+    /**
+     * The amount of bytes that are required in the buffer before the next
+     * frame can be decoded.
+     */
+    private int requiredBytes = CommandList.HEADER_SIZE;
+
+    /**
+     * The time until a timeout occurs.
+     */
+    private long timeOut = 0;
+
+    /**
+     * The index of the first free byte in the buffer.
+     */
+    private int writeIndex;
+
+    /**
+     * Default constructor of the frame decoder that prepares the buffers.
+     */
+    public FrameDecoder() {
+        allocateBuffer(INITIAL_LENGTH);
+        checksum = new NetChecksum();
+        decoder = NetComm.SERVER_STRING_ENCODING.newDecoder();
+        decodingBuffer = CharBuffer.allocate(INITIAL_STRING_LENGTH);
+    }
+
+    /**
+     * Get the amount of bytes that were received but not decoded yet.
+     *
+     * @return the amount of bytes waiting for decoding
+     */
+    public int available() {
+        return writeIndex - readIndex;
+    }
+
+    /**
+     * Read new data from a channel and append it to the data that is waiting
+     * for decoding.
+     *
+     * @param channel the channel to read the data from
+     * @return the amount of bytes read or <code>-1</code> in case the channel
+     *         reached its end
+     * @throws IOException in case reading from the channel fails
+     */
+    public int fill(final ReadableByteChannel channel) throws IOException {
+        ensureWritable(Math.max(MIN_READ_SPACE, requiredBytes - available()));
+
+        buffer.limit(buffer.capacity());
+        buffer.position(writeIndex);
+        final int read = channel.read(buffer);
+        if (read > 0) {
+            if (capture != null) {
+                final ByteBuffer received = buffer.duplicate();
+                received.limit(writeIndex + read);
+                received.position(writeIndex);
+                while (received.hasRemaining()) {
+                    capture.write(received);
+                }
+            }
+            if (IllaClient.isDebug(Debug.net)) {
+                final ByteBuffer received = buffer.duplicate();
+                received.limit(writeIndex + read);
+                received.position(writeIndex);
+                NetComm.dump("rcv <= ", received);
+            }
+            writeIndex += read;
+        }
+        return read;
+    }
+
+    /**
+     * Append bytes to the data that is waiting for decoding. The position of
+     * the source buffer is moved to its limit.
+     *
+     * @param src the buffer that contains the bytes to append
+     */
+    public void fill(final ByteBuffer src) {
+        final int length = src.remaining();
+        ensureWritable(length);
+
+        buffer.limit(buffer.capacity());
+        buffer.position(writeIndex);
+        buffer.put(src);
+        writeIndex += length;
+    }
+
+    /**
+     * Get the ID of the frame that is currently decoded.
+     *
+     * @return the ID of the current frame
+     */
+    public int getFrameId() {
+        return frameId;
+    }
+
+    /**
+     * Get the amount of bytes that were not part of the current frame yet.
+     *
+     * @return the amount of remaining bytes in the current frame
+     */
+    public int getFrameRemaining() {
+        return frame.remaining();
+    }
+
+    /**
+     * Get the amount of bytes that were skipped since the decoding started
+     * because they did not belong to any valid frame.
+     *
+     * @return the amount of skipped bytes
+     */
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * Search the next complete frame in the received data. In case this
+     * function returns <code>true</code> the frame is ready to be read using
+     * the reading functions of this class.
+     *
+     * @return <code>true</code> in case a complete frame is ready for decoding
+     */
+    @SuppressWarnings("nls")
+    public boolean nextFrame() {
+        while (available() >= CommandList.HEADER_SIZE) {
+            final int id = buffer.get(readIndex) & 0xFF;
+            final int xor = buffer.get(readIndex + 1) & 0xFF;
+
+            if (id != (xor ^ COMMAND_XOR_MASK)) {
+                LOGGER.warn("Skipping invalid data [" + id + "]");
+                skipByte();
+                continue;
+            }
+
+            final int len = buffer.getShort(readIndex + 2) & 0xFFFF;
+            final int crc = buffer.getShort(readIndex + 4) & 0xFFFF;
+            final int frameStart = readIndex + CommandList.HEADER_SIZE;
+            final int frameEnd = frameStart + len;
+
+            // add the bytes received since the last call to the checksum
+            final int received = Math.min(len, writeIndex - frameStart);
+            if (received > checksummedBytes) {
+                checksum.update(buffer, frameStart + checksummedBytes, received
+                    - checksummedBytes);
+                checksummedBytes = received;
+            }
+
+            if (!dataComplete(len)) {
+                return false;
+            }
+
+            frame.limit(frameEnd);
+            frame.position(frameStart);
+
+            if (crc != checksum.getValue()) {
+                NetComm.dump("Invalid CRC ", frame);
+                skipByte();
+                continue;
+            }
+
+            frameId = id;
+            readIndex = frameEnd;
+            resetChecksum();
+            return true;
+        }
+        requiredBytes = CommandList.HEADER_SIZE;
+        return false;
+    }
+
+    /**
+     * Drop all data that is waiting for decoding. The buffers are kept, so
+     * the decoder can be used again without allocating them again.
+     */
+    public void reset() {
+        readIndex = 0;
+        writeIndex = 0;
+        requiredBytes = CommandList.HEADER_SIZE;
+        timeOut = 0;
+        resetChecksum();
+    }
+
+    /**
+     * Set the channel that receives a copy of all bytes that are read from
+     * the server.
+     *
+     * @param channel the capture channel or <code>null</code> to stop
+     *            capturing
+     */
+    public void setCapture(final WritableByteChannel channel) {
+        capture = channel;
+    }
+
+    /**
+     * Read a single byte from the buffer and handle it as signed byte.
+     *
+     * @return The byte from the buffer handled as signed byte
+     * @throws IOException If there are more byte read then there are written in
+     *             the buffer
+     */
+    @Override
+    public byte readByte() throws IOException {
+        return frame.get();
+    }
+
+    /**
+     * Read four bytes from the buffer and handle them as a single signed value.
+     *
+     * @return The two bytes in the buffer handled as signed 4 byte value
+     * @throws IOException If there are more byte read then there are written in
+     *             the buffer
+     */
+    @Override
+    public int readInt() throws IOException {
+        return frame.getInt();
+    }
+
+    /**
+     * Read two bytes from the buffer and handle them as a single signed value.
+     *
+     * @return The two bytes in the buffer handled as signed 2 byte value
+     * @throws IOException If there are more byte read then there are written in
+     *             the buffer
+     */
+    @Override
+    public short readShort() throws IOException {
+        return frame.getShort();
+    }
+
+    /**
+     * Read a string from the input buffer and encode it for further usage.
+     *
+     * @return the decoded string
+     * @throws IOException If there are more byte read then there are written in
+     *             the buffer
+     */
+    @Override
+    @SuppressWarnings("nls")
+    public String readString() throws IOException {
+        final int len = readUShort();
+
+        if (len > frame.remaining()) {
+            throw new IndexOutOfBoundsException("reading beyond frame "
+                + (frame.remaining() + len));
+        }
+        if (decodingBuffer.capacity() < len) {
+            decodingBuffer = CharBuffer.allocate(len);
+        }
+        decodingBuffer.clear();
+        final int lastLimit = frame.limit();
+        frame.limit(frame.position() + len);
+        decoder.reset();
+        decoder.decode(frame, decodingBuffer, true);
+        frame.limit(lastLimit);
+        decodingBuffer.flip();
+
+        return decodingBuffer.toString();
+    }
+
+    /**
+     * Read a single byte from the buffer and handle it as unsigned byte.
+     *
+     * @return The byte of the buffer handled as unsigned byte.
+     * @throws IOException If there are more byte read then there are written in
+     *             the buffer
+     */
+    @Override
+    public short readUByte() throws IOException {
+        return (short) (readByte() & 0xFF);
+    }
+
+    /**
+     * Read four bytes from the buffer and handle them as a single unsigned
+     * value.
+     *
+     * @return The two bytes in the buffer handled as unsigned 4 byte value
+     * @throws IOException If there are more byte read then there are written in
+     *             the buffer
+     */
+    @Override
+    public long readUInt() throws IOException {
+        return readInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Read two bytes from the buffer and handle them as a single unsigned
+     * value.
+     *
+     * @return The two bytes in the buffer handled as unsigned 2 byte value
+     * @throws IOException If there are more byte read then there are written in
+     *             the buffer
+     */
+    @Override
+    public int readUShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    /**
+     * Create a new buffer with the given capacity and copy the data that is
+     * waiting for decoding to the start of the new buffer.
+     *
+     * @param capacity the capacity of the new buffer
+     */
+    private void allocateBuffer(final int capacity) {
+        final ByteBuffer newBuffer = ByteBuffer.allocateDirect(capacity);
+        newBuffer.order(ByteOrder.BIG_ENDIAN);
+
+        if (buffer != null) {
+            buffer.limit(writeIndex);
+            buffer.position(readIndex);
+            newBuffer.put(buffer);
+            writeIndex -= readIndex;
+            readIndex = 0;
+        }
+
+        buffer = newBuffer;
+        frame = buffer.asReadOnlyBuffer();
+        frame.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Reset the checksum so it can be calculated for the next frame.
+     */
+    private void resetChecksum() {
+        checksum.reset();
+        checksummedBytes = 0;
+    }
+
+    /**
+     * Skip the byte at the read index because it is not the start of a valid
+     * frame.
+     */
+    private void skipByte() {
+        readIndex++;
+        skippedBytes++;
+        resetChecksum();
+    }
+
+    /**
+     * This function checks of the received data contains a complete frame.
+     *
+     * @param len the amount of bytes that were announced for that frame
+     * @return true in case the frame is complete, false if not
+     */
+    @SuppressWarnings("nls")
+    private boolean dataComplete(final int len) {
+        requiredBytes = CommandList.HEADER_SIZE + len;
+        if (requiredBytes <= available()) {
+            timeOut = 0;
+            return true;
+        }
+
+        // set timeout for data
+        if (timeOut == 0) {
+            timeOut = System.currentTimeMillis() + RECEIVER_TIMEOUT;
+            LOGGER.warn("Waiting for missing data "
+                + (requiredBytes - available()));
+        }
+
+        // timeout exceeded
+        if (System.currentTimeMillis() > timeOut) {
+            frame.limit(writeIndex);
+            frame.position(readIndex);
+            NetComm.dump("Receiver timeout. Skipping ", frame);
+            skippedBytes += available();
+            readIndex = 0;
+            writeIndex = 0;
+            timeOut = 0;
+            resetChecksum();
+            requiredBytes = CommandList.HEADER_SIZE;
+        }
+
+        return false;
+    }
+
+    /**
+     * Make sure that at least the requested amount of bytes can be written to
+     * the end of the buffer. The buffer is compacted first and enlarged in
+     * case this is not enough.
+     *
+     * @param length the amount of bytes that need to fit into the buffer
+     */
+    private void ensureWritable(final int length) {
+        if ((buffer.capacity() - writeIndex) >= length) {
+            return;
+        }
+
+        if ((buffer.capacity() - available()) >= length) {
+            buffer.limit(writeIndex);
+            buffer.position(readIndex);
+            buffer.compact();
+            writeIndex -= readIndex;
+            readIndex = 0;
+            return;
+        }
+
+        allocateBuffer(Math.max(buffer.capacity() * 2, available() + length));
+    }
+}
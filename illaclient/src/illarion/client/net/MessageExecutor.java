@@ -19,20 +19,32 @@
 package illarion.client.net;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javolution.util.FastList;
+import javolution.context.PoolContext;
 
 import org.apache.log4j.Logger;
 
-import illarion.client.Debug;
-import illarion.client.IllaClient;
 import illarion.client.net.server.AbstractReply;
+import illarion.client.net.server.ReplyLane;
 
 import illarion.common.util.Stoppable;
 
 /**
  * This class will take care that the messages received from the server are
- * executes properly.
+ * executes properly. The messages are routed into the lanes they belong to.
+ * The messages of one lane are executed in the order they were received, the
+ * lanes are executed concurrently by a small pool of threads. Replies that are
+ * barriers are executed once all lanes are done with the replies received
+ * before, and the replies received after them wait until they are done.
+ * Replies that were delayed because they can't be processed yet do not hold
+ * back a barrier.
  * 
  * @author Martin Karing
  * @since 1.22
@@ -40,16 +52,16 @@ import illarion.common.util.Stoppable;
  */
 final class MessageExecutor extends Thread implements Stoppable {
     /**
-     * The logger instance that takes care for the logging output of this class.
+     * The maximal time in milliseconds the executor waits for a barrier that
+     * was delayed by its lane.
      */
-    private static final Logger LOGGER = Logger
-        .getLogger(MessageExecutor.class);
+    private static final long BARRIER_WAIT = 1000;
 
     /**
-     * This queue contains all tasks that were executed already once and need to
-     * be executed a second time.
+     * The logger instance that takes care for the logging output of this class.
      */
-    private final FastList<AbstractReply> delayedQueue;
+    private static final Logger LOGGER = Logger
+        .getLogger(MessageExecutor.class);
 
     /**
      * The queue that contains all the tasks that were received from the server
@@ -57,15 +69,27 @@ final class MessageExecutor extends Thread implements Stoppable {
      */
     private final BlockingQueue<AbstractReply> input;
 
+    /**
+     * The lanes the messages are executed in, stored by the ordinal of the
+     * reply lane.
+     */
+    private final MessageLane[] lanes;
+
+    /**
+     * The thread pool that executes the lanes.
+     */
+    private final ThreadPoolExecutor laneThreads;
+
     /**
      * This boolean stores if anything was received already from the server.
      */
     private boolean receivedAnything = false;
 
     /**
-     * This reply is to be repeated at the next run.
+     * The timer that triggers checking the lanes again that wait for delayed
+     * or repeated messages.
      */
-    private AbstractReply repeatReply;
+    private final ScheduledExecutorService retryTimer;
 
     /**
      * The running flag. The loop of this thread will keep running until this
@@ -82,7 +106,37 @@ final class MessageExecutor extends Thread implements Stoppable {
     public MessageExecutor(final BlockingQueue<AbstractReply> inputQueue) {
         super("NetComm MessageExecutor");
         input = inputQueue;
-        delayedQueue = new FastList<AbstractReply>();
+
+        final ReplyLane[] replyLanes = ReplyLane.values();
+        final int threads =
+            Math.min(replyLanes.length,
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        laneThreads =
+            new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable task) {
+                        return createLaneThread(task, count.incrementAndGet());
+                    }
+                });
+        retryTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable task) {
+                final Thread thread =
+                    new Thread(task, "NetComm MessageExecutor Timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        lanes = new MessageLane[replyLanes.length];
+        for (final ReplyLane lane : replyLanes) {
+            lanes[lane.ordinal()] =
+                new MessageLane(lane, laneThreads, retryTimer);
+        }
     }
 
     /**
@@ -95,78 +149,95 @@ final class MessageExecutor extends Thread implements Stoppable {
     }
 
     /**
-     * Main loop of the Message Executor. The messages are handled as soon as
-     * they appear in the queue.
+     * Main loop of the Message Executor. The messages are routed to their
+     * lanes as soon as they appear in the queue.
      */
     @SuppressWarnings("nls")
     @Override
     public void run() {
         while (running) {
-            /*
-             * First we handle the delayed stuff in case there is any and it
-             * does not block from executing.
-             */
-            if (!delayedQueue.isEmpty()
-                && delayedQueue.getFirst().processNow()) {
-                final AbstractReply rpl = delayedQueue.removeFirst();
-                rpl.executeUpdate();
-                rpl.recycle();
-                continue;
-            }
-
-            AbstractReply rpl;
-
-            if (repeatReply == null) {
-                try {
-                    rpl = input.take();
-                } catch (final InterruptedException e) {
+            try {
+                final AbstractReply rpl = input.take();
+                receivedAnything = true;
+                if (rpl.isBarrier()) {
+                    executeBarrier(rpl);
+                } else {
+                    lanes[rpl.getLane().ordinal()].offer(rpl);
+                }
+            } catch (final InterruptedException e) {
+                if (running) {
                     // Got and interrupt, quit the thread right now.
                     LOGGER
                         .warn("MessageExecutor got interrupted and will exit now!");
-                    return;
                 }
-            } else {
-                rpl = repeatReply;
-            }
-            receivedAnything = true;
-
-            /*
-             * Process the updates or put them into the delayed queue.
-             */
-            if (rpl.processNow()) {
-                if (IllaClient.isDebug(Debug.net)) {
-                    LOGGER.debug("executing " + rpl.getClass());
-                }
-
-                if (rpl.executeUpdate()) {
-                    if (IllaClient.isDebug(Debug.net)) {
-                        LOGGER.debug("finished " + rpl.getClass());
-                    }
-
-                    rpl.recycle();
-                } else {
-                    if (IllaClient.isDebug(Debug.net)) {
-                        LOGGER.debug("repeating " + rpl.getClass());
-                    }
-
-                    repeatReply = rpl;
-                }
-            } else {
-                delayedQueue.addLast(rpl);
+                return;
             }
         }
     }
 
     /**
-     * Have the thread finishing the current message and shut the thread down
-     * after.
+     * Have the lanes finishing the messages that are handed to the threads
+     * already and shut the threads down after.
      */
     @Override
     public void saveShutdown() {
         running = false;
-        synchronized (input) {
-            input.notify();
+        laneThreads.shutdown();
+        retryTimer.shutdownNow();
+        interrupt();
+    }
+
+    /**
+     * Execute a reply that is a barrier. The reply is handed to its lane once
+     * all lanes are idle and this function returns after the lane is done with
+     * it. Replies that were delayed by their lanes are not waited for, only
+     * in case the barrier itself is delayed the executor waits a limited time
+     * for it.
+     * 
+     * @param rpl the reply to execute
+     * @throws InterruptedException in case the thread is interrupted while
+     *             waiting for the lanes
+     */
+    @SuppressWarnings("nls")
+    private void executeBarrier(final AbstractReply rpl)
+        throws InterruptedException {
+        for (final MessageLane lane : lanes) {
+            lane.awaitIdle();
+        }
+        final MessageLane barrierLane = lanes[rpl.getLane().ordinal()];
+        barrierLane.offer(rpl);
+        barrierLane.awaitIdle();
+        if (!barrierLane.awaitDelayedBarriers(BARRIER_WAIT)) {
+            LOGGER.warn("Delayed barrier in " + barrierLane
+                + " did not execute in time, continuing");
         }
     }
 
+    /**
+     * Create a thread that executes the lanes. The thread runs inside a pool
+     * context, so objects recycled while executing the messages are reused by
+     * this thread. Uncaught exceptions are reported to the same handler as the
+     * exceptions of the message executor.
+     * 
+     * @param task the task of the thread
+     * @param number the number of the thread
+     * @return the new thread
+     */
+    @SuppressWarnings("nls")
+    private Thread createLaneThread(final Runnable task, final int number) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PoolContext.enter();
+                try {
+                    task.run();
+                } finally {
+                    PoolContext.exit();
+                }
+            }
+        }, "NetComm MessageExecutor Lane " + number);
+        thread.setDaemon(true);
+        thread.setUncaughtExceptionHandler(getUncaughtExceptionHandler());
+        return thread;
+    }
 }
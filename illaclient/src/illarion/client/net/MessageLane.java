@@ -0,0 +1,362 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.net;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javolution.util.FastList;
+
+import org.apache.log4j.Logger;
+
+import illarion.client.Debug;
+import illarion.client.IllaClient;
+import illarion.client.net.server.AbstractReply;
+import illarion.client.net.server.ReplyLane;
+
+/**
+ * A lane of the message executor. The replies of one lane are executed in the
+ * order they were received. The lane does not own a thread, it is handed to
+ * the thread pool of the message executor as soon as replies are waiting in
+ * it, so the lanes share a small amount of threads.
+ * <p>
+ * Replies that can't be processed yet are stored in a delayed queue and
+ * replies that request to be executed again block the lane. In both cases the
+ * lane is checked again after a short wait instead of polling them
+ * constantly.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class MessageLane implements Runnable {
+    /**
+     * The time in milliseconds the lane waits before it checks the delayed
+     * and the repeated replies again.
+     */
+    private static final long DELAY_WAIT = 10;
+
+    /**
+     * The logger instance that takes care for the logging output of this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(MessageLane.class);
+
+    /**
+     * The maximal amount of replies executed before the lane hands back its
+     * thread to the other lanes.
+     */
+    private static final int MAX_BATCH = 32;
+
+    /**
+     * The replies that could not be processed yet.
+     */
+    private final FastList<AbstractReply> delayed;
+
+    /**
+     * The amount of barriers in the delayed replies. Accessing this requires
+     * to synchronize on the pending replies.
+     */
+    private int delayedBarriers;
+
+    /**
+     * The executor that runs the lane.
+     */
+    private final Executor executor;
+
+    /**
+     * The lane this instance executes the replies of.
+     */
+    private final ReplyLane lane;
+
+    /**
+     * The replies that were received and still need to be executed. Accessing
+     * this list and the scheduling flags requires to synchronize on this list.
+     */
+    private final FastList<AbstractReply> pending;
+
+    /**
+     * This reply requested to be executed again. No other reply of the lane is
+     * executed before this one is done.
+     */
+    private AbstractReply repeatReply;
+
+    /**
+     * This flag is <code>true</code> while a check of the lane after a wait is
+     * scheduled.
+     */
+    private boolean retryScheduled;
+
+    /**
+     * The task that is used to check the lane again after a wait.
+     */
+    private final Runnable retryTask;
+
+    /**
+     * This flag is <code>true</code> while the lane is handed to the executor
+     * or running.
+     */
+    private boolean scheduled;
+
+    /**
+     * The service used to check the lane again after a wait.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Create a new lane of the message executor.
+     * 
+     * @param replyLane the lane of the replies handled by this instance
+     * @param laneExecutor the executor that runs the lane
+     * @param retryTimer the service that is used to check the lane again after
+     *            a wait
+     */
+    MessageLane(final ReplyLane replyLane, final Executor laneExecutor,
+        final ScheduledExecutorService retryTimer) {
+        lane = replyLane;
+        executor = laneExecutor;
+        timer = retryTimer;
+        delayed = new FastList<AbstractReply>();
+        pending = new FastList<AbstractReply>();
+        retryTask = new Runnable() {
+            @Override
+            public void run() {
+                retry();
+            }
+        };
+    }
+
+    /**
+     * Wait until this lane is idle. The lane is idle once it is not running or
+     * waiting for the executor and no received or repeated replies are left in
+     * it. Delayed replies are not waited for, they may wait for a state of the
+     * client that is never reached and are left to the retry timer.
+     * 
+     * @throws InterruptedException in case the thread is interrupted while
+     *             waiting
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (pending) {
+            while (scheduled || !pending.isEmpty() || (repeatReply != null)) {
+                pending.wait();
+            }
+        }
+    }
+
+    /**
+     * Wait until the barriers that were delayed by this lane are executed, but
+     * not longer than a given time.
+     * 
+     * @param timeout the maximal time to wait in milliseconds
+     * @return <code>true</code> in case no delayed barrier is left
+     * @throws InterruptedException in case the thread is interrupted while
+     *             waiting
+     */
+    public boolean awaitDelayedBarriers(final long timeout)
+        throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+        synchronized (pending) {
+            while (delayedBarriers > 0) {
+                final long left = end - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                pending.wait(left);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a reply to this lane. The lane is handed to the executor in case its
+     * not already waiting for it.
+     * 
+     * @param rpl the reply to execute
+     */
+    public void offer(final AbstractReply rpl) {
+        synchronized (pending) {
+            pending.addLast(rpl);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    /**
+     * Execute the replies of this lane. This is called by the executor.
+     */
+    @Override
+    public void run() {
+        boolean progress = true;
+        for (int i = 0; (i < MAX_BATCH) && progress; i++) {
+            progress = executeNext();
+        }
+
+        boolean reschedule = false;
+        synchronized (pending) {
+            if (progress && !pending.isEmpty()) {
+                // more replies are waiting, hand the thread to the next lane
+                // and continue later
+                reschedule = true;
+            } else {
+                scheduled = false;
+                if ((repeatReply != null) || !delayed.isEmpty()) {
+                    scheduleRetry();
+                }
+                pending.notifyAll();
+            }
+        }
+
+        if (reschedule) {
+            schedule();
+        }
+    }
+
+    /**
+     * Get the string representation of this lane.
+     * 
+     * @return the name of the lane
+     */
+    @SuppressWarnings("nls")
+    @Override
+    public String toString() {
+        return "MessageLane(" + lane.name() + ")";
+    }
+
+    /**
+     * Execute the next reply of the lane.
+     * 
+     * @return <code>true</code> in case the lane made progress,
+     *         <code>false</code> in case no reply is left that can be executed
+     *         now
+     */
+    @SuppressWarnings("nls")
+    private boolean executeNext() {
+        /*
+         * First we handle the delayed stuff in case there is any and it does
+         * not block from executing.
+         */
+        if (!delayed.isEmpty() && delayed.getFirst().processNow()) {
+            final AbstractReply rpl = delayed.removeFirst();
+            rpl.executeUpdate();
+            if (rpl.isBarrier()) {
+                synchronized (pending) {
+                    delayedBarriers--;
+                }
+            }
+            rpl.recycle();
+            return true;
+        }
+
+        AbstractReply rpl = repeatReply;
+        if (rpl == null) {
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                rpl = pending.removeFirst();
+            }
+        }
+
+        /*
+         * Process the updates or put them into the delayed queue.
+         */
+        if (!rpl.processNow()) {
+            repeatReply = null;
+            delayed.addLast(rpl);
+            if (rpl.isBarrier()) {
+                synchronized (pending) {
+                    delayedBarriers++;
+                }
+            }
+            return true;
+        }
+
+        if (IllaClient.isDebug(Debug.net)) {
+            LOGGER.debug("executing " + rpl.getClass());
+        }
+
+        if (rpl.executeUpdate()) {
+            if (IllaClient.isDebug(Debug.net)) {
+                LOGGER.debug("finished " + rpl.getClass());
+            }
+
+            repeatReply = null;
+            rpl.recycle();
+            return true;
+        }
+
+        if (IllaClient.isDebug(Debug.net)) {
+            LOGGER.debug("repeating " + rpl.getClass());
+        }
+        repeatReply = rpl;
+        return false;
+    }
+
+    /**
+     * Check the delayed and the repeated replies of the lane again after the
+     * wait.
+     */
+    private void retry() {
+        synchronized (pending) {
+            retryScheduled = false;
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        schedule();
+    }
+
+    /**
+     * Hand the lane to the executor. In case the executor was shut down
+     * already, the lane is not executed anymore.
+     */
+    private void schedule() {
+        try {
+            executor.execute(this);
+        } catch (final RejectedExecutionException e) {
+            synchronized (pending) {
+                scheduled = false;
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Schedule a check of the lane after a wait, unless one is scheduled
+     * already. This has to be called while holding the lock of the pending
+     * replies.
+     */
+    private void scheduleRetry() {
+        if (retryScheduled) {
+            return;
+        }
+        try {
+            timer.schedule(retryTask, DELAY_WAIT, TimeUnit.MILLISECONDS);
+            retryScheduled = true;
+        } catch (final RejectedExecutionException e) {
+            // the executor is shutting down, the lane is not checked anymore
+        }
+    }
+}
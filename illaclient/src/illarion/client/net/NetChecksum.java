@@ -0,0 +1,168 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The checksum used by the network protocol. The checksum is the sum of all
+ * bytes handled as unsigned values modulo 65535. Buffers that are backed by a
+ * array are summed up directly on the array, all other buffers are read eight
+ * bytes at once and the bytes of each long value are summed up in four 16 bit
+ * lanes.
+ * <p>
+ * The checksum can be calculated incrementally by using {@link #update} for
+ * every part of the data.
+ * </p>
+ *
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class NetChecksum {
+    /**
+     * The mask that selects every second byte of a long value.
+     */
+    private static final long LANE_MASK = 0x00FF00FF00FF00FFL;
+
+    /**
+     * The mask that selects one 16 bit lane.
+     */
+    private static final long LANE_VALUE = 0xFFFFL;
+
+    /**
+     * The amount of long values that can be summed up in the lanes before
+     * they could overflow. Every long adds at most 510 to each lane.
+     */
+    private static final int LONGS_PER_FOLD = 128;
+
+    /**
+     * The modulo applied to the sum of the bytes.
+     */
+    private static final int MODULO = (1 << Short.SIZE) - 1;
+
+    /**
+     * The sum of all bytes added so far.
+     */
+    private long sum;
+
+    /**
+     * Calculate the checksum of the bytes from the current position of the
+     * buffer on. The position, limit and mark of the buffer are not changed.
+     *
+     * @param buffer the buffer that provides the data
+     * @param len the amount of bytes to include, in case less bytes are
+     *            remaining in the buffer only the remaining bytes are used
+     * @return the checksum of the bytes
+     */
+    public static int compute(final ByteBuffer buffer, final int len) {
+        final int length = Math.max(0, Math.min(len, buffer.remaining()));
+        return (int) (sum(buffer, buffer.position(), length) % MODULO);
+    }
+
+    /**
+     * Sum up the unsigned values of a range of bytes in a buffer. The
+     * position, limit and mark of the buffer are not changed.
+     *
+     * @param buffer the buffer that provides the data
+     * @param offset the absolute index of the first byte
+     * @param length the amount of bytes to sum up
+     * @return the sum of the bytes
+     */
+    private static long sum(final ByteBuffer buffer, final int offset,
+        final int length) {
+        if (buffer.hasArray()) {
+            return sum(buffer.array(), buffer.arrayOffset() + offset, length);
+        }
+
+        long total = 0;
+        int index = offset;
+        final int end = offset + length;
+        while ((end - index) >= (Long.SIZE / Byte.SIZE)) {
+            final int longs =
+                Math.min((end - index) / (Long.SIZE / Byte.SIZE),
+                    LONGS_PER_FOLD);
+            final int blockEnd = index + (longs * (Long.SIZE / Byte.SIZE));
+
+            long lanes = 0;
+            while (index < blockEnd) {
+                final long value = buffer.getLong(index);
+                lanes +=
+                    (value & LANE_MASK) + ((value >>> Byte.SIZE) & LANE_MASK);
+                index += Long.SIZE / Byte.SIZE;
+            }
+
+            total += (lanes & LANE_VALUE) + ((lanes >>> 16) & LANE_VALUE)
+                + ((lanes >>> 32) & LANE_VALUE) + (lanes >>> 48);
+        }
+
+        while (index < end) {
+            total += buffer.get(index) & 0xFF;
+            index++;
+        }
+        return total;
+    }
+
+    /**
+     * Sum up the unsigned values of a range of bytes in a array.
+     *
+     * @param data the array that provides the data
+     * @param offset the index of the first byte
+     * @param length the amount of bytes to sum up
+     * @return the sum of the bytes
+     */
+    private static long sum(final byte[] data, final int offset,
+        final int length) {
+        long total = 0;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            total += data[i] & 0xFF;
+        }
+        return total;
+    }
+
+    /**
+     * Get the checksum of all bytes added since the last reset.
+     *
+     * @return the checksum
+     */
+    public int getValue() {
+        return (int) (sum % MODULO);
+    }
+
+    /**
+     * Reset the checksum so a new calculation can start.
+     */
+    public void reset() {
+        sum = 0;
+    }
+
+    /**
+     * Add a range of bytes of a buffer to the checksum. The position, limit
+     * and mark of the buffer are not changed.
+     *
+     * @param buffer the buffer that provides the data
+     * @param offset the absolute index of the first byte
+     * @param length the amount of bytes to add
+     */
+    public void update(final ByteBuffer buffer, final int offset,
+        final int length) {
+        sum += sum(buffer, offset, length);
+    }
+}
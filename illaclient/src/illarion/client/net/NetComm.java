@@ -18,12 +18,15 @@
  */
 package illarion.client.net;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.nio.charset.Charset;
+import java.util.Date;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -55,6 +58,14 @@ public final class NetComm {
     public static final Charset SERVER_STRING_ENCODING = Charset
         .forName("ISO-8859-1");
 
+    /**
+     * The format of the file names used to store the captured data received
+     * from the server.
+     */
+    @SuppressWarnings("nls")
+    private static final String CAPTURE_FILE_FORMAT =
+        "netcapture-%1$tY%1$tm%1$td-%1$tH%1$tM%1$tS.dat";
+
     /**
      * The value that is added and used for the modulus division that is done on
      * the buffer value before printing it.
@@ -105,6 +116,12 @@ public final class NetComm {
      */
     private static final int THREAD_WAIT_TIME = 100;
 
+    /**
+     * The file that receives a copy of all data that is received from the
+     * server while the capture debug flag is set.
+     */
+    private FileChannel capture;
+
     /**
      * List of server messages that got received and decoded but were not yet
      * executed.
@@ -159,20 +176,10 @@ public final class NetComm {
      * @param len the amount of byte that shall be included to the checksum
      *            calculation
      * @return the calculated checksum
+     * @see NetChecksum
      */
     public static int getCRC(final ByteBuffer buffer, final int len) {
-        int crc = 0;
-        int remain = len;
-        final int pos = buffer.position();
-        while (buffer.hasRemaining() && (remain-- > 0)) {
-            final byte data = buffer.get();
-            crc += data;
-            if (data < 0) {
-                crc += 1 << Byte.SIZE;
-            }
-        }
-        buffer.position(pos);
-        return crc % ((1 << Short.SIZE) - 1);
+        return NetChecksum.compute(buffer, len);
     }
 
     /**
@@ -253,6 +260,14 @@ public final class NetComm {
             inputThread = new Receiver(inputQueue, socket);
             inputThread.setUncaughtExceptionHandler(NetCommCrashHandler
                 .getInstance());
+            if (IllaClient.isDebug(Debug.capture)) {
+                final String file =
+                    IllaClient.getFile(String.format(CAPTURE_FILE_FORMAT,
+                        new Date()));
+                capture = new FileOutputStream(file).getChannel();
+                inputThread.setCapture(capture);
+                LOGGER.info("Capturing received data to " + file);
+            }
             messageHandler = new MessageExecutor(inputQueue);
             messageHandler.setUncaughtExceptionHandler(NetCommCrashHandler
                 .getInstance());
@@ -315,11 +330,46 @@ public final class NetComm {
                 socket.close();
                 socket = null;
             }
+
+            if (capture != null) {
+                capture.close();
+                capture = null;
+            }
         } catch (final IOException e) {
             LOGGER.warn("Disconnecting failed.", e);
         }
     }
 
+    /**
+     * Get the average amount of bytes that were written to the server with one
+     * write call.
+     * 
+     * @return the average bytes per write call or <code>0</code> in case the
+     *         client is not connected
+     */
+    public double getSentBytesPerWrite() {
+        final Sender currentSender = sender;
+        if (currentSender == null) {
+            return 0;
+        }
+        return currentSender.getBytesPerWrite();
+    }
+
+    /**
+     * Get the average amount of command frames that were written to the server
+     * at once.
+     * 
+     * @return the average frames per flush or <code>0</code> in case the client
+     *         is not connected
+     */
+    public double getSentFramesPerFlush() {
+        final Sender currentSender = sender;
+        if (currentSender == null) {
+            return 0;
+        }
+        return currentSender.getFramesPerFlush();
+    }
+
     /**
      * Check if the network interface received anything from the server since it
      * started.
@@ -0,0 +1,481 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import javolution.context.PoolContext;
+import javolution.text.TextBuilder;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import illarion.client.net.server.AbstractReply;
+
+/**
+ * The protocol replay plays back the data captured with the
+ * {@link illarion.client.Debug#capture} debug flag. The captured bytes are fed
+ * through a in-memory channel into the same frame decoder and reply factory
+ * the {@link Receiver} uses. In case the execution of the replies is enabled,
+ * they are executed the same way the {@link MessageExecutor} does, this
+ * requires that the game world is prepared.
+ * <p>
+ * The replay measures the amount of messages handled per second, the
+ * latencies of the single message types and the amount of memory allocated
+ * while the replay was running.
+ * </p>
+ *
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+public final class ProtocolReplay {
+    /**
+     * The in-memory channel the captured data is read from. It can be rewound
+     * to play back the data again without allocating a new channel.
+     *
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    private static final class CaptureChannel implements ReadableByteChannel {
+        /**
+         * The buffer that wraps the captured data.
+         */
+        private final ByteBuffer source;
+
+        /**
+         * Create a new channel that reads the captured data.
+         *
+         * @param capture the captured bytes
+         */
+        CaptureChannel(final byte[] capture) {
+            source = ByteBuffer.wrap(capture);
+        }
+
+        /**
+         * Closing the channel has no effect, it is always open.
+         */
+        @Override
+        public void close() {
+            // nothing to close
+        }
+
+        /**
+         * Check if the channel is open.
+         *
+         * @return always <code>true</code>
+         */
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        /**
+         * Read the next bytes of the captured data.
+         *
+         * @param dst the buffer that receives the bytes
+         * @return the amount of bytes read or <code>-1</code> in case all
+         *         data was read
+         */
+        @Override
+        public int read(final ByteBuffer dst) {
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            final int length = Math.min(dst.remaining(), source.remaining());
+            final int limit = source.limit();
+            source.limit(source.position() + length);
+            dst.put(source);
+            source.limit(limit);
+            return length;
+        }
+
+        /**
+         * Start reading the captured data from its beginning again.
+         */
+        void rewind() {
+            source.rewind();
+        }
+    }
+
+    /**
+     * The amount of times a reply is executed again in case it requests to be
+     * repeated before its dropped.
+     */
+    private static final int MAX_REPEATS = 100;
+
+    /**
+     * The amount of nanoseconds in one millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /**
+     * The amount of nanoseconds in one second.
+     */
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    /**
+     * The amount of rounds played back before the measurement starts.
+     */
+    private static final int WARMUP_ROUNDS = 1;
+
+    /**
+     * The amount of bytes allocated by the replaying thread while measuring.
+     * In case the JVM does not support this, the value is <code>-1</code>.
+     */
+    private long allocatedBytes;
+
+    /**
+     * The channel that supplies the captured data that is played back.
+     */
+    private final CaptureChannel data;
+
+    /**
+     * The amount of nanoseconds the measured rounds took.
+     */
+    private long duration;
+
+    /**
+     * In case this is <code>true</code> the decoded replies are executed.
+     */
+    private final boolean execute;
+
+    /**
+     * The frame decoder used by all rounds. Its buffers are sized by the
+     * warmup, so the measured rounds do not allocate them.
+     */
+    private final FrameDecoder frames;
+
+    /**
+     * The latencies in nanoseconds of all measured messages, stored by their
+     * message ID.
+     */
+    private final TIntObjectHashMap<TLongArrayList> latencies;
+
+    /**
+     * The amount of messages handled in the measured rounds.
+     */
+    private long messages;
+
+    /**
+     * The amount of replies that were not executed because they did not allow
+     * to be processed or requested to be repeated too often.
+     */
+    private long skippedReplies;
+
+    /**
+     * Create a new replay of captured data.
+     *
+     * @param capture the captured bytes
+     * @param executeReplies <code>true</code> in case the decoded replies shall
+     *            be executed, <code>false</code> to only decode them
+     */
+    public ProtocolReplay(final byte[] capture, final boolean executeReplies) {
+        data = new CaptureChannel(capture);
+        execute = executeReplies;
+        frames = new FrameDecoder();
+        latencies = new TIntObjectHashMap<TLongArrayList>();
+    }
+
+    /**
+     * Load a capture file to play it back.
+     *
+     * @param file the captured file
+     * @param executeReplies <code>true</code> in case the decoded replies shall
+     *            be executed, <code>false</code> to only decode them
+     * @return the replay of the captured data
+     * @throws IOException in case reading the file fails
+     */
+    public static ProtocolReplay load(final File file,
+        final boolean executeReplies) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+                // keep reading until the buffer is filled
+            }
+            return new ProtocolReplay(buffer.array(), executeReplies);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Play back a captured file and print the results.
+     *
+     * @param args the path to the capture file, optional the amount of rounds
+     *            and <code>execute</code> to execute the replies
+     * @throws IOException in case reading the file fails
+     */
+    @SuppressWarnings("nls")
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: ProtocolReplay <capture file>"
+                + " [rounds] [execute]");
+            return;
+        }
+
+        int rounds = 1;
+        if (args.length > 1) {
+            rounds = Integer.parseInt(args[1]);
+        }
+        final boolean executeReplies =
+            (args.length > 2) && "execute".equals(args[2]);
+
+        final ProtocolReplay replay =
+            load(new File(args[0]), executeReplies);
+        replay.run(rounds);
+        System.out.println(replay.getReport());
+    }
+
+    /**
+     * Get the amount of bytes allocated by the replaying thread during the
+     * measured rounds.
+     *
+     * @return the allocated bytes or <code>-1</code> in case the JVM does not
+     *         support measuring this
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Get the amount of messages handled in the measured rounds.
+     *
+     * @return the amount of handled messages
+     */
+    public long getMessageCount() {
+        return messages;
+    }
+
+    /**
+     * Get the amount of messages that were handled per second during the
+     * measured rounds.
+     *
+     * @return the messages per second
+     */
+    public double getMessagesPerSecond() {
+        if (duration == 0) {
+            return 0;
+        }
+        return (messages * NANOS_PER_SECOND) / duration;
+    }
+
+    /**
+     * Get a report of the results of the last run.
+     *
+     * @return the text of the report
+     */
+    @SuppressWarnings("nls")
+    public String getReport() {
+        final TextBuilder builder = TextBuilder.newInstance();
+        builder.append(String.format(
+            "%1$d messages in %2$.1f ms, %3$.0f messages/s%n",
+            Long.valueOf(messages), Double.valueOf(duration / NANOS_PER_MILLI),
+            Double.valueOf(getMessagesPerSecond())));
+        if (allocatedBytes >= 0) {
+            builder.append(String.format(
+                "%1$d bytes allocated, %2$.0f bytes/s, %3$d bytes per 1000"
+                    + " messages%n", Long.valueOf(allocatedBytes),
+                Double.valueOf((allocatedBytes * NANOS_PER_SECOND)
+                    / Math.max(1, duration)),
+                Long.valueOf((allocatedBytes * 1000) / Math.max(1, messages))));
+        }
+        if (skippedReplies > 0) {
+            builder.append(String.format("%1$d replies not executed%n",
+                Long.valueOf(skippedReplies)));
+        }
+
+        final int[] ids = latencies.keys();
+        Arrays.sort(ids);
+        for (final int id : ids) {
+            final TLongArrayList values = latencies.get(id);
+            values.sort();
+            builder.append(String.format(
+                "%1$-22s [%2$02X] %3$8d msgs, p50 %4$8.3f ms, p90 %5$8.3f ms,"
+                    + " p99 %6$8.3f ms, max %7$8.3f ms%n",
+                ReplyFactory.getInstance().getPrototype(id).getClass()
+                    .getSimpleName(), Integer.valueOf(id),
+                Integer.valueOf(values.size()),
+                Double.valueOf(percentile(values, 50) / NANOS_PER_MILLI),
+                Double.valueOf(percentile(values, 90) / NANOS_PER_MILLI),
+                Double.valueOf(percentile(values, 99) / NANOS_PER_MILLI),
+                Double.valueOf(values.get(values.size() - 1)
+                    / NANOS_PER_MILLI)));
+        }
+
+        final String result = builder.toString();
+        TextBuilder.recycle(builder);
+        return result;
+    }
+
+    /**
+     * Play back the captured data. The data is played back once before the
+     * measurement starts to warm up the JVM and to size the storage of the
+     * latencies, so the measurement itself does not allocate memory for them.
+     * The replay runs inside a pool context the same way the network threads
+     * do.
+     *
+     * @param rounds the amount of times the capture is played back while
+     *            measuring
+     * @throws IOException in case decoding the data fails
+     */
+    public void run(final int rounds) throws IOException {
+        PoolContext.enter();
+        try {
+            measure(rounds);
+        } finally {
+            PoolContext.exit();
+        }
+    }
+
+    /**
+     * Play back the captured data for the warmup and the measured rounds.
+     *
+     * @param rounds the amount of measured rounds
+     * @throws IOException in case decoding the data fails
+     */
+    private void measure(final int rounds) throws IOException {
+        latencies.clear();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            replay();
+        }
+
+        final int[] ids = latencies.keys();
+        for (final int id : ids) {
+            final int expected =
+                (latencies.get(id).size() * rounds) / WARMUP_ROUNDS;
+            latencies.put(id, new TLongArrayList(expected + 1));
+        }
+        messages = 0;
+        skippedReplies = 0;
+
+        final long startAlloc = getThreadAllocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            replay();
+        }
+        duration = System.nanoTime() - start;
+
+        if (startAlloc < 0) {
+            allocatedBytes = -1;
+        } else {
+            allocatedBytes = getThreadAllocatedBytes() - startAlloc;
+        }
+    }
+
+    /**
+     * Get the amount of bytes the current thread allocated so far.
+     *
+     * @return the allocated bytes or <code>-1</code> in case the JVM does not
+     *         support measuring this
+     */
+    private static long getThreadAllocatedBytes() {
+        final java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Get a percentile of a sorted list of values.
+     *
+     * @param values the sorted values
+     * @param percent the percentile
+     * @return the value at the percentile
+     */
+    private static long percentile(final TLongArrayList values,
+        final int percent) {
+        final int index = ((values.size() - 1) * percent) / 100;
+        return values.get(index);
+    }
+
+    /**
+     * Execute a reply the same way the message executor does.
+     *
+     * @param rpl the reply to execute
+     */
+    private void executeReply(final AbstractReply rpl) {
+        if (!rpl.processNow()) {
+            skippedReplies++;
+            rpl.recycle();
+            return;
+        }
+
+        for (int i = 0; i < MAX_REPEATS; i++) {
+            if (rpl.executeUpdate()) {
+                rpl.recycle();
+                return;
+            }
+        }
+        skippedReplies++;
+        rpl.recycle();
+    }
+
+    /**
+     * Play back the captured data once. The channel and the frame decoder are
+     * reused, so the allocations measured are the ones of decoding and
+     * executing the replies.
+     *
+     * @throws IOException in case decoding the data fails
+     */
+    private void replay() throws IOException {
+        data.rewind();
+        frames.reset();
+        final ReplyFactory factory = ReplyFactory.getInstance();
+
+        while (frames.fill(data) >= 0) {
+            while (frames.nextFrame()) {
+                final int id = frames.getFrameId();
+                if (!factory.prototypeExists(id)) {
+                    continue;
+                }
+
+                final long start = System.nanoTime();
+                final AbstractReply rpl = factory.decode(id, frames);
+                if (execute) {
+                    executeReply(rpl);
+                } else {
+                    rpl.recycle();
+                }
+
+                final long time = System.nanoTime() - start;
+                TLongArrayList values = latencies.get(id);
+                if (values == null) {
+                    values = new TLongArrayList();
+                    latencies.put(id, values);
+                }
+                values.add(time);
+                messages++;
+            }
+        }
+    }
+}
@@ -18,14 +18,14 @@
  */
 package illarion.client.net;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.CharBuffer;
 import java.nio.channels.ReadableByteChannel;
-import java.nio.charset.CharsetDecoder;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.BlockingQueue;
 
+import javolution.context.PoolContext;
+
 import org.apache.log4j.Logger;
 
 import illarion.client.Debug;
@@ -42,46 +42,16 @@ import illarion.client.util.Lang;
  * @since 0.92
  * @version 1.22
  */
-final class Receiver extends Thread implements NetCommReader {
-    /**
-     * Length of the byte buffer used to store the data from the server.
-     */
-    private static final int BUFFER_LENGTH = 10000;
-
-    /**
-     * The XOR mask the command ID is masked with to decode the checking ID and
-     * ensure that the start of a command was found.
-     */
-    private static final int COMMAND_XOR_MASK = 0xFF;
-
+final class Receiver extends Thread {
     /**
      * The instance of the logger that is used to write out the data.
      */
     private static final Logger LOGGER = Logger.getLogger(Receiver.class);
 
     /**
-     * Time the receiver waits for more data before throwing away the incomplete
-     * things it already got.
-     */
-    private static final int RECEIVER_TIMEOUT = 1000;
-
-    /**
-     * The buffer that stores the byte that we received from the server for
-     * decoding.
-     */
-    private final ByteBuffer buffer;
-
-    /**
-     * The decoder that is used to decode the strings that are send to the
-     * client by the server.
-     */
-    private final CharsetDecoder decoder;
-
-    /**
-     * The buffer that is used to temporary store the decoded characters that
-     * were send to the player.
+     * The decoder that splits the received data into the single frames.
      */
-    private final CharBuffer decodingBuffer = CharBuffer.allocate(255);
+    private final FrameDecoder frames;
 
     /**
      * The input stream of the connection socket of the connection to the
@@ -100,11 +70,6 @@ final class Receiver extends Thread implements NetCommReader {
      */
     private boolean running;
 
-    /**
-     * The time until a timeout occurs.
-     */
-    private long timeOut = 0;
-
     /**
      * The basic constructor for the receiver that sets up all needed data.
      * 
@@ -120,219 +85,105 @@ final class Receiver extends Thread implements NetCommReader {
 
         queue = inputQueue;
         inChannel = in;
-
-        buffer = ByteBuffer.allocateDirect(BUFFER_LENGTH);
-        buffer.order(ByteOrder.BIG_ENDIAN);
-        buffer.limit(0);
-
-        decoder = NetComm.SERVER_STRING_ENCODING.newDecoder();
+        frames = new FrameDecoder();
 
         setPriority(Thread.MIN_PRIORITY);
         setDaemon(true);
     }
 
     /**
-     * Read a single byte from the buffer and handle it as signed byte.
-     * 
-     * @return The byte from the buffer handled as signed byte
-     * @throws IOException If there are more byte read then there are written in
-     *             the buffer
+     * The main loop the the receiver thread. Decodes the data of the input
+     * stream and places the server messages in the queue.
+     * <p>
+     * The decoding of the data happens as instantly as soon as a command is
+     * completely read from the input stream. Searching the start of a command
+     * is done by the {@link FrameDecoder}.
+     * </p>
+     * <p>
+     * The thread runs inside a pool context, so objects recycled while
+     * decoding are reused by this thread.
+     * </p>
      */
     @Override
-    public byte readByte() throws IOException {
-        return buffer.get();
+    public void run() {
+        PoolContext.enter();
+        try {
+            receive();
+        } finally {
+            PoolContext.exit();
+        }
     }
 
     /**
-     * Read four bytes from the buffer and handle them as a single signed value.
+     * Set the channel that receives a copy of all data that is received from
+     * the server. This has to be set before the receiver is started.
      * 
-     * @return The two bytes in the buffer handled as signed 4 byte value
-     * @throws IOException If there are more byte read then there are written in
-     *             the buffer
+     * @param channel the capture channel or <code>null</code> to disable the
+     *            capturing
      */
-    @Override
-    public int readInt() throws IOException {
-        return buffer.getInt();
+    public void setCapture(final WritableByteChannel channel) {
+        frames.setCapture(channel);
     }
 
     /**
-     * Read two bytes from the buffer and handle them as a single signed value.
+     * Set of the receiver is running or not. If this is set to false the
+     * receiver waits ready but does nothing.
      * 
-     * @return The two bytes in the buffer handled as signed 2 byte value
-     * @throws IOException If there are more byte read then there are written in
-     *             the buffer
+     * @param newRunning the new state of the running flag
      */
-    @Override
-    public short readShort() throws IOException {
-        return buffer.getShort();
+    public void setRunning(final boolean newRunning) {
+        running = newRunning;
     }
 
     /**
-     * Read a string from the input buffer and encode it for further usage.
+     * Decode the frame that is currently selected in the frame decoder and
+     * place the decoded reply in the queue.
      * 
-     * @return the decoded string
-     * @throws IOException If there are more byte read then there are written in
-     *             the buffer
+     * @throws IOException in case the reply reads beyond the end of the frame
+     * @throws InterruptedException in case the thread got interrupted while
+     *             waiting for space in the queue
      */
-    @Override
     @SuppressWarnings("nls")
-    public String readString() throws IOException {
-        final int len = readUShort();
-
-        if (len > buffer.remaining()) {
-            throw new IndexOutOfBoundsException(
-                "reading beyond receive buffer " + (buffer.remaining() + len));
+    private void decodeFrame() throws IOException, InterruptedException {
+        final int id = frames.getFrameId();
+        if (!ReplyFactory.getInstance().prototypeExists(id)) {
+            LOGGER.error("Invalid command id received "
+                + Integer.toHexString(id));
+            return;
         }
-        decodingBuffer.clear();
-        final int lastLimit = buffer.limit();
-        buffer.limit(buffer.position() + len);
-        decoder.decode(buffer, decodingBuffer, false);
-        buffer.limit(lastLimit);
-        decodingBuffer.flip();
-
-        return decodingBuffer.toString();
-    }
 
-    /**
-     * Read a single byte from the buffer and handle it as unsigned byte.
-     * 
-     * @return The byte of the buffer handled as unsigned byte.
-     * @throws IOException If there are more byte read then there are written in
-     *             the buffer
-     */
-    @Override
-    public short readUByte() throws IOException {
-        final short data = readByte();
-        if (data < 0) {
-            return (short) (data + (1 << Byte.SIZE));
-        }
-        return data;
-    }
+        final AbstractReply rpl =
+            ReplyFactory.getInstance().decode(id, frames);
 
-    /**
-     * Read four bytes from the buffer and handle them as a single unsigned
-     * value.
-     * 
-     * @return The two bytes in the buffer handled as unsigned 4 byte value
-     * @throws IOException If there are more byte read then there are written in
-     *             the buffer
-     */
-    @Override
-    public long readUInt() throws IOException {
-        final long data = readInt();
-        if (data < 0) {
-            return data + (1L << Integer.SIZE);
+        if (IllaClient.isDebug(Debug.protocol)) {
+            LOGGER.debug("REC: " + rpl.toString());
+            if (frames.getFrameRemaining() > 0) {
+                LOGGER.debug("Frame not fully decoded, "
+                    + frames.getFrameRemaining() + " bytes left");
+            }
         }
-        return data;
-    }
 
-    /**
-     * Read two bytes from the buffer and handle them as a single unsigned
-     * value.
-     * 
-     * @return The two bytes in the buffer handled as unsigned 2 byte value
-     * @throws IOException If there are more byte read then there are written in
-     *             the buffer
-     */
-    @Override
-    public int readUShort() throws IOException {
-        final int data = readShort();
-        if (data < 0) {
-            return data + (1 << Short.SIZE);
-        }
-        return data;
+        // put decoded command in input queue
+        queue.put(rpl);
     }
 
     /**
-     * The main loop the the receiver thread. Decodes the data of the input
-     * stream and places the server messages in the queue.
-     * <p>
-     * The decoding of the data happens as instantly as soon as a command is
-     * completely read from the input stream. Searching the start of a command
-     * is done by looking for a valid ID with a valid XOR id right behind.
-     * </p>
+     * Receive and decode the data until the receiver is stopped or the
+     * connection fails.
      */
     @SuppressWarnings("nls")
-    @Override
-    public void run() {
+    private void receive() {
         running = true;
-        int minRequiredData = CommandList.HEADER_SIZE;
-    
+
         while (running) {
             try {
-                while (running && receiveData(minRequiredData)) {
-                    while (true) {
-                        // wait for a complete message header
-                        if (buffer.remaining() < CommandList.HEADER_SIZE) {
-                            break;
-                        }
-    
-                        // identify command
-                        final int id = readUByte();
-                        final int xor = readUByte();
-    
-                        // valid command id
-                        if (id != (xor ^ COMMAND_XOR_MASK)) {
-                            // delete only first byte from buffer, scanning for
-                            // valid command
-                            buffer.position(1);
-                            buffer.compact();
-    
-                            LOGGER.warn("Skipping invalid data [" + id + "]");
-    
-                            continue;
-                        }
-    
-                        // read length and CRC
-                        final int len = readUShort();
-                        final int crc = readUShort();
-    
-                        // wait for complete data
-                        if (!dataComplete(len)) {
-                            // scroll the cursor back and wait for more.
-                            buffer.position(0);
-                            minRequiredData = len + CommandList.HEADER_SIZE;
-                            break;
-                        }
-    
-                        minRequiredData = CommandList.HEADER_SIZE;
-    
-                        // check CRC
-                        if (crc != NetComm.getCRC(buffer, len)) {
-                            final int oldLimit = buffer.limit();
-                            buffer.limit(len + CommandList.HEADER_SIZE);
-                            buffer.position(CommandList.HEADER_SIZE);
-                            NetComm.dump("Invalid CRC ", buffer);
-    
-                            buffer.position(1);
-                            buffer.limit(oldLimit);
-                            buffer.compact();
-                            buffer.flip();
-                            continue;
-                        }
-    
-                        // decode
-                        try {
-                            final AbstractReply rpl =
-                                ReplyFactory.getInstance().getCommand(id);
-    
-                            // explicitly set id for mapped commands
-                            rpl.activate(id);
-                            rpl.decode(this);
-    
-                            if (IllaClient.isDebug(Debug.protocol)) {
-                                LOGGER.debug("REC: " + rpl.toString());
-                            }
-    
-                            // put decoded command in input queue
-                            queue.put(rpl);
-                        } catch (final IllegalArgumentException ex) {
-                            LOGGER.error("Invalid command id received "
-                                + Integer.toHexString(id));
-                        }
-    
-                        buffer.compact();
-                        buffer.flip();
+                while (running) {
+                    if (frames.fill(inChannel) < 0) {
+                        throw new EOFException("Connection closed by server");
+                    }
+
+                    while (frames.nextFrame()) {
+                        decodeFrame();
                     }
                 }
             } catch (final IOException e) {
@@ -351,93 +202,4 @@ final class Receiver extends Thread implements NetCommReader {
             }
         }
     }
-
-    /**
-     * Set of the receiver is running or not. If this is set to false the
-     * receiver waits ready but does nothing.
-     * 
-     * @param newRunning the new state of the running flag
-     */
-    public void setRunning(final boolean newRunning) {
-        running = newRunning;
-    }
-
-    /**
-     * This function checks of the received data contains a complete command.
-     * 
-     * @param len the amount of bytes that were received for that command
-     * @return true in case the command is complete, false if not
-     */
-    @SuppressWarnings("nls")
-    private boolean dataComplete(final int len) {
-        if (len <= buffer.remaining()) {
-            timeOut = 0;
-            return true;
-        }
-
-        // set timeout for data
-        if (timeOut == 0) {
-            timeOut = System.currentTimeMillis() + RECEIVER_TIMEOUT;
-            LOGGER.warn("Waiting for missing data "
-                + ((CommandList.HEADER_SIZE + len) - buffer.remaining()));
-        }
-
-        // timeout exceeded
-        if (System.currentTimeMillis() > timeOut) {
-            NetComm.dump("Receiver timeout. Skipping ", buffer);
-            buffer.clear();
-            buffer.limit(0);
-        } else { // still waiting
-            buffer.position(0);
-        }
-
-        return false;
-    }
-
-    /**
-     * Read data from the input stream of the socket and store it in the buffer.
-     * 
-     * @param neededDataInBuffer The data that is needed at least before the
-     *            method has to return in order to parse the values correctly
-     * @return true in case there is any data to be decoded in the buffer
-     * @throws IOException In case there is something wrong with the input
-     *             stream
-     */
-    @SuppressWarnings("nls")
-    private boolean receiveData(final int neededDataInBuffer)
-        throws IOException {
-
-        int data = buffer.remaining();
-        int newData = 0;
-
-        final int appPos = buffer.limit();
-        buffer.clear();
-        buffer.position(appPos);
-
-        while (true) {
-            if (inChannel.isOpen()) {
-                newData = inChannel.read(buffer);
-            }
-            data += newData;
-            if (data >= neededDataInBuffer) {
-                break;
-            }
-            try {
-                Thread.sleep(2);
-            } catch (final InterruptedException e) {
-                LOGGER.warn("Interrupted wait time for new data");
-            }
-        }
-
-        buffer.flip();
-
-        if ((newData > 0) && IllaClient.isDebug(Debug.net)) {
-            buffer.position(appPos);
-            NetComm.dump("rcv <= ", buffer);
-            buffer.position(0);
-        }
-
-        return buffer.hasRemaining();
-    }
-
 }
@@ -18,7 +18,7 @@
  */
 package illarion.client.net;
 
-import javolution.context.PoolContext;
+import java.io.IOException;
 
 import illarion.client.net.server.AbstractReply;
 import illarion.client.net.server.AppearanceMsg;
@@ -60,6 +60,11 @@ import illarion.common.util.RecycleFactory;
 /**
  * The Factory for commands the server sends to the client. This factory
  * prepares and recycles all server messages and set the needed mapping.
+ * <p>
+ * The replies are only fetched and recycled by the network threads. Those
+ * threads run inside a {@link javolution.context.PoolContext} for their whole
+ * lifetime, so the factory does not need to enter one for every reply.
+ * </p>
  * 
  * @author Martin Karing
  * @author Nop
@@ -142,17 +147,21 @@ public final class ReplyFactory extends RecycleFactory<AbstractReply> {
     }
 
     /**
-     * Get the AbstractReply requested from this factory. This method is
-     * implemented in addition in order to ensure the execution in the
-     * PoolContext.
+     * Fetch the reply that is registered for a message ID and decode the data
+     * of a received frame into it.
+     * 
+     * @param id the ID of the message that was received
+     * @param frame the reader that provides the data of the frame
+     * @return the decoded reply
+     * @throws IOException in case the reply reads beyond the end of the frame
      */
-    @Override
-    public AbstractReply getCommand(final int requestId) {
-        PoolContext.enter();
-        try {
-            return super.getCommand(requestId);
-        } finally {
-            PoolContext.exit();
-        }
+    public AbstractReply decode(final int id, final NetCommReader frame)
+        throws IOException {
+        final AbstractReply rpl = getCommand(id);
+
+        // explicitly set id for mapped commands
+        rpl.activate(id);
+        rpl.decode(frame);
+        return rpl;
     }
 }
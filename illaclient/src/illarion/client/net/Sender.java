@@ -18,12 +18,15 @@
  */
 package illarion.client.net;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.CharsetEncoder;
 import java.util.concurrent.BlockingQueue;
 
+import javolution.util.FastTable;
+
 import org.apache.log4j.Logger;
 
 import illarion.client.Debug;
@@ -36,6 +39,12 @@ import illarion.common.util.Location;
 /**
  * The Sender class handles all data that is send from the client, encodes the
  * commands and prepares them for sending.
+ * <p>
+ * All commands that are waiting in the queue are taken at once, encoded one
+ * after another into the same buffer and written to the server together.
+ * Commands that are made redundant by the command queued directly after them
+ * are dropped before encoding.
+ * </p>
  * 
  * @author Martin Karing
  * @author Nop
@@ -54,17 +63,45 @@ final class Sender extends Thread implements NetCommWriter {
      */
     private static final Logger LOGGER = Logger.getLogger(Receiver.class);
 
+    /**
+     * The maximal amount of commands that are taken from the queue at once.
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+
     /**
      * The maximal size in bytes one command can use.
      */
     private static final int MAX_COMMAND_SIZE = 1000;
 
+    /**
+     * The amount of commands that fit into the buffer before its written to
+     * the server, assuming the largest size of a command.
+     */
+    private static final int MAX_COMMANDS_PER_FLUSH = 16;
+
+    /**
+     * The commands that were taken from the queue and are currently encoded.
+     */
+    private final FastTable<AbstractCommand> batch =
+        new FastTable<AbstractCommand>(MAX_BATCH_SIZE);
+
     /**
      * Length of the byte buffer used to store the data before its send to the
      * server.
      */
     private final ByteBuffer buffer = ByteBuffer
-        .allocateDirect(MAX_COMMAND_SIZE);
+        .allocateDirect(MAX_COMMAND_SIZE * MAX_COMMANDS_PER_FLUSH);
+
+    /**
+     * The amount of bytes written to the server.
+     */
+    private volatile long bytesSent;
+
+    /**
+     * The amount of commands that were dropped because the command queued
+     * after them made them redundant.
+     */
+    private volatile long coalescedCommands;
 
     /**
      * The string encoder that is used to encode the strings before they are
@@ -78,6 +115,16 @@ final class Sender extends Thread implements NetCommWriter {
      */
     private final CharBuffer encodingBuffer = CharBuffer.allocate(255);
 
+    /**
+     * The amount of times the encoded data was flushed to the server.
+     */
+    private volatile long flushes;
+
+    /**
+     * The amount of command frames written to the server.
+     */
+    private volatile long framesSent;
+
     /**
      * The output stream of the socket connection to the server. The encoded
      * data is written on this stream to be send to the server.
@@ -94,6 +141,11 @@ final class Sender extends Thread implements NetCommWriter {
      */
     private boolean running;
 
+    /**
+     * The amount of write calls on the output channel.
+     */
+    private volatile long writes;
+
     /**
      * The basic constructor for the sender that sets up all needed data.
      * 
@@ -115,6 +167,42 @@ final class Sender extends Thread implements NetCommWriter {
         setDaemon(true);
     }
 
+    /**
+     * Get the average amount of bytes written with one write call to the
+     * output channel.
+     * 
+     * @return the average bytes per write call
+     */
+    public double getBytesPerWrite() {
+        if (writes == 0) {
+            return 0;
+        }
+        return (double) bytesSent / writes;
+    }
+
+    /**
+     * Get the amount of commands that were not send because the command queued
+     * after them made them redundant.
+     * 
+     * @return the amount of dropped commands
+     */
+    public long getCoalescedCommands() {
+        return coalescedCommands;
+    }
+
+    /**
+     * Get the average amount of command frames that were written to the server
+     * at once.
+     * 
+     * @return the average frames per flush
+     */
+    public double getFramesPerFlush() {
+        if (flushes == 0) {
+            return 0;
+        }
+        return (double) framesSent / flushes;
+    }
+
     /**
      * The main loop the the server thread. Encodes the commands in the queue
      * and prepares them for sending to the server.
@@ -127,40 +215,21 @@ final class Sender extends Thread implements NetCommWriter {
         running = true;
         try {
             while (running) {
-                // get first command form out queue
-
-                AbstractCommand cmd;
-                cmd = queue.take();
+                // wait for the first command and fetch all others waiting
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                coalesce();
 
                 buffer.clear();
-                buffer.put((byte) cmd.getId());
-                buffer.put((byte) (cmd.getId() ^ COMMAND_XOR_MASK));
-
-                // keep some space for the length and the CRC
-                final int headerLenCRC = buffer.position();
-                buffer.putShort((short) 0);
-                buffer.putShort((short) 0);
-
-                final int startOfCmd = buffer.position();
-                // encode command into net protocol
-                cmd.encode(this);
-                cmd.recycle();
-
-                final int length = buffer.position() - startOfCmd;
-                buffer.flip();
-                buffer.position(startOfCmd);
-                final int crc = NetComm.getCRC(buffer, length);
-                buffer.position(headerLenCRC);
-                buffer.putShort((short) length);
-                buffer.putShort((short) crc);
-                buffer.position(0);
-
-                if (IllaClient.isDebug(Debug.net)) {
-                    NetComm.dump("snd => ", buffer);
-                    buffer.flip();
+                final int count = batch.size();
+                for (int i = 0; i < count; i++) {
+                    if (buffer.remaining() < MAX_COMMAND_SIZE) {
+                        flush();
+                    }
+                    encodeCommand(batch.get(i));
                 }
-
-                outChannel.write(buffer);
+                batch.clear();
+                flush();
             }
         } catch (final Exception e) {
             LOGGER.fatal("General error within the sender", e);
@@ -181,6 +250,86 @@ final class Sender extends Thread implements NetCommWriter {
         }
     }
 
+    /**
+     * Drop all commands from the current batch that are made redundant by the
+     * command directly after them.
+     */
+    private void coalesce() {
+        int kept = 0;
+        final int count = batch.size();
+        for (int i = 0; i < count; i++) {
+            final AbstractCommand cmd = batch.get(i);
+            if ((kept > 0) && cmd.supersedes(batch.get(kept - 1))) {
+                batch.get(kept - 1).recycle();
+                batch.set(kept - 1, cmd);
+                coalescedCommands++;
+            } else {
+                batch.set(kept++, cmd);
+            }
+        }
+        while (batch.size() > kept) {
+            batch.removeLast();
+        }
+    }
+
+    /**
+     * Encode a command along with its header at the current position of the
+     * buffer. The command is recycled after it got encoded.
+     * 
+     * @param cmd the command to encode
+     */
+    private void encodeCommand(final AbstractCommand cmd) {
+        buffer.put((byte) cmd.getId());
+        buffer.put((byte) (cmd.getId() ^ COMMAND_XOR_MASK));
+
+        // keep some space for the length and the CRC
+        final int headerLenCRC = buffer.position();
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+
+        final int startOfCmd = buffer.position();
+        // encode command into net protocol
+        cmd.encode(this);
+        cmd.recycle();
+
+        final int endOfCmd = buffer.position();
+        final int length = endOfCmd - startOfCmd;
+        buffer.position(startOfCmd);
+        final int crc = NetComm.getCRC(buffer, length);
+        buffer.putShort(headerLenCRC, (short) length);
+        buffer.putShort(headerLenCRC + 2, (short) crc);
+        buffer.position(endOfCmd);
+
+        framesSent++;
+    }
+
+    /**
+     * Write all data encoded in the buffer to the server and clear the buffer.
+     * 
+     * @throws IOException in case writing to the server fails
+     */
+    @SuppressWarnings("nls")
+    private void flush() throws IOException {
+        buffer.flip();
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            return;
+        }
+
+        if (IllaClient.isDebug(Debug.net)) {
+            NetComm.dump("snd => ", buffer);
+            buffer.rewind();
+        }
+
+        bytesSent += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            outChannel.write(buffer);
+            writes++;
+        }
+        flushes++;
+        buffer.clear();
+    }
+
     /**
      * Write 1 byte as signed value to the network.
      * 
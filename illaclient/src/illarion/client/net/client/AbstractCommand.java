@@ -152,6 +152,19 @@ public abstract class AbstractCommand implements RecycleObject {
         Game.getNet().sendCommand(this);
     }
 
+    /**
+     * Check if this command makes the command that was queued directly before
+     * it redundant. In case this function returns <code>true</code> the
+     * previous command is dropped and only this command is send to the server.
+     * 
+     * @param previous the command that was queued directly before this one
+     * @return <code>true</code> in case the previous command does not need to
+     *         be send anymore
+     */
+    public boolean supersedes(final AbstractCommand previous) {
+        return false;
+    }
+
     /**
      * Get the informations about this object as a string.
      * 
@@ -77,6 +77,20 @@ public final class LookatTileCmd extends AbstractCommand {
         loc.set(lookAtLoc);
     }
 
+    /**
+     * Looking at the same tile twice in a row results in the same answer, so
+     * the second command makes the first one redundant.
+     * 
+     * @param previous the command that was queued directly before this one
+     * @return <code>true</code> in case the previous command looks at the same
+     *         tile
+     */
+    @Override
+    public boolean supersedes(final AbstractCommand previous) {
+        return (previous instanceof LookatTileCmd)
+            && loc.equals(((LookatTileCmd) previous).loc);
+    }
+
     /**
      * Get the data of this look at map command as string.
      * 
@@ -18,6 +18,7 @@
  */
 package illarion.client.net.client;
 
+import illarion.client.net.CommandList;
 import illarion.client.net.NetCommWriter;
 
 /**
@@ -71,6 +72,37 @@ public final class SimpleCmd extends AbstractCommand {
         return;
     }
 
+    /**
+     * A keep alive command makes a keep alive command directly before it
+     * redundant. Also a turn command replaces a turn command directly before
+     * it, as only the last direction is of any interest.
+     * 
+     * @param previous the command that was queued directly before this one
+     * @return <code>true</code> in case the previous command is not needed
+     *         anymore
+     */
+    @Override
+    public boolean supersedes(final AbstractCommand previous) {
+        if (!(previous instanceof SimpleCmd)) {
+            return false;
+        }
+        if (getId() == CommandList.CMD_KEEPALIVE) {
+            return previous.getId() == CommandList.CMD_KEEPALIVE;
+        }
+        return isTurn(getId()) && isTurn(previous.getId());
+    }
+
+    /**
+     * Check if a command ID is the ID of one of the turn commands.
+     * 
+     * @param id the ID to check
+     * @return <code>true</code> in case the ID is a turn command
+     */
+    private static boolean isTurn(final int id) {
+        return (id >= CommandList.CMD_TURN_N)
+            && (id <= CommandList.CMD_TURN_NW);
+    }
+
     /**
      * Get the data of this simple command as string.
      * 
@@ -20,8 +20,6 @@ package illarion.client.net.server;
 
 import java.io.IOException;
 
-import javolution.context.PoolContext;
-
 import illarion.client.net.NetCommReader;
 import illarion.client.net.ReplyFactory;
 
@@ -85,6 +83,21 @@ public abstract class AbstractReply implements RecycleObject {
         return loc;
     }
 
+    /**
+     * Decode the following 6 bytes as location and store them in a existing
+     * location instance.
+     * 
+     * @param reader the receiver that delivers the data that shall be used as
+     *            location data
+     * @param loc the location that receives the position informations
+     * @throws IOException in case there are not enough bytes in the buffer to
+     *             decode a location, this exception is thrown
+     */
+    protected static final void decodeLocation(final NetCommReader reader,
+        final Location loc) throws IOException {
+        loc.setSC(reader.readShort(), reader.readShort(), reader.readShort());
+    }
+
     /**
      * Activate the object with a different ID. To change the ID of this server
      * reply and set up all needed new data, this function can be used.
@@ -132,6 +145,31 @@ public abstract class AbstractReply implements RecycleObject {
         return id;
     }
 
+    /**
+     * Get the lane this reply is executed in. The replies of one lane are
+     * executed in the order they were received.
+     * 
+     * @return the lane of this reply
+     */
+    public ReplyLane getLane() {
+        return ReplyLane.gui;
+    }
+
+    /**
+     * Check if this reply is a barrier for the lanes. All replies received
+     * before a barrier are executed before it, and all replies received after
+     * it are executed after it, regardless of the lanes they belong to.
+     * Replies that are delayed because {@link #processNow()} returns
+     * <code>false</code> are the exception, they are executed once they are
+     * ready. A barrier that is delayed itself holds back the following
+     * replies only for a limited time.
+     * 
+     * @return <code>true</code> in case this reply is a barrier
+     */
+    public boolean isBarrier() {
+        return false;
+    }
+
     /**
      * Check if the message can be executed right now. The update is not
      * executed now in case this function returns false.
@@ -144,18 +182,14 @@ public abstract class AbstractReply implements RecycleObject {
 
     /**
      * Recycle the object, so put it back into the recycle factory for later
-     * reuse.
+     * reuse. This is expected to be called by a thread that runs inside a
+     * {@link javolution.context.PoolContext}.
      * 
      * @see illarion.common.util.RecycleObject#recycle()
      */
     @Override
     public final void recycle() {
-        PoolContext.enter();
-        try {
-            ReplyFactory.getInstance().recycle(this);
-        } finally {
-            PoolContext.exit();
-        }
+        ReplyFactory.getInstance().recycle(this);
     }
 
     /**
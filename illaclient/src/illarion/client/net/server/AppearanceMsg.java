@@ -305,6 +305,17 @@ public final class AppearanceMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the appearance of a character.
+     * 
+     * @return the characters lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.characters;
+    }
+
     /**
      * Get the data of this appearance message as string.
      * 
@@ -107,6 +107,17 @@ public final class ChangeItemMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the items on the map.
+     * 
+     * @return the map lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.map;
+    }
+
     /**
      * Cleanup the object and release all unneeded references.
      */
@@ -94,6 +94,17 @@ public final class CharacterAnimationMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the animations of the characters.
+     * 
+     * @return the characters lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.characters;
+    }
+
     /**
      * Get the data of this character animation message as string.
      * 
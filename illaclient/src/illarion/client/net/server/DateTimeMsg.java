@@ -115,6 +115,17 @@ public final class DateTimeMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the light of the map.
+     * 
+     * @return the map lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.map;
+    }
+
     /**
      * Get the data of this date and time message as string.
      * 
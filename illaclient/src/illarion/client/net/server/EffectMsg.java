@@ -101,6 +101,20 @@ public final class EffectMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. Sound effects are played along
+     * with the chat, graphic effects are shown along with the map updates.
+     * 
+     * @return the chat lane for sound effects, else the map lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        if (getId() == CommandList.MSG_SOUND_FX) {
+            return ReplyLane.chat;
+        }
+        return ReplyLane.map;
+    }
+
     /**
      * Clean up all references that are not needed anymore.
      */
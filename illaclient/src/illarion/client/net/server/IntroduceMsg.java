@@ -88,6 +88,17 @@ public final class IntroduceMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the names of the characters.
+     * 
+     * @return the characters lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.characters;
+    }
+
     /**
      * Clean the command up before recycling it.
      */
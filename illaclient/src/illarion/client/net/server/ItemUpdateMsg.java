@@ -65,7 +65,7 @@ public final class ItemUpdateMsg extends AbstractReply {
     /**
      * Position of the server map that is updated.
      */
-    private transient Location loc;
+    private final transient Location loc = new Location();
 
     /**
      * Default constructor for the items on tile message.
@@ -95,7 +95,7 @@ public final class ItemUpdateMsg extends AbstractReply {
      */
     @Override
     public void decode(final NetCommReader reader) throws IOException {
-        loc = decodeLocation(reader);
+        decodeLocation(reader, loc);
 
         itemNumber = reader.readUByte();
 
@@ -121,17 +121,24 @@ public final class ItemUpdateMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the items on the map.
+     * 
+     * @return the map lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.map;
+    }
+
     /**
      * Clean up this instance before its moved back into the buffer.
      */
     @Override
     public void reset() {
-        itemId.clear();
-        itemCount.clear();
-        if (loc != null) {
-            loc.recycle();
-            loc = null;
-        }
+        itemId.resetQuick();
+        itemCount.resetQuick();
     }
 
     /**
@@ -102,6 +102,28 @@ public final class LocationMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the map around the player.
+     * 
+     * @return the map lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.map;
+    }
+
+    /**
+     * The location message is a barrier, because the replies of all lanes
+     * depend on the location of the player and the map that is cleared here.
+     * 
+     * @return <code>true</code> in any case
+     */
+    @Override
+    public boolean isBarrier() {
+        return true;
+    }
+
     /**
      * Wait with processing this command until the game factory and the player
      * is load for sure.
@@ -20,18 +20,37 @@ package illarion.client.net.server;
 
 import java.io.IOException;
 
-import javolution.util.FastList;
+import org.apache.log4j.Logger;
 
+import gnu.trove.list.array.TIntArrayList;
+
+import illarion.client.graphics.AbstractEntity;
+import illarion.client.graphics.Tile;
 import illarion.client.net.CommandList;
 import illarion.client.net.NetCommReader;
+import illarion.client.resources.ItemFactory;
+import illarion.client.resources.TileFactory;
 import illarion.client.world.Game;
 import illarion.client.world.GameMap;
 
-import illarion.common.util.Location;
+import illarion.common.util.RecycleFactory;
+
+import illarion.graphics.Sprite;
+import illarion.graphics.common.LightTracer;
+import illarion.graphics.common.TextureLoader;
 
 /**
  * Servermessage: Map stripe (
  * {@link illarion.client.net.CommandList#MSG_MAP_STRIPE}).
+ * <p>
+ * The tiles of the stripe are decoded into a flat list of values that is kept
+ * along with the message instance. While executing the message one tile update
+ * instance is loaded with the data of one tile after another.
+ * </p>
+ * <p>
+ * The atlas textures of the tiles and items in the stripe are requested while
+ * the message is decoded, so they are likely loaded once the tiles are shown.
+ * </p>
  * 
  * @author Martin Karing
  * @author Nop
@@ -49,6 +68,11 @@ public final class MapStripeMsg extends AbstractReply {
      */
     private static final short DIR_RIGHT = 0;
 
+    /**
+     * The instance of the logger that is used to write out the data.
+     */
+    private static final Logger LOGGER = Logger.getLogger(MapStripeMsg.class);
+
     /**
      * Count of the tiles in this stripe.
      */
@@ -61,15 +85,31 @@ public final class MapStripeMsg extends AbstractReply {
     private short dir;
 
     /**
-     * The location the stripe starts at.
+     * The server X coordinate of the location the stripe starts at.
+     */
+    private int startX;
+
+    /**
+     * The server Y coordinate of the location the stripe starts at.
+     */
+    private int startY;
+
+    /**
+     * The server Z coordinate of the location the stripe starts at.
+     */
+    private int startZ;
+
+    /**
+     * The data of all tiles inside the update, in the format created by
+     * {@link TileUpdate#decode(NetCommReader, TIntArrayList)}.
      */
-    private transient Location loc;
+    private final TIntArrayList tiles = new TIntArrayList();
 
     /**
-     * The list of tiles that are inside the update and all containing
-     * informations.
+     * The tile update that is loaded with the data of the single tiles while
+     * the message is executed.
      */
-    private final FastList<TileUpdate> tiles = new FastList<TileUpdate>();
+    private final TileUpdate workUpdate = new TileUpdate();
 
     /**
      * Default constructor for the map stripe message.
@@ -99,28 +139,18 @@ public final class MapStripeMsg extends AbstractReply {
      */
     @Override
     public void decode(final NetCommReader reader) throws IOException {
-        loc = decodeLocation(reader);
-
-        final Location workLoc = Location.getInstance();
-        workLoc.set(loc);
+        startX = reader.readShort();
+        startY = reader.readShort();
+        startZ = reader.readShort();
 
         dir = reader.readUByte();
-
-        // create array of sufficient size
         count = reader.readUByte();
 
+        tiles.resetQuick();
         for (int i = 0; i < count; ++i) {
-            final TileUpdate workUpdate = TileUpdate.getInstance();
-            workUpdate.setLocation(workLoc);
-            workUpdate.decode(reader);
-            if (dir == DIR_DOWN) {
-                workLoc.addSC(-1, 1, 0);
-            } else if (dir == DIR_RIGHT) {
-                workLoc.addSC(1, 1, 0);
-            }
-            tiles.addLast(workUpdate);
+            TileUpdate.decode(reader, tiles);
         }
-        workLoc.recycle();
+        prefetchTextures();
     }
 
     /**
@@ -131,19 +161,38 @@ public final class MapStripeMsg extends AbstractReply {
      * @see illarion.client.net.server.AbstractReply#executeUpdate()
      */
     @Override
+    @SuppressWarnings("nls")
     public boolean executeUpdate() {
         final GameMap map = Game.getMap();
+        final LightTracer lights = Game.getLights();
+        final long invalidatedLights = lights.getInvalidatedLights();
         map.startTileUpdate();
-        while (!tiles.isEmpty()) {
-            final TileUpdate currUpdate = tiles.removeFirst();
-            map.updateTile(currUpdate);
-            map.getMinimap().update(currUpdate);
-            currUpdate.reset();
-            currUpdate.recycle();
+
+        int x = startX;
+        int y = startY;
+        int offset = 0;
+        for (int i = 0; i < count; ++i) {
+            workUpdate.setLocation(x, y, startZ);
+            offset = workUpdate.load(tiles, offset);
+            map.updateTile(workUpdate);
+            map.getMinimap().update(workUpdate);
+            workUpdate.reset();
+
+            if (dir == DIR_DOWN) {
+                x--;
+                y++;
+            } else if (dir == DIR_RIGHT) {
+                x++;
+                y++;
+            }
         }
         map.finishTileUpdate();
 
-        Game.getLights().refresh();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Map stripe invalidated "
+                + (lights.getInvalidatedLights() - invalidatedLights)
+                + " lights");
+        }
 
         if (Game.getDisplay().isActive()) {
             map.getMinimap().finishUpdate();
@@ -152,6 +201,56 @@ public final class MapStripeMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the tiles of the map.
+     * 
+     * @return the map lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.map;
+    }
+
+    /**
+     * Request the atlas texture of the first frame of a tile or a item to be
+     * loaded ahead of time.
+     * 
+     * @param loader the texture loader
+     * @param factory the factory that stores the prototype of the object
+     * @param id the ID of the object
+     */
+    private static void prefetchTexture(final TextureLoader loader,
+        final RecycleFactory<? extends AbstractEntity> factory, final int id) {
+        if (!factory.prototypeExists(id)) {
+            return;
+        }
+        final Sprite sprite = factory.getPrototype(id).getSprite();
+        if (sprite != null) {
+            loader.prefetch(sprite.getTexture(0));
+        }
+    }
+
+    /**
+     * Request the atlas textures of the tiles and the items in this stripe to
+     * be loaded ahead of time.
+     */
+    private void prefetchTextures() {
+        final TextureLoader loader = TextureLoader.getInstance();
+        int index = 0;
+        for (int i = 0; i < count; ++i) {
+            prefetchTexture(loader, TileFactory.getInstance(),
+                Tile.baseID(tiles.get(index)));
+            index += 2;
+            final int items = tiles.get(index++);
+            for (int j = 0; j < items; ++j) {
+                prefetchTexture(loader, ItemFactory.getInstance(),
+                    tiles.get(index));
+                index += 2;
+            }
+        }
+    }
+
     /**
      * Check if that function can be update can be executed now. The map update
      * must only be send in case the time data of the server is already
@@ -169,10 +268,8 @@ public final class MapStripeMsg extends AbstractReply {
      */
     @Override
     public void reset() {
-        if (loc != null) {
-            loc.recycle();
-            loc = null;
-        }
+        tiles.resetQuick();
+        count = 0;
     }
 
     /**
@@ -184,6 +281,7 @@ public final class MapStripeMsg extends AbstractReply {
     @SuppressWarnings("nls")
     @Override
     public String toString() {
-        return toString(loc.toString() + " dir=" + dir + " tiles=" + count);
+        return toString("(" + startX + ", " + startY + ", " + startZ + ") dir="
+            + dir + " tiles=" + count);
     }
 }
@@ -73,7 +73,7 @@ public final class MoveMsg extends AbstractReply {
     /**
      * The new location of the character.
      */
-    private transient Location loc;
+    private final transient Location loc = new Location();
 
     /**
      * The moving mode of the character. Valid values are {@link #MODE_NO_MOVE},
@@ -116,7 +116,7 @@ public final class MoveMsg extends AbstractReply {
     @Override
     public void decode(final NetCommReader reader) throws IOException {
         charId = reader.readUInt();
-        loc = decodeLocation(reader);
+        decodeLocation(reader, loc);
         mode = reader.readUByte();
         speed = reader.readUByte();
     }
@@ -175,14 +175,14 @@ public final class MoveMsg extends AbstractReply {
     }
 
     /**
-     * Clean up the objects that are not needed any longer.
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the movement of the characters.
+     * 
+     * @return the characters lane
      */
     @Override
-    public void reset() {
-        if (loc != null) {
-            loc.recycle();
-            loc = null;
-        }
+    public ReplyLane getLane() {
+        return ReplyLane.characters;
     }
 
     /**
@@ -82,6 +82,17 @@ public final class MusicMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the music that is played.
+     * 
+     * @return the chat lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.chat;
+    }
+
     /**
      * Get the data of this play music message as string.
      * 
@@ -82,6 +82,28 @@ public final class PlayerIdMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the player character.
+     * 
+     * @return the characters lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.characters;
+    }
+
+    /**
+     * The player ID message is a barrier, because the replies of all lanes
+     * depend on the ID of the player that is changed here.
+     * 
+     * @return <code>true</code> in any case
+     */
+    @Override
+    public boolean isBarrier() {
+        return true;
+    }
+
     /**
      * Get the data of this player id message as string.
      * 
@@ -83,6 +83,17 @@ public final class RemoveCharMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the characters on the map.
+     * 
+     * @return the characters lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.characters;
+    }
+
     /**
      * Get the data of this remove character message as string.
      * 
@@ -89,6 +89,17 @@ public final class RemoveItemMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the items on the map.
+     * 
+     * @return the map lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.map;
+    }
+
     /**
      * Cleanup the references in this object that are not needed any longer.
      */
@@ -0,0 +1,53 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.net.server;
+
+/**
+ * The lanes the replies of the server are executed in. The replies of one lane
+ * are executed in the order they were received, the replies of different lanes
+ * are executed concurrently.
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ */
+public enum ReplyLane {
+    /**
+     * The lane of the replies that change the characters on the map, such as
+     * the appearance, the movement and the animations of the characters.
+     */
+    characters,
+
+    /**
+     * The lane of the replies that show spoken text or play music and sounds.
+     */
+    chat,
+
+    /**
+     * The lane of the replies that update the inventory, the containers, the
+     * attributes and the other parts of the GUI. Replies that do not select a
+     * lane are executed in this lane.
+     */
+    gui,
+
+    /**
+     * The lane of the replies that change the tiles and the items of the map
+     * and the location of the player.
+     */
+    map;
+}
@@ -102,6 +102,17 @@ public final class SayMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the spoken text.
+     * 
+     * @return the chat lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.chat;
+    }
+
     /**
      * Clean the command up before recycling it.
      */
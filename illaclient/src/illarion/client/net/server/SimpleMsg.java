@@ -109,6 +109,21 @@ public final class SimpleMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The messages about the combat
+     * target are executed along with the character updates, the notification
+     * about the completed map along with the map updates.
+     * 
+     * @return the lane of this message
+     */
+    @Override
+    public ReplyLane getLane() {
+        if (getId() == CommandList.MSG_MAP_COMPLETE) {
+            return ReplyLane.map;
+        }
+        return ReplyLane.characters;
+    }
+
     /**
      * Get if the command is now ready to be executed.
      * 
@@ -20,7 +20,6 @@ package illarion.client.net.server;
 
 import java.io.IOException;
 
-import javolution.util.FastList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.array.TShortArrayList;
 
@@ -28,88 +27,28 @@ import illarion.client.net.NetCommReader;
 import illarion.client.world.MapTile;
 
 import illarion.common.util.Location;
-import illarion.common.util.Reusable;
 
 /**
  * Class that stores all needed informations for a update of a single tile.
+ * <p>
+ * The tiles of a map stripe are decoded into a flat list of integer values
+ * using {@link #decode(NetCommReader, TIntArrayList)}. A single tile update
+ * instance is loaded from this list for one tile after another using
+ * {@link #load(TIntArrayList, int)}, so no object is created per tile.
+ * </p>
  * 
  * @author Martin Karing
  * @author Nop
  * @since 0.92
  * @version 1.22
  */
-public final class TileUpdate implements Reusable {
-    /**
-     * The factory that creates instances of the TileUpdate class and stores
-     * them for reuse.
-     * 
-     * @author Martin Karing
-     * @since 1.22
-     * @version 1.22
-     */
-    private static final class TileUpdateFactory {
-        /**
-         * The list used to store the currently unused instances of this class.
-         */
-        private final FastList<TileUpdate> buffer;
-
-        /**
-         * A public constructor to create a instance of this class in the parent
-         * class.
-         */
-        public TileUpdateFactory() {
-            buffer = new FastList<TileUpdate>();
-        }
-
-        /**
-         * Get a new instance of the buffer object. Its either reused or new
-         * created.
-         * 
-         * @return the instance that is now ready to be used
-         */
-        public TileUpdate object() {
-            synchronized (buffer) {
-                if (!buffer.isEmpty()) {
-                    return buffer.removeLast();
-                }
-            }
-
-            return create();
-        }
-
-        /**
-         * Recycle the tile update by placing it at the end of the list.
-         * 
-         * @param update the tile update instance to recycle
-         */
-        public void recycle(final TileUpdate update) {
-            synchronized (buffer) {
-                buffer.addLast(update);
-            }
-        }
-
-        /**
-         * Create a new instance of the managed object.
-         * 
-         * @return the new instance of tile update
-         */
-        protected TileUpdate create() {
-            return new TileUpdate();
-        }
-
-    }
-
+public final class TileUpdate {
     /**
      * Default size of the arrays that store the items of this tile update. The
      * size is increased automatically in case its needed.
      */
     private static final int DEFAULT_SIZE = 5;
 
-    /**
-     * The factory that creates and stores the instances of this class.
-     */
-    private static final TileUpdateFactory FACTORY = new TileUpdateFactory();
-
     /**
      * List of count values for the items on this tile.
      */
@@ -155,13 +94,31 @@ public final class TileUpdate implements Reusable {
     }
 
     /**
-     * Get a instance of the TileUpdate that is currently not in use. Its either
-     * taken from the storage or newly created.
+     * Decode the data of one tile the receiver got and append it to a list of
+     * tile data.
      * 
-     * @return the TileUpdate instance that is now free to be used
+     * @param reader the receiver that got the data from the server that needs
+     *            to be decoded
+     * @param data the list that receives the tile data
+     * @throws IOException thrown in case there was not enough data received to
+     *             decode the full message
      */
-    public static TileUpdate getInstance() {
-        return FACTORY.object();
+    static void decode(final NetCommReader reader, final TIntArrayList data)
+        throws IOException {
+        // read tile attributes
+        data.add(reader.readShort());
+
+        // read the sound track of this tile
+        data.add(reader.readUShort());
+
+        // read items
+        final int items = reader.readUByte();
+        data.add(items);
+
+        for (int i = 0; i < items; ++i) {
+            data.add(reader.readShort());
+            data.add(reader.readUByte());
+        }
     }
 
     /**
@@ -244,19 +201,31 @@ public final class TileUpdate implements Reusable {
     }
 
     /**
-     * Clean the references from this function in case there are any remaining.
-     * This function should be called after the last operation is done with this
-     * object.
+     * Load the data of one tile from a list of tile data that was created by
+     * {@link #decode(NetCommReader, TIntArrayList)}.
+     * 
+     * @param data the list of tile data
+     * @param offset the index of the first value of the tile in the list
+     * @return the index of the first value after the tile in the list
      */
-    @Override
-    public void recycle() {
-        FACTORY.recycle(this);
+    int load(final TIntArrayList data, final int offset) {
+        int index = offset;
+        tileId = data.get(index++);
+        tileMusic = data.get(index++);
+        itemNumber = data.get(index++);
+
+        itemId.resetQuick();
+        itemCount.resetQuick();
+        for (int i = 0; i < itemNumber; ++i) {
+            itemId.add(data.get(index++));
+            itemCount.add((short) data.get(index++));
+        }
+        return index;
     }
 
     /**
      * Reset the state of this instance to make it ready for the next use.
      */
-    @Override
     public void reset() {
         mapTile = null;
         itemId.reset();
@@ -274,37 +243,24 @@ public final class TileUpdate implements Reusable {
     }
 
     /**
-     * Set the real map tile that was created by this update, for later usage
-     * along with the mini map update.
+     * Change the location this tile update points at.
      * 
-     * @param newMapTile the map tile that was created by this update
+     * @param x the x coordinate of the location in server coordinates
+     * @param y the y coordinate of the location in server coordinates
+     * @param z the z coordinate of the location in server coordinates
      */
-    public void setMapTile(final MapTile newMapTile) {
-        mapTile = newMapTile;
+    public void setLocation(final int x, final int y, final int z) {
+        loc.setSC(x, y, z);
+        mapTile = null;
     }
 
     /**
-     * Decode the tile data the receiver got and store it until the update is
-     * executed.
+     * Set the real map tile that was created by this update, for later usage
+     * along with the mini map update.
      * 
-     * @param reader the receiver that got the data from the server that needs
-     *            to be decoded
-     * @throws IOException thrown in case there was not enough data received to
-     *             decode the full message
+     * @param newMapTile the map tile that was created by this update
      */
-    protected void decode(final NetCommReader reader) throws IOException {
-        // read tile attributes
-        tileId = reader.readShort();
-
-        // read the sound track of this tile
-        tileMusic = reader.readUShort();
-
-        // read items
-        itemNumber = reader.readUByte();
-
-        for (int i = 0; i < itemNumber; ++i) {
-            itemId.add(reader.readShort());
-            itemCount.add(reader.readUByte());
-        }
+    public void setMapTile(final MapTile newMapTile) {
+        mapTile = newMapTile;
     }
 }
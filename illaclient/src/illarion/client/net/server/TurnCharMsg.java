@@ -103,6 +103,17 @@ public final class TurnCharMsg extends AbstractReply {
         return true;
     }
 
+    /**
+     * Get the lane this reply is executed in. The reply is executed along with
+     * the other replies that change the direction of the characters.
+     * 
+     * @return the characters lane
+     */
+    @Override
+    public ReplyLane getLane() {
+        return ReplyLane.characters;
+    }
+
     /**
      * Check if the character can be executed now, or if its needed to wait and
      * keep this data to have it executed later.
@@ -20,6 +20,7 @@ package illarion.client.resources;
 
 import illarion.client.graphics.Tile;
 import illarion.common.util.RecycleFactory;
+import illarion.graphics.common.MapColor;
 
 /**
  * The tile factory loads and stores all graphical representations of the tiles
@@ -32,11 +33,41 @@ import illarion.common.util.RecycleFactory;
  */
 public final class TileFactory extends RecycleFactory<Tile> implements
     ResourceFactory<Tile> {
+    /**
+     * The size of the mini map color table. The index of the table is the
+     * encoded mini map tile. Bit 0 to 4 store the ID of the base tile, bit 5 to
+     * 9 the ID of the overlay tile and bit 10 the blocked flag.
+     */
+    public static final int MINI_MAP_COLORS = 1 << 11;
+
     /**
      * The singleton instance of this class.
      */
     private static final TileFactory INSTANCE = new TileFactory();
 
+    /**
+     * The modifier value that is multiplied to the color values in case the
+     * tile is blocked.
+     */
+    private static final float MINI_MAP_BLOCKED_MOD = 0.7f;
+
+    /**
+     * The AND mask to get a tile ID from a encoded mini map tile.
+     */
+    private static final int MINI_MAP_ID_MASK = 0x1f;
+
+    /**
+     * Indicated how many bits the blocked bit of a encoded mini map tile is
+     * shifted.
+     */
+    private static final int MINI_MAP_SHIFT_BLOCKED = 10;
+
+    /**
+     * Indicated how many bits the overlay ID of a encoded mini map tile is
+     * shifted.
+     */
+    private static final int MINI_MAP_SHIFT_OVERLAY = 5;
+
     /**
      * Get the singleton instance of this class.
      * 
@@ -46,6 +77,11 @@ public final class TileFactory extends RecycleFactory<Tile> implements
         return INSTANCE;
     }
 
+    /**
+     * The packed RGBA colors of all encoded mini map tiles.
+     */
+    private int[] miniMapColors;
+
     /**
      * Private constructor of the tile factory that prepares this factory for
      * operation.
@@ -77,6 +113,21 @@ public final class TileFactory extends RecycleFactory<Tile> implements
 
     }
 
+    /**
+     * Get the colors of the tiles on the mini map. The table is indexed with
+     * the encoded mini map tile as described at {@link #MINI_MAP_COLORS}. Each
+     * entry stores the red, green, blue and alpha value of the tile, starting
+     * with red in the highest byte. Writing a entry with
+     * {@link java.nio.ByteBuffer#putInt(int)} to a big endian buffer results
+     * in the pixel data of the mini map texture.
+     * 
+     * @return the color table or <code>null</code> in case the tiles are not
+     *         loaded yet
+     */
+    public int[] getMiniMapColors() {
+        return miniMapColors;
+    }
+
     /**
      * The initialize function that can be used to prepare this factory to take
      * the data from the resource loader.
@@ -93,6 +144,7 @@ public final class TileFactory extends RecycleFactory<Tile> implements
     public void loadingFinished() {
         mapDefault(0, 1);
         finish();
+        miniMapColors = createMiniMapColors();
     }
 
     /**
@@ -102,4 +154,52 @@ public final class TileFactory extends RecycleFactory<Tile> implements
     public void storeResource(final Tile resource) {
         register(resource);
     }
+
+    /**
+     * Create the color table of the mini map. The colors are calculated the
+     * same way the mini map did for each single tile: the overlay tile reduces
+     * the difference to its color by half and blocked tiles are darkened.
+     * 
+     * @return the color table of the mini map
+     */
+    private int[] createMiniMapColors() {
+        final int[][] tileColors = new int[MINI_MAP_ID_MASK + 1][];
+        for (int id = 1; id <= MINI_MAP_ID_MASK; ++id) {
+            if (prototypeExists(id) || prototypeExists(0)) {
+                tileColors[id] = MapColor.getColor(getMapColor(id));
+            } else {
+                tileColors[id] = MapColor.getColor(0);
+            }
+        }
+
+        final int[] colors = new int[MINI_MAP_COLORS];
+        for (int i = 0; i < MINI_MAP_COLORS; ++i) {
+            final int tileID = i & MINI_MAP_ID_MASK;
+            if (tileID == 0) {
+                continue;
+            }
+            final int overlayID =
+                (i >> MINI_MAP_SHIFT_OVERLAY) & MINI_MAP_ID_MASK;
+            final int[] tileColor = tileColors[tileID];
+
+            int red = tileColor[0];
+            int green = tileColor[1];
+            int blue = tileColor[2];
+            if (overlayID > 0) {
+                final int[] overlayColor = tileColors[overlayID];
+                red += (overlayColor[0] - tileColor[0]) >> 1;
+                green += (overlayColor[1] - tileColor[1]) >> 1;
+                blue += (overlayColor[2] - tileColor[2]) >> 1;
+            }
+            if ((i >> MINI_MAP_SHIFT_BLOCKED) > 0) {
+                red *= MINI_MAP_BLOCKED_MOD;
+                green *= MINI_MAP_BLOCKED_MOD;
+                blue *= MINI_MAP_BLOCKED_MOD;
+            }
+            colors[i] =
+                ((red & 0xFF) << 24) | ((green & 0xFF) << 16)
+                    | ((blue & 0xFF) << 8) | 0xFF;
+        }
+        return colors;
+    }
 }
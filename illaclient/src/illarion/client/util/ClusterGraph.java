@@ -0,0 +1,618 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.util;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import illarion.common.util.Location;
+import illarion.common.util.Rectangle;
+
+/**
+ * The hierarchical path search that is used for paths that are too long for a
+ * search tile by tile. The map is split into square clusters. For every
+ * cluster the entrances to the neighbour clusters and the movement costs
+ * between the entrances are calculated once the cluster is needed for the
+ * first time. A long path is searched on the graph of the entrances first and
+ * only the clusters along this path are searched tile by tile after.
+ * <p>
+ * Clusters are dropped from the cache in case a tile inside the cluster or at
+ * its border changes. They are calculated again the next time they are
+ * needed. Each cluster that is calculated has its own revision, so a change
+ * only discards the calculation of the clusters it affects. All searches
+ * have to be done by the pathfinder thread, the invalidation of the clusters
+ * is allowed from any thread.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class ClusterGraph {
+    /**
+     * The entrances and the movement costs inside one cluster.
+     * 
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    private static final class Cluster {
+        /**
+         * The movement costs between the entrances, the cost from entrance
+         * <code>i</code> to entrance <code>j</code> is stored at the index
+         * <code>i * count + j</code>. Entrances that are not connected inside
+         * the cluster have the cost {@link PathSearch#BLOCKED}.
+         */
+        private final int[] costs;
+
+        /**
+         * The amount of entrances.
+         */
+        private final int count;
+
+        /**
+         * The entrances of the cluster. Each entrance is stored with four
+         * values, the X and Y coordinate of the tile inside the cluster and
+         * the X and Y coordinate of the tile in the neighbour cluster.
+         */
+        private final int[] entrances;
+
+        /**
+         * Create a new cluster.
+         * 
+         * @param clusterEntrances the entrances of the cluster
+         * @param clusterCosts the movement costs between the entrances
+         */
+        Cluster(final int[] clusterEntrances, final int[] clusterCosts) {
+            entrances = clusterEntrances;
+            costs = clusterCosts;
+            count = clusterEntrances.length / ENTRANCE_SIZE;
+        }
+    }
+
+    /**
+     * The width and the height of the clusters in tiles.
+     */
+    private static final int CLUSTER_SIZE = 10;
+
+    /**
+     * The amount of values stored for each entrance.
+     */
+    private static final int ENTRANCE_SIZE = 4;
+
+    /**
+     * The maximal amount of clusters stored in the cache. The cache is
+     * cleared in case it grows larger.
+     */
+    private static final int MAX_CACHED_CLUSTERS = 512;
+
+    /**
+     * The maximal amount of entrances checked by one search before the search
+     * gives up.
+     */
+    private static final int MAX_EXPANSIONS = 4000;
+
+    /**
+     * The area of the cluster that is searched currently.
+     */
+    private final Rectangle area;
+
+    /**
+     * The clusters that were calculated already, stored by the key of their
+     * cluster coordinates. Accessing this map requires to synchronize on it.
+     */
+    private final TLongObjectHashMap<Cluster> clusters;
+
+    /**
+     * The entrances that were checked by the current search.
+     */
+    private final TLongHashSet closed;
+
+    /**
+     * The movement costs to reach the entrances from the start location.
+     */
+    private final TLongIntHashMap costs;
+
+    /**
+     * The keys of the entrances stored by the index of their search node.
+     */
+    private final TLongArrayList keys;
+
+    /**
+     * The index of the search nodes stored by the key of their entrances.
+     */
+    private final TLongIntHashMap nodes;
+
+    /**
+     * The search nodes of the entrances that were reached but not checked yet.
+     */
+    private final NodeHeap open;
+
+    /**
+     * The entrance each entrance was reached from.
+     */
+    private final TLongLongHashMap parents;
+
+    /**
+     * The revisions of the clusters that are calculated currently, stored by
+     * the key of their cluster coordinates. The revision is increased in case
+     * the cluster changes while its calculated. Accessing this map requires
+     * to synchronize on the clusters.
+     */
+    private final TLongIntHashMap revisions;
+
+    /**
+     * The search that is used to search inside the clusters.
+     */
+    private final PathSearch search;
+
+    /**
+     * The X coordinate of the target location of the current search.
+     */
+    private int targetX;
+
+    /**
+     * The Y coordinate of the target location of the current search.
+     */
+    private int targetY;
+
+    /**
+     * Create a new cluster graph.
+     * 
+     * @param tileSearch the search used to search inside the clusters
+     */
+    ClusterGraph(final PathSearch tileSearch) {
+        search = tileSearch;
+        area = Rectangle.getInstance();
+        clusters = new TLongObjectHashMap<Cluster>();
+        closed = new TLongHashSet();
+        costs = new TLongIntHashMap();
+        keys = new TLongArrayList();
+        nodes = new TLongIntHashMap();
+        open = new NodeHeap(MAX_EXPANSIONS);
+        parents = new TLongLongHashMap();
+        revisions = new TLongIntHashMap();
+    }
+
+    /**
+     * Get the coordinate of the cluster a tile coordinate belongs to.
+     * 
+     * @param coordinate the tile coordinate
+     * @return the cluster coordinate
+     */
+    private static int toCluster(final int coordinate) {
+        if (coordinate >= 0) {
+            return coordinate / CLUSTER_SIZE;
+        }
+        return ((coordinate + 1) / CLUSTER_SIZE) - 1;
+    }
+
+    /**
+     * Get the key used by the search for a tile.
+     * 
+     * @param x the X coordinate of the tile
+     * @param y the Y coordinate of the tile
+     * @return the key of the tile
+     */
+    private static long toKey(final int x, final int y) {
+        return (((long) x) << Integer.SIZE) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the X coordinate of a tile from its key.
+     * 
+     * @param key the key of the tile
+     * @return the X coordinate
+     */
+    private static int keyX(final long key) {
+        return (int) (key >> Integer.SIZE);
+    }
+
+    /**
+     * Get the Y coordinate of a tile from its key.
+     * 
+     * @param key the key of the tile
+     * @return the Y coordinate
+     */
+    private static int keyY(final long key) {
+        return (int) key;
+    }
+
+    /**
+     * Search a path between two locations on the same level.
+     * 
+     * @param startX the X coordinate of the start location
+     * @param startY the Y coordinate of the start location
+     * @param destX the X coordinate of the target location
+     * @param destY the Y coordinate of the target location
+     * @param level the Z coordinate of both locations
+     * @return the path or <code>null</code> in case no path was found
+     */
+    public Path findPath(final int startX, final int startY, final int destX,
+        final int destY, final int level) {
+        if (PathSearch.getTileValue(destX, destY, level)
+            == PathSearch.BLOCKED) {
+            return null;
+        }
+
+        final long startKey = toKey(startX, startY);
+        final long goalKey = toKey(destX, destY);
+        final int goalClusterX = toCluster(destX);
+        final int goalClusterY = toCluster(destY);
+        final Cluster goalCluster =
+            getCluster(goalClusterX, goalClusterY, level);
+        final int[] goalCosts = new int[goalCluster.count];
+        for (int i = 0; i < goalCluster.count; i++) {
+            goalCosts[i] =
+                searchCost(goalCluster.entrances[i * ENTRANCE_SIZE],
+                    goalCluster.entrances[(i * ENTRANCE_SIZE) + 1], destX,
+                    destY, level);
+        }
+
+        targetX = destX;
+        targetY = destY;
+        open.clear();
+        closed.clear();
+        costs.clear();
+        keys.resetQuick();
+        nodes.clear();
+        parents.clear();
+        reach(startKey, startKey, 0);
+
+        int expansions = 0;
+        while (!open.isEmpty() && (expansions < MAX_EXPANSIONS)) {
+            final long current = keys.get(open.pop());
+            if (current == goalKey) {
+                return refine(startKey, goalKey, level);
+            }
+            closed.add(current);
+            expansions++;
+
+            final int x = keyX(current);
+            final int y = keyY(current);
+            final int clusterX = toCluster(x);
+            final int clusterY = toCluster(y);
+            final int currentCost = costs.get(current);
+            final Cluster cluster = getCluster(clusterX, clusterY, level);
+            final boolean inGoalCluster =
+                (clusterX == goalClusterX) && (clusterY == goalClusterY);
+
+            if (current == startKey) {
+                for (int i = 0; i < cluster.count; i++) {
+                    final int entranceX =
+                        cluster.entrances[i * ENTRANCE_SIZE];
+                    final int entranceY =
+                        cluster.entrances[(i * ENTRANCE_SIZE) + 1];
+                    final int cost =
+                        searchCost(x, y, entranceX, entranceY, level);
+                    if (cost != PathSearch.BLOCKED) {
+                        reach(current, toKey(entranceX, entranceY), cost);
+                    }
+                }
+                if (inGoalCluster) {
+                    final int cost = searchCost(x, y, destX, destY, level);
+                    if (cost != PathSearch.BLOCKED) {
+                        reach(current, goalKey, cost);
+                    }
+                }
+            }
+
+            for (int i = 0; i < cluster.count; i++) {
+                final int offset = i * ENTRANCE_SIZE;
+                if ((cluster.entrances[offset] != x)
+                    || (cluster.entrances[offset + 1] != y)) {
+                    continue;
+                }
+
+                final int outsideX = cluster.entrances[offset + 2];
+                final int outsideY = cluster.entrances[offset + 3];
+                reach(current, toKey(outsideX, outsideY), currentCost
+                    + PathSearch.getTileValue(outsideX, outsideY, level));
+
+                for (int j = 0; j < cluster.count; j++) {
+                    final int cost = cluster.costs[(i * cluster.count) + j];
+                    if ((j != i) && (cost != PathSearch.BLOCKED)) {
+                        reach(current, toKey(cluster.entrances[j
+                            * ENTRANCE_SIZE], cluster.entrances[(j
+                            * ENTRANCE_SIZE) + 1]), currentCost + cost);
+                    }
+                }
+
+                if (inGoalCluster && (goalCosts[i] != PathSearch.BLOCKED)) {
+                    reach(current, goalKey, currentCost + goalCosts[i]);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drop the clusters that are affected by a changed tile from the cache.
+     * These are the cluster that contains the tile and, in case the tile is at
+     * the border of the cluster, the neighbour clusters.
+     * 
+     * @param x the X coordinate of the tile
+     * @param y the Y coordinate of the tile
+     * @param z the Z coordinate of the tile
+     */
+    public void invalidate(final int x, final int y, final int z) {
+        final int clusterX = toCluster(x);
+        final int clusterY = toCluster(y);
+        final int localX = x - (clusterX * CLUSTER_SIZE);
+        final int localY = y - (clusterY * CLUSTER_SIZE);
+
+        synchronized (clusters) {
+            if (clusters.isEmpty() && revisions.isEmpty()) {
+                return;
+            }
+            for (int offX = -1; offX <= 1; offX++) {
+                if (((offX == -1) && (localX != 0))
+                    || ((offX == 1) && (localX != (CLUSTER_SIZE - 1)))) {
+                    continue;
+                }
+                for (int offY = -1; offY <= 1; offY++) {
+                    if (((offY == -1) && (localY != 0))
+                        || ((offY == 1) && (localY != (CLUSTER_SIZE - 1)))) {
+                        continue;
+                    }
+                    final long key =
+                        Location.getKey(clusterX + offX, clusterY + offY, z);
+                    clusters.remove(key);
+                    revisions.increment(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the entrances along one border of a cluster. The border is split
+     * into runs of tiles that are walkable on both sides of the border, every
+     * run gets one entrance in its middle.
+     * 
+     * @param entrances the list that receives the entrances
+     * @param insideX the X coordinate of the first tile inside the cluster
+     * @param insideY the Y coordinate of the first tile inside the cluster
+     * @param outsideX the X offset from the inside tile to the outside tile
+     * @param outsideY the Y offset from the inside tile to the outside tile
+     * @param stepX the X offset to the next tile along the border
+     * @param stepY the Y offset to the next tile along the border
+     * @param level the Z coordinate of the cluster
+     */
+    private void addEntrances(final TIntArrayList entrances,
+        final int insideX, final int insideY, final int outsideX,
+        final int outsideY, final int stepX, final int stepY, final int level) {
+        int runStart = -1;
+        for (int i = 0; i <= CLUSTER_SIZE; i++) {
+            final int x = insideX + (stepX * i);
+            final int y = insideY + (stepY * i);
+            final boolean passable =
+                (i < CLUSTER_SIZE)
+                    && (PathSearch.getTileValue(x, y, level)
+                        != PathSearch.BLOCKED)
+                    && (PathSearch.getTileValue(x + outsideX, y + outsideY,
+                        level) != PathSearch.BLOCKED);
+            if (passable && (runStart == -1)) {
+                runStart = i;
+            } else if (!passable && (runStart != -1)) {
+                final int middle = (runStart + i - 1) / 2;
+                final int entranceX = insideX + (stepX * middle);
+                final int entranceY = insideY + (stepY * middle);
+                entrances.add(entranceX);
+                entrances.add(entranceY);
+                entrances.add(entranceX + outsideX);
+                entrances.add(entranceY + outsideY);
+                runStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Calculate the entrances and the movement costs between them for one
+     * cluster.
+     * 
+     * @param clusterX the X coordinate of the cluster
+     * @param clusterY the Y coordinate of the cluster
+     * @param level the Z coordinate of the cluster
+     * @return the calculated cluster
+     */
+    private Cluster buildCluster(final int clusterX, final int clusterY,
+        final int level) {
+        final int left = clusterX * CLUSTER_SIZE;
+        final int bottom = clusterY * CLUSTER_SIZE;
+        final int right = (left + CLUSTER_SIZE) - 1;
+        final int top = (bottom + CLUSTER_SIZE) - 1;
+
+        final TIntArrayList list = new TIntArrayList();
+        addEntrances(list, left, bottom, -1, 0, 0, 1, level);
+        addEntrances(list, right, bottom, 1, 0, 0, 1, level);
+        addEntrances(list, left, bottom, 0, -1, 1, 0, level);
+        addEntrances(list, left, top, 0, 1, 1, 0, level);
+
+        final int[] entrances = list.toArray();
+        final int count = entrances.length / ENTRANCE_SIZE;
+        final int[] clusterCosts = new int[count * count];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < count; j++) {
+                clusterCosts[(i * count) + j] =
+                    searchCost(entrances[i * ENTRANCE_SIZE],
+                        entrances[(i * ENTRANCE_SIZE) + 1],
+                        entrances[j * ENTRANCE_SIZE],
+                        entrances[(j * ENTRANCE_SIZE) + 1], level);
+            }
+        }
+        return new Cluster(entrances, clusterCosts);
+    }
+
+    /**
+     * Get a cluster from the cache or calculate it in case its not cached.
+     * 
+     * @param clusterX the X coordinate of the cluster
+     * @param clusterY the Y coordinate of the cluster
+     * @param level the Z coordinate of the cluster
+     * @return the cluster
+     */
+    private Cluster getCluster(final int clusterX, final int clusterY,
+        final int level) {
+        final long key = Location.getKey(clusterX, clusterY, level);
+        synchronized (clusters) {
+            final Cluster cluster = clusters.get(key);
+            if (cluster != null) {
+                return cluster;
+            }
+            revisions.put(key, 0);
+        }
+
+        final Cluster cluster = buildCluster(clusterX, clusterY, level);
+        synchronized (clusters) {
+            if (revisions.remove(key) == 0) {
+                if (clusters.size() >= MAX_CACHED_CLUSTERS) {
+                    clusters.clear();
+                }
+                clusters.put(key, cluster);
+            }
+        }
+        return cluster;
+    }
+
+    /**
+     * Update the movement cost of a entrance in case the new way to reach it
+     * is cheaper.
+     * 
+     * @param from the key of the entrance the new way comes from
+     * @param key the key of the entrance that is reached
+     * @param cost the movement cost of the new way
+     */
+    private void reach(final long from, final long key, final int cost) {
+        if (closed.contains(key)) {
+            return;
+        }
+        if (costs.containsKey(key) && (costs.get(key) <= cost)) {
+            return;
+        }
+        costs.put(key, cost);
+        parents.put(key, from);
+
+        int node = nodes.get(key);
+        if (!nodes.containsKey(key)) {
+            node = keys.size();
+            keys.add(key);
+            nodes.put(key, node);
+        }
+        open.offer(node, cost
+            + PathSearch.estimateCost(keyX(key), keyY(key), targetX, targetY));
+    }
+
+    /**
+     * Search the steps along the entrances found by the search inside the
+     * clusters they belong to.
+     * 
+     * @param startKey the key of the start location
+     * @param goalKey the key of the target location
+     * @param level the Z coordinate of the path
+     * @return the path or <code>null</code> in case a part of the path can't
+     *         be walked anymore
+     */
+    private Path refine(final long startKey, final long goalKey,
+        final int level) {
+        final TLongArrayList waypoints = new TLongArrayList();
+        for (long key = goalKey; key != startKey; key = parents.get(key)) {
+            waypoints.add(key);
+        }
+        waypoints.add(startKey);
+        waypoints.reverse();
+
+        final TIntArrayList steps = new TIntArrayList();
+        steps.add(keyX(startKey));
+        steps.add(keyY(startKey));
+        for (int i = 1; i < waypoints.size(); i++) {
+            final int fromX = keyX(waypoints.get(i - 1));
+            final int fromY = keyY(waypoints.get(i - 1));
+            final int toX = keyX(waypoints.get(i));
+            final int toY = keyY(waypoints.get(i));
+            if (Math.max(Math.abs(fromX - toX), Math.abs(fromY - toY)) <= 1) {
+                if ((fromX != toX) || (fromY != toY)) {
+                    steps.add(toX);
+                    steps.add(toY);
+                }
+                continue;
+            }
+
+            if (!searchCluster(fromX, fromY, toX, toY, level)) {
+                return null;
+            }
+            final int[] segment = search.getSteps();
+            steps.add(segment, 2, segment.length - 2);
+        }
+        return new Path(steps.toArray(), level);
+    }
+
+    /**
+     * Search a way between two locations inside the cluster of the first
+     * location.
+     * 
+     * @param fromX the X coordinate of the start location
+     * @param fromY the Y coordinate of the start location
+     * @param toX the X coordinate of the target location
+     * @param toY the Y coordinate of the target location
+     * @param level the Z coordinate of both locations
+     * @return <code>true</code> in case a way was found
+     */
+    private boolean searchCluster(final int fromX, final int fromY,
+        final int toX, final int toY, final int level) {
+        area.set(toCluster(fromX) * CLUSTER_SIZE, toCluster(fromY)
+            * CLUSTER_SIZE, CLUSTER_SIZE, CLUSTER_SIZE);
+        if (!search.start(fromX, fromY, level, toX, toY, level, CLUSTER_SIZE
+            * CLUSTER_SIZE, area)) {
+            return false;
+        }
+
+        int result = search.step();
+        while (result == PathSearch.SEARCHING) {
+            result = search.step();
+        }
+        return result == PathSearch.FOUND;
+    }
+
+    /**
+     * Get the movement cost between two locations inside the cluster of the
+     * first location.
+     * 
+     * @param fromX the X coordinate of the start location
+     * @param fromY the Y coordinate of the start location
+     * @param toX the X coordinate of the target location
+     * @param toY the Y coordinate of the target location
+     * @param level the Z coordinate of both locations
+     * @return the movement cost or {@link PathSearch#BLOCKED} in case there is
+     *         no way inside the cluster
+     */
+    private int searchCost(final int fromX, final int fromY, final int toX,
+        final int toY, final int level) {
+        if ((fromX == toX) && (fromY == toY)) {
+            return 0;
+        }
+        if (searchCluster(fromX, fromY, toX, toY, level)) {
+            return search.getPathCost();
+        }
+        return PathSearch.BLOCKED;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.util;
+
+import java.util.Arrays;
+
+/**
+ * A indexed binary heap of the nodes of a path search. The nodes are
+ * identified by their index and ordered by a priority, the node with the
+ * lowest priority is the first node of the heap. The position of every node
+ * in the heap is stored, so the priority of a node that is already in the
+ * heap can be lowered without searching the node.
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class NodeHeap {
+    /**
+     * The position of a node that is not in the heap.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The nodes in the heap.
+     */
+    private int[] nodes;
+
+    /**
+     * The position of the nodes in the heap or {@link #NONE}.
+     */
+    private int[] positions;
+
+    /**
+     * The priorities of the nodes.
+     */
+    private int[] priorities;
+
+    /**
+     * The amount of nodes in the heap.
+     */
+    private int size;
+
+    /**
+     * Create a new heap.
+     * 
+     * @param capacity the amount of nodes the heap is able to handle without
+     *            growing
+     */
+    NodeHeap(final int capacity) {
+        nodes = new int[capacity];
+        positions = new int[capacity];
+        priorities = new int[capacity];
+        Arrays.fill(positions, NONE);
+    }
+
+    /**
+     * Remove all nodes from the heap.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[nodes[i]] = NONE;
+        }
+        size = 0;
+    }
+
+    /**
+     * Check if a node is in the heap.
+     * 
+     * @param node the index of the node
+     * @return <code>true</code> in case the node is in the heap
+     */
+    public boolean contains(final int node) {
+        return (node < positions.length) && (positions[node] != NONE);
+    }
+
+    /**
+     * Check if the heap is empty.
+     * 
+     * @return <code>true</code> in case there are no nodes in the heap
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Add a node to the heap. In case the node is in the heap already its
+     * priority is changed. The new priority must not be larger than the old
+     * one.
+     * 
+     * @param node the index of the node
+     * @param priority the priority of the node
+     */
+    public void offer(final int node, final int priority) {
+        if (node >= positions.length) {
+            grow(node + 1);
+        }
+        priorities[node] = priority;
+        if (positions[node] == NONE) {
+            nodes[size] = node;
+            positions[node] = size;
+            size++;
+        }
+        siftUp(positions[node]);
+    }
+
+    /**
+     * Get the node with the lowest priority without removing it.
+     * 
+     * @return the index of the first node
+     */
+    public int peek() {
+        return nodes[0];
+    }
+
+    /**
+     * Remove the node with the lowest priority from the heap.
+     * 
+     * @return the index of the removed node
+     */
+    public int pop() {
+        final int first = nodes[0];
+        positions[first] = NONE;
+        size--;
+        if (size > 0) {
+            final int last = nodes[size];
+            nodes[0] = last;
+            positions[last] = 0;
+            siftDown(0);
+        }
+        return first;
+    }
+
+    /**
+     * Increase the amount of nodes the heap is able to handle.
+     * 
+     * @param minCapacity the amount of nodes that is needed at least
+     */
+    private void grow(final int minCapacity) {
+        final int oldCapacity = positions.length;
+        final int capacity = Math.max(minCapacity, oldCapacity * 2);
+        nodes = Arrays.copyOf(nodes, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        Arrays.fill(positions, oldCapacity, capacity, NONE);
+    }
+
+    /**
+     * Move a node towards the end of the heap until its at the correct
+     * position.
+     * 
+     * @param index the position of the node in the heap
+     */
+    private void siftDown(final int index) {
+        final int node = nodes[index];
+        int pos = index;
+        while (true) {
+            int child = (2 * pos) + 1;
+            if (child >= size) {
+                break;
+            }
+            if (((child + 1) < size)
+                && (priorities[nodes[child + 1]] < priorities[nodes[child]])) {
+                child++;
+            }
+            if (priorities[nodes[child]] >= priorities[node]) {
+                break;
+            }
+            nodes[pos] = nodes[child];
+            positions[nodes[pos]] = pos;
+            pos = child;
+        }
+        nodes[pos] = node;
+        positions[node] = pos;
+    }
+
+    /**
+     * Move a node towards the start of the heap until its at the correct
+     * position.
+     * 
+     * @param index the position of the node in the heap
+     */
+    private void siftUp(final int index) {
+        final int node = nodes[index];
+        int pos = index;
+        while (pos > 0) {
+            final int parentPos = (pos - 1) / 2;
+            if (priorities[node] >= priorities[nodes[parentPos]]) {
+                break;
+            }
+            nodes[pos] = nodes[parentPos];
+            positions[nodes[pos]] = pos;
+            pos = parentPos;
+        }
+        nodes[pos] = node;
+        positions[node] = pos;
+    }
+}
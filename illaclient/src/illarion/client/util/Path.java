@@ -18,25 +18,49 @@
  */
 package illarion.client.util;
 
-import java.util.LinkedList;
+import javolution.text.TextBuilder;
 
 import illarion.common.util.Location;
 
 /**
- * A path created by the path finder that stores the path nodes.
+ * A path created by the path finder. The steps of the path are stored as pairs
+ * of server X and Y coordinates in one array, all steps are located on the
+ * same level.
+ * <p>
+ * The pathfinder repairs the steps that were not taken yet in case the map
+ * changes while the path is followed, so the access to the steps is
+ * synchronized.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
  */
 public final class Path {
+    /**
+     * The Z coordinate of all steps of the path.
+     */
+    private final int level;
+
+    /**
+     * The index of the next step in the list of steps.
+     */
+    private int next;
 
     /**
-     * List if the path nodes that create this path.
+     * The X and Y coordinates of the steps of this path.
      */
-    private final LinkedList<PathNode> path = new LinkedList<PathNode>();
+    private int[] steps;
 
     /**
-     * Default constructor for a new path.
+     * Create a new path.
+     * 
+     * @param pathSteps the X and Y coordinates of the steps of the path
+     * @param pathLevel the Z coordinate of all steps
      */
-    public Path() {
-        // nothing to do
+    Path(final int[] pathSteps, final int pathLevel) {
+        steps = pathSteps;
+        level = pathLevel;
     }
 
     /**
@@ -45,47 +69,153 @@ public final class Path {
      * 
      * @return the destination of the path
      */
-    public Location getDestination() {
-        if (!path.isEmpty()) {
-            return path.getLast().getLocation();
+    public synchronized Location getDestination() {
+        if (steps.length == 0) {
+            return null;
+        }
+        final Location loc = Location.getInstance();
+        loc.setSC(steps[steps.length - 2], steps[steps.length - 1], level);
+        return loc;
+    }
+
+    /**
+     * Get the total amount of steps of this path.
+     * 
+     * @return the amount of steps
+     */
+    synchronized int getLength() {
+        return steps.length / 2;
+    }
+
+    /**
+     * Get the Z coordinate of all steps of this path.
+     * 
+     * @return the Z coordinate
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Get the index of the next step that was not taken yet.
+     * 
+     * @return the index of the next step
+     */
+    synchronized int getNextStepIndex() {
+        return next;
+    }
+
+    /**
+     * Get the amount of steps that were not taken yet.
+     * 
+     * @return the amount of remaining steps
+     */
+    public synchronized int getRemainingSteps() {
+        return (steps.length / 2) - next;
+    }
+
+    /**
+     * Get the X coordinate of a step.
+     * 
+     * @param index the index of the step
+     * @return the X coordinate of the step
+     */
+    synchronized int getStepX(final int index) {
+        return steps[index * 2];
+    }
+
+    /**
+     * Get the Y coordinate of a step.
+     * 
+     * @param index the index of the step
+     * @return the Y coordinate of the step
+     */
+    synchronized int getStepY(final int index) {
+        return steps[(index * 2) + 1];
+    }
+
+    /**
+     * Get the index of the step on a location. Only the steps that were not
+     * taken yet are searched.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @return the index of the step or <code>-1</code> in case the location is
+     *         not part of the remaining path
+     */
+    synchronized int indexOf(final int x, final int y) {
+        for (int i = next * 2; i < steps.length; i += 2) {
+            if ((steps[i] == x) && (steps[i + 1] == y)) {
+                return i / 2;
+            }
         }
-        return null;
+        return -1;
     }
 
     /**
-     * Get the next step of this path and remove it from the list. This function
-     * returns always the first value entry of the path node list and removed it
-     * from the list then.
+     * Get the next step of this path and remove it from the path.
      * 
-     * @return the next path node of this path
+     * @param step the location that receives the position of the next step
+     * @return <code>true</code> in case there was a step left,
+     *         <code>false</code> in case the end of the path is reached
      */
-    public PathNode nextStep() {
-        PathNode node = null;
-        if (!path.isEmpty()) {
-            node = path.removeFirst();
+    public synchronized boolean nextStep(final Location step) {
+        if (getRemainingSteps() == 0) {
+            return false;
         }
-        return node;
+        step.setSC(steps[next * 2], steps[(next * 2) + 1], level);
+        next++;
+        return true;
     }
 
     /**
-     * Add a path node to the very beginning of the path.
+     * Replace some steps of the path that were not taken yet.
      * 
-     * @param newNode the new path node that is added to the beginning of the
-     *            path
+     * @param first the index of the first step that is replaced
+     * @param last the index of the last step that is replaced
+     * @param replacement the X and Y coordinates of the new steps
+     * @return <code>true</code> in case the steps were replaced,
+     *         <code>false</code> in case the first step was taken already
      */
-    public void prependStep(final PathNode newNode) {
-        path.addFirst(newNode);
+    synchronized boolean replaceSteps(final int first, final int last,
+        final int[] replacement) {
+        if ((first < next) || (last < (first - 1))) {
+            return false;
+        }
+
+        final int[] newSteps =
+            new int[(steps.length - (((last - first) + 1) * 2))
+                + replacement.length];
+        System.arraycopy(steps, 0, newSteps, 0, first * 2);
+        System.arraycopy(replacement, 0, newSteps, first * 2,
+            replacement.length);
+        System.arraycopy(steps, (last + 1) * 2, newSteps, (first * 2)
+            + replacement.length, steps.length - ((last + 1) * 2));
+        steps = newSteps;
+        return true;
     }
 
     /**
-     * Create a string representation of this path. Containing the value of the
-     * path and the path itself.
+     * Create a string representation of this path. Containing the remaining
+     * steps of the path.
      * 
      * @return the string that defines the path
      */
     @Override
     @SuppressWarnings("nls")
-    public String toString() {
-        return "Path: " + path.toString();
+    public synchronized String toString() {
+        final TextBuilder builder = TextBuilder.newInstance();
+        builder.append("Path: [");
+        for (int i = next * 2; i < steps.length; i += 2) {
+            if (i > (next * 2)) {
+                builder.append(", ");
+            }
+            builder.append('(').append(steps[i]).append(',');
+            builder.append(steps[i + 1]).append(')');
+        }
+        builder.append(']');
+        final String result = builder.toString();
+        TextBuilder.recycle(builder);
+        return result;
     }
 }
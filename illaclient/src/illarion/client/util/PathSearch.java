@@ -0,0 +1,472 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.util;
+
+import java.util.Arrays;
+
+import illarion.client.world.Game;
+import illarion.client.world.MapTile;
+
+import illarion.common.util.Location;
+import illarion.common.util.Rectangle;
+
+/**
+ * The A* search used by the pathfinder. The nodes of the search are stored in
+ * a arena of primitive arrays that covers a square window around the start
+ * location, so the node of a location is found by its position in the window
+ * without looking it up in a map or creating any objects. The nodes that were
+ * not checked yet are stored in a {@link NodeHeap} that supports lowering
+ * the cost of a node that is already in the heap.
+ * <p>
+ * The arena is reused for every search. A stamp marks the nodes that belong to
+ * the current search, so the arrays do not need to be cleared.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class PathSearch {
+    /**
+     * The value of a node that can't be walked on.
+     */
+    static final int BLOCKED = -1;
+
+    /**
+     * The result of a search step in case no path was found.
+     */
+    static final int FAILED = 2;
+
+    /**
+     * The result of a search step in case the path was found.
+     */
+    static final int FOUND = 1;
+
+    /**
+     * The result of a search step in case the search needs to continue.
+     */
+    static final int SEARCHING = 0;
+
+    /**
+     * The factor applied to the cost of a diagonal step.
+     */
+    private static final float DIAGONAL_FACTOR = 1.1f;
+
+    /**
+     * Minimum cost of a one step to the next tile. This is used for the
+     * Heuristic of the path finding.
+     */
+    private static final int MIN_MOVE_COST = 5;
+
+    /**
+     * The parent index of a node that has no parent.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The area the current search is limited to or <code>null</code> in case
+     * only the window limits the search.
+     */
+    private Rectangle bounds;
+
+    /**
+     * The flags that mark the nodes that were checked already.
+     */
+    private final boolean[] closed;
+
+    /**
+     * The movement cost to reach the nodes from the start location.
+     */
+    private final int[] cost;
+
+    /**
+     * The stamp of the current search.
+     */
+    private int currentStamp;
+
+    /**
+     * The amount of steps needed to reach the nodes.
+     */
+    private final int[] depth;
+
+    /**
+     * The index of the node of the target location.
+     */
+    private int endIndex;
+
+    /**
+     * The X coordinate of the target location.
+     */
+    private int endX;
+
+    /**
+     * The Y coordinate of the target location.
+     */
+    private int endY;
+
+    /**
+     * The amount of nodes checked by the current search.
+     */
+    private int expandedNodes;
+
+    /**
+     * The estimated cost to reach the target location from the nodes.
+     */
+    private final int[] heuristic;
+
+    /**
+     * The Z coordinate all nodes of the search are located on.
+     */
+    private int level;
+
+    /**
+     * The largest depth reached by the current search.
+     */
+    private int maxDepth;
+
+    /**
+     * The depth at that the current search gives up.
+     */
+    private int maxLength;
+
+    /**
+     * The heap of the nodes that were not checked yet, ordered by the sum of
+     * the cost and the heuristic value.
+     */
+    private final NodeHeap open;
+
+    /**
+     * The X coordinate of the first column of the window.
+     */
+    private int originX;
+
+    /**
+     * The Y coordinate of the first row of the window.
+     */
+    private int originY;
+
+    /**
+     * The index of the parent node of the nodes or {@link #NONE}.
+     */
+    private final int[] parent;
+
+    /**
+     * The maximal distance of a location from the start location to be
+     * covered by the window.
+     */
+    private final int radius;
+
+    /**
+     * The stamp of the search that used the nodes last.
+     */
+    private final int[] stamp;
+
+    /**
+     * The movement cost of the tiles of the nodes or {@link #BLOCKED}.
+     */
+    private final int[] value;
+
+    /**
+     * The width and height of the window.
+     */
+    private final int width;
+
+    /**
+     * Create a new search that covers all locations that are up to a distance
+     * away from the start location.
+     * 
+     * @param windowRadius the maximal distance of a location from the start
+     *            location
+     */
+    PathSearch(final int windowRadius) {
+        radius = windowRadius;
+        width = (2 * windowRadius) + 1;
+        final int nodes = width * width;
+        closed = new boolean[nodes];
+        cost = new int[nodes];
+        depth = new int[nodes];
+        heuristic = new int[nodes];
+        open = new NodeHeap(nodes);
+        parent = new int[nodes];
+        stamp = new int[nodes];
+        value = new int[nodes];
+    }
+
+    /**
+     * Get the estimated movement cost between two locations. The estimation is
+     * never larger than the real movement cost.
+     * 
+     * @param fromX the X coordinate of the first location
+     * @param fromY the Y coordinate of the first location
+     * @param toX the X coordinate of the second location
+     * @param toY the Y coordinate of the second location
+     * @return the estimated movement cost
+     */
+    static int estimateCost(final int fromX, final int fromY, final int toX,
+        final int toY) {
+        return MIN_MOVE_COST
+            * Math.max(Math.abs(fromX - toX), Math.abs(fromY - toY));
+    }
+
+    /**
+     * Get the movement cost of a tile on the map.
+     * 
+     * @param x the X coordinate of the tile
+     * @param y the Y coordinate of the tile
+     * @param z the Z coordinate of the tile
+     * @return the movement cost or {@link #BLOCKED} in case the tile does not
+     *         exist or can't be walked on
+     */
+    static int getTileValue(final int x, final int y, final int z) {
+        final MapTile tile = Game.getMap().getMapAt(x, y, z);
+        if ((tile == null) || tile.isBlocked()) {
+            return BLOCKED;
+        }
+        return tile.getMovementCost();
+    }
+
+    /**
+     * Get the amount of nodes the current search checked.
+     * 
+     * @return the amount of checked nodes
+     */
+    public int getExpandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * Get the movement cost of the path found by the search. This must only
+     * be called after {@link #step()} returned {@link #FOUND}.
+     * 
+     * @return the movement cost to reach the target location
+     */
+    public int getPathCost() {
+        return cost[endIndex];
+    }
+
+    /**
+     * Get the path found by the search. This must only be called after
+     * {@link #step()} returned {@link #FOUND}.
+     * 
+     * @return the path from the start location to the target location
+     */
+    public Path getPath() {
+        return new Path(getSteps(), level);
+    }
+
+    /**
+     * Get the steps of the path found by the search. This must only be called
+     * after {@link #step()} returned {@link #FOUND}.
+     * 
+     * @return the X and Y coordinates of the steps from the start location to
+     *         the target location
+     */
+    public int[] getSteps() {
+        int length = 0;
+        for (int node = endIndex; node != NONE; node = parent[node]) {
+            length++;
+        }
+
+        final int[] steps = new int[length * 2];
+        int pos = steps.length;
+        for (int node = endIndex; node != NONE; node = parent[node]) {
+            steps[--pos] = originY + (node % width);
+            steps[--pos] = originX + (node / width);
+        }
+        return steps;
+    }
+
+    /**
+     * Prepare a new search. The search is performed by calling {@link #step()}
+     * until the search is done.
+     * 
+     * @param startX the X coordinate of the start location
+     * @param startY the Y coordinate of the start location
+     * @param startZ the Z coordinate of the start location
+     * @param destX the X coordinate of the target location
+     * @param destY the Y coordinate of the target location
+     * @param destZ the Z coordinate of the target location
+     * @param length the depth of the search at that the search gives up
+     * @return <code>true</code> in case the search was started,
+     *         <code>false</code> in case the target location can't be reached
+     */
+    public boolean start(final int startX, final int startY, final int startZ,
+        final int destX, final int destY, final int destZ, final int length) {
+        return start(startX, startY, startZ, destX, destY, destZ, length, null);
+    }
+
+    /**
+     * Prepare a new search that does not leave a area of the map. The search
+     * is performed by calling {@link #step()} until the search is done.
+     * 
+     * @param startX the X coordinate of the start location
+     * @param startY the Y coordinate of the start location
+     * @param startZ the Z coordinate of the start location
+     * @param destX the X coordinate of the target location
+     * @param destY the Y coordinate of the target location
+     * @param destZ the Z coordinate of the target location
+     * @param length the depth of the search at that the search gives up
+     * @param area the area the search is limited to or <code>null</code> to
+     *            search the entire window around the start location
+     * @return <code>true</code> in case the search was started,
+     *         <code>false</code> in case the target location can't be reached
+     */
+    public boolean start(final int startX, final int startY, final int startZ,
+        final int destX, final int destY, final int destZ, final int length,
+        final Rectangle area) {
+        if (currentStamp == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            currentStamp = 0;
+        }
+        currentStamp++;
+        open.clear();
+        expandedNodes = 0;
+        maxDepth = 0;
+        maxLength = length;
+        level = startZ;
+        originX = startX - radius;
+        originY = startY - radius;
+        endX = destX;
+        endY = destY;
+        bounds = area;
+
+        if ((destZ != startZ) || !isInside(destX, destY)
+            || !isInside(startX, startY)) {
+            return false;
+        }
+
+        endIndex = getIndex(destX, destY);
+        visit(endIndex, destX, destY);
+        if (value[endIndex] == BLOCKED) {
+            return false;
+        }
+
+        final int startIndex = getIndex(startX, startY);
+        visit(startIndex, startX, startY);
+        open.offer(startIndex, heuristic[startIndex]);
+        return true;
+    }
+
+    /**
+     * Check the next node of the search.
+     * 
+     * @return {@link #SEARCHING} in case the search needs to continue,
+     *         {@link #FOUND} in case the path was found or {@link #FAILED} in
+     *         case there is no path
+     */
+    public int step() {
+        if ((maxDepth > maxLength) || open.isEmpty()) {
+            return FAILED;
+        }
+
+        final int current = open.peek();
+        maxDepth = depth[current];
+        if (current == endIndex) {
+            return FOUND;
+        }
+
+        open.pop();
+        closed[current] = true;
+        expandedNodes++;
+
+        final int currentX = originX + (current / width);
+        final int currentY = originY + (current % width);
+        for (int dir = 0; dir < Location.DIR_MOVE8; ++dir) {
+            final int x = currentX + Location.getDirectionVectorX(dir);
+            final int y = currentY + Location.getDirectionVectorY(dir);
+            if (!isInside(x, y)) {
+                continue;
+            }
+
+            final int node = getIndex(x, y);
+            visit(node, x, y);
+            if (value[node] == BLOCKED) {
+                continue;
+            }
+
+            int newMoveCost = cost[current] + value[node];
+            if ((dir == Location.DIR_NORTHEAST)
+                || (dir == Location.DIR_NORTHWEST)
+                || (dir == Location.DIR_SOUTHEAST)
+                || (dir == Location.DIR_SOUTHWEST)) {
+                newMoveCost *= DIAGONAL_FACTOR;
+            }
+
+            if ((closed[node] || open.contains(node))
+                && (newMoveCost >= cost[node])) {
+                continue;
+            }
+
+            cost[node] = newMoveCost;
+            parent[node] = current;
+            depth[node] = depth[current] + 1;
+            maxDepth = Math.max(maxDepth, depth[node]);
+
+            closed[node] = false;
+            open.offer(node, newMoveCost + heuristic[node]);
+        }
+        return SEARCHING;
+    }
+
+    /**
+     * Get the index of the node of a location.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @return the index of the node
+     */
+    private int getIndex(final int x, final int y) {
+        return ((x - originX) * width) + (y - originY);
+    }
+
+    /**
+     * Check if a location is covered by the window and the area of the search.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @return <code>true</code> in case the location is inside the window
+     */
+    private boolean isInside(final int x, final int y) {
+        final int column = x - originX;
+        final int row = y - originY;
+        return (column >= 0) && (column < width) && (row >= 0)
+            && (row < width) && ((bounds == null) || bounds.isInside(x, y));
+    }
+
+    /**
+     * Prepare a node for the current search in case it was not used by the
+     * current search yet.
+     * 
+     * @param node the index of the node
+     * @param x the X coordinate of the node
+     * @param y the Y coordinate of the node
+     */
+    private void visit(final int node, final int x, final int y) {
+        if (stamp[node] == currentStamp) {
+            return;
+        }
+        stamp[node] = currentStamp;
+        closed[node] = false;
+        cost[node] = 0;
+        depth[node] = 0;
+        parent[node] = NONE;
+        heuristic[node] = estimateCost(x, y, endX, endY);
+        value[node] = getTileValue(x, y, level);
+    }
+}
@@ -18,8 +18,9 @@
  */
 package illarion.client.util;
 
-import javolution.util.FastComparator;
-import javolution.util.FastTable;
+import java.util.Arrays;
+
+import gnu.trove.list.array.TIntArrayList;
 
 import illarion.client.crash.PathfinderCrashHandler;
 
@@ -29,7 +30,16 @@ import illarion.common.util.StoppableStorage;
 
 /**
  * Pathfinder to search the best way between two locations. Using the
- * A*-algorithm.
+ * A*-algorithm that is implemented by {@link PathSearch}. Paths that are
+ * longer than the search tile by tile allows are searched using the
+ * hierarchical search of the {@link ClusterGraph}.
+ * <p>
+ * The last path that was found is kept up to date while its followed. The
+ * game map reports every changed tile to the pathfinder. In case a tile on
+ * the remaining path got blocked, only the part of the path around the
+ * blocked tiles is searched again. In case a tile next to the path became
+ * walkable and allows a shorter way, the path is shortened.
+ * </p>
  * 
  * @author Martin Karing
  * @since 1.2.1
@@ -47,31 +57,41 @@ public final class Pathfinder extends Thread implements Stoppable {
     private static final int MAX_LENGTH = 30;
 
     /**
-     * Minimum cost of a one step to the next tile. This is used for the
-     * Heuristic of the path finding
+     * The path that was found last and is maybe still followed.
      */
-    private static final int MIN_MOVE_COST = 5;
+    private volatile Path activePath;
 
     /**
-     * List of path nodes we tried already.
+     * The X, Y and Z coordinates of the tiles that changed since the changes
+     * were handled last. Accessing this list requires to synchronize on it.
      */
-    private FastTable<PathNode> closed;
+    private final TIntArrayList changes;
 
     /**
-     * The end location of the current path finding action.
+     * The hierarchical search used for long paths.
      */
-    private final Location endLoc;
+    private final ClusterGraph clusters;
 
     /**
-     * List of path nodes that were not considered fully for searching yet.
+     * The end location of the current path finding action.
      */
-    private FastTable<PathNode> open;
+    private final Location endLoc;
 
     /**
      * The class that is supposed to receive the generated path.
      */
     private PathReceiver receiver = null;
 
+    /**
+     * The amount of nodes checked while repairing paths.
+     */
+    private volatile long repairExpansions;
+
+    /**
+     * The amount of repairs done on the paths.
+     */
+    private volatile long repairs;
+
     /**
      * The restart flag that is set true in case a new path shall be searched.
      */
@@ -82,11 +102,26 @@ public final class Pathfinder extends Thread implements Stoppable {
      */
     private boolean running = false;
 
+    /**
+     * The search that is used to find the paths.
+     */
+    private final PathSearch search;
+
+    /**
+     * The amount of nodes checked while searching complete paths.
+     */
+    private volatile long searchExpansions;
+
     /**
      * The start location of the current path finding action.
      */
     private final Location startLoc;
 
+    /**
+     * The coordinates of the changed tiles that are handled currently.
+     */
+    private final TIntArrayList workChanges;
+
     /**
      * Private constructor.
      */
@@ -95,8 +130,12 @@ public final class Pathfinder extends Thread implements Stoppable {
         super("Pathfinder");
         setDaemon(true);
 
+        changes = new TIntArrayList();
         endLoc = new Location();
         startLoc = new Location();
+        search = new PathSearch(MAX_LENGTH + 1);
+        clusters = new ClusterGraph(search);
+        workChanges = new TIntArrayList();
 
         start();
         StoppableStorage.getInstance().add(this);
@@ -129,6 +168,20 @@ public final class Pathfinder extends Thread implements Stoppable {
             .getInstance());
     }
 
+    /**
+     * Cancel the path finding. The path that is followed currently is
+     * dropped, so changes of the map are not applied to it anymore, and a
+     * search that is still running is stopped without reporting a path.
+     */
+    public void cancelPath() {
+        receiver = null;
+        activePath = null;
+        restart = true;
+        synchronized (this) {
+            notify();
+        }
+    }
+
     /**
      * Search a path between two locations.
      * 
@@ -147,154 +200,116 @@ public final class Pathfinder extends Thread implements Stoppable {
         }
     }
 
+    /**
+     * Get the amount of nodes checked while repairing paths.
+     * 
+     * @return the amount of checked nodes
+     */
+    public long getRepairExpansions() {
+        return repairExpansions;
+    }
+
+    /**
+     * Get the amount of repairs done on the paths that were followed.
+     * 
+     * @return the amount of repairs
+     */
+    public long getRepairs() {
+        return repairs;
+    }
+
+    /**
+     * Get the amount of nodes checked while searching complete paths.
+     * 
+     * @return the amount of checked nodes
+     */
+    public long getSearchExpansions() {
+        return searchExpansions;
+    }
+
+    /**
+     * Report that a tile of the map changed. The cached clusters of the
+     * hierarchical search that contain the tile are dropped. The change is
+     * only stored in case there is a path that could be affected by it.
+     * 
+     * @param loc the location of the tile
+     */
+    public void reportTileChange(final Location loc) {
+        clusters.invalidate(loc.getScX(), loc.getScY(), loc.getScZ());
+        if (activePath == null) {
+            return;
+        }
+        synchronized (changes) {
+            changes.add(loc.getScX());
+            changes.add(loc.getScY());
+            changes.add(loc.getScZ());
+        }
+        synchronized (this) {
+            notify();
+        }
+    }
+
     /**
      * Run the thread. This function keeps running as long as the path finder
      * thread is working. It will sleep as long as the the path finder is idle.
      * To quit this function use the {@link #saveShutdown()} function.
      */
-    @SuppressWarnings("null")
     @Override
     public void run() {
-        Location searchStartLoc = null;
-        Location searchEndLoc = null;
         boolean searching = false;
         PathReceiver searchReceiver = null;
-        int maxDepth = 0;
-        boolean outputPath = false;
         while (running) {
             if (!searching && !restart) {
-                synchronized (this) {
-                    try {
-                        this.wait();
-                    } catch (final InterruptedException e) {
-                        // nothing
+                if (!handleChanges()) {
+                    synchronized (this) {
+                        try {
+                            this.wait();
+                        } catch (final InterruptedException e) {
+                            // nothing
+                        }
                     }
                 }
                 continue;
             }
 
             if (restart) {
-                if (searchStartLoc == null) {
-                    searchStartLoc = Location.getInstance();
-                }
-                if (searchEndLoc == null) {
-                    searchEndLoc = Location.getInstance();
-                }
-                if (open == null) {
-                    open = FastTable.newInstance();
-                    open.setValueComparator(FastComparator.IDENTITY);
-                }
-                if (closed == null) {
-                    closed = FastTable.newInstance();
-                }
                 restart = false;
-                searchStartLoc.set(startLoc);
-                searchEndLoc.set(endLoc);
+                activePath = null;
                 searchReceiver = receiver;
                 if (searchReceiver == null) {
-                    continue;
-                }
-                searching = true;
-
-                PathNode.clearCache();
-                closed.clear();
-                open.clear();
-                maxDepth = 0;
-                outputPath = false;
-
-                if (PathNode.getNode(searchEndLoc).isBlocked()) {
                     searching = false;
                     continue;
                 }
-
-                addToOpen(PathNode.getNode(searchStartLoc));
-            }
-
-            if (outputPath) {
-                outputPath = false;
-                searching = false;
-                if (PathNode.getNode(searchEndLoc).getParent() == null) {
+                if ((startLoc.getScZ() == endLoc.getScZ())
+                    && (startLoc.getDistance(endLoc) > MAX_LENGTH)) {
+                    final Path path =
+                        clusters.findPath(startLoc.getScX(),
+                            startLoc.getScY(), endLoc.getScX(),
+                            endLoc.getScY(), startLoc.getScZ());
+                    if (path != null) {
+                        activePath = path;
+                        searchReceiver.handlePath(path);
+                    }
                     continue;
                 }
-
-                final Path resultPath = new Path();
-                PathNode currentNode = PathNode.getNode(searchEndLoc);
-                final PathNode searchNode = PathNode.getNode(searchStartLoc);
-                while (!currentNode.equals(searchNode)) {
-                    resultPath.prependStep(currentNode);
-                    currentNode = currentNode.getParent();
-                }
-                resultPath.prependStep(searchNode);
-                searchReceiver.handlePath(resultPath);
-                searchStartLoc.recycle();
-                searchStartLoc = null;
-                searchEndLoc.recycle();
-                searchEndLoc = null;
-                FastTable.recycle(open);
-                open = null;
-                FastTable.recycle(closed);
-                closed = null;
+                searching =
+                    search.start(startLoc.getScX(), startLoc.getScY(),
+                        startLoc.getScZ(), endLoc.getScX(), endLoc.getScY(),
+                        endLoc.getScZ(), MAX_LENGTH);
                 continue;
             }
 
-            if ((maxDepth > MAX_LENGTH) || open.isEmpty()) {
+            final int result = search.step();
+            if (result == PathSearch.FOUND) {
                 searching = false;
-                continue;
-            }
-
-            final PathNode currentNode = open.get(0);
-            maxDepth = currentNode.getDepth();
-            final Location currentLoc = currentNode.getLocation();
-
-            if (currentNode.getLocation().equals(searchEndLoc)) {
-                outputPath = true;
-                continue;
-            }
-
-            removeFromOpen(currentNode);
-            addToClosed(currentNode);
-
-            final Location searchLoc = Location.getInstance();
-            for (int dir = 0; dir < Location.DIR_MOVE8; ++dir) {
-                searchLoc.set(currentLoc);
-                searchLoc.moveSC8(dir);
-                final PathNode searchNode = PathNode.getNode(searchLoc);
-
-                if (!searchNode.isBlocked()) {
-                    int newMoveCost =
-                        currentNode.getCost() + searchNode.getValue();
-
-                    if ((dir == Location.DIR_NORTHEAST)
-                        || (dir == Location.DIR_NORTHWEST)
-                        || (dir == Location.DIR_SOUTHEAST)
-                        || (dir == Location.DIR_SOUTHWEST)) {
-                        newMoveCost *= 1.1f;
-                    }
-
-                    if (newMoveCost < searchNode.getCost()) {
-                        if (searchNode.getOpen()) {
-                            removeFromOpen(searchNode);
-                        }
-                        if (searchNode.getClosed()) {
-                            removeFromClosed(searchNode);
-                        }
-                    }
-
-                    if (!searchNode.getOpen() && !searchNode.getClosed()) {
-                        searchNode.setCost(newMoveCost);
-                        searchNode.setParent(currentNode);
-
-                        maxDepth = Math.max(maxDepth, searchNode.getDepth());
-
-                        searchNode.setHeuristic(MIN_MOVE_COST
-                            * searchLoc.getDistance(searchEndLoc));
-
-                        addToOpen(searchNode);
-                    }
-                }
+                searchExpansions += search.getExpandedNodes();
+                final Path path = search.getPath();
+                activePath = path;
+                searchReceiver.handlePath(path);
+            } else if (result == PathSearch.FAILED) {
+                searching = false;
+                searchExpansions += search.getExpandedNodes();
             }
-            searchLoc.recycle();
-            open.sort();
         }
     }
 
@@ -319,42 +334,133 @@ public final class Pathfinder extends Thread implements Stoppable {
     }
 
     /**
-     * Add a path node to the list of nodes that were considered already.
+     * Apply the changes of the map to the path that is followed.
      * 
-     * @param node the path node that shall be added
+     * @return <code>true</code> in case there were changes to handle
      */
-    private void addToClosed(final PathNode node) {
-        node.setClosed(true);
-        closed.add(node);
-    }
+    private boolean handleChanges() {
+        synchronized (changes) {
+            if (changes.isEmpty()) {
+                return false;
+            }
+            workChanges.addAll(changes);
+            changes.resetQuick();
+        }
 
-    /**
-     * Add a path node to the list of nodes that were not fully checked yet.
-     * 
-     * @param node the path node that shall be added
-     */
-    private void addToOpen(final PathNode node) {
-        open.add(node);
-        node.setOpen(true);
+        final Path path = activePath;
+        if ((path == null) || (path.getRemainingSteps() == 0)) {
+            activePath = null;
+            workChanges.resetQuick();
+            return true;
+        }
+
+        final int count = workChanges.size();
+        for (int i = 0; i < count; i += 3) {
+            if (workChanges.getQuick(i + 2) != path.getLevel()) {
+                continue;
+            }
+
+            final int x = workChanges.getQuick(i);
+            final int y = workChanges.getQuick(i + 1);
+            final int value = PathSearch.getTileValue(x, y, path.getLevel());
+            if (value == PathSearch.BLOCKED) {
+                final int index = path.indexOf(x, y);
+                if (index > 0) {
+                    repairBlockedStep(path, index);
+                }
+            } else {
+                shortenPath(path, x, y, value);
+            }
+        }
+        workChanges.resetQuick();
+        return true;
     }
 
     /**
-     * Remove a node from the list of tiles that were considered already.
+     * Search a way around a blocked step of the path. The search starts at
+     * the step before the blocked step and ends at the next step after it that
+     * is not blocked. The steps between are replaced by the way found.
      * 
-     * @param node the node that shall be removed from the list
+     * @param path the path to repair
+     * @param index the index of the blocked step
      */
-    private void removeFromClosed(final PathNode node) {
-        node.setClosed(false);
-        closed.remove(node);
+    private void repairBlockedStep(final Path path, final int index) {
+        final int level = path.getLevel();
+        final int length = path.getLength();
+        int target = index + 1;
+        while ((target < length)
+            && (PathSearch.getTileValue(path.getStepX(target),
+                path.getStepY(target), level) == PathSearch.BLOCKED)) {
+            target++;
+        }
+        if (target >= length) {
+            // the destination itself is blocked, there is nothing to repair
+            return;
+        }
+
+        if (!search.start(path.getStepX(index - 1), path.getStepY(index - 1),
+            level, path.getStepX(target), path.getStepY(target), level,
+            MAX_LENGTH)) {
+            return;
+        }
+
+        int result = search.step();
+        while (result == PathSearch.SEARCHING) {
+            result = search.step();
+        }
+        repairExpansions += search.getExpandedNodes();
+        if (result != PathSearch.FOUND) {
+            return;
+        }
+
+        final int[] steps = search.getSteps();
+        if (path.replaceSteps(index, target - 1,
+            Arrays.copyOfRange(steps, 2, steps.length - 2))) {
+            repairs++;
+        }
     }
 
     /**
-     * Remove a node from the list of tiles that were not fully checked yet.
+     * Shorten the path in case a tile that became walkable connects two steps
+     * of the path that are further apart and the tile is cheaper than the
+     * steps it replaces.
      * 
-     * @param node the node that shall be removed from the list
+     * @param path the path to shorten
+     * @param x the X coordinate of the tile
+     * @param y the Y coordinate of the tile
+     * @param value the movement cost of the tile
      */
-    private void removeFromOpen(final PathNode node) {
-        node.setOpen(false);
-        open.remove(node);
+    private void shortenPath(final Path path, final int x, final int y,
+        final int value) {
+        final int level = path.getLevel();
+        final int length = path.getLength();
+        int first = -1;
+        int last = -1;
+        final int start = Math.max(0, path.getNextStepIndex() - 1);
+        for (int i = start; i < length; i++) {
+            final int distance =
+                Math.max(Math.abs(path.getStepX(i) - x),
+                    Math.abs(path.getStepY(i) - y));
+            if (distance == 1) {
+                if (first == -1) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        if ((first == -1) || ((last - first) < 3)) {
+            return;
+        }
+
+        int replacedValue = 0;
+        for (int i = first + 1; i < last; i++) {
+            replacedValue +=
+                PathSearch.getTileValue(path.getStepX(i), path.getStepY(i),
+                    level);
+        }
+        if ((replacedValue > value)
+            && path.replaceSteps(first + 1, last - 1, new int[] { x, y })) {
+            repairs++;
+        }
     }
 }
@@ -0,0 +1,463 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.world;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import illarion.common.util.Location;
+
+/**
+ * The index of the map columns. For every column of the map, so every X and Y
+ * coordinate, this index stores a bit mask of the levels that contain a tile,
+ * the levels that contain a opaque tile and the levels that contain a tile
+ * that is hidden by the map processor. This way the map processor is able to
+ * check a location without looking up the tile.
+ * <p>
+ * The columns are stored in chunks of the same size as the chunks of the
+ * {@link TileStore}. Reading the index does not require any lock, changing the
+ * index synchronizes on the index. Only levels between {@link #MIN_LEVEL} and
+ * {@link #MAX_LEVEL} are stored in the index. Checks of other levels look up
+ * the tile.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class ColumnIndex {
+    /**
+     * The masks of the columns in one chunk of the map.
+     * 
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    private static final class Columns {
+        /**
+         * The X coordinate of the chunk.
+         */
+        final int chunkX;
+
+        /**
+         * The Y coordinate of the chunk.
+         */
+        final int chunkY;
+
+        /**
+         * The amount of tiles stored in the masks of this chunk. Accessing
+         * this value requires to synchronize on the index.
+         */
+        int count;
+
+        /**
+         * The masks of the columns. Every column uses {@link #MASKS} entries.
+         */
+        final AtomicLongArray masks;
+
+        /**
+         * This flag is set once the chunk was removed from the directory.
+         */
+        volatile boolean removed;
+
+        /**
+         * Create a new chunk of columns that does not contain any tile.
+         * 
+         * @param x the X coordinate of the chunk
+         * @param y the Y coordinate of the chunk
+         */
+        Columns(final int x, final int y) {
+            chunkX = x;
+            chunkY = y;
+            masks =
+                new AtomicLongArray(TileStore.CHUNK_SIZE
+                    * TileStore.CHUNK_SIZE * MASKS);
+        }
+
+        /**
+         * Check if this chunk is located at a position.
+         * 
+         * @param x the X coordinate of the chunk
+         * @param y the Y coordinate of the chunk
+         * @return <code>true</code> in case the chunk is located there
+         */
+        boolean isAt(final int x, final int y) {
+            return (chunkX == x) && (chunkY == y);
+        }
+    }
+
+    /**
+     * The offset of the mask of the levels that contain a hidden tile.
+     */
+    private static final int HIDDEN = 2;
+
+    /**
+     * The amount of masks stored for every column.
+     */
+    private static final int MASKS = 3;
+
+    /**
+     * The highest level that is stored in the index.
+     */
+    private static final int MAX_LEVEL = 31;
+
+    /**
+     * The lowest level that is stored in the index.
+     */
+    private static final int MIN_LEVEL = -32;
+
+    /**
+     * The offset of the mask of the levels that contain a opaque tile.
+     */
+    private static final int OPAQUE = 1;
+
+    /**
+     * The offset of the mask of the levels that contain a tile.
+     */
+    private static final int TILES = 0;
+
+    /**
+     * The directory of all chunks of columns, stored by the key of their
+     * chunk coordinates. This map is never changed once its assigned to this
+     * field.
+     */
+    private volatile TLongObjectHashMap<Columns> directory;
+
+    /**
+     * The amount of hidden tiles stored in the index.
+     */
+    private volatile int hiddenCount;
+
+    /**
+     * The chunk of columns that was accessed last. This is read and written
+     * without synchronization, the same way the tile store does it.
+     */
+    private Columns recentColumns;
+
+    /**
+     * The tile store that is used to check the levels that are not stored in
+     * this index.
+     */
+    private final TileStore store;
+
+    /**
+     * Create a new empty index.
+     * 
+     * @param tileStore the store of the tiles that are indexed
+     */
+    ColumnIndex(final TileStore tileStore) {
+        store = tileStore;
+        directory = new TLongObjectHashMap<Columns>();
+    }
+
+    /**
+     * Get the bit that represents a level in the masks of a column.
+     * 
+     * @param z the level
+     * @return the bit of the level
+     */
+    private static long getLevelBit(final int z) {
+        return 1L << (z - MIN_LEVEL);
+    }
+
+    /**
+     * Get the index of the first mask of a column inside its chunk.
+     * 
+     * @param x the X coordinate of the column
+     * @param y the Y coordinate of the column
+     * @return the index of the first mask of the column
+     */
+    private static int getMaskIndex(final int x, final int y) {
+        return TileStore.getIndex(x, y) * MASKS;
+    }
+
+    /**
+     * Check if a level is stored in this index.
+     * 
+     * @param z the level
+     * @return <code>true</code> in case the level is stored in the index
+     */
+    private static boolean isIndexed(final int z) {
+        return (z >= MIN_LEVEL) && (z <= MAX_LEVEL);
+    }
+
+    /**
+     * Remove all tiles from the index.
+     */
+    public synchronized void clear() {
+        final TLongObjectHashMap<Columns> oldDirectory = directory;
+        directory = new TLongObjectHashMap<Columns>();
+        recentColumns = null;
+        hiddenCount = 0;
+        for (final Columns columns : oldDirectory.valueCollection()) {
+            columns.removed = true;
+        }
+    }
+
+    /**
+     * Remove the hidden flag from all tiles in the index.
+     */
+    public synchronized void clearHidden() {
+        if (hiddenCount == 0) {
+            return;
+        }
+        for (final Columns columns : directory.valueCollection()) {
+            final AtomicLongArray masks = columns.masks;
+            for (int i = HIDDEN; i < masks.length(); i += MASKS) {
+                masks.set(i, 0L);
+            }
+        }
+        hiddenCount = 0;
+    }
+
+    /**
+     * Check if there is a tile at a location.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     * @return <code>true</code> in case there is a tile
+     */
+    public boolean hasTile(final int x, final int y, final int z) {
+        if (!isIndexed(z)) {
+            return store.get(x, y, z) != null;
+        }
+        return (getMask(x, y, TILES) & getLevelBit(z)) != 0;
+    }
+
+    /**
+     * Check if any tile in the index is hidden.
+     * 
+     * @return <code>true</code> in case at least one tile is hidden
+     */
+    public boolean hasHiddenTiles() {
+        return hiddenCount > 0;
+    }
+
+    /**
+     * Check if the tile at a location is hidden.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     * @return <code>true</code> in case there is a hidden tile
+     */
+    public boolean isHidden(final int x, final int y, final int z) {
+        if (!isIndexed(z)) {
+            final MapTile tile = store.get(x, y, z);
+            return (tile != null) && tile.isHidden();
+        }
+        return (getMask(x, y, HIDDEN) & getLevelBit(z)) != 0;
+    }
+
+    /**
+     * Check if the tile at a location obstructs the view to the tiles below.
+     * This is the case if the tile is opaque and not hidden.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     * @return <code>true</code> in case there is a obstructing tile
+     */
+    public boolean isObstructing(final int x, final int y, final int z) {
+        if (!isIndexed(z)) {
+            final MapTile tile = store.get(x, y, z);
+            return (tile != null) && tile.isOpaque() && !tile.isHidden();
+        }
+        final Columns columns = getColumns(x, y);
+        if (columns == null) {
+            return false;
+        }
+        final int index = getMaskIndex(x, y);
+        final long bit = getLevelBit(z);
+        return ((columns.masks.get(index + OPAQUE) & bit) != 0)
+            && ((columns.masks.get(index + HIDDEN) & bit) == 0);
+    }
+
+    /**
+     * Remove the tile at a location from the index.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     */
+    public synchronized void remove(final int x, final int y, final int z) {
+        if (!isIndexed(z)) {
+            return;
+        }
+        final Columns columns =
+            directory.get(Location.getKey(x >> TileStore.CHUNK_BITS,
+                y >> TileStore.CHUNK_BITS, 0));
+        if (columns == null) {
+            return;
+        }
+        final int index = getMaskIndex(x, y);
+        final long bit = getLevelBit(z);
+        final AtomicLongArray masks = columns.masks;
+        if ((masks.get(index + TILES) & bit) == 0) {
+            return;
+        }
+        if ((masks.get(index + HIDDEN) & bit) != 0) {
+            hiddenCount--;
+        }
+        masks.set(index + TILES, masks.get(index + TILES) & ~bit);
+        masks.set(index + OPAQUE, masks.get(index + OPAQUE) & ~bit);
+        masks.set(index + HIDDEN, masks.get(index + HIDDEN) & ~bit);
+
+        columns.count--;
+        if (columns.count == 0) {
+            removeColumns(columns);
+        }
+    }
+
+    /**
+     * Set the hidden flag of the tile at a location. This does nothing in
+     * case there is no tile at this location.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     * @param hidden the new value of the hidden flag
+     */
+    public synchronized void setHidden(final int x, final int y, final int z,
+        final boolean hidden) {
+        if (!isIndexed(z)) {
+            return;
+        }
+        final Columns columns =
+            directory.get(Location.getKey(x >> TileStore.CHUNK_BITS,
+                y >> TileStore.CHUNK_BITS, 0));
+        if (columns == null) {
+            return;
+        }
+        final int index = getMaskIndex(x, y);
+        final long bit = getLevelBit(z);
+        final AtomicLongArray masks = columns.masks;
+        if ((masks.get(index + TILES) & bit) == 0) {
+            return;
+        }
+        final long oldMask = masks.get(index + HIDDEN);
+        if (hidden && ((oldMask & bit) == 0)) {
+            masks.set(index + HIDDEN, oldMask | bit);
+            hiddenCount++;
+        } else if (!hidden && ((oldMask & bit) != 0)) {
+            masks.set(index + HIDDEN, oldMask & ~bit);
+            hiddenCount--;
+        }
+    }
+
+    /**
+     * Add a tile to the index or update the tile that is already stored.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     * @param opaque <code>true</code> in case the tile is opaque
+     */
+    public synchronized void update(final int x, final int y, final int z,
+        final boolean opaque) {
+        if (!isIndexed(z)) {
+            return;
+        }
+        final int chunkX = x >> TileStore.CHUNK_BITS;
+        final int chunkY = y >> TileStore.CHUNK_BITS;
+        final long key = Location.getKey(chunkX, chunkY, 0);
+        Columns columns = directory.get(key);
+        if (columns == null) {
+            columns = new Columns(chunkX, chunkY);
+            final TLongObjectHashMap<Columns> newDirectory =
+                new TLongObjectHashMap<Columns>(directory);
+            newDirectory.put(key, columns);
+            directory = newDirectory;
+        }
+
+        final int index = getMaskIndex(x, y);
+        final long bit = getLevelBit(z);
+        final AtomicLongArray masks = columns.masks;
+        final long tileMask = masks.get(index + TILES);
+        if ((tileMask & bit) == 0) {
+            masks.set(index + TILES, tileMask | bit);
+            columns.count++;
+        }
+        final long opaqueMask = masks.get(index + OPAQUE);
+        if (opaque) {
+            masks.set(index + OPAQUE, opaqueMask | bit);
+        } else {
+            masks.set(index + OPAQUE, opaqueMask & ~bit);
+        }
+    }
+
+    /**
+     * Get the chunk of columns that contains a column.
+     * 
+     * @param x the X coordinate of the column
+     * @param y the Y coordinate of the column
+     * @return the chunk or <code>null</code> in case there is none
+     */
+    private Columns getColumns(final int x, final int y) {
+        final int chunkX = x >> TileStore.CHUNK_BITS;
+        final int chunkY = y >> TileStore.CHUNK_BITS;
+        final Columns recent = recentColumns;
+        if ((recent != null) && recent.isAt(chunkX, chunkY)
+            && !recent.removed) {
+            return recent;
+        }
+        final Columns columns =
+            directory.get(Location.getKey(chunkX, chunkY, 0));
+        if (columns != null) {
+            recentColumns = columns;
+        }
+        return columns;
+    }
+
+    /**
+     * Get one mask of a column.
+     * 
+     * @param x the X coordinate of the column
+     * @param y the Y coordinate of the column
+     * @param mask the offset of the mask
+     * @return the mask or <code>0</code> in case the column is empty
+     */
+    private long getMask(final int x, final int y, final int mask) {
+        final Columns columns = getColumns(x, y);
+        if (columns == null) {
+            return 0L;
+        }
+        return columns.masks.get(getMaskIndex(x, y) + mask);
+    }
+
+    /**
+     * Remove a empty chunk of columns from the directory. This has to be
+     * called while holding the lock of the index.
+     * 
+     * @param columns the chunk to remove
+     */
+    private void removeColumns(final Columns columns) {
+        columns.removed = true;
+        final TLongObjectHashMap<Columns> newDirectory =
+            new TLongObjectHashMap<Columns>(directory);
+        newDirectory.remove(Location.getKey(columns.chunkX, columns.chunkY,
+            0));
+        directory = newDirectory;
+        if (recentColumns == columns) {
+            recentColumns = null;
+        }
+    }
+}
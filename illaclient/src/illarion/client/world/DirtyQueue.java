@@ -0,0 +1,220 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.world;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import illarion.common.util.Location;
+
+/**
+ * The queue of map locations that need to be checked by the map processor.
+ * The locations are stored as bits in regions that match the chunks of the
+ * {@link TileStore}. Adding a location that is already queued does nothing,
+ * so the queue never grows larger then the map.
+ * <p>
+ * All methods of this class are synchronized on the queue instance. The map
+ * processor uses the queue as monitor to wait for new work as well.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class DirtyQueue {
+    /**
+     * One region of the map with the locations in this region that need to be
+     * checked.
+     * 
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    static final class Region {
+        /**
+         * The bits of the locations in this region that need to be checked.
+         * The index of a location is calculated by
+         * {@link TileStore#getIndex(int, int)}.
+         */
+        final long[] bits;
+
+        /**
+         * The amount of bits set in this region.
+         */
+        int count;
+
+        /**
+         * The key of the region, calculated from its coordinates.
+         */
+        final long key;
+
+        /**
+         * The level of the region.
+         */
+        final int level;
+
+        /**
+         * The X coordinate of the first tile in this region.
+         */
+        final int originX;
+
+        /**
+         * The Y coordinate of the first tile in this region.
+         */
+        final int originY;
+
+        /**
+         * Create a new region that does not contain any location yet.
+         * 
+         * @param regionX the X coordinate of the region
+         * @param regionY the Y coordinate of the region
+         * @param z the level of the region
+         * @param regionKey the key of the region
+         */
+        Region(final int regionX, final int regionY, final int z,
+            final long regionKey) {
+            originX = regionX << TileStore.CHUNK_BITS;
+            originY = regionY << TileStore.CHUNK_BITS;
+            level = z;
+            key = regionKey;
+            bits = new long[WORDS];
+        }
+    }
+
+    /**
+     * The comparator that is used to bring the drained regions into the order
+     * of their keys.
+     */
+    private static final Comparator<Region> REGION_ORDER =
+        new Comparator<Region>() {
+            @Override
+            public int compare(final Region o1, final Region o2) {
+                if (o1.key < o2.key) {
+                    return -1;
+                }
+                if (o1.key > o2.key) {
+                    return 1;
+                }
+                return 0;
+            }
+        };
+
+    /**
+     * The amount of long values needed to store the bits of one region.
+     */
+    static final int WORDS = (TileStore.CHUNK_SIZE * TileStore.CHUNK_SIZE)
+        / Long.SIZE;
+
+    /**
+     * The regions that contain queued locations, stored by the key of the
+     * region.
+     */
+    private final TLongObjectHashMap<Region> regions;
+
+    /**
+     * The amount of locations queued in total.
+     */
+    private int size;
+
+    /**
+     * Create a new empty queue.
+     */
+    DirtyQueue() {
+        regions = new TLongObjectHashMap<Region>();
+    }
+
+    /**
+     * Add a location to the queue.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     * @return <code>true</code> in case the location was not queued yet
+     */
+    public synchronized boolean add(final int x, final int y, final int z) {
+        final int regionX = x >> TileStore.CHUNK_BITS;
+        final int regionY = y >> TileStore.CHUNK_BITS;
+        final long regionKey = Location.getKey(regionX, regionY, z);
+
+        Region region = regions.get(regionKey);
+        if (region == null) {
+            region = new Region(regionX, regionY, z, regionKey);
+            regions.put(regionKey, region);
+        }
+
+        final int index = TileStore.getIndex(x, y);
+        final int word = index >> 6;
+        final long mask = 1L << (index & 63);
+        if ((region.bits[word] & mask) != 0) {
+            return false;
+        }
+        region.bits[word] |= mask;
+        region.count++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove all locations from the queue.
+     */
+    public synchronized void clear() {
+        regions.clear();
+        size = 0;
+    }
+
+    /**
+     * Take all regions out of the queue. The regions are returned in the order
+     * of their keys, so the same set of queued locations always results in the
+     * same order.
+     * 
+     * @return the regions that were queued or <code>null</code> in case the
+     *         queue is empty
+     */
+    public synchronized Region[] drain() {
+        if (size == 0) {
+            return null;
+        }
+        final Region[] result = regions.values(new Region[regions.size()]);
+        regions.clear();
+        size = 0;
+
+        Arrays.sort(result, REGION_ORDER);
+        return result;
+    }
+
+    /**
+     * Check if the queue is empty.
+     * 
+     * @return <code>true</code> in case there are no locations queued
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the amount of queued locations.
+     * 
+     * @return the amount of queued locations
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -83,6 +83,16 @@ import illarion.input.InputManager;
  */
 public final class Game implements SessionMember {
 
+    /**
+     * The key of the configuration entry that stores the amount of video
+     * memory in megabytes the atlas textures are allowed to use. Atlas
+     * textures are loaded once they are needed and the ones not used for the
+     * longest time are removed in case more memory is used. A value of
+     * <code>0</code> loads all atlas textures at startup.
+     */
+    @SuppressWarnings("nls")
+    public static final String CFG_TEXTURE_MEMORY = "textureMemory";
+
     /**
      * Singleton instance of the game class.
      */
@@ -329,7 +339,10 @@ public final class Game implements SessionMember {
             musicBox = null;
         }
 
-        partSystem = null;
+        if (partSystem != null) {
+            partSystem.shutdown();
+            partSystem = null;
+        }
         mapDisplay = null;
         ChatHandler.getInstance().saveShutdown();
     }
@@ -393,6 +406,9 @@ public final class Game implements SessionMember {
     private void loadGameDataImpl() {
         DebugTimer.start();
 
+        TextureLoader.getInstance().setResidentBudget(
+            IllaClient.getCfg().getInteger(CFG_TEXTURE_MEMORY) * (1L << 20));
+
         int atlasCount = TextureLoader.getInstance().getTotalAtlasCount();
         LoadingManager.getInstance().setTotalCount(atlasCount + 17);
 
@@ -18,15 +18,15 @@
  */
 package illarion.client.world;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.procedure.TLongObjectProcedure;
 import gnu.trove.procedure.TObjectProcedure;
 
 import illarion.client.crash.MapProcessorCrashHandler;
 import illarion.client.net.server.TileUpdate;
+import illarion.client.util.Pathfinder;
 import illarion.client.util.SessionManager;
 import illarion.client.util.SessionMember;
 
@@ -82,7 +82,8 @@ public final class GameMap extends Interaction implements LightingMap,
     /**
      * This is a supporter class for the
      * {@link illarion.client.world.GameMap#renderLights()} function and it
-     * triggers the renderLight function on each tile its called on.
+     * triggers the renderLight function on each tile its called on. The tiles
+     * are queued so the render thread publishes their new light.
      * 
      * @author Martin Karing
      * @since 1.22
@@ -99,11 +100,19 @@ public final class GameMap extends Interaction implements LightingMap,
          */
         private SpriteColor light;
 
+        /**
+         * The queue of tiles that wait for their light to be published.
+         */
+        private final Queue<MapTile> queue;
+
         /**
          * Protected constructor so its accessible from outside.
+         * 
+         * @param litTiles the queue of tiles that wait for their light to be
+         *            published
          */
-        protected RenderLightsHelper() {
-            // nothing to do
+        protected RenderLightsHelper(final Queue<MapTile> litTiles) {
+            queue = litTiles;
         }
 
         /**
@@ -115,8 +124,8 @@ public final class GameMap extends Interaction implements LightingMap,
          */
         @Override
         public boolean execute(final MapTile tile) {
-            if (tile != null) {
-                tile.renderLight(factor, light);
+            if ((tile != null) && tile.renderLight(factor, light)) {
+                queue.add(tile);
             }
             return true;
         }
@@ -199,12 +208,6 @@ public final class GameMap extends Interaction implements LightingMap,
         }
     }
 
-    /**
-     * The lock that is hold in case the light is currently rendered. If that is
-     * done right now the map must not be rendered.
-     */
-    public static final Object LIGHT_LOCK = new Object();
-
     /**
      * Offset of the tiles due the perspective of the map view.
      */
@@ -216,12 +219,6 @@ public final class GameMap extends Interaction implements LightingMap,
      */
     public static final Object TILES_LOCK = new Object();
 
-    /**
-     * The determines after how many remove operations the lists clean up on
-     * their own.
-     */
-    private static final float MAP_COMPACTION_FACTOR = 0.01f;
-
     /**
      * This is a helper object that triggers recycle for all tiles its called
      * upon.
@@ -229,15 +226,28 @@ public final class GameMap extends Interaction implements LightingMap,
     private final TObjectProcedure<MapTile> clearHelper = new ClearHelper();
 
     /**
-     * The lock that secures the map tiles.
+     * The index of the map columns that is used by the map processor.
      */
-    private final ReadWriteLock mapLock;
+    private final ColumnIndex columns;
+
+    /**
+     * The tiles that got their light rendered. The render thread publishes the
+     * new light of these tiles before it draws the next frame.
+     */
+    private final Queue<MapTile> litTiles =
+        new ConcurrentLinkedQueue<MapTile>();
 
     /**
      * The handler for the overview map.
      */
     private final GameMiniMap minimap;
 
+    /**
+     * The pathfinder that receives the changed tiles of the tile update that
+     * is running currently or <code>null</code> in case there is no update.
+     */
+    private Pathfinder pathfinder;
+
     /**
      * The map processor of this game map instance. This one handles the
      * clipping and the render optimization of the map.
@@ -248,7 +258,7 @@ public final class GameMap extends Interaction implements LightingMap,
      * A helper class for rendering the light values on all map tiles.
      */
     private final RenderLightsHelper renderLightsHelper =
-        new RenderLightsHelper();
+        new RenderLightsHelper(litTiles);
 
     /**
      * This is a helper procedure that will trigger a reset on all tiles its
@@ -258,20 +268,17 @@ public final class GameMap extends Interaction implements LightingMap,
         new ResetLightsHelper();
 
     /**
-     * The tiles of the map. The key of the hash map is the location key of the
-     * tiles location.
+     * The tiles of the map.
      */
-    private final TLongObjectHashMap<MapTile> tiles;
+    private final TileStore tiles;
 
     /**
      * Default constructor of the map handler.
      */
     public GameMap() {
         super();
-        tiles = new TLongObjectHashMap<MapTile>(1000);
-        tiles.setAutoCompactionFactor(MAP_COMPACTION_FACTOR);
-
-        mapLock = new ReentrantReadWriteLock();
+        tiles = new TileStore();
+        columns = new ColumnIndex(tiles);
 
         minimap = new GameMiniMap();
         restartMapProcessor();
@@ -342,13 +349,8 @@ public final class GameMap extends Interaction implements LightingMap,
      * send back into the recycle factory.
      */
     public void clear() {
-        mapLock.writeLock().lock();
-        try {
-            tiles.forEachValue(clearHelper);
-            tiles.clear();
-        } finally {
-            mapLock.writeLock().unlock();
-        }
+        columns.clear();
+        tiles.clear(clearHelper);
     }
 
     @Override
@@ -368,6 +370,7 @@ public final class GameMap extends Interaction implements LightingMap,
         if (processor != null) {
             processor.start();
         }
+        pathfinder = null;
     }
 
     /**
@@ -383,6 +386,15 @@ public final class GameMap extends Interaction implements LightingMap,
         return processor.getClipping();
     }
 
+    /**
+     * Get the index of the map columns.
+     * 
+     * @return the index of the map columns
+     */
+    ColumnIndex getColumns() {
+        return columns;
+    }
+
     /**
      * Get the tile on the map that user is currently pointing at in case the
      * player is pointing at the game map.
@@ -454,7 +466,7 @@ public final class GameMap extends Interaction implements LightingMap,
      * @return the map tile at the location or <code>null</code>
      */
     public MapTile getMapAt(final int posX, final int posY, final int posZ) {
-        return getMapAt(Location.getKey(posX, posY, posZ));
+        return tiles.get(posX, posY, posZ);
     }
 
     /**
@@ -464,7 +476,7 @@ public final class GameMap extends Interaction implements LightingMap,
      * @return the map tile at the location or <code>null</code>
      */
     public MapTile getMapAt(final Location loc) {
-        return getMapAt(loc.getKey());
+        return tiles.get(loc.getScX(), loc.getScY(), loc.getScZ());
     }
 
     /**
@@ -474,10 +486,8 @@ public final class GameMap extends Interaction implements LightingMap,
      * @return the map tile at the location or <code>null</code>
      */
     public MapTile getMapAt(final long key) {
-        mapLock.readLock().lock();
-        final MapTile ret = tiles.get(key);
-        mapLock.readLock().unlock();
-        return ret;
+        return tiles.get(TileStore.getKeyX(key), TileStore.getKeyY(key),
+            TileStore.getKeyZ(key));
     }
 
     /**
@@ -513,7 +523,7 @@ public final class GameMap extends Interaction implements LightingMap,
      * @return <code>true</code> in case there is a tile at this position
      */
     public boolean isMapAt(final int posX, final int posY, final int posZ) {
-        return isMapAt(Location.getKey(posX, posY, posZ));
+        return tiles.get(posX, posY, posZ) != null;
     }
 
     /**
@@ -523,7 +533,7 @@ public final class GameMap extends Interaction implements LightingMap,
      * @return <code>true</code> in case there is a tile at this position
      */
     public boolean isMapAt(final Location loc) {
-        return isMapAt(loc.getKey());
+        return getMapAt(loc) != null;
     }
 
     /**
@@ -533,14 +543,7 @@ public final class GameMap extends Interaction implements LightingMap,
      * @return <code>true</code> in case there is a tile at this position
      */
     public boolean isMapAt(final long key) {
-        mapLock.readLock().lock();
-        boolean ret = false;
-        try {
-            ret = tiles.containsKey(key);
-        } finally {
-            mapLock.readLock().unlock();
-        }
-        return ret;
+        return getMapAt(key) != null;
     }
 
     /**
@@ -550,12 +553,26 @@ public final class GameMap extends Interaction implements LightingMap,
      * @param procedure the procedure that is called for every tile
      */
     public void processTiles(final TLongObjectProcedure<MapTile> procedure) {
-        mapLock.readLock().lock();
-        try {
-            tiles.forEachEntry(procedure);
-        } finally {
-            mapLock.readLock().unlock();
+        tiles.forEachEntry(procedure);
+    }
+
+    /**
+     * Publish the light of all tiles that got their light rendered since the
+     * last call, so the new light is displayed. The light of the characters is
+     * updated as well in case any light changed. This has to be called by the
+     * render thread before it draws the map.
+     */
+    public void publishLights() {
+        MapTile tile = litTiles.poll();
+        if (tile == null) {
+            return;
+        }
+
+        while (tile != null) {
+            tile.publishLight();
+            tile = litTiles.poll();
         }
+        Game.getPeople().updateLight();
     }
 
     /**
@@ -564,14 +581,11 @@ public final class GameMap extends Interaction implements LightingMap,
      * @param key the key of the tile that is to be removed
      */
     public void removeTile(final long key) {
-        mapLock.writeLock().lock();
-        MapTile removedTile = null;
-        try {
-            removedTile = tiles.remove(key);
-        } finally {
-            mapLock.writeLock().unlock();
-        }
-
+        final int x = TileStore.getKeyX(key);
+        final int y = TileStore.getKeyY(key);
+        final int z = TileStore.getKeyZ(key);
+        columns.remove(x, y, z);
+        final MapTile removedTile = tiles.remove(x, y, z);
         if (removedTile != null) {
             removedTile.recycle();
         }
@@ -586,6 +600,27 @@ public final class GameMap extends Interaction implements LightingMap,
         removeTile(tile.getLocation().getKey());
     }
 
+    /**
+     * Render the light of one tile based on the tile light and the ambient
+     * light generated by the current IG time and the weather.
+     * 
+     * @param loc the location of the tile
+     * @see illarion.graphics.common.LightingMap#renderLight(Location)
+     */
+    @Override
+    public void renderLight(final Location loc) {
+        final MapTile tile = getMapAt(loc);
+        if (tile == null) {
+            return;
+        }
+
+        final SpriteColor ambientLight = Game.getWeather().getAmbientLight();
+        final float factor = 1.f - ambientLight.getLuminationf();
+        if (tile.renderLight(factor, ambientLight)) {
+            litTiles.add(tile);
+        }
+    }
+
     /**
      * Render lights based on the tile light and the ambient light generated by
      * the current IG time and the weather.
@@ -596,18 +631,21 @@ public final class GameMap extends Interaction implements LightingMap,
             1.f - Game.getWeather().getAmbientLight().getLuminationf();
 
         renderLightsHelper.setup(factor, Game.getWeather().getAmbientLight());
+        tiles.forEachTile(renderLightsHelper);
+    }
 
-        synchronized (LIGHT_LOCK) {
-            mapLock.readLock().lock();
-            try {
-                tiles.forEachValue(renderLightsHelper);
-            } finally {
-                mapLock.readLock().unlock();
-            }
-
+    /**
+     * Reset the light of one tile back to black color.
+     * 
+     * @param loc the location of the tile
+     * @see illarion.graphics.common.LightingMap#resetLight(Location)
+     */
+    @Override
+    public void resetLight(final Location loc) {
+        final MapTile tile = getMapAt(loc);
+        if (tile != null) {
+            tile.resetLight();
         }
-        
-        Game.getPeople().updateLight();
     }
 
     /**
@@ -615,12 +653,7 @@ public final class GameMap extends Interaction implements LightingMap,
      */
     @Override
     public void resetLights() {
-        mapLock.readLock().lock();
-        try {
-            tiles.forEachValue(resetLightsHelper);
-        } finally {
-            mapLock.readLock().unlock();
-        }
+        tiles.forEachTile(resetLightsHelper);
     }
 
     /**
@@ -632,7 +665,8 @@ public final class GameMap extends Interaction implements LightingMap,
             processor.saveShutdown();
             processor = null;
 
-            tiles.forEachValue(new ResetMapProcessorHelper());
+            tiles.forEachTile(new ResetMapProcessorHelper());
+            columns.clearHidden();
         }
         processor = new GameMapProcessor(this);
         processor.setUncaughtExceptionHandler(MapProcessorCrashHandler
@@ -672,18 +706,21 @@ public final class GameMap extends Interaction implements LightingMap,
         if (processor != null) {
             processor.pause();
         }
+        pathfinder = Pathfinder.getInstance();
     }
 
     /**
      * Update the data of a tile. This does nothing but forwarding the location
-     * of the tile to the map processor so it checks the tile again.
+     * of the tile to the map processor so it checks the tile again and to the
+     * pathfinder so it repairs the path that is followed.
      * 
      * @param tile the tile to check again
      */
     public void updateTile(final MapTile tile) {
         if (processor != null) {
-            processor.reportUnchecked(tile.getLocation().getKey());
+            processor.reportUnchecked(tile.getLocation());
         }
+        Pathfinder.getInstance().reportTileChange(tile.getLocation());
     }
 
     /**
@@ -694,8 +731,8 @@ public final class GameMap extends Interaction implements LightingMap,
      */
     @SuppressWarnings("nls")
     public void updateTile(final TileUpdate updateData) {
-        final long locKey = updateData.getLocation().getKey();
-        MapTile tile = getMapAt(locKey);
+        final Location loc = updateData.getLocation();
+        MapTile tile = getMapAt(loc);
 
         if (updateData.getTileId() != MapTile.ID_NONE) {
             final boolean newTile = (tile == null);
@@ -714,32 +751,33 @@ public final class GameMap extends Interaction implements LightingMap,
             tile.update(updateData);
 
             if (newTile) {
-                mapLock.writeLock().lock();
-                try {
-                    tiles.put(locKey, tile);
-                } finally {
-                    mapLock.writeLock().unlock();
-                }
+                tiles.put(loc.getScX(), loc.getScY(), loc.getScZ(), tile);
             }
+            columns.update(loc.getScX(), loc.getScY(), loc.getScZ(),
+                tile.isOpaque());
             Game.getLights().notifyChange(updateData.getLocation());
 
             if (processor != null) {
-                processor.reportUnchecked(locKey);
+                processor.reportUnchecked(loc);
             }
 
             // remember real map tile for use with overview map
             updateData.setMapTile(tile);
         } else {
             if (tile != null) {
-                mapLock.writeLock().lock();
-                try {
-                    tiles.remove(locKey);
-                } finally {
-                    mapLock.writeLock().unlock();
-                }
+                columns.remove(loc.getScX(), loc.getScY(), loc.getScZ());
+                tiles.remove(loc.getScX(), loc.getScY(), loc.getScZ());
                 tile.recycle();
+                Game.getLights().notifyChange(loc);
             }
         }
+
+        // the pathfinder is fetched once for all tiles of the update
+        if (pathfinder != null) {
+            pathfinder.reportTileChange(loc);
+        } else {
+            Pathfinder.getInstance().reportTileChange(loc);
+        }
     }
 
     @Override
@@ -18,9 +18,17 @@
  */
 package illarion.client.world;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
 import org.apache.log4j.Logger;
 
-import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.procedure.TLongObjectProcedure;
 
 import illarion.client.ClientWindow;
@@ -37,6 +45,14 @@ import illarion.common.util.Rectangle;
  * This handler is a own thread, so its at times expensive, actions do not
  * disturb the main loop.
  * </p>
+ * <p>
+ * The tiles that need to be checked are collected in regions. Each run of the
+ * processor takes all queued regions and checks them in parallel without
+ * changing any tile. After all regions are checked the results are applied to
+ * the tiles in the order of the regions. The tiles that need to be checked
+ * again due to those changes are checked during the next run. This way the
+ * result does not depend on the order the regions were checked in.
+ * </p>
  * 
  * @author Martin Karing
  * @since 1.22
@@ -44,6 +60,119 @@ import illarion.common.util.Rectangle;
  */
 public class GameMapProcessor extends Thread implements
     TLongObjectProcedure<MapTile> {
+    /**
+     * The check of one region of the map. The check only reads the tiles of
+     * the map and stores the actions that need to be applied to the tiles.
+     * 
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    private final class RegionCheck implements Callable<RegionCheck> {
+        /**
+         * The actions that need to be applied to the tiles.
+         */
+        private final byte[] actions;
+
+        /**
+         * The amount of tiles that need a action to be applied.
+         */
+        private int count;
+
+        /**
+         * The region that is checked.
+         */
+        private final DirtyQueue.Region region;
+
+        /**
+         * The tiles that need a action to be applied.
+         */
+        private final MapTile[] tiles;
+
+        /**
+         * Create the check of a region.
+         * 
+         * @param checkedRegion the region that is checked
+         */
+        RegionCheck(final DirtyQueue.Region checkedRegion) {
+            region = checkedRegion;
+            actions = new byte[checkedRegion.count];
+            tiles = new MapTile[checkedRegion.count];
+        }
+
+        /**
+         * Apply the actions that were found by the check to the tiles.
+         */
+        void apply() {
+            for (int i = 0; i < count; i++) {
+                applyAction(tiles[i], actions[i]);
+                tiles[i] = null;
+            }
+        }
+
+        /**
+         * Check all tiles of the region that are queued.
+         */
+        @Override
+        public RegionCheck call() {
+            final long[] bits = region.bits;
+            for (int word = 0; word < bits.length; word++) {
+                long wordBits = bits[word];
+                while (wordBits != 0) {
+                    final int index =
+                        (word << 6) + Long.numberOfTrailingZeros(wordBits);
+                    wordBits &= wordBits - 1;
+
+                    final MapTile tile =
+                        parent.getMapAt(region.originX
+                            + (index >> TileStore.CHUNK_BITS), region.originY
+                            + (index & TileStore.CHUNK_MASK), region.level);
+                    if (tile == null) {
+                        continue;
+                    }
+                    final int action = evaluateTile(tile);
+                    if (action != 0) {
+                        tiles[count] = tile;
+                        actions[count] = (byte) action;
+                        count++;
+                    }
+                }
+            }
+            return this;
+        }
+    }
+
+    /**
+     * The action to hide a tile, because the player is inside a building.
+     */
+    private static final int ACTION_HIDE = 1;
+
+    /**
+     * The action to mark a tile as obstructed by a tile above.
+     */
+    private static final int ACTION_OBSTRUCT = 2;
+
+    /**
+     * The action to remove a tile from the map.
+     */
+    private static final int ACTION_REMOVE = 4;
+
+    /**
+     * The action to show a tile that was hidden before.
+     */
+    private static final int ACTION_SHOW = 8;
+
+    /**
+     * This flag is set along with {@link #ACTION_SHOW} in case the tiles above
+     * the tile need to be checked again as well.
+     */
+    private static final int ACTION_SHOW_ABOVE = 16;
+
+    /**
+     * The action to remove the obstructed flag from a tile.
+     */
+    private static final int ACTION_UNOBSTRUCT = 32;
+
     /**
      * This value is added to the clipping border in all directions around the
      * screen in addition to the actual visible range. If this value is set too
@@ -73,6 +202,18 @@ public class GameMapProcessor extends Thread implements
     private static final Logger LOGGER = Logger
         .getLogger(GameMapProcessor.class);
 
+    /**
+     * The minimal amount of queued tiles needed to check the regions in
+     * parallel. Smaller amounts of tiles are checked by the processor thread
+     * directly.
+     */
+    private static final int MIN_PARALLEL_TILES = 256;
+
+    /**
+     * The amount of tiles checked by this processor.
+     */
+    private volatile long checkedTiles;
+
     /**
      * If this flag is set to true, the map processor will perform a check if
      * the player is inside at the next run.
@@ -84,12 +225,24 @@ public class GameMapProcessor extends Thread implements
      */
     private final Rectangle clipping;
 
+    /**
+     * The index of the map columns. This is used to look up the tiles above
+     * and around a location without fetching the tiles.
+     */
+    private final ColumnIndex columns;
+
     /**
      * This variable stores if there is a full check of the entire map needed or
      * if its was unchecked since the last change.
      */
     private volatile boolean fullCheckNeeded = true;
 
+    /**
+     * The time in nanoseconds when the currently running full check of the map
+     * started or <code>0</code> in case no full check is running.
+     */
+    private long fullCheckStart;
+
     /**
      * The array of values if the character is inside or not. It stores the
      * values for every level. So if the character is inside a 2 level high cave
@@ -97,6 +250,12 @@ public class GameMapProcessor extends Thread implements
      */
     private final boolean insideStates[] = new boolean[2];
 
+    /**
+     * The time in nanoseconds the last full check of the map took until all
+     * tiles were checked.
+     */
+    private volatile long lastFullCheckTime;
+
     /**
      * The map that is handled by this processor instance.
      */
@@ -108,6 +267,12 @@ public class GameMapProcessor extends Thread implements
      */
     private boolean pauseLoop = false;
 
+    /**
+     * The location of the player at the start of the current run of the
+     * processor. All regions are checked against this location.
+     */
+    private final Location playerLoc;
+
     /**
      * This variable is <code>true</code> as long as the thread is supposed to
      * run. The thread will quit as soon as possible once it switches to
@@ -116,9 +281,15 @@ public class GameMapProcessor extends Thread implements
     private volatile boolean running;
 
     /**
-     * The list of location keys that were yet not checked by the processor.
+     * The queue of locations that were yet not checked by the processor.
+     */
+    private final DirtyQueue unchecked;
+
+    /**
+     * The executor that checks the regions in parallel. This is
+     * <code>null</code> in case there is only one processor available.
      */
-    private final TLongArrayList unchecked;
+    private final ExecutorService workers;
 
     /**
      * Constructor for a new instance of the game map processor. This processor
@@ -130,11 +301,29 @@ public class GameMapProcessor extends Thread implements
     public GameMapProcessor(final GameMap parentMap) {
         super("Map Processor");
         parent = parentMap;
-        unchecked = new TLongArrayList();
+        columns = parentMap.getColumns();
+        unchecked = new DirtyQueue();
+        playerLoc = Location.getInstance();
         clipping = Rectangle.getInstance();
         clipping.set(-18, -24, 36, 42);
         running = false;
 
+        final int threads = Runtime.getRuntime().availableProcessors();
+        if (threads > 1) {
+            workers =
+                Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread =
+                            new Thread(r, "Map Processor Worker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        } else {
+            workers = null;
+        }
+
         calculateClippingBorders(ClientWindow.getInstance().getScreenWidth(),
             ClientWindow.getInstance().getScreenHeight());
     }
@@ -151,9 +340,7 @@ public class GameMapProcessor extends Thread implements
      * map and the current checks need to stop instantly.
      */
     public void clear() {
-        synchronized (unchecked) {
-            unchecked.clear();
-        }
+        unchecked.clear();
     }
 
     /**
@@ -164,11 +351,21 @@ public class GameMapProcessor extends Thread implements
      */
     @Override
     public boolean execute(final long key, final MapTile tile) {
-        unchecked.add(key);
+        final Location tileLoc = tile.getLocation();
+        unchecked.add(tileLoc.getScX(), tileLoc.getScY(), tileLoc.getScZ());
 
         return true;
     }
 
+    /**
+     * Get the amount of tiles checked by this processor so far.
+     * 
+     * @return the amount of checked tiles
+     */
+    public long getCheckedTiles() {
+        return checkedTiles;
+    }
+
     /**
      * Get the clipping values the map processor is working with. Careful at
      * using this. Its possible to change the values of this rectangle. This
@@ -192,6 +389,16 @@ public class GameMapProcessor extends Thread implements
         return clipping.getTop() >> 1;
     }
 
+    /**
+     * Get the time the last full check of the map took until all tiles were
+     * checked and no further changes were found.
+     * 
+     * @return the time of the last full check in nanoseconds
+     */
+    public long getLastFullCheckTime() {
+        return lastFullCheckTime;
+    }
+
     /**
      * Get the amount of stripes that need to be requested from the server as
      * map width.
@@ -211,16 +418,13 @@ public class GameMapProcessor extends Thread implements
     }
 
     /**
-     * Add a key of a map location to the processor that contains a location on
-     * the map that was yet unchecked.
+     * Add a location on the map to the processor that was yet unchecked.
      * 
-     * @param key the key of the location that needs to be checked
+     * @param loc the location that needs to be checked
      */
-    public void reportUnchecked(final long key) {
+    public void reportUnchecked(final Location loc) {
         synchronized (unchecked) {
-            if (unchecked.contains(key)) {
-                unchecked.add(key);
-            }
+            unchecked.add(loc.getScX(), loc.getScY(), loc.getScZ());
             unchecked.notify();
         }
         fullCheckNeeded = true;
@@ -232,32 +436,45 @@ public class GameMapProcessor extends Thread implements
     @SuppressWarnings("nls")
     @Override
     public void run() {
-        while (running) {
-            while (pauseLoop) {
-                try {
-                    synchronized (unchecked) {
-                        unchecked.wait();
+        try {
+            while (running) {
+                while (pauseLoop) {
+                    try {
+                        synchronized (unchecked) {
+                            unchecked.wait();
+                        }
+                    } catch (final InterruptedException e) {
+                        LOGGER.debug("Unexpected wakeup during pause.", e);
                     }
-                } catch (final InterruptedException e) {
-                    LOGGER.debug("Unexpected wakeup during pause.", e);
                 }
-            }
-            performInsideCheck();
+                performInsideCheck();
 
-            if (processUnchecked()) {
-                continue;
-            }
+                if (processUnchecked()) {
+                    continue;
+                }
 
-            if (workloadCheck()) {
-                continue;
-            }
+                if (workloadCheck()) {
+                    continue;
+                }
 
-            try {
-                synchronized (unchecked) {
-                    unchecked.wait();
+                if (fullCheckStart != 0) {
+                    lastFullCheckTime = System.nanoTime() - fullCheckStart;
+                    fullCheckStart = 0;
+                }
+
+                try {
+                    synchronized (unchecked) {
+                        if (unchecked.isEmpty()) {
+                            unchecked.wait();
+                        }
+                    }
+                } catch (final InterruptedException e) {
+                    LOGGER.debug("Unexpected wake up of the map processor", e);
                 }
-            } catch (final InterruptedException e) {
-                LOGGER.debug("Unexpected wake up of the map processor", e);
+            }
+        } finally {
+            if (workers != null) {
+                workers.shutdown();
             }
         }
     }
@@ -305,12 +522,7 @@ public class GameMapProcessor extends Thread implements
             currX -= GameMap.TILE_PERSPECTIVE_OFFSET;
             currY += GameMap.TILE_PERSPECTIVE_OFFSET;
             currZ++;
-            final long foundKey = Location.getKey(currX, currY, currZ);
-            synchronized (unchecked) {
-                if (!unchecked.contains(foundKey)) {
-                    unchecked.add(foundKey);
-                }
-            }
+            unchecked.add(currX, currY, currZ);
         }
     }
 
@@ -331,12 +543,7 @@ public class GameMapProcessor extends Thread implements
             currX += GameMap.TILE_PERSPECTIVE_OFFSET;
             currY -= GameMap.TILE_PERSPECTIVE_OFFSET;
             currZ--;
-            final long foundKey = Location.getKey(currX, currY, currZ);
-            synchronized (unchecked) {
-                if (!unchecked.contains(foundKey)) {
-                    unchecked.add(foundKey);
-                }
-            }
+            unchecked.add(currX, currY, currZ);
         }
     }
 
@@ -347,29 +554,71 @@ public class GameMapProcessor extends Thread implements
      * @param searchLoc the location of the start of the search.
      */
     private void addAllNeighbours(final Location searchLoc) {
+        final int searchX = searchLoc.getScX();
+        final int searchY = searchLoc.getScY();
+        final int searchZ = searchLoc.getScZ();
         for (int x = -1; x < 2; x++) {
             for (int y = -1; y < 2; y++) {
                 if ((x == 0) && (y == 0)) {
                     continue;
                 }
-                final long foundKey =
-                    Location.getKey(searchLoc.getScX() + x, searchLoc.getScY()
-                        + y, searchLoc.getScZ());
-                synchronized (unchecked) {
-                    if (!unchecked.contains(foundKey)) {
-                        unchecked.add(foundKey);
-                    }
-                }
+                unchecked.add(searchX + x, searchY + y, searchZ);
             }
         }
 
-        final long foundKey =
-            Location.getKey(searchLoc.getScX(), searchLoc.getScY(),
-                searchLoc.getScZ() + 1);
-        synchronized (unchecked) {
-            if (!unchecked.contains(foundKey)) {
-                unchecked.add(foundKey);
+        unchecked.add(searchX, searchY, searchZ + 1);
+    }
+
+    /**
+     * Apply the action that was found by checking a tile. The tiles that are
+     * effected by the change are added to the list of unchecked tiles.
+     * 
+     * @param tile the tile the action is applied to
+     * @param action the action that is applied
+     */
+    @SuppressWarnings("nls")
+    private void applyAction(final MapTile tile, final int action) {
+        final Location tileLoc = tile.getLocation();
+
+        // the tile was removed or replaced since it was checked
+        if (parent.getMapAt(tileLoc) != tile) {
+            return;
+        }
+
+        if ((action & ACTION_REMOVE) > 0) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Removed tile at location "
+                    + tileLoc.toString());
             }
+            parent.removeTile(tileLoc.getKey());
+            return;
+        }
+
+        final int lowerLimit = playerLoc.getScZ() - 2;
+        final int upperLimit = playerLoc.getScZ() + 2;
+        if ((action & ACTION_OBSTRUCT) > 0) {
+            tile.setObstructed(true);
+        } else if ((action & ACTION_UNOBSTRUCT) > 0) {
+            tile.setObstructed(false);
+            addAllBelow(tileLoc, lowerLimit);
+        }
+
+        if ((action & ACTION_HIDE) > 0) {
+            tile.setHidden(true);
+            columns.setHidden(tileLoc.getScX(), tileLoc.getScY(),
+                tileLoc.getScZ(), true);
+            addAllBelow(tileLoc, lowerLimit);
+            addAllAbove(tileLoc, upperLimit);
+            addAllNeighbours(tileLoc);
+        } else if ((action & ACTION_SHOW) > 0) {
+            tile.setHidden(false);
+            columns.setHidden(tileLoc.getScX(), tileLoc.getScY(),
+                tileLoc.getScZ(), false);
+            addAllBelow(tileLoc, lowerLimit);
+            if ((action & ACTION_SHOW_ABOVE) > 0) {
+                addAllAbove(tileLoc, upperLimit);
+            }
+            addAllNeighbours(tileLoc);
         }
     }
 
@@ -403,51 +652,30 @@ public class GameMapProcessor extends Thread implements
     /**
      * Do the clipping check of a tile.
      * 
-     * @param tile the tile that is checked
-     * @param key the location key of the checked tile
-     * @return <code>true</code> in case the tile was clipped away
+     * @param tileLoc the location of the tile that is checked
+     * @return <code>true</code> in case the tile is outside of the clipping
+     *         range and needs to be removed
      */
-    private boolean checkClipping(final MapTile tile, final long key) {
-        final Location playerLoc = Game.getPlayer().getLocation();
-        final Location tileLoc = tile.getLocation();
-
+    private boolean checkClipping(final Location tileLoc) {
         /*
          * Start checking the clipping of the tiles. In case a tile is found
          * outside the clipping range, its deleted.
          */
         if ((playerLoc.getScZ() + 2) < tileLoc.getScZ()) {
-            parent.removeTile(key);
-            LOGGER.debug("Removed tile at location " + tileLoc.toString()
-                + " (tile.x > player.z + 2)");
             return true;
         }
 
         if ((playerLoc.getScZ() - 2) > tileLoc.getScZ()) {
-            parent.removeTile(key);
-            LOGGER.debug("Removed tile at location " + tileLoc.toString()
-                + " (tile.x < player.z - 2)");
             return true;
         }
 
         if (((playerLoc.getCol() + clipping.getLeft()) - ADD_CLIPPING_RANGE) > tileLoc
             .getCol()) {
-            parent.removeTile(key);
-            LOGGER.debug("Removed tile at location " + tileLoc.toString()
-                + " (outside of left clipping)");
-            LOGGER.debug("Ply Col: " + Integer.toString(playerLoc.getCol())
-                + " Clipping Left: " + Integer.toString(clipping.getLeft())
-                + " Tile Col: " + Integer.toString(tileLoc.getCol()));
             return true;
         }
 
         if ((playerLoc.getCol() + clipping.getRight() + ADD_CLIPPING_RANGE) < tileLoc
             .getCol()) {
-            parent.removeTile(key);
-            LOGGER.debug("Removed tile at location " + tileLoc.toString()
-                + " (outside of right clipping)");
-            LOGGER.debug("Ply Col: " + Integer.toString(playerLoc.getCol())
-                + " Clipping Right: " + Integer.toString(clipping.getRight())
-                + " Tile Col: " + Integer.toString(tileLoc.getCol()));
             return true;
         }
 
@@ -455,24 +683,11 @@ public class GameMapProcessor extends Thread implements
 
         if ((playerLoc.getRow() + clipping.getTop() + ADD_CLIPPING_RANGE) < (tileLoc
             .getRow() - level)) {
-            parent.removeTile(key);
-            LOGGER.debug("Removed tile at location " + tileLoc.toString()
-                + " (outside of top clipping)");
-            LOGGER.debug("Ply Row: " + Integer.toString(playerLoc.getRow())
-                + " Clipping Top: " + Integer.toString(clipping.getTop())
-                + " Tile Row: " + Integer.toString(tileLoc.getRow()));
             return true;
         }
 
         if (((playerLoc.getRow() + clipping.getBottom()) - ADD_CLIPPING_RANGE) > (tileLoc
             .getRow() + level)) {
-            parent.removeTile(key);
-            LOGGER.debug("Removed tile at location " + tileLoc.toString()
-                + " (outside of bottom clipping)");
-            LOGGER.debug("Ply Row: " + Integer.toString(playerLoc.getRow())
-                + " Clipping Bottom: "
-                + Integer.toString(clipping.getBottom()) + " Tile Row: "
-                + Integer.toString(tileLoc.getRow()));
             return true;
         }
 
@@ -484,32 +699,22 @@ public class GameMapProcessor extends Thread implements
      * or a house or something like this.
      * 
      * @param tile the tile that is checked
-     * @param key the location key of the checked tile
-     * @return <code>true</code> in case the tile was handled
+     * @return the action that needs to be applied to the tile or
+     *         <code>0</code> in case nothing needs to be done
      */
     @SuppressWarnings("nls")
-    private boolean checkHidden(final MapTile tile, final long key) {
-        final Location playerLoc = Game.getPlayer().getLocation();
+    private int checkHidden(final MapTile tile) {
         final Location tileLoc = tile.getLocation();
 
-        if ((playerLoc == null) || (tileLoc == null)) {
-            // something is very wrong. Put this entry back into the unchecked
-            // list and try it again later.
-            reportUnchecked(key);
-            return true;
-        }
-
         /*
          * And now we start with the inside check. In case the tile is below the
          * level of the player its never hidden for sure.
          */
         if (tileLoc.getScZ() <= playerLoc.getScZ()) {
             if (tile.isHidden()) {
-                tile.setHidden(false);
-                addAllBelow(tileLoc, playerLoc.getScZ() - 2);
-                addAllNeighbours(tileLoc);
+                return ACTION_SHOW;
             }
-            return true;
+            return 0;
         }
 
         /*
@@ -521,7 +726,7 @@ public class GameMapProcessor extends Thread implements
 
         if ((insideIndex < 0) || (insideIndex > 1)) {
             LOGGER.warn("Invalid inside index: " + insideIndex);
-            return true;
+            return 0;
         }
 
         /*
@@ -529,12 +734,9 @@ public class GameMapProcessor extends Thread implements
          */
         if (!insideStates[insideIndex]) {
             if (tile.isHidden()) {
-                tile.setHidden(false);
-                addAllBelow(tileLoc, playerLoc.getScZ() - 2);
-                addAllAbove(tileLoc, playerLoc.getScZ() + 2);
-                addAllNeighbours(tileLoc);
+                return ACTION_SHOW | ACTION_SHOW_ABOVE;
             }
-            return true;
+            return 0;
         }
 
         /*
@@ -542,24 +744,15 @@ public class GameMapProcessor extends Thread implements
          * needs to be hidden.
          */
         if ((tileLoc.getScX() == playerLoc.getScX())
-            && (tileLoc.getScY() == playerLoc.getScY())
-            && (tileLoc.getScZ() > playerLoc.getScZ()) && !tile.isHidden()) {
-            tile.setHidden(true);
-            addAllBelow(tileLoc, playerLoc.getScZ() - 2);
-            addAllAbove(tileLoc, playerLoc.getScZ() + 2);
-            addAllNeighbours(tileLoc);
-            return true;
+            && (tileLoc.getScY() == playerLoc.getScY()) && !tile.isHidden()) {
+            return ACTION_HIDE;
         }
 
         if (!tile.isHidden() && searchHiddenNeighbour(tileLoc)) {
-            tile.setHidden(true);
-            addAllBelow(tileLoc, playerLoc.getScZ() - 2);
-            addAllAbove(tileLoc, playerLoc.getScZ() + 2);
-            addAllNeighbours(tileLoc);
-            return true;
+            return ACTION_HIDE;
         }
 
-        return false;
+        return 0;
     }
 
     /**
@@ -570,11 +763,10 @@ public class GameMapProcessor extends Thread implements
      * possibly shown in case the char steps into a building or something.
      * 
      * @param tile the tile that is checked
-     * @param key the location key of the checked tile
-     * @return <code>true</code> in case the tile got removed
+     * @return the action that needs to be applied to the tile or
+     *         <code>0</code> in case nothing needs to be done
      */
-    private boolean checkObstruction(final MapTile tile, final long key) {
-        final Location playerLoc = Game.getPlayer().getLocation();
+    private int checkObstruction(final MapTile tile) {
         final Location tileLoc = tile.getLocation();
 
         final int topLimit = playerLoc.getScZ() + 2;
@@ -588,24 +780,41 @@ public class GameMapProcessor extends Thread implements
             currY += GameMap.TILE_PERSPECTIVE_OFFSET;
             currZ++;
 
-            final boolean remove = (currZ < (topLimit - 2));
-            final MapTile foundTile = parent.getMapAt(currX, currY, currZ);
-
-            if ((foundTile != null) && foundTile.isOpaque()
-                && !foundTile.isHidden()) {
-                if (remove) {
-                    parent.removeTile(key);
-                    return true;
+            if (columns.isObstructing(currX, currY, currZ)) {
+                if (currZ < (topLimit - 2)) {
+                    return ACTION_REMOVE;
+                }
+                if (tile.isObstructed()) {
+                    return 0;
                 }
-                tile.setObstructed(true);
-                return false;
+                return ACTION_OBSTRUCT;
             }
         }
         if (tile.isObstructed()) {
-            tile.setObstructed(false);
-            addAllBelow(tileLoc, playerLoc.getScZ() - 2);
+            return ACTION_UNOBSTRUCT;
         }
-        return false;
+        return 0;
+    }
+
+    /**
+     * Check a tile and find the actions that need to be applied to it. This
+     * does not change the tile or the map, so its safe to check multiple tiles
+     * at the same time.
+     * 
+     * @param tile the tile that is checked
+     * @return the actions that need to be applied to the tile
+     */
+    private int evaluateTile(final MapTile tile) {
+        if (checkClipping(tile.getLocation())) {
+            return ACTION_REMOVE;
+        }
+
+        final int obstruction = checkObstruction(tile);
+        if (obstruction == ACTION_REMOVE) {
+            return ACTION_REMOVE;
+        }
+
+        return obstruction | checkHidden(tile);
     }
 
     /**
@@ -620,21 +829,19 @@ public class GameMapProcessor extends Thread implements
 
         checkInside = false;
 
-        final Location playerLoc = Game.getPlayer().getLocation();
-        final int currX = playerLoc.getScX();
-        final int currY = playerLoc.getScY();
-        int currZ = playerLoc.getScZ();
+        final Location currentLoc = Game.getPlayer().getLocation();
+        final int currX = currentLoc.getScX();
+        final int currY = currentLoc.getScY();
+        int currZ = currentLoc.getScZ();
         boolean nowOutside = false;
         boolean isInside = false;
 
         for (int i = 0; i < 2; ++i) {
             currZ++;
-            if (isInside || (parent.isMapAt(currX, currY, currZ))) {
+            if (isInside || columns.hasTile(currX, currY, currZ)) {
                 if (!insideStates[i]) {
                     insideStates[i] = true;
-                    synchronized (unchecked) {
-                        unchecked.add(Location.getKey(currX, currY, currZ));
-                    }
+                    unchecked.add(currX, currY, currZ);
                 }
                 isInside = true;
             } else {
@@ -650,52 +857,65 @@ public class GameMapProcessor extends Thread implements
          * added to the list to be checked again.
          */
         if (nowOutside) {
-            synchronized (unchecked) {
-                unchecked.clear();
-                parent.processTiles(this);
-            }
-
+            unchecked.clear();
+            parent.processTiles(this);
         }
 
         Game.getWeather().setOutside(!isInside);
     }
 
     /**
-     * Process the unchecked tiles that are still needed to be done.
+     * Process the unchecked tiles that are still needed to be done. All regions
+     * that are queued at this point are checked, in parallel if there are
+     * enough tiles, and the results are applied afterwards.
      * 
      * @return <code>true</code> in case a tile was handled.
      */
+    @SuppressWarnings("nls")
     private boolean processUnchecked() {
-        long key;
-        synchronized (unchecked) {
-            final int size = unchecked.size();
-            if (size == 0) {
-                return false;
-            }
-            key = unchecked.removeAt(size - 1);
+        final DirtyQueue.Region[] regions = unchecked.drain();
+        if (regions == null) {
+            return false;
         }
 
-        final MapTile tile = parent.getMapAt(key);
+        playerLoc.set(Game.getPlayer().getLocation());
 
-        // no tile found, lets quit here
-        if (tile == null) {
-            return true;
-        }
-
-        // clipping check
-        if (checkClipping(tile, key)) {
-            return true;
+        final RegionCheck[] checks = new RegionCheck[regions.length];
+        int tileCount = 0;
+        for (int i = 0; i < regions.length; i++) {
+            checks[i] = new RegionCheck(regions[i]);
+            tileCount += regions[i].count;
         }
 
-        // obstruction check
-        if (checkObstruction(tile, key)) {
-            return true;
+        if ((workers == null) || (checks.length == 1)
+            || (tileCount < MIN_PARALLEL_TILES)) {
+            for (final RegionCheck check : checks) {
+                check.call();
+            }
+        } else {
+            try {
+                final List<Future<RegionCheck>> results =
+                    workers.invokeAll(Arrays.asList(checks));
+                for (final Future<RegionCheck> result : results) {
+                    result.get();
+                }
+            } catch (final InterruptedException e) {
+                LOGGER.debug("Map processor interrupted while checking", e);
+                return true;
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("Checking the map failed",
+                    cause);
+            }
         }
 
-        // hidden check
-        if (checkHidden(tile, key)) {
-            return true;
+        for (final RegionCheck check : checks) {
+            check.apply();
         }
+        checkedTiles += tileCount;
 
         return true;
     }
@@ -708,35 +928,26 @@ public class GameMapProcessor extends Thread implements
      * @return <code>true</code> in case a hidden tile was found
      */
     private boolean searchHiddenNeighbour(final Location searchLoc) {
+        if (!columns.hasHiddenTiles()) {
+            return false;
+        }
+
+        final int searchX = searchLoc.getScX();
+        final int searchY = searchLoc.getScY();
+        final int searchZ = searchLoc.getScZ();
         for (int x = -1; x < 2; x++) {
             for (int y = -1; y < 2; y++) {
                 if ((x == 0) && (y == 0)) {
                     continue;
                 }
-                final MapTile foundTile =
-                    parent.getMapAt(searchLoc.getScX() + x, searchLoc.getScY()
-                        + y, searchLoc.getScZ());
-                if ((foundTile != null) && foundTile.isHidden()) {
+                if (columns.isHidden(searchX + x, searchY + y, searchZ)) {
                     return true;
                 }
             }
         }
 
-        MapTile foundTile =
-            parent.getMapAt(searchLoc.getScX(), searchLoc.getScY(),
-                searchLoc.getScZ() + 1);
-        if ((foundTile != null) && foundTile.isHidden()) {
-            return true;
-        }
-
-        foundTile =
-            parent.getMapAt(searchLoc.getScX(), searchLoc.getScY(),
-                searchLoc.getScZ() - 1);
-        if ((foundTile != null) && foundTile.isHidden()) {
-            return true;
-        }
-
-        return false;
+        return columns.isHidden(searchX, searchY, searchZ + 1)
+            || columns.isHidden(searchX, searchY, searchZ - 1);
     }
 
     /**
@@ -748,10 +959,11 @@ public class GameMapProcessor extends Thread implements
      */
     private boolean workloadCheck() {
         if (fullCheckNeeded) {
-            synchronized (unchecked) {
-                parent.processTiles(this);
-            }
             fullCheckNeeded = false;
+            if (fullCheckStart == 0) {
+                fullCheckStart = System.nanoTime();
+            }
+            parent.processTiles(this);
             return true;
         }
         return false;
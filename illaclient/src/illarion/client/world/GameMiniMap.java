@@ -19,20 +19,11 @@
 package illarion.client.world;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -47,7 +38,6 @@ import illarion.graphics.Graphics;
 import illarion.graphics.Sprite;
 import illarion.graphics.Texture;
 import illarion.graphics.TextureAtlas;
-import illarion.graphics.common.MapColor;
 
 /**
  * This class stores a reduced version of the full map the character knows. The
@@ -69,34 +59,17 @@ public final class GameMiniMap implements SessionMember {
      */
     public static final int WORLDMAP_WIDTH = 1024;
 
-    /**
-     * The modifier value that is multiplied to the color values in case the
-     * tile is blocked.
-     */
-    private static final float BLOCKED_COLOR_MOD = 0.7f;
-
     /**
      * The string builder that is used to create the strings for this class.
      */
     private static final StringBuilder BUILDER = new StringBuilder();
 
-    /**
-     * The bytes that are reserved for one tile in the internal storage.
-     */
-    private static final int BYTES_PER_TILE = 2;
-
     /**
      * The log file handler that takes care for the logging output of this
      * class.
      */
     private static final Logger LOGGER = Logger.getLogger(GameMiniMap.class);
 
-    /**
-     * The minimal height and width of the texture area that is updated during a
-     * full texture update.
-     */
-    private static final int MINIMAL_UPDATE_AREA = 4;
-
     /**
      * Indicated how many bits the blocked bit is shifted.
      */
@@ -119,50 +92,16 @@ public final class GameMiniMap implements SessionMember {
     @SuppressWarnings("nls")
     private static final String TEX_NAME_WORLD = "worldmap";
 
-    /**
-     * The AND mask to get the tile ID from a encoded tile.
-     */
-    private static final int TILE_ID_MASK = 0x1f;
-
-    /**
-     * The AND mask to get a overlay ID from a encoded tile.
-     */
-    private static final int TILE_OVERLAY_MASK = 0x1f;
-
     /**
      * The texture atlas that handles the texture image itself.
      */
     private final TextureAtlas atlas;
 
     /**
-     * The dirty flag, this will be true in case there are any changes on the
-     * map that were yet not transfered to the world map texture.
-     */
-    private boolean dirty = false;
-
-    /**
-     * The X coordinate of the first point that describes the dirty rectangle of
-     * the map.
-     */
-    private int dirtyAreaX1;
-
-    /**
-     * The X coordinate of the second point that describes the dirty rectangle
-     * of the map.
-     */
-    private int dirtyAreaX2;
-
-    /**
-     * The Y coordinate of the first point that describes the dirty rectangle of
-     * the map.
+     * The list that receives the changed areas of the map that were yet not
+     * transfered to the world map texture.
      */
-    private int dirtyAreaY1;
-
-    /**
-     * The Y coordinate of the second point that describes the dirty rectangle
-     * of the map.
-     */
-    private int dirtyAreaY2;
+    private final List<int[]> dirtyAreas = new ArrayList<int[]>();
 
     /**
      * Indicates if a map is loaded or not.
@@ -177,7 +116,13 @@ public final class GameMiniMap implements SessionMember {
     /**
      * The data storage for the map data that was loaded in this mini map.
      */
-    private final ByteBuffer mapData;
+    private final MiniMapStore mapData;
+
+    /**
+     * The tracker of the changed areas of the map that also creates the image
+     * data of those areas.
+     */
+    private final MiniMapRenderer mapRenderer;
 
     /**
      * The level of the current world map.
@@ -244,10 +189,8 @@ public final class GameMiniMap implements SessionMember {
      * Constructor of the game map that sets up all instance variables.
      */
     public GameMiniMap() {
-        mapData =
-            ByteBuffer.allocate(WORLDMAP_WIDTH * WORLDMAP_HEIGHT
-                * BYTES_PER_TILE);
-        mapData.order(ByteOrder.nativeOrder());
+        mapData = new MiniMapStore(WORLDMAP_WIDTH, WORLDMAP_HEIGHT);
+        mapRenderer = new MiniMapRenderer(WORLDMAP_WIDTH, WORLDMAP_HEIGHT);
         loadedMap = false;
 
         atlas = Graphics.getInstance().getTextureAtlas();
@@ -271,14 +214,8 @@ public final class GameMiniMap implements SessionMember {
         finishUpdate();
         saveMap();
 
-        updateAreas.clear();
-        updateBuffers.clear();
-
-        dirty = false;
-        dirtyAreaX1 = 0;
-        dirtyAreaX2 = 0;
-        dirtyAreaY1 = 0;
-        dirtyAreaY2 = 0;
+        clearUpdates();
+        mapRenderer.clear();
 
         mapLevel = 0;
         mapOriginX = 0;
@@ -292,12 +229,7 @@ public final class GameMiniMap implements SessionMember {
 
         updateSlowdown = 0;
 
-        mapData.clear();
-        final byte nullByte = (byte) 0;
-        while (mapData.hasRemaining()) {
-            mapData.put(nullByte);
-        }
-        mapData.clear();
+        mapData.close();
     }
 
     /**
@@ -306,7 +238,12 @@ public final class GameMiniMap implements SessionMember {
      * this update.
      */
     public void finishUpdate() {
-        if (!dirty || !loadedMap || loadingMap) {
+        if (!loadedMap || loadingMap) {
+            return;
+        }
+
+        mapData.fetchDecodedChunks(mapRenderer);
+        if (!mapRenderer.isDirty()) {
             return;
         }
 
@@ -315,17 +252,17 @@ public final class GameMiniMap implements SessionMember {
             return;
         }
 
-        if ((dirtyAreaX1 == mapOriginX) && (dirtyAreaY1 == mapOriginY)
-            && (dirtyAreaX2 == ((mapOriginX + WORLDMAP_WIDTH) - 1))
-            && (dirtyAreaY2 == ((mapOriginY + WORLDMAP_HEIGHT) - 1))) {
-            prepareUpdateFullImage();
-        } else {
-            prepareUpdateAreaImage(dirtyAreaX1, dirtyAreaY1,
-                (dirtyAreaX2 - dirtyAreaX1) + 1,
-                (dirtyAreaY2 - dirtyAreaY1) + 1);
+        final int[] colors = TileFactory.getInstance().getMiniMapColors();
+        if (colors == null) {
+            return;
         }
 
-        dirty = false;
+        mapRenderer.fetchDirtyAreas(dirtyAreas);
+        final int count = dirtyAreas.size();
+        for (int i = 0; i < count; ++i) {
+            prepareUpdateAreaImage(dirtyAreas.get(i), colors);
+        }
+        dirtyAreas.clear();
     }
 
     /**
@@ -441,8 +378,8 @@ public final class GameMiniMap implements SessionMember {
 
     /**
      * The render function should be triggered at every render run of the mini
-     * map or the world map. In case the map is dirty this will trigger a update
-     * of the whole map.
+     * map or the world map. In case the map changed this will update the
+     * changed areas of the texture.
      */
     public void render() {
         if (!loadedMap || loadingMap) {
@@ -473,36 +410,11 @@ public final class GameMiniMap implements SessionMember {
                 + " name table.");
             return;
         }
-        WritableByteChannel outChannel = null;
-        final Deflater def = new Deflater();
-        def.setLevel(Deflater.BEST_COMPRESSION);
-        def.setStrategy(Deflater.DEFAULT_STRATEGY);
         try {
-            final FileOutputStream outStream = new FileOutputStream(mapFile);
-            final DeflaterOutputStream dOutStream =
-                new DeflaterOutputStream(outStream, def);
-            outChannel = Channels.newChannel(dOutStream);
-            synchronized (mapData) {
-                mapData.rewind();
-                int toWrite = mapData.remaining();
-                while (toWrite > 0) {
-                    toWrite -= outChannel.write(mapData);
-                }
-            }
-        } catch (final FileNotFoundException e) {
-            LOGGER.error("Target file not found", e);
+            mapData.save();
         } catch (final IOException e) {
             LOGGER.error("Error while writing minimap file", e);
-        } finally {
-            if (outChannel != null) {
-                try {
-                    outChannel.close();
-                } catch (final IOException e) {
-                    LOGGER.error("Failed closing the file stream.");
-                }
-            }
         }
-        def.end();
     }
 
     /**
@@ -549,11 +461,26 @@ public final class GameMiniMap implements SessionMember {
 
         if (!loadedMap || (newMapLevel != mapLevel)
             || (newMapOriginX != mapOriginX) || (newMapOriginY != mapOriginY)) {
+            final long loadStart = System.nanoTime();
             saveMap();
             mapLevel = newMapLevel;
             mapOriginX = newMapOriginX;
             mapOriginY = newMapOriginY;
             loadMap();
+            mapData.preload(playerLoc.getScX() - mapOriginX,
+                playerLoc.getScY() - mapOriginY, minimapWidth >> 1);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Switched minimap in "
+                    + ((System.nanoTime() - loadStart) / 1000000L)
+                    + "ms, decoded " + mapData.getDecodedChunks()
+                    + " chunks using " + (mapData.getResidentSize() >> 10)
+                    + "kB");
+            }
+        } else {
+            // the window moved inside the section or changed its size, so the
+            // chunks that came into sight are decoded, decoded ones are skipped
+            mapData.preload(playerLoc.getScX() - mapOriginX,
+                playerLoc.getScY() - mapOriginY, minimapWidth >> 1);
         }
 
         int minimapOffsetX = 0;
@@ -615,18 +542,8 @@ public final class GameMiniMap implements SessionMember {
         }
 
         if (saveTile(tileLoc, updateData.getTileId(), updateData.isBlocked())) {
-            if (!dirty) {
-                dirtyAreaX1 = tileLoc.getScX();
-                dirtyAreaY1 = tileLoc.getScY();
-                dirtyAreaX2 = dirtyAreaX1;
-                dirtyAreaY2 = dirtyAreaY1;
-                dirty = true;
-            } else {
-                dirtyAreaX1 = Math.min(dirtyAreaX1, tileLoc.getScX());
-                dirtyAreaY1 = Math.min(dirtyAreaY1, tileLoc.getScY());
-                dirtyAreaX2 = Math.max(dirtyAreaX2, tileLoc.getScX());
-                dirtyAreaY2 = Math.max(dirtyAreaY2, tileLoc.getScY());
-            }
+            mapRenderer.markDirty(tileLoc.getScX() - mapOriginX,
+                tileLoc.getScY() - mapOriginY);
         }
     }
 
@@ -662,129 +579,64 @@ public final class GameMiniMap implements SessionMember {
     protected void loadMap() {
         loadingMap = true;
         final File mapFile = getCurrentMapFilename();
+        final File oldMapFile = getMapFilename(".dat");
 
-        if (!mapFile.exists()) {
+        if (!mapFile.exists() && !oldMapFile.exists()) {
             loadEmptyMap();
             return;
         }
 
-        FileInputStream inStream = null;
-        InflaterInputStream dInStream = null;
-        final Inflater inf = new Inflater();
         try {
-            inStream = new FileInputStream(mapFile);
-            dInStream = new InflaterInputStream(inStream, inf);
-            final ReadableByteChannel inChannel =
-                Channels.newChannel(dInStream);
-
-            synchronized (mapData) {
-                mapData.rewind();
-
-                int read = 1;
-                while (read > 0) {
-                    read = inChannel.read(mapData);
-                }
-                inChannel.close();
-            }
-
-            dirty = true;
-            dirtyAreaX1 = mapOriginX;
-            dirtyAreaY1 = mapOriginY;
-            dirtyAreaX2 = (mapOriginX + WORLDMAP_WIDTH) - 1;
-            dirtyAreaY2 = (mapOriginY + WORLDMAP_HEIGHT) - 1;
+            mapData.open(mapFile, oldMapFile);
+            clearUpdates();
+            // replaces the old section on the texture, this decodes no chunks
+            mapRenderer.markAll();
         } catch (final IOException e) {
             LOGGER.error("Failed loading the map data from its file.", e);
             loadEmptyMap();
-        } finally {
-            if (dInStream != null) {
-                try {
-                    dInStream.close();
-                } catch (final IOException e) {
-                    LOGGER.error("Failed closing the file stream.");
-                }
-            }
-            if (inStream != null) {
-                try {
-                    inStream.close();
-                } catch (final IOException e) {
-                    LOGGER.error("Failed closing the file stream.");
-                }
-            }
         }
-        inf.end();
         loadedMap = true;
         loadingMap = false;
     }
 
     /**
-     * Decode a tile to a image data array.
-     * 
-     * @param tileData the encoded informations about the tile
-     * @param imageData the byte array that stores the image data
+     * Discard all prepared updates of the map that were not put into place
+     * yet.
      */
-    private void decodeTile(final short tileData, final ByteBuffer imageData) {
-        final byte tileID = (byte) (tileData & TILE_ID_MASK);
-        if (tileID == 0) {
-            imageData.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 0);
-            return;
+    private void clearUpdates() {
+        synchronized (updateAreas) {
+            updateAreas.clear();
+            updateBuffers.clear();
         }
-        final byte tileOverlayID =
-            (byte) ((tileData >> SHIFT_OVERLAY) & TILE_OVERLAY_MASK);
-        final boolean tileBlocked = ((tileData >> SHIFT_BLOCKED) > 0);
-
-        final int[] tileColor =
-            MapColor.getColor(TileFactory.getInstance().getMapColor(tileID));
-
-        final int[] colorValue = new int[MapColor.COLOR_VALUES];
-        colorValue[0] = tileColor[0];
-        colorValue[1] = tileColor[1];
-        colorValue[2] = tileColor[2];
-
-        if (tileOverlayID > 0) {
-            final int[] overlayTileColor =
-                MapColor.getColor(TileFactory.getInstance().getMapColor(
-                    tileOverlayID));
-
-            colorValue[0] += (overlayTileColor[0] - tileColor[0]) >> 1;
-            colorValue[1] += (overlayTileColor[1] - tileColor[1]) >> 1;
-            colorValue[2] += (overlayTileColor[2] - tileColor[2]) >> 1;
-        }
-        if (tileBlocked) {
-            colorValue[0] *= BLOCKED_COLOR_MOD;
-            colorValue[1] *= BLOCKED_COLOR_MOD;
-            colorValue[2] *= BLOCKED_COLOR_MOD;
-        }
-        imageData.put((byte) (colorValue[0] & 0xFF));
-        imageData.put((byte) (colorValue[1] & 0xFF));
-        imageData.put((byte) (colorValue[2] & 0xFF));
-        imageData.put((byte) -1);
     }
 
     /**
-     * Encode a server location to the index in the map data buffer.
+     * Get the full path string to the file for the currently selected map. This
+     * file needs to be used to store and load the map data.
      * 
-     * @param loc the server location that shall be encoded
-     * @return the index of the location in the map data buffer
+     * @return the path and the filename of the map file
      */
-    private int encodeLocation(final Location loc) {
-        return ((loc.getScY() - mapOriginY) * WORLDMAP_WIDTH * BYTES_PER_TILE)
-            + ((loc.getScX() - mapOriginX) * BYTES_PER_TILE);
+    @SuppressWarnings("nls")
+    private File getCurrentMapFilename() {
+        return getMapFilename(".mmap");
     }
 
     /**
-     * Get the full path string to the file for the currently selected map. This
-     * file needs to be used to store and load the map data.
+     * Get the file of the currently selected map with a specified file
+     * extension. The files with the extension <code>.dat</code> store the map
+     * in the old format that is converted when loading the map.
      * 
+     * @param extension the extension of the file, including the dot
      * @return the path and the filename of the map file
      */
     @SuppressWarnings("nls")
-    private File getCurrentMapFilename() {
+    private File getMapFilename(final String extension) {
         BUILDER.setLength(0);
         BUILDER.append("map");
         BUILDER.append(mapOriginX / WORLDMAP_WIDTH);
         BUILDER.append(mapOriginY / WORLDMAP_HEIGHT);
         BUILDER.append(mapLevel);
-        BUILDER.append(".dat");
+        BUILDER.append(extension);
         return new File(Game.getPlayer().getPath(), BUILDER.toString());
     }
 
@@ -795,45 +647,41 @@ public final class GameMiniMap implements SessionMember {
      */
     private void loadEmptyMap() {
         loadingMap = true;
-        mapData.rewind();
-        while (mapData.remaining() > 0) {
-            mapData.put((byte) 0);
-        }
+        mapData.openEmpty(getCurrentMapFilename());
         loadedMap = true;
-        prepareUpdateFullImage();
+        clearUpdates();
+        // replaces the old section on the texture, this decodes no chunks
+        mapRenderer.markAll();
         loadingMap = false;
     }
 
     /**
-     * In case there is a update of the map prepared, put it into place. This
-     * will always write one update to the minimap per call. In case there is
-     * more then one update, the function has to be called multiple times.
+     * In case there are updates of the map prepared, put them into place. This
+     * writes all prepared areas to the world map texture.
      */
     @SuppressWarnings("nls")
     private void performUpdate() {
-        if (updateAreas.isEmpty() || updateBuffers.isEmpty()) {
-            return;
+        final long beforeTime = System.nanoTime();
+        int count = 0;
+        while (true) {
+            final int[] updateArea;
+            final ByteBuffer updateBuffer;
+            synchronized (updateAreas) {
+                if (updateAreas.isEmpty()) {
+                    break;
+                }
+                updateArea = updateAreas.removeFirst();
+                updateBuffer = updateBuffers.removeFirst();
+            }
+            atlas.updateTextureArea(updateArea[0], updateArea[1],
+                updateArea[2], updateArea[3], updateBuffer);
+            count++;
         }
 
-        final int[] updateSize = updateAreas.removeFirst();
-        final ByteBuffer updateBuffer = updateBuffers.removeFirst();
-
-//        if (atlas.getTextureID() != 0) {
-//            final long beforeTime = System.currentTimeMillis();
-//            atlas.updateTextureArea(updateSize[0], updateSize[1],
-//                updateSize[2], updateSize[3], updateBuffer);
-//            LOGGER.info("Changing Minimap Texture took "
-//                + Long.toString(System.currentTimeMillis() - beforeTime)
-//                + "ms");
-//        } else if ((updateSize[0] == 0) && (updateSize[1] == 0)
-//            && (updateSize[2] == WORLDMAP_WIDTH)
-//            && (updateSize[3] == WORLDMAP_HEIGHT)) {
-//            atlas.setTextureImage(updateBuffer);
-//            atlas.activateTexture(true, true);
-//
-//            worldmapTexture.setParent(atlas);
-//            minimapTexture.setParent(atlas);
-//        }
+        if ((count > 0) && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Changing " + count + " minimap areas took "
+                + ((System.nanoTime() - beforeTime) / 1000L) + "us");
+        }
     }
 
     /**
@@ -841,95 +689,20 @@ public final class GameMiniMap implements SessionMember {
      * data to a buffer and stores it so the render thread can copy the data to
      * the minimap texture.
      * 
-     * @param x the x coordinate of the area to update
-     * @param y the y coordinate of the area to update
-     * @param w the width of the area to update
-     * @param h the height of the area to update
+     * @param area the X and Y coordinate, the width and the height of the area
+     *            to update relative to the map origin
+     * @param colors the color table of the tiles
      */
-    private void prepareUpdateAreaImage(final int x, final int y, final int w,
-        final int h) {
-
-        // the origin needs to be a multiple of 4
-        final int originX = (x - mapOriginX) - ((x - mapOriginX) % 4);
-        final int originY = (y - mapOriginY) - ((y - mapOriginY) % 4);
-
-        final int neededWidth = w + ((x - mapOriginX) % 4);
-        final int neededHeight = h + ((y - mapOriginY) % 4);
-
-        int updateAreaWidth = 1;
-        while ((updateAreaWidth < neededWidth)
-            || (updateAreaWidth < MINIMAL_UPDATE_AREA)) {
-            updateAreaWidth <<= 1;
-        }
-
-        int updateAreaHeight = 1;
-        while ((updateAreaHeight < neededHeight)
-            || (updateAreaHeight < MINIMAL_UPDATE_AREA)) {
-            updateAreaHeight <<= 1;
-        }
-
-        int updateAreaX = originX;
-        if ((updateAreaX + updateAreaWidth) >= WORLDMAP_WIDTH) {
-            updateAreaX = WORLDMAP_WIDTH - updateAreaWidth;
-        }
-
-        int updateAreaY = originY;
-        if ((updateAreaY + updateAreaHeight) >= WORLDMAP_HEIGHT) {
-            updateAreaY = WORLDMAP_HEIGHT - updateAreaHeight;
-        }
-
+    private void prepareUpdateAreaImage(final int[] area, final int[] colors) {
         final ByteBuffer buffer =
-            ByteBuffer.allocateDirect(updateAreaWidth * updateAreaHeight * 4);
-
-        synchronized (mapData) {
-            mapData.rewind();
-            final int limitY = updateAreaY + updateAreaHeight;
-            final int limitX = updateAreaX + updateAreaWidth;
-            for (int currY = updateAreaY; currY < limitY; ++currY) {
-                mapData.position((currY * WORLDMAP_WIDTH * BYTES_PER_TILE)
-                    + (updateAreaX * BYTES_PER_TILE));
-                for (int currX = updateAreaX; currX < limitX; ++currX) {
-                    decodeTile(mapData.getShort(), buffer);
-                }
-            }
-        }
-
+            ByteBuffer.allocateDirect(area[2] * area[3] * 4);
+        mapRenderer.decodeArea(mapData, colors, area, buffer);
         buffer.flip();
 
-        updateBuffers.addLast(buffer);
-        updateAreas.addLast(new int[] { updateAreaX, updateAreaY,
-            updateAreaWidth, updateAreaHeight });
-    }
-
-    /**
-     * Update the whole image of the world map.
-     */
-    @SuppressWarnings("nls")
-    private void prepareUpdateFullImage() {
-        LOGGER.info("Full Minimap Update triggered");
-
-//        final ByteBuffer buffer =
-//            ByteBuffer.allocateDirect(WORLDMAP_WIDTH * WORLDMAP_HEIGHT * 4);
-//
-//        synchronized (mapData) {
-//            mapData.rewind();
-//
-//            try {
-//                while (mapData.remaining() > 0) {
-//                    decodeTile(mapData.getShort(), buffer);
-//                }
-//            } catch (final ArrayIndexOutOfBoundsException ex1) {
-//                LOGGER.error(
-//                    "Map data corrupted, discard map and load blank map", ex1);
-//                loadEmptyMap();
-//            }
-//        }
-//
-//        buffer.flip();
-//
-//        updateBuffers.addLast(buffer);
-//        updateAreas
-//            .addLast(new int[] { 0, 0, WORLDMAP_WIDTH, WORLDMAP_HEIGHT });
+        synchronized (updateAreas) {
+            updateBuffers.addLast(buffer);
+            updateAreas.addLast(area);
+        }
     }
 
     /**
@@ -945,14 +718,11 @@ public final class GameMiniMap implements SessionMember {
     private boolean saveTile(final Location loc, final int tileID,
         final boolean blocked) {
 
-        final int index = encodeLocation(loc);
+        final int x = loc.getScX() - mapOriginX;
+        final int y = loc.getScY() - mapOriginY;
 
         if (tileID == MapTile.ID_NONE) {
-            if (mapData.getShort(index) == 0) {
-                return false;
-            }
-            mapData.putShort(index, (short) 0);
-            return true;
+            return mapData.setTile(x, y, (short) 0);
         }
 
         short encodedTileValue = (short) Tile.baseID(tileID);
@@ -961,11 +731,7 @@ public final class GameMiniMap implements SessionMember {
             encodedTileValue += 1 << SHIFT_BLOCKED;
         }
 
-        if (mapData.getShort(index) == encodedTileValue) {
-            return false;
-        }
-        mapData.putShort(index, encodedTileValue);
-        return true;
+        return mapData.setTile(x, y, encodedTileValue);
     }
 
     @Override
@@ -101,6 +101,12 @@ public final class MapTile extends Interaction implements AlphaChangeListener,
     private transient final SpriteColor light = Graphics.getInstance()
         .getSpriteColor();
 
+    /**
+     * This flag is <code>true</code> while the light rendered last waits to be
+     * published with {@link #publishLight()}.
+     */
+    private volatile boolean lightPending;
+
     /**
      * Light Source that is on the tile.
      */
@@ -147,6 +153,12 @@ public final class MapTile extends Interaction implements AlphaChangeListener,
      */
     private int tileId;
 
+    /**
+     * The light value that was rendered last, stored as packed RGB value. This
+     * value becomes the displayed light of the tile once its published.
+     */
+    private volatile int renderedLight;
+
     /**
      * The particle pool that handles all particles on this tile.
      */
@@ -780,6 +792,7 @@ public final class MapTile extends Interaction implements AlphaChangeListener,
 
         light.resetColor();
         tmpLight.resetColor();
+        renderedLight = 0;
 
         if (tilePool != null) {
             tilePool.clearPool();
@@ -979,19 +992,42 @@ public final class MapTile extends Interaction implements AlphaChangeListener,
         tmpLight.add(color);
     }
 
+    /**
+     * Publish the light that was rendered last, so its displayed. This must
+     * only be called by the render thread, as it changes the light color that
+     * is used to draw the tile and the items on it.
+     */
+    protected void publishLight() {
+        lightPending = false;
+        final int value = renderedLight;
+        light.set((value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF);
+    }
+
     /**
      * Render the light on this tile, using the ambient light of the weather and
-     * a factor how much the tile light modifies the ambient light.
+     * a factor how much the tile light modifies the ambient light. The light is
+     * displayed once its published with {@link #publishLight()}.
      * 
      * @param factor the factor how much the ambient light is modified by the
      *            tile light
      * @param ambientLight the ambient light from the weather
+     * @return <code>true</code> in case the tile needs to be queued for
+     *         publishing its light, <code>false</code> in case its queued
+     *         already
      */
-    protected void renderLight(final float factor,
+    protected boolean renderLight(final float factor,
         final SpriteColor ambientLight) {
         tmpLight.multiply(factor);
         tmpLight.add(ambientLight);
-        light.set(tmpLight);
+        renderedLight =
+            (tmpLight.getRedi() << 16) | (tmpLight.getGreeni() << 8)
+                | tmpLight.getBluei();
+
+        if (lightPending) {
+            return false;
+        }
+        lightPending = true;
+        return true;
     }
 
     /**
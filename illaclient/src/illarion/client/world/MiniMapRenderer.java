@@ -0,0 +1,238 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.world;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class keeps track of the areas of a mini map section that changed and
+ * turns the encoded tiles of those areas into the pixel data of the mini map
+ * texture. The section is split into small blocks. Changes only mark their
+ * blocks, and the marked blocks are merged to a few rectangles once the
+ * texture is updated, so a couple of changed tiles at distant locations do not
+ * cause a upload of the whole area between them.
+ * <p>
+ * This class does not access the graphic engine and is safe to use without a
+ * render context.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class MiniMapRenderer {
+    /**
+     * The amount of bits needed to store the size of one block.
+     */
+    private static final int BLOCK_BITS = 4;
+
+    /**
+     * The width and height of one block in tiles.
+     */
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+
+    /**
+     * The AND mask that is applied to a encoded tile before its looked up in
+     * the color table.
+     */
+    private static final int COLOR_MASK = 0x7FF;
+
+    /**
+     * The amount of blocks along the X axis.
+     */
+    private final int blocksX;
+
+    /**
+     * The amount of blocks along the Y axis.
+     */
+    private final int blocksY;
+
+    /**
+     * The flag that is <code>true</code> in case any block is marked.
+     */
+    private boolean dirty;
+
+    /**
+     * The flags that mark the blocks that changed.
+     */
+    private final boolean[] dirtyBlocks;
+
+    /**
+     * The index of the rectangle that starts at each block column in the
+     * previous block row. Used to merge the rectangles along the Y axis.
+     */
+    private final int[] openAreas;
+
+    /**
+     * The buffer for the pixels of one row.
+     */
+    private final int[] rowPixels;
+
+    /**
+     * The buffer for the encoded tiles of one row.
+     */
+    private final short[] rowTiles;
+
+    /**
+     * Create a new tracker for sections of the given size. The size has to be
+     * a multiple of the block size.
+     * 
+     * @param sectionWidth the width of a section in tiles
+     * @param sectionHeight the height of a section in tiles
+     */
+    MiniMapRenderer(final int sectionWidth, final int sectionHeight) {
+        blocksX = sectionWidth >> BLOCK_BITS;
+        blocksY = sectionHeight >> BLOCK_BITS;
+        dirtyBlocks = new boolean[blocksX * blocksY];
+        openAreas = new int[blocksX];
+        rowPixels = new int[sectionWidth];
+        rowTiles = new short[sectionWidth];
+    }
+
+    /**
+     * Remove all marks.
+     */
+    void clear() {
+        if (dirty) {
+            Arrays.fill(dirtyBlocks, false);
+            dirty = false;
+        }
+    }
+
+    /**
+     * Decode a area of the section into the pixel data of the mini map
+     * texture. Each tile results in four bytes: red, green, blue and alpha.
+     * 
+     * @param store the store that supplies the encoded tiles
+     * @param colors the color table of the tiles as supplied by
+     *            {@link illarion.client.resources.TileFactory#getMiniMapColors()}
+     * @param area the X and Y coordinate, the width and the height of the area
+     * @param target the buffer that receives the pixel data, it has to be big
+     *            endian
+     */
+    void decodeArea(final MiniMapStore store, final int[] colors,
+        final int[] area, final ByteBuffer target) {
+        final int width = area[2];
+        final int limitY = area[1] + area[3];
+        final IntBuffer pixels = target.asIntBuffer();
+        for (int y = area[1]; y < limitY; ++y) {
+            store.getTiles(area[0], y, width, rowTiles);
+            for (int i = 0; i < width; ++i) {
+                rowPixels[i] = colors[rowTiles[i] & COLOR_MASK];
+            }
+            pixels.put(rowPixels, 0, width);
+        }
+        target.position(target.position() + (pixels.position() << 2));
+    }
+
+    /**
+     * Fetch the areas that contain all marked blocks and remove the marks.
+     * Neighbouring blocks in one row are merged, and so are rows of the same
+     * extent directly below each other.
+     * 
+     * @param areas the list that receives the X and Y coordinate, the width
+     *            and the height of each area
+     */
+    void fetchDirtyAreas(final List<int[]> areas) {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        Arrays.fill(openAreas, -1);
+        for (int blockY = 0; blockY < blocksY; ++blockY) {
+            final int rowOffset = blockY * blocksX;
+            int blockX = 0;
+            while (blockX < blocksX) {
+                if (!dirtyBlocks[rowOffset + blockX]) {
+                    blockX++;
+                    continue;
+                }
+                final int start = blockX;
+                while ((blockX < blocksX) && dirtyBlocks[rowOffset + blockX]) {
+                    dirtyBlocks[rowOffset + blockX] = false;
+                    blockX++;
+                }
+
+                final int x = start << BLOCK_BITS;
+                final int y = blockY << BLOCK_BITS;
+                final int width = (blockX - start) << BLOCK_BITS;
+                if (openAreas[start] > -1) {
+                    final int[] area = areas.get(openAreas[start]);
+                    if ((area[2] == width) && ((area[1] + area[3]) == y)) {
+                        area[3] += BLOCK_SIZE;
+                        continue;
+                    }
+                }
+                openAreas[start] = areas.size();
+                areas.add(new int[] { x, y, width, BLOCK_SIZE });
+            }
+        }
+    }
+
+    /**
+     * Check if any area is marked.
+     * 
+     * @return <code>true</code> in case there are marked areas
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Mark the whole section.
+     */
+    void markAll() {
+        Arrays.fill(dirtyBlocks, true);
+        dirty = true;
+    }
+
+    /**
+     * Mark all blocks that overlap a area.
+     * 
+     * @param x the X coordinate of the area relative to the section origin
+     * @param y the Y coordinate of the area relative to the section origin
+     * @param width the width of the area
+     * @param height the height of the area
+     */
+    void markArea(final int x, final int y, final int width, final int height) {
+        final int lastBlockX = (x + width - 1) >> BLOCK_BITS;
+        final int lastBlockY = (y + height - 1) >> BLOCK_BITS;
+        for (int blockY = y >> BLOCK_BITS; blockY <= lastBlockY; ++blockY) {
+            for (int blockX = x >> BLOCK_BITS; blockX <= lastBlockX; ++blockX) {
+                dirtyBlocks[(blockY * blocksX) + blockX] = true;
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Mark the block that contains a tile.
+     * 
+     * @param x the X coordinate of the tile relative to the section origin
+     * @param y the Y coordinate of the tile relative to the section origin
+     */
+    void markDirty(final int x, final int y) {
+        dirtyBlocks[((y >> BLOCK_BITS) * blocksX) + (x >> BLOCK_BITS)] = true;
+        dirty = true;
+    }
+}
@@ -0,0 +1,709 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.world;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The storage of the tiles of one section of the world map. The section is
+ * split into chunks of 64 x 64 tiles. Each chunk is compressed on its own and
+ * stored in the section file, a index at the start of the file stores the
+ * position of each chunk.
+ * <p>
+ * The file is mapped into the memory and a chunk is decoded only once its
+ * tiles are needed. Reading the tiles for the mini map texture does not decode
+ * any chunks, the chunks that were decoded are reported instead, so only their
+ * areas of the texture are updated. When saving only the chunks that changed
+ * are written again. Each chunk has a slot in the file that is a little
+ * larger then the chunk, so the chunk usually fits into its old slot once its
+ * written again.
+ * </p>
+ * <p>
+ * Section files of the old format, that store the entire section compressed
+ * as a whole, are converted once they are opened. The old file is deleted
+ * once the section was saved in the new format.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class MiniMapStore {
+    /**
+     * The amount of bits the tile coordinates are shifted by to get the chunk
+     * coordinates.
+     */
+    private static final int CHUNK_BITS = 6;
+
+    /**
+     * The width and height of one chunk in tiles.
+     */
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * The amount of tiles in one chunk.
+     */
+    private static final int CHUNK_TILES = CHUNK_SIZE * CHUNK_SIZE;
+
+    /**
+     * The amount of bytes one entry of the chunk index uses. Each entry stores
+     * the offset, the length and the capacity of the slot of the chunk.
+     */
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    /**
+     * The log file handler that takes care for the logging output of this
+     * class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(MiniMapStore.class);
+
+    /**
+     * The value at the start of every section file of this format.
+     */
+    private static final int MAGIC = 0x494D4331;
+
+    /**
+     * The slots of the chunks in the file are a multiple of this size.
+     */
+    private static final int SLOT_ALIGN = 512;
+
+    /**
+     * Get the index of a tile within its chunk.
+     * 
+     * @param x the X coordinate of the tile relative to the section origin
+     * @param y the Y coordinate of the tile relative to the section origin
+     * @return the index of the tile within the chunk
+     */
+    private static int getTileIndex(final int x, final int y) {
+        return ((y & (CHUNK_SIZE - 1)) << CHUNK_BITS) + (x & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * The channel of the section file. This is <code>null</code> as long as
+     * there is no file for the section.
+     */
+    private FileChannel channel;
+
+    /**
+     * The tiles of the chunks that were decoded. A decoded chunk that does not
+     * contain any tiles is <code>null</code>.
+     */
+    private final short[][] chunks;
+
+    /**
+     * The amount of chunks along the X axis.
+     */
+    private final int chunksX;
+
+    /**
+     * The buffer used to compress and decompress the chunks.
+     */
+    private byte[] compressed;
+
+    /**
+     * The end of the last slot in the file.
+     */
+    private int dataEnd;
+
+    /**
+     * The flags that mark the chunks that were decoded already.
+     */
+    private final boolean[] decoded;
+
+    /**
+     * The amount of chunks that were decoded since the section was opened.
+     */
+    private int decodedCount;
+
+    /**
+     * The flags that mark the chunks that contain tiles and were decoded, but
+     * were not yet reported by {@link #fetchDecodedChunks(MiniMapRenderer)}.
+     */
+    private final boolean[] decodedNew;
+
+    /**
+     * The compressor of the chunks.
+     */
+    private final Deflater deflater;
+
+    /**
+     * The flags that mark the chunks that changed since they were saved.
+     */
+    private final boolean[] dirty;
+
+    /**
+     * The file of the section that is currently opened.
+     */
+    private File file;
+
+    /**
+     * The height of the section in tiles.
+     */
+    private final int height;
+
+    /**
+     * The position, length and capacity of the slots of all chunks.
+     */
+    private final int[] index;
+
+    /**
+     * The decompressor of the chunks.
+     */
+    private final Inflater inflater;
+
+    /**
+     * The file of the old format that is deleted once the section is saved.
+     */
+    private File legacyFile;
+
+    /**
+     * The memory mapped content of the section file.
+     */
+    private MappedByteBuffer mapped;
+
+    /**
+     * The buffer that stores the uncompressed tiles of one chunk.
+     */
+    private final ByteBuffer uncompressed;
+
+    /**
+     * The width of the section in tiles.
+     */
+    private final int width;
+
+    /**
+     * Create a new store for sections of the given size. The size has to be a
+     * multiple of the chunk size.
+     * 
+     * @param sectionWidth the width of a section in tiles
+     * @param sectionHeight the height of a section in tiles
+     */
+    MiniMapStore(final int sectionWidth, final int sectionHeight) {
+        width = sectionWidth;
+        height = sectionHeight;
+        chunksX = sectionWidth >> CHUNK_BITS;
+        final int chunkCount = chunksX * (sectionHeight >> CHUNK_BITS);
+
+        chunks = new short[chunkCount][];
+        decoded = new boolean[chunkCount];
+        decodedNew = new boolean[chunkCount];
+        dirty = new boolean[chunkCount];
+        index = new int[chunkCount * 3];
+
+        uncompressed = ByteBuffer.allocate(CHUNK_TILES * 2);
+        compressed = new byte[SLOT_ALIGN];
+        deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        inflater = new Inflater();
+    }
+
+    /**
+     * Close the section that is currently opened. Changes that were not saved
+     * are discarded.
+     */
+    @SuppressWarnings("nls")
+    synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOGGER.error("Failed closing the minimap file.", e);
+            }
+        }
+        channel = null;
+        mapped = null;
+        file = null;
+        legacyFile = null;
+        dataEnd = 0;
+        decodedCount = 0;
+        Arrays.fill(chunks, null);
+        Arrays.fill(decoded, false);
+        Arrays.fill(decodedNew, false);
+        Arrays.fill(dirty, false);
+        Arrays.fill(index, 0);
+    }
+
+    /**
+     * Mark the areas of all chunks that contain tiles and were decoded since
+     * the last call of this function.
+     * 
+     * @param renderer the tracker of the changed areas that receives the marks
+     */
+    synchronized void fetchDecodedChunks(final MiniMapRenderer renderer) {
+        for (int i = 0; i < decodedNew.length; i++) {
+            if (decodedNew[i]) {
+                decodedNew[i] = false;
+                renderer.markArea((i % chunksX) << CHUNK_BITS,
+                    (i / chunksX) << CHUNK_BITS, CHUNK_SIZE, CHUNK_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Get the amount of chunks that were decoded since the section was opened.
+     * 
+     * @return the amount of decoded chunks
+     */
+    synchronized int getDecodedChunks() {
+        return decodedCount;
+    }
+
+    /**
+     * Get the amount of bytes the decoded tiles of the section need.
+     * 
+     * @return the memory used by the decoded tiles in bytes
+     */
+    synchronized int getResidentSize() {
+        int size = 0;
+        for (final short[] chunk : chunks) {
+            if (chunk != null) {
+                size += chunk.length * 2;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the encoded value of a tile.
+     * 
+     * @param x the X coordinate of the tile relative to the section origin
+     * @param y the Y coordinate of the tile relative to the section origin
+     * @return the encoded tile or <code>0</code> in case the tile is unknown
+     */
+    synchronized short getTile(final int x, final int y) {
+        final short[] chunk = getChunk(x, y);
+        if (chunk == null) {
+            return 0;
+        }
+        return chunk[getTileIndex(x, y)];
+    }
+
+    /**
+     * Copy a horizontal row of encoded tiles into a array. Tiles of chunks
+     * that do not contain any tiles or that were not decoded yet are set to
+     * <code>0</code>. This function does not decode any chunks.
+     * 
+     * @param x the X coordinate of the first tile relative to the section
+     *            origin
+     * @param y the Y coordinate of the row relative to the section origin
+     * @param length the amount of tiles to copy
+     * @param target the array the tiles are copied to, starting at index 0
+     */
+    synchronized void getTiles(final int x, final int y, final int length,
+        final short[] target) {
+        int done = 0;
+        while (done < length) {
+            final int currX = x + done;
+            final int count =
+                Math.min(length - done,
+                    CHUNK_SIZE - (currX & (CHUNK_SIZE - 1)));
+            final short[] chunk = chunks[getChunkIndex(currX, y)];
+            if (chunk == null) {
+                Arrays.fill(target, done, done + count, (short) 0);
+            } else {
+                System.arraycopy(chunk, getTileIndex(currX, y), target, done,
+                    count);
+            }
+            done += count;
+        }
+    }
+
+    /**
+     * Open the file of a section. In case the file does not exist yet, but
+     * a file of the old format, the old file is converted.
+     * 
+     * @param sectionFile the file of the section
+     * @param oldSectionFile the file of the section in the old format
+     * @throws IOException in case reading the files failed
+     */
+    @SuppressWarnings("nls")
+    synchronized void open(final File sectionFile, final File oldSectionFile)
+        throws IOException {
+        close();
+        file = sectionFile;
+        if (sectionFile.exists()) {
+            openFile();
+        } else if (oldSectionFile.exists()) {
+            convert(oldSectionFile);
+            legacyFile = oldSectionFile;
+        }
+    }
+
+    /**
+     * Open a empty section. A existing file of the section is replaced once
+     * the section is saved.
+     * 
+     * @param sectionFile the file of the section
+     */
+    synchronized void openEmpty(final File sectionFile) {
+        close();
+        file = sectionFile;
+    }
+
+    /**
+     * Decode all chunks that are within a square around a tile.
+     * 
+     * @param x the X coordinate of the tile relative to the section origin
+     * @param y the Y coordinate of the tile relative to the section origin
+     * @param radius the distance in tiles around the tile
+     */
+    synchronized void preload(final int x, final int y, final int radius) {
+        final int firstX = Math.max(0, x - radius) >> CHUNK_BITS;
+        final int firstY = Math.max(0, y - radius) >> CHUNK_BITS;
+        final int lastX = Math.min(width - 1, x + radius) >> CHUNK_BITS;
+        final int lastY = Math.min(height - 1, y + radius) >> CHUNK_BITS;
+        for (int chunkY = firstY; chunkY <= lastY; chunkY++) {
+            for (int chunkX = firstX; chunkX <= lastX; chunkX++) {
+                decodeChunk((chunkY * chunksX) + chunkX);
+            }
+        }
+    }
+
+    /**
+     * Write all chunks that changed since the last save to the section file.
+     * 
+     * @throws IOException in case writing the file failed
+     */
+    @SuppressWarnings("nls")
+    synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+
+        for (int i = 0; i < dirty.length; i++) {
+            if (!dirty[i]) {
+                continue;
+            }
+            if (channel == null) {
+                createFile();
+            }
+            writeChunk(i);
+            dirty[i] = false;
+        }
+
+        if ((legacyFile != null) && (channel != null)) {
+            channel.force(false);
+            if (!legacyFile.delete()) {
+                LOGGER.warn("Failed to remove the old minimap file "
+                    + legacyFile.getName());
+            }
+            legacyFile = null;
+        }
+    }
+
+    /**
+     * Set the encoded value of a tile.
+     * 
+     * @param x the X coordinate of the tile relative to the section origin
+     * @param y the Y coordinate of the tile relative to the section origin
+     * @param value the new encoded value of the tile
+     * @return <code>true</code> in case the value of the tile changed
+     */
+    synchronized boolean setTile(final int x, final int y, final short value) {
+        final int chunkIndex = getChunkIndex(x, y);
+        decodeChunk(chunkIndex);
+        short[] chunk = chunks[chunkIndex];
+        if (chunk == null) {
+            if (value == 0) {
+                return false;
+            }
+            chunk = new short[CHUNK_TILES];
+            chunks[chunkIndex] = chunk;
+        }
+
+        final int tileIndex = getTileIndex(x, y);
+        if (chunk[tileIndex] == value) {
+            return false;
+        }
+        chunk[tileIndex] = value;
+        dirty[chunkIndex] = true;
+        return true;
+    }
+
+    /**
+     * Convert a section file of the old format. All chunks are decoded and
+     * marked as changed, so they are written to the new file when the section
+     * is saved.
+     * 
+     * @param oldSectionFile the file of the old format
+     * @throws IOException in case reading the file failed
+     */
+    private void convert(final File oldSectionFile) throws IOException {
+        final ByteBuffer oldData = ByteBuffer.allocate(width * height * 2);
+        oldData.order(ByteOrder.nativeOrder());
+
+        final ReadableByteChannel inChannel =
+            Channels.newChannel(new InflaterInputStream(new FileInputStream(
+                oldSectionFile)));
+        try {
+            int read = 1;
+            while ((read > 0) && oldData.hasRemaining()) {
+                read = inChannel.read(oldData);
+            }
+        } finally {
+            inChannel.close();
+        }
+
+        Arrays.fill(decoded, true);
+        decodedCount = decoded.length;
+        oldData.rewind();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final short value = oldData.getShort();
+                if (value == 0) {
+                    continue;
+                }
+                final int chunkIndex = getChunkIndex(x, y);
+                if (chunks[chunkIndex] == null) {
+                    chunks[chunkIndex] = new short[CHUNK_TILES];
+                    decodedNew[chunkIndex] = true;
+                    dirty[chunkIndex] = true;
+                }
+                chunks[chunkIndex][getTileIndex(x, y)] = value;
+            }
+        }
+    }
+
+    /**
+     * Create a new section file that does not contain any chunks.
+     * 
+     * @throws IOException in case creating the file failed
+     */
+    @SuppressWarnings("nls")
+    private void createFile() throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+
+        final ByteBuffer header = ByteBuffer.allocate(getHeaderSize());
+        header.putInt(MAGIC);
+        header.putInt(CHUNK_SIZE);
+        header.rewind();
+        writeFully(header, 0);
+        dataEnd = getHeaderSize();
+        Arrays.fill(index, 0);
+        mapped = null;
+    }
+
+    /**
+     * Decode a chunk from the section file in case it was not decoded yet.
+     * 
+     * @param chunkIndex the index of the chunk
+     */
+    @SuppressWarnings("nls")
+    private void decodeChunk(final int chunkIndex) {
+        if (decoded[chunkIndex]) {
+            return;
+        }
+        decoded[chunkIndex] = true;
+        decodedCount++;
+
+        final int offset = index[chunkIndex * 3];
+        final int length = index[(chunkIndex * 3) + 1];
+        if ((offset == 0) || (mapped == null)) {
+            return;
+        }
+
+        try {
+            if (compressed.length < length) {
+                compressed = new byte[length];
+            }
+            final ByteBuffer source = mapped.duplicate();
+            source.position(offset);
+            source.get(compressed, 0, length);
+
+            inflater.reset();
+            inflater.setInput(compressed, 0, length);
+            uncompressed.clear();
+            final byte[] target = uncompressed.array();
+            int done = 0;
+            while (done < target.length) {
+                final int count =
+                    inflater.inflate(target, done, target.length - done);
+                if (count == 0) {
+                    throw new DataFormatException("Chunk data is too short");
+                }
+                done += count;
+            }
+
+            final short[] chunk = new short[CHUNK_TILES];
+            uncompressed.asShortBuffer().get(chunk);
+            chunks[chunkIndex] = chunk;
+            decodedNew[chunkIndex] = true;
+        } catch (final DataFormatException e) {
+            LOGGER.error("Minimap chunk " + chunkIndex + " is corrupted.", e);
+        } catch (final RuntimeException e) {
+            LOGGER.error("Minimap chunk " + chunkIndex + " is corrupted.", e);
+        }
+    }
+
+    /**
+     * Get the tiles of the chunk that contains a tile. The chunk is decoded
+     * in case this was not done yet.
+     * 
+     * @param x the X coordinate of the tile relative to the section origin
+     * @param y the Y coordinate of the tile relative to the section origin
+     * @return the tiles of the chunk or <code>null</code> in case the chunk
+     *         does not contain any tiles
+     */
+    private short[] getChunk(final int x, final int y) {
+        final int chunkIndex = getChunkIndex(x, y);
+        decodeChunk(chunkIndex);
+        return chunks[chunkIndex];
+    }
+
+    /**
+     * Get the index of the chunk that contains a tile.
+     * 
+     * @param x the X coordinate of the tile relative to the section origin
+     * @param y the Y coordinate of the tile relative to the section origin
+     * @return the index of the chunk
+     */
+    private int getChunkIndex(final int x, final int y) {
+        return ((y >> CHUNK_BITS) * chunksX) + (x >> CHUNK_BITS);
+    }
+
+    /**
+     * Get the size of the header of the section file, including the chunk
+     * index.
+     * 
+     * @return the size of the header in bytes
+     */
+    private int getHeaderSize() {
+        return 8 + (chunks.length * INDEX_ENTRY_SIZE);
+    }
+
+    /**
+     * Open a existing section file and read the chunk index. In case the file
+     * is not valid, its replaced by a empty file once the section is saved.
+     * 
+     * @throws IOException in case reading the file failed
+     */
+    @SuppressWarnings("nls")
+    private void openFile() throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        final long fileSize = channel.size();
+        if (fileSize >= getHeaderSize()) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            boolean valid =
+                (mapped.getInt(0) == MAGIC) && (mapped.getInt(4) == CHUNK_SIZE);
+            mapped.position(8);
+            dataEnd = getHeaderSize();
+            for (int i = 0; valid && (i < index.length); i += 3) {
+                index[i] = mapped.getInt();
+                index[i + 1] = mapped.getInt();
+                index[i + 2] = mapped.getInt();
+                valid =
+                    (index[i] >= 0) && (index[i + 1] >= 0)
+                        && (index[i + 1] <= index[i + 2])
+                        && ((index[i] + (long) index[i + 1]) <= fileSize);
+                dataEnd = Math.max(dataEnd, index[i] + index[i + 2]);
+            }
+            if (valid) {
+                return;
+            }
+        }
+
+        LOGGER.error("Minimap file " + file.getName()
+            + " is corrupted, starting a empty map.");
+        channel.close();
+        channel = null;
+        mapped = null;
+        Arrays.fill(index, 0);
+        dataEnd = 0;
+    }
+
+    /**
+     * Compress a chunk and write it to the section file. The chunk is stored
+     * in its old slot in case it fits, else a new slot is added at the end of
+     * the file.
+     * 
+     * @param chunkIndex the index of the chunk
+     * @throws IOException in case writing the file failed
+     */
+    private void writeChunk(final int chunkIndex) throws IOException {
+        final short[] chunk = chunks[chunkIndex];
+        int offset = 0;
+        int length = 0;
+        int capacity = 0;
+        if (chunk != null) {
+            uncompressed.clear();
+            uncompressed.asShortBuffer().put(chunk);
+
+            deflater.reset();
+            deflater.setInput(uncompressed.array());
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, length * 2);
+                }
+                length +=
+                    deflater.deflate(compressed, length, compressed.length
+                        - length);
+            }
+
+            offset = index[chunkIndex * 3];
+            capacity = index[(chunkIndex * 3) + 2];
+            if ((offset == 0) || (capacity < length)) {
+                offset = dataEnd;
+                capacity = ((length / SLOT_ALIGN) + 1) * SLOT_ALIGN;
+                dataEnd += capacity;
+            }
+            writeFully(ByteBuffer.wrap(compressed, 0, length), offset);
+        }
+
+        index[chunkIndex * 3] = offset;
+        index[(chunkIndex * 3) + 1] = length;
+        index[(chunkIndex * 3) + 2] = capacity;
+
+        final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putInt(offset).putInt(length).putInt(capacity);
+        entry.rewind();
+        writeFully(entry, 8 + (chunkIndex * INDEX_ENTRY_SIZE));
+    }
+
+    /**
+     * Write the entire content of a buffer to the section file.
+     * 
+     * @param buffer the buffer to write
+     * @param position the position in the file
+     * @throws IOException in case writing the file failed
+     */
+    private void writeFully(final ByteBuffer buffer, final long position)
+        throws IOException {
+        long currentPosition = position;
+        while (buffer.hasRemaining()) {
+            currentPosition += channel.write(buffer, currentPosition);
+        }
+    }
+}
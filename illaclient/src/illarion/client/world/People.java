@@ -944,9 +944,7 @@ public final class People implements SessionMember, TableLoaderSink,
 
         charsLock.readLock().lock();
         try {
-            synchronized (GameMap.LIGHT_LOCK) {
-                chars.forEachValue(updateLightHelper);
-            }
+            chars.forEachValue(updateLightHelper);
         } finally {
             charsLock.readLock().unlock();
         }
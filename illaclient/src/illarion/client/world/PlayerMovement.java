@@ -27,7 +27,6 @@ import illarion.client.net.CommandList;
 import illarion.client.net.client.MoveCmd;
 import illarion.client.sound.SoundManager;
 import illarion.client.util.Path;
-import illarion.client.util.PathNode;
 import illarion.client.util.PathReceiver;
 import illarion.client.util.Pathfinder;
 
@@ -100,6 +99,11 @@ public final class PlayerMovement implements AnimatedMove, PathReceiver {
      */
     private Path autoPath;
 
+    /**
+     * The location of the next step on the automated walking path.
+     */
+    private final Location autoStepLoc = new Location();
+
     /**
      * The last move that was allowed by the server but yet not performed.
      */
@@ -144,6 +148,12 @@ public final class PlayerMovement implements AnimatedMove, PathReceiver {
      */
     private final Player parentPlayer;
 
+    /**
+     * This flag is <code>true</code> in case a path was requested from the
+     * pathfinder and the automated walking was not stopped since.
+     */
+    private boolean pathRequested;
+
     /**
      * A reference to the character of the player that is used to get some
      * informations about the player character, such as the current look at
@@ -251,20 +261,25 @@ public final class PlayerMovement implements AnimatedMove, PathReceiver {
     }
 
     /**
-     * Stop the automated walking.
+     * Stop the automated walking. The pathfinder drops the path as well, so it
+     * does not repair it anymore.
      */
     public void cancelAutoWalk() {
         autoPath = null;
         autoDest = null;
+        if (pathRequested) {
+            pathRequested = false;
+            Pathfinder.getInstance().cancelPath();
+        }
     }
 
     @Override
     public void handlePath(final Path path) {
-        cancelAutoWalk();
         autoPath = path;
+        autoDest = null;
         if (autoPath != null) {
             autoDest = autoPath.getDestination();
-            autoPath.nextStep();
+            autoPath.nextStep(autoStepLoc);
             autoStep();
         }
     }
@@ -360,6 +375,7 @@ public final class PlayerMovement implements AnimatedMove, PathReceiver {
         final MapTile walkTarget = Game.getMap().getMapAt(dest);
         if ((walkTarget != null) && (dest.getScZ() == loc.getScZ())
             && !walkTarget.isObstacle()) {
+            pathRequested = true;
             Pathfinder.getInstance().findPath(loc, dest, this);
         }
     }
@@ -466,14 +482,13 @@ public final class PlayerMovement implements AnimatedMove, PathReceiver {
         }
 
         // get next step
-        final PathNode node = autoPath.nextStep();
+        final Location stepDest = autoStepLoc;
         // reached target
-        if (node == null) {
+        if (!autoPath.nextStep(stepDest)) {
             cancelAutoWalk();
             return;
         }
 
-        final Location stepDest = node.getLocation();
         final MapTile tile = Game.getMap().getMapAt(stepDest);
         final Location loc = parentPlayer.getLocation();
 
@@ -0,0 +1,403 @@
+/*
+ * This file is part of the Illarion Client.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Client is free software: you can redistribute i and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * The Illarion Client is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Client. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.client.world;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TLongObjectProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+
+import illarion.common.util.Location;
+
+/**
+ * The storage of the tiles of the game map. The tiles are stored in chunks of
+ * 16 x 16 tiles on one level. Every chunk stores its tiles in a array, the
+ * chunks are found by a directory that is never changed once its published.
+ * Adding or removing a chunk replaces the entire directory.
+ * <p>
+ * Reading tiles does not require any lock. Adding and removing tiles
+ * synchronizes on the chunk that contains the tile, so updates of different
+ * chunks do not block each other. The last chunk a tile was read from is
+ * remembered, so reading the neighbours of a tile usually does not need a
+ * lookup in the directory.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 1.22
+ * @version 1.22
+ */
+final class TileStore {
+    /**
+     * One chunk of the map.
+     * 
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    private static final class Chunk {
+        /**
+         * The X coordinate of the chunk.
+         */
+        final int chunkX;
+
+        /**
+         * The Y coordinate of the chunk.
+         */
+        final int chunkY;
+
+        /**
+         * The amount of tiles stored in this chunk. Accessing this value
+         * requires to synchronize on the chunk.
+         */
+        int count;
+
+        /**
+         * The level of the chunk.
+         */
+        final int level;
+
+        /**
+         * This flag is set once the chunk was removed from the directory. A
+         * removed chunk is never used again.
+         */
+        volatile boolean removed;
+
+        /**
+         * The tiles of the chunk, stored by their index in the chunk.
+         */
+        final AtomicReferenceArray<MapTile> tiles;
+
+        /**
+         * Create a new empty chunk.
+         * 
+         * @param x the X coordinate of the chunk
+         * @param y the Y coordinate of the chunk
+         * @param z the level of the chunk
+         */
+        Chunk(final int x, final int y, final int z) {
+            chunkX = x;
+            chunkY = y;
+            level = z;
+            tiles = new AtomicReferenceArray<MapTile>(CHUNK_SIZE * CHUNK_SIZE);
+        }
+
+        /**
+         * Check if this chunk is located at a position.
+         * 
+         * @param x the X coordinate of the chunk
+         * @param y the Y coordinate of the chunk
+         * @param z the level of the chunk
+         * @return <code>true</code> in case the chunk is located there
+         */
+        boolean isAt(final int x, final int y, final int z) {
+            return (chunkX == x) && (chunkY == y) && (level == z);
+        }
+    }
+
+    /**
+     * The amount of bits needed to store the offset of a tile inside a chunk.
+     */
+    static final int CHUNK_BITS = 4;
+
+    /**
+     * The mask to get the offset of a tile inside a chunk.
+     */
+    static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    /**
+     * The width and height of a chunk in tiles.
+     */
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * The directory of all chunks, stored by the key of their chunk
+     * coordinates. This map is never changed once its assigned to this field.
+     */
+    private volatile TLongObjectHashMap<Chunk> directory;
+
+    /**
+     * The chunk that was accessed last. This is read and written without
+     * synchronization, so every thread sees some chunk that was accessed
+     * lately. Chunk instances can't change their location and removed chunks
+     * are marked, so this is safe.
+     */
+    private Chunk recentChunk;
+
+    /**
+     * Create a new empty tile storage.
+     */
+    TileStore() {
+        directory = new TLongObjectHashMap<Chunk>();
+    }
+
+    /**
+     * Get the index of a tile inside its chunk.
+     * 
+     * @param x the X coordinate of the tile
+     * @param y the Y coordinate of the tile
+     * @return the index of the tile inside the chunk
+     */
+    static int getIndex(final int x, final int y) {
+        return ((x & CHUNK_MASK) << CHUNK_BITS) | (y & CHUNK_MASK);
+    }
+
+    /**
+     * Get the X coordinate of a location key.
+     * 
+     * @param key the key created by {@link Location#getKey(int, int, int)}
+     * @return the X coordinate
+     */
+    static int getKeyX(final long key) {
+        return (short) ((key - getKeyY(key)) >> Short.SIZE);
+    }
+
+    /**
+     * Get the Y coordinate of a location key.
+     * 
+     * @param key the key created by {@link Location#getKey(int, int, int)}
+     * @return the Y coordinate
+     */
+    static int getKeyY(final long key) {
+        return (short) key;
+    }
+
+    /**
+     * Get the Z coordinate of a location key.
+     * 
+     * @param key the key created by {@link Location#getKey(int, int, int)}
+     * @return the Z coordinate
+     */
+    static int getKeyZ(final long key) {
+        final long rest = (key - getKeyY(key)) >> Short.SIZE;
+        return (int) ((rest - getKeyX(key)) >> Short.SIZE);
+    }
+
+    /**
+     * Remove all tiles from the storage.
+     * 
+     * @param procedure the procedure called for every removed tile
+     */
+    public void clear(final TObjectProcedure<MapTile> procedure) {
+        final TLongObjectHashMap<Chunk> oldDirectory;
+        synchronized (this) {
+            oldDirectory = directory;
+            directory = new TLongObjectHashMap<Chunk>();
+            recentChunk = null;
+        }
+        for (final Chunk chunk : oldDirectory.valueCollection()) {
+            synchronized (chunk) {
+                for (int i = 0; i < chunk.tiles.length(); i++) {
+                    final MapTile tile = chunk.tiles.getAndSet(i, null);
+                    if (tile != null) {
+                        procedure.execute(tile);
+                    }
+                }
+                chunk.count = 0;
+                chunk.removed = true;
+            }
+        }
+    }
+
+    /**
+     * Call a procedure for every tile along with the location key of the
+     * tile. Tiles added or removed while this is running may be skipped.
+     * 
+     * @param procedure the procedure to call
+     * @return <code>false</code> in case the procedure stopped the iteration
+     */
+    public boolean forEachEntry(final TLongObjectProcedure<MapTile> procedure) {
+        for (final Chunk chunk : directory.valueCollection()) {
+            final int baseX = chunk.chunkX << CHUNK_BITS;
+            final int baseY = chunk.chunkY << CHUNK_BITS;
+            for (int i = 0; i < chunk.tiles.length(); i++) {
+                final MapTile tile = chunk.tiles.get(i);
+                if ((tile != null)
+                    && !procedure.execute(Location.getKey(baseX
+                        + (i >> CHUNK_BITS), baseY + (i & CHUNK_MASK),
+                        chunk.level), tile)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Call a procedure for every tile. Tiles added or removed while this is
+     * running may be skipped.
+     * 
+     * @param procedure the procedure to call
+     * @return <code>false</code> in case the procedure stopped the iteration
+     */
+    public boolean forEachTile(final TObjectProcedure<MapTile> procedure) {
+        for (final Chunk chunk : directory.valueCollection()) {
+            for (int i = 0; i < chunk.tiles.length(); i++) {
+                final MapTile tile = chunk.tiles.get(i);
+                if ((tile != null) && !procedure.execute(tile)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a tile from the storage.
+     * 
+     * @param x the X coordinate of the tile
+     * @param y the Y coordinate of the tile
+     * @param z the Z coordinate of the tile
+     * @return the tile or <code>null</code> in case there is no tile
+     */
+    public MapTile get(final int x, final int y, final int z) {
+        final Chunk chunk = getChunk(x >> CHUNK_BITS, y >> CHUNK_BITS, z);
+        if (chunk == null) {
+            return null;
+        }
+        return chunk.tiles.get(getIndex(x, y));
+    }
+
+    /**
+     * Store a tile. A tile that was stored at the same location before is
+     * replaced.
+     * 
+     * @param x the X coordinate of the tile
+     * @param y the Y coordinate of the tile
+     * @param z the Z coordinate of the tile
+     * @param tile the tile to store
+     * @return the tile that was replaced or <code>null</code>
+     */
+    public MapTile put(final int x, final int y, final int z,
+        final MapTile tile) {
+        final int chunkX = x >> CHUNK_BITS;
+        final int chunkY = y >> CHUNK_BITS;
+        while (true) {
+            Chunk chunk = getChunk(chunkX, chunkY, z);
+            if (chunk == null) {
+                chunk = addChunk(chunkX, chunkY, z);
+            }
+            synchronized (chunk) {
+                if (chunk.removed) {
+                    // the chunk was removed meanwhile
+                    continue;
+                }
+                final MapTile oldTile =
+                    chunk.tiles.getAndSet(getIndex(x, y), tile);
+                if (oldTile == null) {
+                    chunk.count++;
+                }
+                return oldTile;
+            }
+        }
+    }
+
+    /**
+     * Remove a tile from the storage.
+     * 
+     * @param x the X coordinate of the tile
+     * @param y the Y coordinate of the tile
+     * @param z the Z coordinate of the tile
+     * @return the removed tile or <code>null</code> in case there was no tile
+     */
+    public MapTile remove(final int x, final int y, final int z) {
+        final Chunk chunk = getChunk(x >> CHUNK_BITS, y >> CHUNK_BITS, z);
+        if (chunk == null) {
+            return null;
+        }
+        synchronized (chunk) {
+            final MapTile oldTile = chunk.tiles.getAndSet(getIndex(x, y), null);
+            if (oldTile != null) {
+                chunk.count--;
+                if (chunk.count == 0) {
+                    removeChunk(chunk);
+                }
+            }
+            return oldTile;
+        }
+    }
+
+    /**
+     * Add a new empty chunk to the directory, unless another thread added the
+     * chunk already.
+     * 
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkY the Y coordinate of the chunk
+     * @param level the level of the chunk
+     * @return the chunk stored in the directory
+     */
+    private synchronized Chunk addChunk(final int chunkX, final int chunkY,
+        final int level) {
+        final long key = Location.getKey(chunkX, chunkY, level);
+        Chunk chunk = directory.get(key);
+        if (chunk == null) {
+            chunk = new Chunk(chunkX, chunkY, level);
+            final TLongObjectHashMap<Chunk> newDirectory =
+                new TLongObjectHashMap<Chunk>(directory);
+            newDirectory.put(key, chunk);
+            directory = newDirectory;
+        }
+        return chunk;
+    }
+
+    /**
+     * Get a chunk from the storage.
+     * 
+     * @param chunkX the X coordinate of the chunk
+     * @param chunkY the Y coordinate of the chunk
+     * @param level the level of the chunk
+     * @return the chunk or <code>null</code> in case there is no chunk
+     */
+    private Chunk getChunk(final int chunkX, final int chunkY,
+        final int level) {
+        final Chunk recent = recentChunk;
+        if ((recent != null) && recent.isAt(chunkX, chunkY, level)
+            && !recent.removed) {
+            return recent;
+        }
+        final Chunk chunk =
+            directory.get(Location.getKey(chunkX, chunkY, level));
+        if (chunk != null) {
+            recentChunk = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * Remove a empty chunk from the directory. This has to be called while
+     * holding the lock of the chunk.
+     * 
+     * @param chunk the chunk to remove
+     */
+    private synchronized void removeChunk(final Chunk chunk) {
+        chunk.removed = true;
+        final long key = Location.getKey(chunk.chunkX, chunk.chunkY,
+            chunk.level);
+        if (directory.get(key) != chunk) {
+            return;
+        }
+        final TLongObjectHashMap<Chunk> newDirectory =
+            new TLongObjectHashMap<Chunk>(directory);
+        newDirectory.remove(key);
+        directory = newDirectory;
+        if (recentChunk == chunk) {
+            recentChunk = null;
+        }
+    }
+}
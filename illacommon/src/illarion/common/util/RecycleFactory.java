@@ -18,7 +18,7 @@
  */
 package illarion.common.util;
 
-import javolution.util.FastList;
+import javolution.util.FastTable;
 import gnu.trove.map.hash.TIntObjectHashMap;
 
 /**
@@ -32,9 +32,46 @@ import gnu.trove.map.hash.TIntObjectHashMap;
  *            recycle factory
  */
 public abstract class RecycleFactory<T extends RecycleObject> {
+    /**
+     * The stack of unused objects a thread keeps for itself. Objects are taken
+     * from and recycled to this stack without any locking. Once the stack is
+     * full or empty, its contents are exchanged as a whole with the shared
+     * storage of the prototype factory.
+     * 
+     * @author Martin Karing
+     * @since 1.22
+     * @version 1.22
+     */
+    private static final class Magazine {
+        /**
+         * The unused objects stored in this magazine.
+         */
+        Object[] objects;
+
+        /**
+         * The amount of objects currently stored in this magazine.
+         */
+        int size;
+
+        /**
+         * Create a empty magazine.
+         */
+        Magazine() {
+            objects = new Object[MAGAZINE_SIZE];
+        }
+    }
+
     /**
      * The class used as factory for each prototype stored in this factory. The
      * object factories create duplicates of the prototype instance.
+     * <p>
+     * Every thread that fetches or recycles objects keeps its own magazine of
+     * unused objects. Only full magazines are exchanged between the threads,
+     * so the lock of the shared storage is only taken once for a full
+     * magazine of objects. This way objects that are created by one thread and
+     * recycled by another one travel back without locking on every single
+     * object.
+     * </p>
      * 
      * @author Martin Karing
      * @since 1.22
@@ -43,10 +80,22 @@ public abstract class RecycleFactory<T extends RecycleObject> {
      */
     private static final class PrototypeFactory<K extends RecycleObject> {
         /**
-         * The list that stores the object instances that are currently not
-         * used.
+         * The magazines that are currently not used by any thread and do not
+         * contain any objects.
+         */
+        private final FastTable<Object[]> emptyMagazines;
+
+        /**
+         * The magazines that are currently not used by any thread and are
+         * filled with unused objects. This list is also used as lock for both
+         * shared lists.
          */
-        public final FastList<K> buffer;
+        private final FastTable<Object[]> fullMagazines;
+
+        /**
+         * The magazine of the current thread.
+         */
+        private final ThreadLocal<Magazine> magazine;
 
         /**
          * The prototype used to create the duplicates.
@@ -63,7 +112,14 @@ public abstract class RecycleFactory<T extends RecycleObject> {
         public PrototypeFactory(final K proto) {
             super();
             prototype = proto;
-            buffer = new FastList<K>();
+            emptyMagazines = new FastTable<Object[]>();
+            fullMagazines = new FastTable<Object[]>();
+            magazine = new ThreadLocal<Magazine>() {
+                @Override
+                protected Magazine initialValue() {
+                    return new Magazine();
+                }
+            };
             proto.reset();
             recycle(proto);
         }
@@ -85,12 +141,25 @@ public abstract class RecycleFactory<T extends RecycleObject> {
          * 
          * @return the object to be used
          */
+        @SuppressWarnings("unchecked")
         public K object() {
-            synchronized (buffer) {
-                if (!buffer.isEmpty()) {
-                    return buffer.removeLast();
+            final Magazine local = magazine.get();
+            if (local.size == 0) {
+                synchronized (fullMagazines) {
+                    if (!fullMagazines.isEmpty()) {
+                        emptyMagazines.addLast(local.objects);
+                        local.objects = fullMagazines.removeLast();
+                        local.size = MAGAZINE_SIZE;
+                    }
                 }
             }
+
+            if (local.size > 0) {
+                local.size--;
+                final K obj = (K) local.objects[local.size];
+                local.objects[local.size] = null;
+                return obj;
+            }
             return create();
         }
 
@@ -101,9 +170,21 @@ public abstract class RecycleFactory<T extends RecycleObject> {
          * @param obj the object to recycle
          */
         public void recycle(final K obj) {
-            synchronized (buffer) {
-                buffer.addLast(obj);
+            final Magazine local = magazine.get();
+            if (local.size == MAGAZINE_SIZE) {
+                synchronized (fullMagazines) {
+                    fullMagazines.addLast(local.objects);
+                    if (emptyMagazines.isEmpty()) {
+                        local.objects = new Object[MAGAZINE_SIZE];
+                    } else {
+                        local.objects = emptyMagazines.removeLast();
+                    }
+                    local.size = 0;
+                }
             }
+
+            local.objects[local.size] = obj;
+            local.size++;
         }
 
         /**
@@ -116,6 +197,11 @@ public abstract class RecycleFactory<T extends RecycleObject> {
         }
     }
 
+    /**
+     * The amount of unused objects one magazine of a thread can hold.
+     */
+    private static final int MAGAZINE_SIZE = 32;
+
     /**
      * Default ID for no replacement.
      */
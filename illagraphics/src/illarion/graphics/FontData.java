@@ -108,6 +108,63 @@ public interface FontData {
         int getY();
     }
 
+    /**
+     * A glyph run is the finished layout of one text line. It stores the
+     * glyphes of all characters of the text along with the location the pen
+     * has to be at to draw each of them. A glyph run does not change once it
+     * was created, so it can be measured and rendered as often as needed.
+     * 
+     * @author Martin Karing
+     * @since 2.00
+     */
+    public interface GlyphRunData {
+        /**
+         * Get the glyph of one character of the text.
+         * 
+         * @param index the index of the character in the text
+         * @return the glyph used to draw this character
+         */
+        GlyphData getGlyph(int index);
+
+        /**
+         * Get the height of the bounding box of the entire text.
+         * 
+         * @return the height of the text
+         */
+        int getHeight();
+
+        /**
+         * Get the amount of glyphes in this run. This is equal to the length
+         * of the text.
+         * 
+         * @return the amount of glyphes
+         */
+        int getLength();
+
+        /**
+         * Get the x coordinate of the pen location relative to the start of
+         * the line where a glyph has to be drawn.
+         * 
+         * @param index the index of the character in the text
+         * @return the pen location of this character
+         */
+        int getOffset(int index);
+
+        /**
+         * Get the text this run was created for.
+         * 
+         * @return the text of this run
+         */
+        String getText();
+
+        /**
+         * Get the width of the bounding box of the entire text.
+         * 
+         * @return the width of the text
+         */
+        int getWidth();
+    }
+
     /**
      * Gets the ascent.
      * 
@@ -144,6 +201,16 @@ public interface FontData {
      */
     int getGlyphCount();
 
+    /**
+     * Get the glyph run of a text. The run contains the glyphes and the pen
+     * locations of all characters of the text, so the text can be rendered
+     * without looking up the glyphes again.
+     * 
+     * @param text the text that shall be rendered
+     * @return the glyph run of this text
+     */
+    GlyphRunData getGlyphRun(String text);
+
     /**
      * This function simply puts the references to the glyph instances of this
      * font into a array. Make sure the array is large enough to store all the
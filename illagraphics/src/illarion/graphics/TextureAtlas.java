@@ -92,6 +92,13 @@ public interface TextureAtlas {
      */
     void discardImageData();
 
+    /**
+     * Remove the texture from the video memory. The textures on this atlas
+     * remain valid. Once the atlas is needed for rendering again, its listener
+     * is asked to load the image data again.
+     */
+    void evict();
+
     /**
      * Finalize the texture. This causes that no more textures can be obtained
      * from the texture atlas. Call this for optimizing reasons after the
@@ -113,6 +120,21 @@ public interface TextureAtlas {
      */
     String getFileName();
 
+    /**
+     * Get the frame this texture atlas was used for rendering the last time.
+     * 
+     * @return the number of the frame this atlas was used the last time
+     */
+    long getLastUse();
+
+    /**
+     * Get the amount of video memory that is used by this texture atlas.
+     * 
+     * @return the estimated amount of bytes used or <code>0</code> in case the
+     *         texture is not resident
+     */
+    int getResidentSize();
+
     /**
      * Get a texture instance pointing on a specified image within this texture
      * atlas.
@@ -201,6 +223,20 @@ public interface TextureAtlas {
      */
     boolean isPixelTransparent(int x, int y);
 
+    /**
+     * Check if the texture of this atlas is loaded to the video memory.
+     * 
+     * @return <code>true</code> in case the texture is resident
+     */
+    boolean isResident();
+
+    /**
+     * Mark this texture atlas as used in the current frame. The texture
+     * atlases that were not used for the longest time are the first ones that
+     * are removed from the video memory.
+     */
+    void markUsed();
+
     /**
      * Remove the texture from the system. After this function call the texture
      * is not available anymore.
@@ -309,6 +345,23 @@ public interface TextureAtlas {
     void loadTextureData(InputStream dataStream);
 
     void loadTextureData(InputStream dataStream, String string);
+
+    /**
+     * Decode the image data of the texture without sending it to the graphic
+     * card. This does not need the render context and can be done by any
+     * thread. Use {@link #uploadTextureData()} to finish loading the texture.
+     * 
+     * @param dataStream the stream that supplies the image data
+     * @param format the file format of the image data
+     */
+    void decodeTextureData(InputStream dataStream, String format);
+
+    /**
+     * Send the image data that was decoded with
+     * {@link #decodeTextureData(InputStream, String)} to the graphic card.
+     * This has to be called by the render thread.
+     */
+    void uploadTextureData();
     
     void cleanup();
 }
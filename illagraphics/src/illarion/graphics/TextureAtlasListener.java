@@ -22,7 +22,8 @@ package illarion.graphics;
  * The texture atlas listener is a interface that is used by the texture atlas
  * to communicate with other classes. The death of a texture, so the removal of
  * all its instances is reported to the rest of the application using this
- * interface.
+ * interface. So is the need to load a texture atlas that was evicted from the
+ * video memory.
  * 
  * @author Martin Karing
  * @version 2.00
@@ -37,4 +38,13 @@ public interface TextureAtlasListener {
      * @param atlas the texture atlas that has no loaded textures anymore
      */
     void reportDeath(TextureAtlas atlas);
+
+    /**
+     * This function is called in case a texture atlas that is not resident is
+     * needed for rendering. The listener is expected to load the image data
+     * of the texture atlas, in case it does not do so the atlas is not drawn.
+     * 
+     * @param atlas the texture atlas that is needed
+     */
+    void reportMissing(TextureAtlas atlas);
 }
@@ -0,0 +1,480 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.common;
+
+import illarion.graphics.Graphics;
+import illarion.graphics.TextureAtlas;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javolution.util.FastTable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class loads the atlas textures in two stages. Worker threads decode the
+ * images and the meta data of the atlas files ahead of time, while the render
+ * thread only fetches the atlas files that are ready and sends them to the
+ * graphic card. The amount of atlas files that are decoded but not yet
+ * fetched is limited to keep the memory usage in check.
+ * 
+ * @author Martin Karing
+ * @since 2.00
+ * @version 2.00
+ */
+final class AtlasPreloader {
+    /**
+     * One atlas file in the pipeline of the preloader. The decoding stage of
+     * the job does not access the render context.
+     * 
+     * @author Martin Karing
+     * @since 2.00
+     * @version 2.00
+     */
+    static final class Job implements Callable<Job> {
+        /**
+         * The name of the atlas file without file extension.
+         */
+        private final String atlasName;
+
+        /**
+         * The texture atlas that receives the image data.
+         */
+        private final TextureAtlas atlas;
+
+        /**
+         * The locations of the sub textures on the atlas.
+         */
+        private final List<SubTextureCoord> coordinates;
+
+        /**
+         * This flag is <code>true</code> in case the image of the atlas file
+         * is decoded.
+         */
+        private final boolean decodeImage;
+
+        /**
+         * The time in nanoseconds the decoding of the atlas file took.
+         */
+        private long decodeTime;
+
+        /**
+         * The error that occurred while decoding the atlas file or
+         * <code>null</code> in case decoding worked.
+         */
+        private IOException error;
+
+        /**
+         * The index of the folder of the atlas file.
+         */
+        private final int folder;
+
+        /**
+         * The class loader that supplies the atlas file.
+         */
+        private final ClassLoader loader;
+
+        /**
+         * This flag is <code>true</code> in case the meta data of the atlas
+         * file is read.
+         */
+        private final boolean readMeta;
+
+        /**
+         * Create a new job to decode a atlas file.
+         * 
+         * @param jobLoader the class loader that supplies the atlas file
+         * @param jobFolder the index of the folder of the atlas file
+         * @param name the name of the atlas file without file extension
+         * @param jobAtlas the texture atlas that receives the image data
+         * @param image <code>true</code> to decode the image of the atlas file
+         * @param meta <code>true</code> to read the meta data of the atlas file
+         */
+        Job(final ClassLoader jobLoader, final int jobFolder,
+            final String name, final TextureAtlas jobAtlas,
+            final boolean image, final boolean meta) {
+            loader = jobLoader;
+            folder = jobFolder;
+            atlasName = name;
+            atlas = jobAtlas;
+            decodeImage = image;
+            readMeta = meta;
+            coordinates = new ArrayList<SubTextureCoord>();
+        }
+
+        /**
+         * Decode the image and the meta data of the atlas file, depending on
+         * the flags of this job.
+         * 
+         * @return this job
+         */
+        @Override
+        @SuppressWarnings("nls")
+        public Job call() {
+            final long start = System.nanoTime();
+            try {
+                if (decodeImage) {
+                    final InputStream textureInput =
+                        loader.getResourceAsStream(atlasName + "."
+                            + TextureIO.FORMAT);
+                    if (textureInput == null) {
+                        throw new IOException("Atlas image is missing.");
+                    }
+                    try {
+                        atlas.decodeTextureData(textureInput,
+                            TextureIO.FORMAT);
+                    } finally {
+                        textureInput.close();
+                    }
+                }
+
+                if (readMeta) {
+                    final InputStream metaInput =
+                        loader.getResourceAsStream(atlasName + ".meta");
+                    if (metaInput != null) {
+                        TextureIO.readMeta(metaInput, coordinates);
+                    }
+                }
+            } catch (final IOException e) {
+                error = e;
+            }
+            decodeTime = System.nanoTime() - start;
+            return this;
+        }
+
+        /**
+         * Get the texture atlas of this job.
+         * 
+         * @return the texture atlas
+         */
+        TextureAtlas getAtlas() {
+            return atlas;
+        }
+
+        /**
+         * Get the name of the atlas file without file extension.
+         * 
+         * @return the name of the atlas file
+         */
+        String getAtlasName() {
+            return atlasName;
+        }
+
+        /**
+         * Get the locations of the sub textures that were decoded.
+         * 
+         * @return the locations of the sub textures
+         */
+        List<SubTextureCoord> getCoordinates() {
+            return coordinates;
+        }
+
+        /**
+         * Get the time the decoding of the atlas file took.
+         * 
+         * @return the time in nanoseconds
+         */
+        long getDecodeTime() {
+            return decodeTime;
+        }
+
+        /**
+         * Get the error that occurred while decoding the atlas file.
+         * 
+         * @return the error or <code>null</code> in case decoding worked
+         */
+        IOException getError() {
+            return error;
+        }
+
+        /**
+         * Get the index of the folder of the atlas file.
+         * 
+         * @return the index of the folder
+         */
+        int getFolder() {
+            return folder;
+        }
+    }
+
+    /**
+     * The error and debug logger of the client.
+     */
+    private static final Logger LOGGER = Logger.getLogger(AtlasPreloader.class);
+
+    /**
+     * The maximal amount of threads that decode atlas files. Each decoded
+     * atlas file holds its full image, so more threads would mostly increase
+     * the memory usage.
+     */
+    private static final int MAX_WORKERS = 4;
+
+    /**
+     * The service that collects the decoded jobs.
+     */
+    private final CompletionService<Job> completed;
+
+    /**
+     * The time in nanoseconds the decoding of the atlas files of each folder
+     * took, summed up over all workers.
+     */
+    private final long[] decodeTimes;
+
+    /**
+     * The time in nanoseconds when the first atlas file was fetched.
+     */
+    private long firstFetchTime;
+
+    /**
+     * This flag is <code>true</code> once all atlas files were fetched.
+     */
+    private boolean done;
+
+    /**
+     * The folders the atlas files are loaded from.
+     */
+    private final String[] folders;
+
+    /**
+     * This flag is <code>true</code> in case the images of the atlas files
+     * are decoded. Otherwise only the meta data is read and the images are
+     * loaded once they are needed.
+     */
+    private final boolean images;
+
+    /**
+     * The amount of jobs that were submitted but not fetched yet.
+     */
+    private int inFlight;
+
+    /**
+     * The amount of jobs that may be in flight at the same time.
+     */
+    private final int inFlightLimit;
+
+    /**
+     * The amount of atlas files loaded from each folder.
+     */
+    private final int[] loadedCounts;
+
+    /**
+     * The class loader that supplies the atlas files.
+     */
+    private final ClassLoader loader;
+
+    /**
+     * The index of the next atlas file that is submitted to the workers.
+     */
+    private int nextPending;
+
+    /**
+     * The highest amount of used heap memory that was seen while loading.
+     */
+    private long peakHeap;
+
+    /**
+     * The folder index of each atlas file.
+     */
+    private final List<Integer> pendingFolders;
+
+    /**
+     * The names of the atlas files.
+     */
+    private final List<String> pendingNames;
+
+    /**
+     * The time in nanoseconds when loading started.
+     */
+    private long startTime;
+
+    /**
+     * The threads that decode the atlas files.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Create a new preloader for the atlas files of some folders.
+     * 
+     * @param classLoader the class loader that supplies the atlas files
+     * @param atlasFolders the folders the atlas files are loaded from
+     * @param decodeImages <code>true</code> to decode the images of the atlas
+     *            files, <code>false</code> to read only the meta data
+     */
+    @SuppressWarnings("nls")
+    AtlasPreloader(final ClassLoader classLoader, final String[] atlasFolders,
+        final boolean decodeImages) {
+        loader = classLoader;
+        folders = atlasFolders;
+        images = decodeImages;
+        decodeTimes = new long[atlasFolders.length];
+        loadedCounts = new int[atlasFolders.length];
+        pendingFolders = new FastTable<Integer>();
+        pendingNames = new FastTable<String>();
+
+        final int workerCount =
+            Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors());
+        inFlightLimit = workerCount + 1;
+        workers =
+            Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread =
+                        new Thread(r, "AtlasPreloader Worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        completed = new ExecutorCompletionService<Job>(workers);
+    }
+
+    /**
+     * Fetch the next atlas file that was decoded. This has to be called by the
+     * render thread, since it also creates the texture atlas objects of the
+     * atlas files that are decoded next. This function does not wait for the
+     * workers.
+     * 
+     * @return the next decoded atlas file or <code>null</code> in case no
+     *         atlas file is decoded yet or all atlas files are done
+     * @see #isDone()
+     */
+    @SuppressWarnings("nls")
+    Job fetch() {
+        if (startTime == 0) {
+            startTime = System.nanoTime();
+            findAtlasFiles();
+        }
+        submitJobs();
+
+        while (inFlight > 0) {
+            final Future<Job> result = completed.poll();
+            if (result == null) {
+                return null;
+            }
+
+            Job job = null;
+            try {
+                job = result.get();
+            } catch (final ExecutionException e) {
+                LOGGER.error("Decoding a atlas file failed", e.getCause());
+            } catch (final InterruptedException e) {
+                LOGGER.error("Interrupted while loading the atlas files", e);
+                Thread.currentThread().interrupt();
+                finish();
+                return null;
+            }
+            inFlight--;
+            submitJobs();
+            if (job == null) {
+                continue;
+            }
+
+            if (firstFetchTime == 0) {
+                firstFetchTime = System.nanoTime();
+            }
+            decodeTimes[job.getFolder()] += job.getDecodeTime();
+            loadedCounts[job.getFolder()]++;
+            final Runtime runtime = Runtime.getRuntime();
+            peakHeap =
+                Math.max(peakHeap,
+                    runtime.totalMemory() - runtime.freeMemory());
+            return job;
+        }
+
+        finish();
+        return null;
+    }
+
+    /**
+     * Check if all atlas files were fetched.
+     * 
+     * @return <code>true</code> in case all atlas files are done
+     */
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Search the atlas files of all folders.
+     */
+    @SuppressWarnings("nls")
+    private void findAtlasFiles() {
+        for (int i = 0; i < folders.length; i++) {
+            int index = 0;
+            while (true) {
+                final String atlasName = folders[i] + "atlas-" + index;
+                if (loader.getResource(atlasName + "." + TextureIO.FORMAT)
+                    == null) {
+                    break;
+                }
+                pendingFolders.add(Integer.valueOf(i));
+                pendingNames.add(atlasName);
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Stop the workers and report the time and the memory the loading took.
+     */
+    @SuppressWarnings("nls")
+    private void finish() {
+        done = true;
+        workers.shutdownNow();
+        if (startTime == 0) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        for (int i = 0; i < folders.length; i++) {
+            LOGGER.info("Decoded " + loadedCounts[i] + " atlas files from "
+                + folders[i] + " in " + (decodeTimes[i] / 1000000L) + "ms");
+        }
+        LOGGER.info("First atlas file ready after "
+            + ((firstFetchTime - startTime) / 1000000L)
+            + "ms, all atlas files loaded after "
+            + ((now - startTime) / 1000000L) + "ms, peak heap "
+            + (peakHeap >> 20) + "MB");
+    }
+
+    /**
+     * Submit atlas files to the workers until the limit of jobs in flight is
+     * reached.
+     */
+    private void submitJobs() {
+        while ((inFlight < inFlightLimit)
+            && (nextPending < pendingNames.size())) {
+            completed.submit(new Job(loader, pendingFolders.get(nextPending)
+                .intValue(), pendingNames.get(nextPending), Graphics
+                .getInstance().getTextureAtlas(), images, true));
+            nextPending++;
+            inFlight++;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.common;
+
+import illarion.common.util.Rectangle;
+import illarion.graphics.FontData;
+
+import java.util.Arrays;
+
+/**
+ * The glyph run stores the layout of a text that is rendered with a
+ * {@link RenderedFont}. It is created once for each text, and then measuring,
+ * wrapping and rendering the text only read the glyphes, advances, kerning
+ * values and pen locations stored here. None of the glyphes has to be looked
+ * up again and no rectangles are needed for this. The line breaks are kept for
+ * the last length the text was wrapped with, so wrapping the same text again
+ * does not need to measure it.
+ * 
+ * @author Martin Karing
+ * @version 2.00
+ * @since 2.00
+ */
+public final class GlyphRun implements FontData.GlyphRunData {
+    /**
+     * The line breaks of the text for one length of the lines.
+     * 
+     * @author Martin Karing
+     * @since 2.00
+     */
+    private static final class LineBreaks {
+        /**
+         * The index of the last character of the line for each character the
+         * line starts with. Entries that were not calculated yet are set to
+         * {@link GlyphRun#UNKNOWN}.
+         */
+        final int[] lastFitting;
+
+        /**
+         * The length of the lines in pixel.
+         */
+        final int length;
+
+        /**
+         * Create the line break table for one length.
+         * 
+         * @param textLength the length of the text
+         * @param lineLength the length of the lines in pixel
+         */
+        LineBreaks(final int textLength, final int lineLength) {
+            lastFitting = new int[textLength];
+            Arrays.fill(lastFitting, UNKNOWN);
+            length = lineLength;
+        }
+    }
+
+    /**
+     * The value that marks a line break that was not calculated yet.
+     */
+    private static final int UNKNOWN = -2;
+
+    /**
+     * The height of the bounding box of the entire text.
+     */
+    private final int boundsHeight;
+
+    /**
+     * The width of the bounding box of the entire text.
+     */
+    private final int boundsWidth;
+
+    /**
+     * The x coordinate of the bounding box of the entire text.
+     */
+    private final int boundsX;
+
+    /**
+     * The y coordinate of the bounding box of the entire text.
+     */
+    private final int boundsY;
+
+    /**
+     * The amount of pixels the pen advances after each glyph.
+     */
+    private final int[] advances;
+
+    /**
+     * The glyphes of the characters of the text.
+     */
+    private final RenderedFont.Glyph[] glyphes;
+
+    /**
+     * The heights of the glyphes.
+     */
+    private final int[] heights;
+
+    /**
+     * The line breaks of the text for the last length the text was wrapped
+     * with.
+     */
+    private volatile LineBreaks breaks;
+
+    /**
+     * The kerning of each glyph towards the glyph in front of it. The first
+     * entry is always 0.
+     */
+    private final int[] kerning;
+
+    /**
+     * The pen locations of the glyphes. Spaces at the start of the text do not
+     * move the pen.
+     */
+    private final int[] offsets;
+
+    /**
+     * The text this run was created for.
+     */
+    private final String text;
+
+    /**
+     * The widths of the glyphes. This is the larger value of the width of the
+     * glyph and its advance.
+     */
+    private final int[] widths;
+
+    /**
+     * The x coordinates of the origin offsets of the glyphes.
+     */
+    private final int[] x;
+
+    /**
+     * The y coordinates of the origin offsets of the glyphes.
+     */
+    private final int[] y;
+
+    /**
+     * Create the glyph run of a text.
+     * 
+     * @param runText the text of this run
+     * @param runGlyphes the glyphes of the characters of the text, one for
+     *            each character
+     */
+    GlyphRun(final String runText, final RenderedFont.Glyph[] runGlyphes) {
+        text = runText;
+        glyphes = runGlyphes;
+
+        final int length = runGlyphes.length;
+        advances = new int[length];
+        heights = new int[length];
+        kerning = new int[length];
+        offsets = new int[length];
+        widths = new int[length];
+        x = new int[length];
+        y = new int[length];
+
+        RenderedFont.Glyph last = null;
+        int penX = 0;
+        boolean foundNonSpace = false;
+        for (int i = 0; i < length; i++) {
+            final RenderedFont.Glyph next = runGlyphes[i];
+            advances[i] = next.getAdvance();
+            heights[i] = Math.max(0, next.getHeight());
+            kerning[i] = next.getKerningAfter(last);
+            widths[i] = Math.max(0, Math.max(next.getWidth(), advances[i]));
+            x[i] = next.getX();
+            y[i] = next.getY();
+            offsets[i] = penX;
+
+            if ((runText.charAt(i) != ' ') || foundNonSpace) {
+                penX += advances[i] - kerning[i];
+                foundNonSpace = true;
+            }
+            last = next;
+        }
+
+        final Rectangle bounds = Rectangle.getInstance();
+        measure(0, length, bounds);
+        boundsX = bounds.getX();
+        boundsY = bounds.getY();
+        boundsWidth = bounds.getWidth();
+        boundsHeight = bounds.getHeight();
+        bounds.recycle();
+    }
+
+    /**
+     * Get the glyph of one character of the text.
+     * 
+     * @param index the index of the character in the text
+     * @return the glyph used to draw this character
+     */
+    @Override
+    public FontData.GlyphData getGlyph(final int index) {
+        return glyphes[index];
+    }
+
+    /**
+     * Get the height of the bounding box of the entire text.
+     * 
+     * @return the height of the text
+     */
+    @Override
+    public int getHeight() {
+        return boundsHeight;
+    }
+
+    /**
+     * Get the amount of glyphes in this run.
+     * 
+     * @return the amount of glyphes
+     */
+    @Override
+    public int getLength() {
+        return glyphes.length;
+    }
+
+    /**
+     * Get the pen location of a glyph relative to the start of the line.
+     * 
+     * @param index the index of the character in the text
+     * @return the pen location of this character
+     */
+    @Override
+    public int getOffset(final int index) {
+        return offsets[index];
+    }
+
+    /**
+     * Get the text this run was created for.
+     * 
+     * @return the text of this run
+     */
+    @Override
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Get the width of the bounding box of the entire text.
+     * 
+     * @return the width of the text
+     */
+    @Override
+    public int getWidth() {
+        return boundsWidth;
+    }
+
+    /**
+     * Get the bounding box of a part of the text. The pen starts at 0 with the
+     * first character of this part.
+     * 
+     * @param start the index of the first character of the part
+     * @param end the index of the first character that is not part of the
+     *            part anymore
+     * @param dest the rectangle that receives the bounding box
+     */
+    void getBounds(final int start, final int end, final Rectangle dest) {
+        if ((start == 0) && (end == glyphes.length)) {
+            dest.set(boundsX, boundsY, boundsWidth, boundsHeight);
+        } else {
+            measure(start, end, dest);
+        }
+    }
+
+    /**
+     * Copy the glyphes and the pen locations of a part of the text to arrays.
+     * The pen starts at 0 with the first character of this part.
+     * 
+     * @param start the index of the first character of the part, its glyph is
+     *            placed at index 0 of the arrays
+     * @param end the index of the first character that is not part of the
+     *            part anymore
+     * @param size the scaling factor of the font glyphes
+     * @param dest the array of glyphes the references are stored in
+     * @param pens the array the pen locations are stored in
+     */
+    void getGlyphes(final int start, final int end, final float size,
+        final FontData.GlyphData[] dest, final int[] pens) {
+        System.arraycopy(glyphes, start, dest, 0, end - start);
+        if ((start == 0) && (size == 1.f)) {
+            System.arraycopy(offsets, 0, pens, 0, end);
+            return;
+        }
+
+        int penX = 0;
+        boolean foundNonSpace = false;
+        for (int i = start; i < end; i++) {
+            pens[i - start] = penX;
+            if ((text.charAt(i) != ' ') || foundNonSpace) {
+                final int kern = (i == start) ? 0 : kerning[i];
+                penX += (advances[i] * size) - kern;
+                foundNonSpace = true;
+            }
+        }
+    }
+
+    /**
+     * Check how many characters of a part of the text fit into a given length
+     * in pixel. The line is broken behind the last character that is followed
+     * by a space and still fits. In case there is no such character the line
+     * gets longer then the length. A new line character always breaks the
+     * line.
+     * 
+     * @param start the index of the first character of the part
+     * @param end the index of the first character that is not part of the
+     *            part anymore
+     * @param length the length in pixel that is the limit
+     * @return the index of the character that is the last one fitting into the
+     *         given length
+     */
+    int getWrap(final int start, final int end, final int length) {
+        if ((end != glyphes.length) || (start < 0) || (start >= end)) {
+            return wrap(start, end, length);
+        }
+
+        LineBreaks lineBreaks = breaks;
+        if ((lineBreaks == null) || (lineBreaks.length != length)) {
+            lineBreaks = new LineBreaks(end, length);
+            breaks = lineBreaks;
+        }
+
+        int lastFittingIndex = lineBreaks.lastFitting[start];
+        if (lastFittingIndex == UNKNOWN) {
+            lastFittingIndex = wrap(start, end, length);
+            lineBreaks.lastFitting[start] = lastFittingIndex;
+        }
+        return lastFittingIndex;
+    }
+
+    /**
+     * Calculate the bounding box of a part of the text from the glyphes.
+     * 
+     * @param start the index of the first character of the part
+     * @param end the index of the first character that is not part of the
+     *            part anymore
+     * @param dest the rectangle that receives the bounding box
+     */
+    private void measure(final int start, final int end, final Rectangle dest) {
+        int x0 = 0;
+        int x1 = 0;
+        int y0 = 0;
+        int y1 = 0;
+        int penX = 0;
+        for (int i = start; i < end; i++) {
+            final int kern = (i == start) ? 0 : kerning[i];
+            final int glyphX0 = (x[i] + penX) - kern;
+            final int glyphX1 = glyphX0 + widths[i];
+            final int glyphY1 = y[i] + heights[i];
+
+            if ((x0 == x1) || (y0 == y1)) {
+                x0 = glyphX0;
+                y0 = y[i];
+                x1 = glyphX1;
+                y1 = glyphY1;
+            } else if ((widths[i] != 0) && (heights[i] != 0)) {
+                x0 = Math.min(x0, glyphX0);
+                y0 = Math.min(y0, y[i]);
+                x1 = Math.max(x1, glyphX1);
+                y1 = Math.max(y1, glyphY1);
+            }
+            penX += advances[i] - kern;
+        }
+        dest.set(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Calculate how many characters of a part of the text fit into a given
+     * length in pixel.
+     * 
+     * @param start the index of the first character of the part
+     * @param end the index of the first character that is not part of the
+     *            part anymore
+     * @param length the length in pixel that is the limit
+     * @return the index of the character that is the last one fitting into the
+     *         given length
+     */
+    private int wrap(final int start, final int end, final int length) {
+        int lastFittingIndex = -1;
+
+        int x0 = 0;
+        int x1 = 0;
+        int y0 = 0;
+        int y1 = 0;
+        int penX = 0;
+        boolean foundSpace = false;
+        boolean foundNonSpace = false;
+        int first = -1;
+        for (int i = start; i < end; i++) {
+            final char currentChar = text.charAt(i);
+            if (!foundNonSpace
+                && ((currentChar == ' ')
+                    || (currentChar == RenderedFont.NEWLINE))) {
+                if (currentChar == RenderedFont.NEWLINE) {
+                    foundNonSpace = true;
+                }
+                continue;
+            }
+            foundNonSpace = true;
+
+            if (currentChar == RenderedFont.NEWLINE) {
+                lastFittingIndex = i - 1;
+                break;
+            }
+            if (first == -1) {
+                first = i;
+            }
+
+            final int kern = (i == first) ? 0 : kerning[i];
+            final int glyphX0 = (x[i] + penX) - kern;
+            final int glyphX1 = glyphX0 + widths[i];
+            final int glyphY1 = y[i] + heights[i];
+            if ((x0 == x1) || (y0 == y1)) {
+                x0 = glyphX0;
+                y0 = y[i];
+                x1 = glyphX1;
+                y1 = glyphY1;
+            } else if ((widths[i] != 0) && (heights[i] != 0)) {
+                x0 = Math.min(x0, glyphX0);
+                y0 = Math.min(y0, y[i]);
+                x1 = Math.max(x1, glyphX1);
+                y1 = Math.max(y1, glyphY1);
+            }
+            penX += advances[i] - kern;
+
+            final int width = x1 - x0;
+            if ((i + 1) == end) {
+                lastFittingIndex = i;
+                break;
+            } else if ((text.charAt(i + 1) == ' ')
+                && (!foundSpace || (width <= length))) {
+                lastFittingIndex = i;
+                foundSpace = true;
+            } else if (foundSpace && (width > length)) {
+                break;
+            } else if (text.charAt(i + 1) == RenderedFont.NEWLINE) {
+                lastFittingIndex = i;
+                break;
+            }
+        }
+        return lastFittingIndex;
+    }
+}
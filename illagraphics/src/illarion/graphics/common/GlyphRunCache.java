@@ -0,0 +1,108 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ *
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This cache stores the glyph runs of the texts that were laid out with one
+ * font. Its size is limited. Once it is full the run that was not used for the
+ * longest time is dropped.
+ * 
+ * @author Martin Karing
+ * @version 2.00
+ * @since 2.00
+ */
+final class GlyphRunCache {
+    /**
+     * The map that stores the runs in the order they were used last.
+     * 
+     * @author Martin Karing
+     * @since 2.00
+     */
+    private static final class RunMap extends
+        LinkedHashMap<String, GlyphRun> {
+        /**
+         * The serialization UID of this map.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The maximal amount of runs stored in this map.
+         */
+        private final int capacity;
+
+        /**
+         * Create the map.
+         * 
+         * @param maxRuns the maximal amount of runs stored in this map
+         */
+        RunMap(final int maxRuns) {
+            super(maxRuns, 0.75f, true);
+            capacity = maxRuns;
+        }
+
+        /**
+         * Drop the least recently used run once the map is full.
+         */
+        @Override
+        protected boolean removeEldestEntry(
+            final Map.Entry<String, GlyphRun> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * The amount of runs stored for each font.
+     */
+    private static final int CAPACITY = 512;
+
+    /**
+     * The runs stored in this cache.
+     */
+    private final RunMap runs = new RunMap(CAPACITY);
+
+    /**
+     * Remove all runs from the cache.
+     */
+    public synchronized void clear() {
+        runs.clear();
+    }
+
+    /**
+     * Get the run of a text from the cache.
+     * 
+     * @param text the text
+     * @return the run of this text or <code>null</code> in case it is not
+     *         stored in the cache
+     */
+    public synchronized GlyphRun get(final String text) {
+        return runs.get(text);
+    }
+
+    /**
+     * Store the run of a text in the cache.
+     * 
+     * @param run the run to store
+     */
+    public synchronized void put(final GlyphRun run) {
+        runs.put(run.getText(), run);
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.common;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import illarion.common.util.Location;
+import illarion.graphics.Graphics;
+import illarion.graphics.SpriteColor;
+import javolution.util.FastTable;
+
+/**
+ * A grid of light values. The light tracer adds the light of all light sources
+ * to this grid and removes it again once a light source changes. The red, green
+ * and blue shares of each location are stored next to each other in one
+ * integer array, using the same scale as {@link SpriteColor#COLOR_MAX}.
+ * <p>
+ * The grid is split into chunks of {@link #CHUNK_SIZE} times
+ * {@link #CHUNK_SIZE} locations. Chunks are only created where light is, and
+ * they are dropped again once they are dark. The locations that changed since
+ * the light was handed over to the map last are remembered, so only those
+ * locations need to be handed over again.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 2.00
+ * @version 2.00
+ */
+final class LightGrid {
+    /**
+     * One chunk of the light grid.
+     * 
+     * @author Martin Karing
+     * @since 2.00
+     */
+    private static final class Chunk {
+        /**
+         * The bits of the locations that changed since the chunk was handed
+         * over to the map last.
+         */
+        final long[] changed;
+
+        /**
+         * The key of this chunk in the chunk map.
+         */
+        final long key;
+
+        /**
+         * The amount of locations in this chunk that have any light.
+         */
+        int litCells;
+
+        /**
+         * The light values of all locations in this chunk.
+         */
+        final int[] lights;
+
+        /**
+         * This flag is <code>true</code> in case the chunk is in the list of
+         * changed chunks.
+         */
+        boolean listed;
+
+        /**
+         * The lowest X coordinate in this chunk.
+         */
+        final int originX;
+
+        /**
+         * The lowest Y coordinate in this chunk.
+         */
+        final int originY;
+
+        /**
+         * The level of this chunk.
+         */
+        final int originZ;
+
+        /**
+         * Create a new dark chunk.
+         * 
+         * @param chunkKey the key of the chunk
+         * @param x the lowest X coordinate in this chunk
+         * @param y the lowest Y coordinate in this chunk
+         * @param z the level of this chunk
+         */
+        Chunk(final long chunkKey, final int x, final int y, final int z) {
+            key = chunkKey;
+            originX = x;
+            originY = y;
+            originZ = z;
+            lights = new int[CHUNK_CELLS * CHANNELS];
+            changed = new long[CHUNK_CELLS / Long.SIZE];
+        }
+    }
+
+    /**
+     * The amount of values stored for every location.
+     */
+    private static final int CHANNELS = 3;
+
+    /**
+     * The amount of bits of a coordinate that select the location within a
+     * chunk.
+     */
+    private static final int CHUNK_BITS = 4;
+
+    /**
+     * The amount of locations in one chunk.
+     */
+    private static final int CHUNK_CELLS = 1 << (CHUNK_BITS * 2);
+
+    /**
+     * The mask that selects the location within a chunk from a coordinate.
+     */
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    /**
+     * The width and height of one chunk.
+     */
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * Get the key of the chunk that contains a location.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     * @return the key of the chunk
+     */
+    private static long getChunkKey(final int x, final int y, final int z) {
+        return ((long) z << 48) ^ (((long) (x >> CHUNK_BITS) & 0xFFFFFFL) << 24)
+            ^ ((y >> CHUNK_BITS) & 0xFFFFFFL);
+    }
+
+    /**
+     * Mark all locations of a chunk as unchanged.
+     * 
+     * @param chunk the chunk
+     */
+    private static void resetChanges(final Chunk chunk) {
+        final long[] changed = chunk.changed;
+        for (int i = 0; i < changed.length; i++) {
+            changed[i] = 0L;
+        }
+        chunk.listed = false;
+    }
+
+    /**
+     * The chunks with light that changed since they were handed over to the
+     * map last.
+     */
+    private final FastTable<Chunk> changedChunks;
+
+    /**
+     * The chunks of this grid that contain any light.
+     */
+    private final TLongObjectHashMap<Chunk> chunks;
+
+    /**
+     * The color that is used to hand the light values over to the map.
+     */
+    private final SpriteColor color;
+
+    /**
+     * The location that is used to hand the light values over to the map.
+     */
+    private final Location loc;
+
+    /**
+     * Create a new empty light grid.
+     */
+    LightGrid() {
+        chunks = new TLongObjectHashMap<Chunk>();
+        changedChunks = new FastTable<Chunk>();
+        color = Graphics.getInstance().getSpriteColor();
+        loc = new Location();
+    }
+
+    /**
+     * Change the light of a location. Positive values add light, negative
+     * values remove light that was added before.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     * @param red the change of the red share of the light
+     * @param green the change of the green share of the light
+     * @param blue the change of the blue share of the light
+     */
+    void add(final int x, final int y, final int z, final int red,
+        final int green, final int blue) {
+        if ((red == 0) && (green == 0) && (blue == 0)) {
+            return;
+        }
+
+        final Chunk chunk = getChunk(x, y, z);
+        final int cell = getCell(x, y);
+        final int index = cell * CHANNELS;
+        final int[] lights = chunk.lights;
+        final boolean wasLit =
+            (lights[index] != 0) || (lights[index + 1] != 0)
+                || (lights[index + 2] != 0);
+        lights[index] += red;
+        lights[index + 1] += green;
+        lights[index + 2] += blue;
+        final boolean isLit =
+            (lights[index] != 0) || (lights[index + 1] != 0)
+                || (lights[index + 2] != 0);
+        if (wasLit != isLit) {
+            chunk.litCells += isLit ? 1 : -1;
+        }
+
+        markChanged(chunk, cell);
+    }
+
+    /**
+     * Get the index of a location within its chunk.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @return the index of the location within the chunk
+     */
+    private static int getCell(final int x, final int y) {
+        return ((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK);
+    }
+
+    /**
+     * Get the amount of locations that changed since the grid was handed over
+     * to the map last.
+     * 
+     * @return the amount of changed locations
+     */
+    int getChangedCount() {
+        int count = 0;
+        final int chunkCount = changedChunks.size();
+        for (int i = 0; i < chunkCount; i++) {
+            final long[] changed = changedChunks.get(i).changed;
+            for (final long bits : changed) {
+                count += Long.bitCount(bits);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the chunk that contains a location. The chunk is created in case
+     * there is none yet.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     * @return the chunk
+     */
+    private Chunk getChunk(final int x, final int y, final int z) {
+        final long key = getChunkKey(x, y, z);
+        Chunk chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = new Chunk(key, x & ~CHUNK_MASK, y & ~CHUNK_MASK, z);
+            chunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Mark a location as changed, so its light is handed over to the map
+     * again by {@link #publishChanges(LightingMap)}, even if the light value
+     * did not change. This is needed for locations the map changed at.
+     * 
+     * @param x the X coordinate of the location
+     * @param y the Y coordinate of the location
+     * @param z the Z coordinate of the location
+     */
+    void markChanged(final int x, final int y, final int z) {
+        markChanged(getChunk(x, y, z), getCell(x, y));
+    }
+
+    /**
+     * Mark a location of a chunk as changed.
+     * 
+     * @param chunk the chunk
+     * @param cell the index of the location within the chunk
+     */
+    private void markChanged(final Chunk chunk, final int cell) {
+        chunk.changed[cell >> 6] |= 1L << cell;
+        if (!chunk.listed) {
+            chunk.listed = true;
+            changedChunks.add(chunk);
+        }
+    }
+
+    /**
+     * Hand all light values over to a map. The lights of the map are reset and
+     * all locations with light are set. The map still needs to render its
+     * lights after this.
+     * 
+     * @param map the map that receives the light values
+     */
+    void publish(final LightingMap map) {
+        map.resetLights();
+
+        final TLongObjectIterator<Chunk> itr = chunks.iterator();
+        while (itr.hasNext()) {
+            itr.advance();
+            final Chunk chunk = itr.value();
+            for (int cell = 0; cell < CHUNK_CELLS; cell++) {
+                setLight(map, chunk, cell);
+            }
+            resetChanges(chunk);
+            if (chunk.litCells == 0) {
+                itr.remove();
+            }
+        }
+        changedChunks.clear();
+    }
+
+    /**
+     * Hand the light values of the locations that changed since the last time
+     * over to a map. The light of each of these locations is reset, set again
+     * and rendered.
+     * 
+     * @param map the map that receives the light values
+     */
+    void publishChanges(final LightingMap map) {
+        final int chunkCount = changedChunks.size();
+        for (int i = 0; i < chunkCount; i++) {
+            final Chunk chunk = changedChunks.get(i);
+            final long[] changed = chunk.changed;
+            for (int word = 0; word < changed.length; word++) {
+                long bits = changed[word];
+                while (bits != 0) {
+                    final int cell =
+                        (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+
+                    map.resetLight(setLocation(chunk, cell));
+                    setLight(map, chunk, cell);
+                    map.renderLight(loc);
+                }
+            }
+            resetChanges(chunk);
+            if (chunk.litCells == 0) {
+                chunks.remove(chunk.key);
+            }
+        }
+        changedChunks.clear();
+    }
+
+    /**
+     * Set the location that is used to hand the light over to the map to one
+     * location of a chunk.
+     * 
+     * @param chunk the chunk
+     * @param cell the index of the location within the chunk
+     * @return the location instance that was set
+     */
+    private Location setLocation(final Chunk chunk, final int cell) {
+        loc.setSC(chunk.originX + (cell & CHUNK_MASK), chunk.originY
+            + (cell >> CHUNK_BITS), chunk.originZ);
+        return loc;
+    }
+
+    /**
+     * Hand the light value of one location over to the map. Light values that
+     * are larger then {@link SpriteColor#COLOR_MAX} are set in multiple steps,
+     * because the sprite colors limit their values.
+     * 
+     * @param map the map that receives the light value
+     * @param chunk the chunk that contains the location
+     * @param cell the index of the location within the chunk
+     */
+    private void setLight(final LightingMap map, final Chunk chunk,
+        final int cell) {
+        final int index = cell * CHANNELS;
+        int red = chunk.lights[index];
+        int green = chunk.lights[index + 1];
+        int blue = chunk.lights[index + 2];
+        if ((red == 0) && (green == 0) && (blue == 0)) {
+            return;
+        }
+
+        setLocation(chunk, cell);
+        while ((red > 0) || (green > 0) || (blue > 0)) {
+            final int stepRed = Math.min(red, SpriteColor.COLOR_MAX);
+            final int stepGreen = Math.min(green, SpriteColor.COLOR_MAX);
+            final int stepBlue = Math.min(blue, SpriteColor.COLOR_MAX);
+            color.set(stepRed, stepGreen, stepBlue);
+            map.setLight(loc, color);
+            red -= stepRed;
+            green -= stepGreen;
+            blue -= stepBlue;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.common;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import illarion.common.util.Location;
+import javolution.util.FastMap;
+import javolution.util.FastTable;
+
+/**
+ * The spatial index of the light sources. It stores for every area of the map
+ * the light sources that are able to send their light into this area. This
+ * way a change on the map only needs to be reported to the light sources close
+ * to the change.
+ * <p>
+ * The map is split into cells of {@link LightGrid#CHUNK_SIZE} times
+ * {@link LightGrid#CHUNK_SIZE} locations. Every light source is stored in all
+ * cells its rays reach at the location the light source had when it was added
+ * to the index.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 2.00
+ * @version 2.00
+ */
+final class LightIndex {
+    /**
+     * The amount of bits of a coordinate that select the location within a
+     * cell.
+     */
+    private static final int CELL_BITS =
+        Integer.numberOfTrailingZeros(LightGrid.CHUNK_SIZE);
+
+    /**
+     * Get the key of a cell.
+     * 
+     * @param cellX the X coordinate of the cell
+     * @param cellY the Y coordinate of the cell
+     * @param z the level of the cell
+     * @return the key of the cell
+     */
+    private static long getCellKey(final int cellX, final int cellY,
+        final int z) {
+        return ((long) z << 48) ^ ((cellX & 0xFFFFFFL) << 24)
+            ^ (cellY & 0xFFFFFFL);
+    }
+
+    /**
+     * The light sources stored in each cell.
+     */
+    private final TLongObjectHashMap<FastTable<LightSource>> cells;
+
+    /**
+     * The locations the light sources in this index were added at.
+     */
+    private final FastMap<LightSource, int[]> locations;
+
+    /**
+     * Create a new empty light index.
+     */
+    LightIndex() {
+        cells = new TLongObjectHashMap<FastTable<LightSource>>();
+        locations = new FastMap<LightSource, int[]>();
+    }
+
+    /**
+     * Add a light source to the index at its current location. In case the
+     * light source is in the index already, its moved to the current location.
+     * 
+     * @param light the light source
+     */
+    void add(final LightSource light) {
+        remove(light);
+
+        final Location loc = light.getLocation();
+        final int[] location =
+            new int[] { loc.getScX(), loc.getScY(), loc.getScZ() };
+        locations.put(light, location);
+        store(light, location, true);
+    }
+
+    /**
+     * Check if a light source is stored in this index.
+     * 
+     * @param light the light source
+     * @return <code>true</code> in case the light source is in this index
+     */
+    boolean contains(final LightSource light) {
+        return locations.containsKey(light);
+    }
+
+    /**
+     * Get the light sources that may send their light to a location.
+     * 
+     * @param loc the location
+     * @return the light sources close to the location or <code>null</code> in
+     *         case there are none, the returned table must not be changed
+     */
+    FastTable<LightSource> getLights(final Location loc) {
+        return cells.get(getCellKey(loc.getScX() >> CELL_BITS,
+            loc.getScY() >> CELL_BITS, loc.getScZ()));
+    }
+
+    /**
+     * Check if there are no light sources in this index.
+     * 
+     * @return <code>true</code> in case the index is empty
+     */
+    boolean isEmpty() {
+        return locations.isEmpty();
+    }
+
+    /**
+     * Remove a light source from the index.
+     * 
+     * @param light the light source
+     * @return <code>true</code> in case the light source was in the index
+     */
+    boolean remove(final LightSource light) {
+        final int[] location = locations.remove(light);
+        if (location == null) {
+            return false;
+        }
+        store(light, location, false);
+        return true;
+    }
+
+    /**
+     * Add a light source to or remove it from all cells its rays reach.
+     * 
+     * @param light the light source
+     * @param location the location of the light source
+     * @param add <code>true</code> to add the light source to the cells,
+     *            <code>false</code> to remove it
+     */
+    private void store(final LightSource light, final int[] location,
+        final boolean add) {
+        final int size = light.getSize();
+        final int minX = (location[0] - size) >> CELL_BITS;
+        final int minY = (location[1] - size) >> CELL_BITS;
+        final int maxX = (location[0] + size) >> CELL_BITS;
+        final int maxY = (location[1] + size) >> CELL_BITS;
+
+        for (int cellX = minX; cellX <= maxX; cellX++) {
+            for (int cellY = minY; cellY <= maxY; cellY++) {
+                final long key = getCellKey(cellX, cellY, location[2]);
+                FastTable<LightSource> cell = cells.get(key);
+                if (add) {
+                    if (cell == null) {
+                        cell = new FastTable<LightSource>();
+                        cells.put(key, cell);
+                    }
+                    cell.add(light);
+                } else if (cell != null) {
+                    cell.remove(light);
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -21,8 +21,14 @@ package illarion.graphics.common;
 import illarion.common.util.Bresenham;
 
 /**
- * This class stores the root node of a set of light rays for a given size. It
- * precalculates all rays when its created and stores them for later usage.
+ * This class stores a set of light rays for a given size. It precalculates all
+ * rays when its created and stores them for later usage.
+ * <p>
+ * The rays form a tree with the location of the light as root. The nodes of
+ * this tree are stored in flat arrays in depth-first order, so the children of
+ * a node follow the node directly and the subtree of a node ends at the index
+ * stored in {@link #skip}.
+ * </p>
  * 
  * @author Nop
  * @author Martin Karing
@@ -31,11 +37,31 @@ import illarion.common.util.Bresenham;
  */
 public final class LightRays {
     /**
-     * The root node. This node is placed exactly on the light source with the
-     * size created in this class. From this ray node all other precalculated
-     * nodes are accessible.
+     * The maximum amount of children a node can get.
      */
-    private final RayNode root;
+    private static final int MAX_CHILDS = 8;
+
+    /**
+     * The amount of nodes in the tree.
+     */
+    private int count;
+
+    /**
+     * The light intensity values of the nodes, calculated from the distance to
+     * the origin of the light.
+     */
+    private float[] intensity;
+
+    /**
+     * The levels of the nodes, means how many steps the node is away from the
+     * origin of the light. The root node has the level 0.
+     */
+    private int[] level;
+
+    /**
+     * The highest level of a node in the tree.
+     */
+    private int maxLevel;
 
     /**
      * The length of the rays that were precalculated with this instance of
@@ -43,6 +69,21 @@ public final class LightRays {
      */
     private final int size;
 
+    /**
+     * The index of the first node after the subtree of each node.
+     */
+    private int[] skip;
+
+    /**
+     * The x coordinates of the nodes, relative to the origin of the light.
+     */
+    private int[] x;
+
+    /**
+     * The y coordinates of the nodes, relative to the origin of the light.
+     */
+    private int[] y;
+
     /**
      * Constructor, triggers the precalculation of all light rays up to the size
      * set as parameter in this constructor call.
@@ -51,43 +92,197 @@ public final class LightRays {
      */
     public LightRays(final int targetSize) {
         size = targetSize;
-        root = new RayNode(targetSize);
+
+        final int capacity = (targetSize * 2) + 1;
+        final int maxNodes = capacity * capacity * MAX_CHILDS;
+        x = new int[maxNodes];
+        y = new int[maxNodes];
+        level = new int[maxNodes];
+        intensity = new float[maxNodes];
+        final int[] children = new int[maxNodes * MAX_CHILDS];
+        final int[] childCount = new int[maxNodes];
+
+        count = 1;
+        intensity[0] = getIntensity(0, 0);
 
         for (int i = -targetSize; i < targetSize; ++i) {
-            createRay(i, -targetSize);
-            createRay(i + 1, targetSize);
-            createRay(targetSize, i);
-            createRay(-targetSize, i + 1);
+            createRay(i, -targetSize, children, childCount);
+            createRay(i + 1, targetSize, children, childCount);
+            createRay(targetSize, i, children, childCount);
+            createRay(-targetSize, i + 1, children, childCount);
         }
+
+        flatten(children, childCount);
     }
 
     /**
-     * Apply a light source to the root node. This causes that the root node is
-     * set to the location of the lightsource and the rays are used for this
-     * light source. With knowing the real location there are the checks down
-     * with the {@link illarion.graphics.common.LightingMap} of the lightray
-     * gets over the tiles correctly and with the results the light rays are
-     * modified to the shadow by the objects on the map applys correctly.
+     * Apply a light source to the rays. The rays are followed from the
+     * location of the light source. Each node sets the intensity of its
+     * location on the light source. In case the location blocks the light, the
+     * nodes behind it are skipped or receive less light.
      * 
      * @param light the lightsource that shall be mapped with the pre
+     * @param passed a buffer for the intensity that passes each level of the
+     *            rays, it needs to hold at least {@link #getMaxLevel()} + 2
+     *            values
      */
-    public void apply(final LightSource light) {
-        root.apply(light, 1.0f);
+    public void apply(final LightSource light, final float[] passed) {
+        passed[0] = 1.0f;
+        int node = 0;
+        while (node < count) {
+            final int nodeLevel = level[node];
+            float passing = passed[nodeLevel];
+            int blocked =
+                light.setIntensity(x[node], y[node], passing
+                    * intensity[node]);
+
+            // never block light source itself
+            if (nodeLevel == 0) {
+                blocked = 0;
+            }
+
+            if (blocked < LightingMap.BLOCKED_VIEW) {
+                if (blocked > 0) {
+                    passing -= blocked / (float) LightingMap.BLOCKED_VIEW;
+                }
+                if (passing > 0.05) {
+                    passed[nodeLevel + 1] = passing;
+                    node++;
+                    continue;
+                }
+            }
+            node = skip[node];
+        }
     }
 
     /**
-     * Precalculate a light ray and attach it to the root node. The center of
-     * the ray, so the ray node is assumed to be at 0, 0.
+     * Get the highest level of a node in the rays.
      * 
-     * @param x the x coordinate of the target location of the ray
-     * @param y the y coordinate of the target location of the ray
+     * @return the highest level of a node
      */
-    private void createRay(final int x, final int y) {
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * Precalculate a light ray and attach it to the tree. The center of the
+     * ray is assumed to be at 0, 0. The path is generated by Bresenham. Nodes
+     * that exist already are reused, new nodes are only attached in case they
+     * are inside the falloff circle of the light.
+     * 
+     * @param targetX the x coordinate of the target location of the ray
+     * @param targetY the y coordinate of the target location of the ray
+     * @param children the children of each node, {@link #MAX_CHILDS} entries
+     *            per node
+     * @param childCount the amount of children of each node
+     */
+    private void createRay(final int targetX, final int targetY,
+        final int[] children, final int[] childCount) {
         final Bresenham bres = Bresenham.getInstance();
 
-        bres.calculate(0, 0, x, y);
+        bres.calculate(0, 0, targetX, targetY);
         bres.adjustStart(0, 0);
 
-        root.addRay(bres.getX(), bres.getY(), bres.getLength(), 1, size);
+        final int[] xPath = bres.getX();
+        final int[] yPath = bres.getY();
+        final int len = bres.getLength();
+
+        int parent = 0;
+        for (int index = 1; index < len; index++) {
+            final int nx = xPath[index];
+            final int ny = yPath[index];
+
+            int next = -1;
+            final int firstChild = parent * MAX_CHILDS;
+            for (int i = 0; i < childCount[parent]; i++) {
+                final int child = children[firstChild + i];
+                if ((x[child] == nx) && (y[child] == ny)) {
+                    next = child;
+                    break;
+                }
+            }
+
+            if (next == -1) {
+                final float nodeIntensity = getIntensity(nx, ny);
+                // only inside falloff circle
+                if (nodeIntensity <= 0) {
+                    return;
+                }
+                next = count++;
+                x[next] = nx;
+                y[next] = ny;
+                level[next] = index;
+                intensity[next] = nodeIntensity;
+                children[firstChild + childCount[parent]] = next;
+                childCount[parent]++;
+            }
+            parent = next;
+        }
+    }
+
+    /**
+     * Store the nodes in depth-first order and calculate the end of the
+     * subtree of every node.
+     * 
+     * @param children the children of each node
+     * @param childCount the amount of children of each node
+     */
+    private void flatten(final int[] children, final int[] childCount) {
+        final int[] order = new int[count];
+        final int[] stack = new int[count];
+        int stackSize = 0;
+        int ordered = 0;
+
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            final int node = stack[--stackSize];
+            order[ordered++] = node;
+            for (int i = childCount[node] - 1; i >= 0; i--) {
+                stack[stackSize++] = children[(node * MAX_CHILDS) + i];
+            }
+        }
+
+        final int[] newX = new int[count];
+        final int[] newY = new int[count];
+        final int[] newLevel = new int[count];
+        final float[] newIntensity = new float[count];
+        final int[] newSkip = new int[count];
+        for (int i = 0; i < count; i++) {
+            final int node = order[i];
+            newX[i] = x[node];
+            newY[i] = y[node];
+            newLevel[i] = level[node];
+            newIntensity[i] = intensity[node];
+            maxLevel = Math.max(maxLevel, newLevel[i]);
+        }
+
+        // the subtree of a node ends at the next node with the same or a
+        // lower level
+        for (int i = count - 1; i >= 0; i--) {
+            int end = i + 1;
+            while ((end < count) && (newLevel[end] > newLevel[i])) {
+                end = newSkip[end];
+            }
+            newSkip[i] = end;
+        }
+
+        x = newX;
+        y = newY;
+        level = newLevel;
+        intensity = newIntensity;
+        skip = newSkip;
+    }
+
+    /**
+     * Get the intensity of the light at a location relative to the origin of
+     * the light.
+     * 
+     * @param posX the relative x coordinate
+     * @param posY the relative y coordinate
+     * @return the intensity of the light at this location
+     */
+    private float getIntensity(final int posX, final int posY) {
+        final float distance = (float) Math.sqrt((posX * posX) + (posY * posY));
+        return (1.f - (distance / (size + 0.5f)));
     }
 }
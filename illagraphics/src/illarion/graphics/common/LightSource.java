@@ -19,7 +19,6 @@
 package illarion.graphics.common;
 
 import illarion.common.util.Location;
-import illarion.graphics.Graphics;
 import illarion.graphics.SpriteColor;
 import javolution.util.FastList;
 
@@ -99,6 +98,53 @@ public final class LightSource {
         }
     }
 
+    /**
+     * Get the share of a light color that reaches a location.
+     * 
+     * @param value the share of the light color
+     * @param factor the intensity of the light at the location
+     * @return the share reaching the location, limited to the range of a
+     *         sprite color
+     */
+    private static int limit(final int value, final float factor) {
+        final int result = (int) (value * factor);
+        if (result < SpriteColor.COLOR_MIN) {
+            return SpriteColor.COLOR_MIN;
+        }
+        if (result > SpriteColor.COLOR_MAX) {
+            return SpriteColor.COLOR_MAX;
+        }
+        return result;
+    }
+
+    /**
+     * The light this light source added to the light grid last. The red, green
+     * and blue share of each location are stored next to each other, in the
+     * same order as the {@link #intensity} values.
+     */
+    private final int[] appliedLight;
+
+    /**
+     * The X coordinate of the first location of {@link #appliedLight}.
+     */
+    private int appliedX;
+
+    /**
+     * The Y coordinate of the first location of {@link #appliedLight}.
+     */
+    private int appliedY;
+
+    /**
+     * The level the light of {@link #appliedLight} was added to.
+     */
+    private int appliedZ;
+
+    /**
+     * The blue share of the light color. In case the light is inverted this
+     * value is reduced by {@link SpriteColor#COLOR_MAX}.
+     */
+    private int blue;
+
     /**
      * The brightness of the light. This acts like a general modifier on the
      * brightness of the light that reduces anyway with increasing distance from
@@ -106,29 +152,25 @@ public final class LightSource {
      */
     private float bright;
 
-    /**
-     * The color of the light itself.
-     */
-    private final transient SpriteColor color;
-
     /**
      * The dirty flag, this is set to true in case there are further
      * calculations needed and to false in case all calculations are done.
      */
-    private boolean dirty;
+    private volatile boolean dirty;
 
     /**
-     * The intensity array stores the calculated light intensity values. These
-     * result from the pre-calculated light rays along with the situation on the
-     * map such as objects that block out the light.
+     * The green share of the light color. In case the light is inverted this
+     * value is reduced by {@link SpriteColor#COLOR_MAX}.
      */
-    private final float[][] intensity;
+    private int green;
 
     /**
-     * Invert flag. If this is set to true it results in a reduce of the light
-     * share on a tile instead of a increase.
+     * The intensity array stores the calculated light intensity values. These
+     * result from the pre-calculated light rays along with the situation on the
+     * map such as objects that block out the light. The values are stored row
+     * by row, each row contains the values of one X coordinate.
      */
-    private boolean invert;
+    private final float[] intensity;
 
     /**
      * Store if this light is currently in the cache.
@@ -140,28 +182,45 @@ public final class LightSource {
      */
     private transient Location loc;
 
+    /**
+     * This flag is <code>true</code> while the light source is waiting in the
+     * list of dirty lights of the light tracer. Access to this flag requires
+     * the lock of the light lists of the tracer.
+     */
+    boolean queued;
+
     /**
      * The reference map that is used to get the data how the light spreads on
      * the map.
      */
     private transient LightingMap mapSource;
 
+    /**
+     * The intensity of the light that passes each level of the light rays.
+     * This is used while the shadows are calculated.
+     */
+    private transient final float[] passedIntensity;
+
     /**
      * The light rays that spread from the light source.
      */
     private transient final LightRays rays;
 
     /**
-     * The length of the light rays that are send out by this light source.
+     * The red share of the light color. In case the light is inverted this
+     * value is reduced by {@link SpriteColor#COLOR_MAX}.
      */
-    private int size;
+    private int red;
 
     /**
-     * This sprite color is used for temporary things like handing over a
-     * modified color to another function.
+     * The width and height of the intensity array.
      */
-    private transient final SpriteColor tempColor = Graphics.getInstance()
-        .getSpriteColor();
+    private final int side;
+
+    /**
+     * The length of the light rays that are send out by this light source.
+     */
+    private int size;
 
     /**
      * A location instance for temporary purposes. This is for calculations or
@@ -180,52 +239,49 @@ public final class LightSource {
     private LightSource(final Location location, final int encoding) {
         final int newSize = (encoding / 10000) % 10;
         rays = LightTracer.getRays(newSize);
-        intensity = new float[(newSize * 2) + 1][(newSize * 2) + 1];
-        color = Graphics.getInstance().getSpriteColor();
+        side = (newSize * 2) + 1;
+        intensity = new float[side * side];
+        appliedLight = new int[side * side * 3];
+        passedIntensity = new float[rays.getMaxLevel() + 2];
 
         init(location, encoding);
     }
 
     /**
      * Apply shadow map to rendering target. So all calculated intensity values
-     * are added to the map by this function.
+     * are added to the light grid by this function. The light this light
+     * source added to the grid before is removed first. The light each
+     * location receives from this light source is limited to the range of a
+     * sprite color.
+     * 
+     * @param grid the grid that receives the light of this light source
      */
-    public void apply() {
+    void apply(final LightGrid grid) {
+        revert(grid);
         if (lightCached) {
             return;
         }
-        final int xOff = loc.getScX() - size;
-        final int yOff = loc.getScY() - size;
-
-        tempLocation.setSC(xOff, yOff, loc.getScZ());
-        final int xLimit = intensity.length + xOff;
-        final int yLimit = intensity.length + yOff;
-        while (tempLocation.getScX() < xLimit) {
-            tempLocation.setSC(tempLocation.getScX(), yOff,
-                tempLocation.getScZ());
-            while (tempLocation.getScY() < yLimit) {
-                final float locIntensity =
-                    intensity[tempLocation.getScX() - xOff][tempLocation
-                        .getScY() - yOff];
+        appliedX = loc.getScX() - size;
+        appliedY = loc.getScY() - size;
+        appliedZ = loc.getScZ();
+
+        int index = 0;
+        for (int x = 0; x < side; x++) {
+            for (int y = 0; y < side; y++) {
+                final int lightIndex = index * 3;
+                final float locIntensity = intensity[index++];
                 if (locIntensity == 0) {
-                    tempLocation.addSC(0, 1, 0);
                     continue;
                 }
 
                 final float factor = locIntensity * bright;
-
-                tempColor.set(color);
-                if (invert) {
-                    tempColor.add(-SpriteColor.COLOR_MAX);
-                }
-                tempColor.multiply(factor);
-
-                // set the light on the map
-                mapSource.setLight(tempLocation, tempColor);
-
-                tempLocation.addSC(0, 1, 0);
+                appliedLight[lightIndex] = limit(red, factor);
+                appliedLight[lightIndex + 1] = limit(green, factor);
+                appliedLight[lightIndex + 2] = limit(blue, factor);
+                grid.add(x + appliedX, y + appliedY, appliedZ,
+                    appliedLight[lightIndex], appliedLight[lightIndex + 1],
+                    appliedLight[lightIndex + 2]);
             }
-            tempLocation.addSC(1, 0, 0);
         }
     }
 
@@ -239,12 +295,13 @@ public final class LightSource {
             return false;
         }
 
+        // changes reported while calculating make the light dirty again
+        dirty = false;
+
         // reset array
         resetShadows();
 
-        rays.apply(this);
-
-        dirty = false;
+        rays.apply(this, passedIntensity);
 
         return true;
     }
@@ -283,19 +340,24 @@ public final class LightSource {
         loc = newLoc;
         int remEnc = encoding;
 
-        final float blue = (remEnc % 10) / 9.f;
+        blue = (int) (((remEnc % 10) / 9.f) * SpriteColor.COLOR_MAX);
         remEnc /= 10;
-        final float green = (remEnc % 10) / 9.f;
+        green = (int) (((remEnc % 10) / 9.f) * SpriteColor.COLOR_MAX);
         remEnc /= 10;
-        final float red = (remEnc % 10) / 9.f;
+        red = (int) (((remEnc % 10) / 9.f) * SpriteColor.COLOR_MAX);
         remEnc /= 10;
-        color.set(red, green, blue);
 
         bright = (remEnc % 10) / 9.f;
         remEnc /= 10;
         size = remEnc % 10;
         remEnc /= 10;
-        invert = (remEnc == 1);
+
+        // inverted lights reduce the light share on a tile
+        if (remEnc == 1) {
+            red -= SpriteColor.COLOR_MAX;
+            green -= SpriteColor.COLOR_MAX;
+            blue -= SpriteColor.COLOR_MAX;
+        }
 
         dirty = true;
     }
@@ -347,8 +409,34 @@ public final class LightSource {
      */
     private void resetShadows() {
         for (int i = 0; i < intensity.length; ++i) {
-            for (int j = 0; j < intensity.length; ++j) {
-                intensity[j][i] = 0;
+            intensity[i] = 0;
+        }
+    }
+
+    /**
+     * Remove the light this light source added to a light grid with
+     * {@link #apply(LightGrid)}. The light is removed at the location the light
+     * source had when it was applied, so moving the light source in between
+     * does not matter.
+     * 
+     * @param grid the grid the light was added to
+     */
+    void revert(final LightGrid grid) {
+        int lightIndex = 0;
+        for (int x = 0; x < side; x++) {
+            for (int y = 0; y < side; y++) {
+                final int appliedRed = appliedLight[lightIndex];
+                final int appliedGreen = appliedLight[lightIndex + 1];
+                final int appliedBlue = appliedLight[lightIndex + 2];
+                if ((appliedRed != 0) || (appliedGreen != 0)
+                    || (appliedBlue != 0)) {
+                    grid.add(x + appliedX, y + appliedY, appliedZ,
+                        -appliedRed, -appliedGreen, -appliedBlue);
+                    appliedLight[lightIndex] = 0;
+                    appliedLight[lightIndex + 1] = 0;
+                    appliedLight[lightIndex + 2] = 0;
+                }
+                lightIndex += 3;
             }
         }
     }
@@ -369,7 +457,7 @@ public final class LightSource {
 
         if (((x == 0) && (y == 0))
             || mapSource.acceptsLight(tempLocation, x, y)) {
-            intensity[x + size][y + size] = newInt;
+            intensity[((x + size) * side) + y + size] = newInt;
         }
         return mapSource.blocksView(tempLocation);
     }
@@ -22,9 +22,21 @@ import illarion.common.util.Location;
 import illarion.common.util.Stoppable;
 import illarion.common.util.StoppableStorage;
 
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gnu.trove.list.array.TIntArrayList;
 
 import javolution.util.FastList;
+import javolution.util.FastTable;
 
 import org.apache.log4j.Logger;
 
@@ -34,7 +46,15 @@ import org.apache.log4j.Logger;
  * removes the light sources on request.
  * <p>
  * The whole calculations are threaded, so the light map that is the target of
- * all calculation results needs to be thread save.
+ * all calculation results needs to be thread save. The shadows of the lights
+ * that changed are calculated in parallel. After that the light of these
+ * lights is replaced in a {@link LightGrid} and the locations of the grid that
+ * changed are handed over to the map.
+ * </p>
+ * <p>
+ * The light sources are stored in a {@link LightIndex}, so a change on the map
+ * only makes the light sources dirty that are able to reach the location of
+ * the change.
  * </p>
  * 
  * @author Nop
@@ -54,6 +74,12 @@ public final class LightTracer extends Thread implements Stoppable {
      */
     private static final Logger LOGGER = Logger.getLogger(LightTracer.class);
 
+    /**
+     * The minimal amount of lights that need a shadow calculation in order to
+     * calculate the shadows in parallel.
+     */
+    private static final int MIN_PARALLEL_LIGHTS = 4;
+
     /**
      * The maximal radius of the light. So length of the light rays is between 1
      * and the value of this constant.
@@ -108,6 +134,26 @@ public final class LightTracer extends Thread implements Stoppable {
         baseLevel = lvl;
     }
 
+    /**
+     * The lock that is hold while the lights are calculated. This ensures that
+     * the light tracer thread and {@link #calculate()} do not calculate at the
+     * same time.
+     */
+    private final Object calculationLock = new Object();
+
+    /**
+     * The lights of the current run that need their shadows to be calculated
+     * again. Access to this list requires the {@link #calculationLock}.
+     */
+    private final FastTable<LightSource> changedLights;
+
+    /**
+     * The locations of the map changes that were reported since the last
+     * calculation. The X, Y and Z coordinates of each location are stored
+     * next to each other.
+     */
+    private final TIntArrayList changedLocations;
+
     /**
      * Dirty flag. If this is true there are still calculations to do. If its
      * false the Light tracer has nothing left to calculate.
@@ -127,15 +173,47 @@ public final class LightTracer extends Thread implements Stoppable {
     private volatile boolean doRestart = false;
 
     /**
-     * This variable stores the last index of a tiny light that was handled.
+     * This flag is <code>true</code> in case all light values need to be
+     * handed over to the map at the next calculation, instead of the light
+     * values that changed only.
      */
-    private int lastTinyIndex = -1;
+    private boolean fullPublish;
+
+    /**
+     * The light grid that stores the light of all light sources. Access to
+     * this grid requires the {@link #calculationLock}.
+     */
+    private final LightGrid grid;
+
+    /**
+     * The spatial index that stores all light sources handled by this light
+     * tracer.
+     */
+    private final LightIndex index;
+
+    /**
+     * The amount of lights that were put in the list of dirty lights since
+     * this light tracer was created.
+     */
+    private long invalidatedLights;
+
+    /**
+     * The time in nanoseconds the last calculation of the lights took.
+     */
+    private volatile long lastCalculationTime;
 
     /**
      * Object for the synchronized access on the light lists.
      */
     private final Object lightsListsLock = new Object();
 
+    /**
+     * The locations of the map changes of the current run. Their light is
+     * handed over to the map again, even if it did not change. Access to this
+     * list requires the {@link #calculationLock}.
+     */
+    private final TIntArrayList markedLocations;
+
     /**
      * The lighting map that is the data source and the target for the light
      * calculating results for all light sources handled by this light tracer.
@@ -147,6 +225,25 @@ public final class LightTracer extends Thread implements Stoppable {
      */
     private boolean pause;
 
+    /**
+     * The amount of lights that got their shadows calculated again during the
+     * last calculation.
+     */
+    private volatile int recalculatedLights;
+
+    /**
+     * The lights that were removed from this tracer, but their light is still
+     * stored in the light grid.
+     */
+    private final FastTable<LightSource> removedLights;
+
+    /**
+     * The lights of the current run that need their light to be removed from
+     * the light grid. Access to this list requires the
+     * {@link #calculationLock}.
+     */
+    private final FastTable<LightSource> revertedLights;
+
     /**
      * The running flag that needs to be <code>true</code> as long as the light
      * tracer is supposed to calculate the lights.
@@ -154,10 +251,15 @@ public final class LightTracer extends Thread implements Stoppable {
     private volatile boolean running;
 
     /**
-     * The list of light sources handled by this light tracer. This list
-     * contains all lights that currently do not require any calculations.
+     * The amount of threads used to calculate the shadows.
      */
-    private final FastList<LightSource> tinyLights;
+    private final int workerCount;
+
+    /**
+     * The executor that calculates the shadows in parallel. This is
+     * <code>null</code> in case there is only one processor available.
+     */
+    private final ExecutorService workers;
 
     /**
      * Default constructor of the light tracer. This tracer handles all light
@@ -171,9 +273,32 @@ public final class LightTracer extends Thread implements Stoppable {
 
         mapSource = tracerMapSource;
         dirtyLights = new FastList<LightSource>();
-        tinyLights = new FastList<LightSource>();
+        changedLights = new FastTable<LightSource>();
+        changedLocations = new TIntArrayList();
+        markedLocations = new TIntArrayList();
+        removedLights = new FastTable<LightSource>();
+        revertedLights = new FastTable<LightSource>();
+        index = new LightIndex();
+        grid = new LightGrid();
+        fullPublish = true;
         pause = false;
         running = false;
+
+        workerCount = Runtime.getRuntime().availableProcessors();
+        if (workerCount > 1) {
+            workers =
+                Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread =
+                            new Thread(r, "LightTracer Worker");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        } else {
+            workers = null;
+        }
     }
 
     /**
@@ -187,44 +312,180 @@ public final class LightTracer extends Thread implements Stoppable {
     public void add(final LightSource light) {
         light.setMapSource(mapSource);
         synchronized (lightsListsLock) {
-            if (!dirtyLights.contains(light)) {
-                dirtyLights.add(light);
-            }
-            setDirty(true);
-            lightsListsLock.notify();
+            index.add(light);
+            queue(light);
         }
+        restart();
     }
 
     /**
      * Calculate all lights. This method is <b>not</b> multi-threaded. It just
-     * triggers all calculations right away in the current thread.
+     * triggers all calculations right away in the current thread. The shadows
+     * of the lights are still calculated in parallel.
      */
     public void calculate() {
         if (!dirty) {
             return;
         }
 
-        synchronized (lightsListsLock) {
-            final Iterator<LightSource> dirtyItr = dirtyLights.iterator();
-            final Iterator<LightSource> tinyItr = tinyLights.iterator();
+        calculateLights();
+    }
 
-            mapSource.resetLights();
+    /**
+     * Calculate the lights that changed and hand the results over to the map.
+     * The light of the removed lights is taken out of the light grid, the
+     * shadows of all lights that changed are calculated again and their light
+     * is replaced in the light grid. Once this is done the locations of the
+     * grid that changed are handed over to the map.
+     */
+    @SuppressWarnings("nls")
+    private void calculateLights() {
+        synchronized (calculationLock) {
+            final long start = System.nanoTime();
+            final boolean publishAll;
 
-            while (tinyItr.hasNext()) {
-                final LightSource light = tinyItr.next();
-                light.apply();
+            synchronized (lightsListsLock) {
+                doRestart = false;
+                publishAll = fullPublish;
+                fullPublish = false;
+                revertedLights.addAll(removedLights);
+                removedLights.clear();
+                markedLocations.addAll(changedLocations);
+                changedLocations.resetQuick();
+                while (!dirtyLights.isEmpty()) {
+                    final LightSource light = dirtyLights.removeLast();
+                    light.queued = false;
+                    changedLights.add(light);
+                }
+            }
+
+            final int revertedCount = revertedLights.size();
+            for (int i = 0; i < revertedCount; i++) {
+                revertedLights.get(i).revert(grid);
             }
+            revertedLights.clear();
 
-            while (dirtyItr.hasNext()) {
-                final LightSource light = dirtyItr.next();
-                dirtyItr.remove();
-                light.calculateShadows();
-                light.apply();
-                tinyLights.add(light);
+            calculateShadows(changedLights);
+            final int changedCount = changedLights.size();
+            for (int i = 0; i < changedCount; i++) {
+                changedLights.get(i).apply(grid);
             }
+            changedLights.clear();
+            recalculatedLights = changedCount;
+
+            final int markedCount = markedLocations.size();
+            for (int i = 0; i < markedCount; i += 3) {
+                grid.markChanged(markedLocations.getQuick(i),
+                    markedLocations.getQuick(i + 1),
+                    markedLocations.getQuick(i + 2));
+            }
+            markedLocations.resetQuick();
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Recalculated " + changedCount + " lights, "
+                    + grid.getChangedCount() + " locations changed");
+            }
+
+            if (publishAll) {
+                grid.publish(mapSource);
+                mapSource.renderLights();
+            } else {
+                grid.publishChanges(mapSource);
+            }
+
+            synchronized (lightsListsLock) {
+                if (!doRestart) {
+                    dirty = false;
+                }
+            }
+            lastCalculationTime = System.nanoTime() - start;
         }
     }
 
+    /**
+     * Calculate the shadows of a list of lights. In case there are enough
+     * lights, the shadows are calculated by the workers in parallel.
+     * 
+     * @param lights the lights that need their shadows to be calculated
+     */
+    @SuppressWarnings("nls")
+    private void calculateShadows(final FastTable<LightSource> lights) {
+        final int count = lights.size();
+        if ((workers != null) && (count >= MIN_PARALLEL_LIGHTS)) {
+            final AtomicInteger next = new AtomicInteger();
+            final Callable<Object> task = new Callable<Object>() {
+                @Override
+                public Object call() {
+                    int index = next.getAndIncrement();
+                    while (index < count) {
+                        lights.get(index).calculateShadows();
+                        index = next.getAndIncrement();
+                    }
+                    return null;
+                }
+            };
+            try {
+                final List<Future<Object>> results =
+                    workers.invokeAll(Collections.nCopies(
+                        Math.min(workerCount, count), task));
+                for (final Future<Object> result : results) {
+                    result.get();
+                }
+                return;
+            } catch (final RejectedExecutionException e) {
+                LOGGER.debug("Workers shut down, calculating directly", e);
+            } catch (final InterruptedException e) {
+                LOGGER.debug("Interrupted while calculating shadows", e);
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(
+                    "Calculating the shadows failed", cause);
+            }
+        }
+
+        // lights the workers finished already are not dirty anymore
+        for (int i = 0; i < count; i++) {
+            lights.get(i).calculateShadows();
+        }
+    }
+
+    /**
+     * Get the time the last calculation of all lights took.
+     * 
+     * @return the time of the last calculation in nanoseconds
+     */
+    public long getLastCalculationTime() {
+        return lastCalculationTime;
+    }
+
+    /**
+     * Get the amount of lights that were put in the list of dirty lights since
+     * this tracer was created. The difference of two calls shows how many
+     * lights need to be calculated again because of the changes done in
+     * between.
+     * 
+     * @return the amount of lights that got dirty
+     */
+    public long getInvalidatedLights() {
+        synchronized (lightsListsLock) {
+            return invalidatedLights;
+        }
+    }
+
+    /**
+     * Get the amount of lights that got their shadows calculated again during
+     * the last calculation.
+     * 
+     * @return the amount of calculated lights
+     */
+    public int getRecalculatedLights() {
+        return recalculatedLights;
+    }
+
     /**
      * Check if the light tracer is dirty and is not done yet calculating all
      * the lights on the map.
@@ -241,7 +502,9 @@ public final class LightTracer extends Thread implements Stoppable {
      * @return true in case this tracer does not handle any lights currently
      */
     public boolean isEmpty() {
-        return tinyLights.isEmpty() && dirtyLights.isEmpty();
+        synchronized (lightsListsLock) {
+            return index.isEmpty();
+        }
     }
 
     /**
@@ -262,33 +525,38 @@ public final class LightTracer extends Thread implements Stoppable {
 
     /**
      * Notify the light system about a change on the map. This notify is
-     * forwarded to all light sources and those only take the notify into
-     * account in case its within the range of their rays. So every change on
-     * the map should be reported to the tracer no matter if a light is around
-     * this location or not.
+     * forwarded to the light sources that are able to reach the location of
+     * the change and those only take the notify into account in case its
+     * within the range of their rays. So every change on the map should be
+     * reported to the tracer no matter if a light is around this location or
+     * not. The light of the location itself is handed over to the map again at
+     * the next calculation.
      * 
      * @param loc the location the change occurred at
      */
     public void notifyChange(final Location loc) {
-        boolean changedSomething = false;
-
         synchronized (lightsListsLock) {
-            final Iterator<LightSource> itr = tinyLights.iterator();
-            LightSource current;
-            while (itr.hasNext()) {
-                current = itr.next();
-                current.notifyChange(loc);
-                if (current.isDirty()) {
-                    itr.remove();
-                    dirtyLights.add(current);
-                    changedSomething = true;
+            changedLocations.add(loc.getScX());
+            changedLocations.add(loc.getScY());
+            changedLocations.add(loc.getScZ());
+
+            final FastTable<LightSource> lights = index.getLights(loc);
+            if (lights != null) {
+                final int count = lights.size();
+                for (int i = 0; i < count; i++) {
+                    final LightSource current = lights.get(i);
+                    if (current.queued) {
+                        continue;
+                    }
+                    current.notifyChange(loc);
+                    if (current.isDirty()) {
+                        queue(current);
+                    }
                 }
             }
         }
 
-        if (changedSomething) {
-            restart();
-        }
+        restart();
     }
 
     /**
@@ -300,32 +568,45 @@ public final class LightTracer extends Thread implements Stoppable {
     }
 
     /**
-     * Refresh the light tracer and force all lights to recalculate the values.
+     * Put a light in the list of dirty lights, in case its not in this list
+     * already. This requires the lock of the light lists.
+     * 
+     * @param light the light that needs to be calculated again
+     */
+    private void queue(final LightSource light) {
+        if (!light.queued) {
+            light.queued = true;
+            dirtyLights.add(light);
+            invalidatedLights++;
+        }
+    }
+
+    /**
+     * Refresh the light tracer and hand all light values over to the map again
+     * at the next calculation.
      */
     public void refresh() {
         synchronized (lightsListsLock) {
-            while (!tinyLights.isEmpty()) {
-                dirtyLights.add(tinyLights.removeLast());
-            }
+            fullPublish = true;
         }
         restart();
     }
 
     /**
      * Move a light to the dirty lights list to have it updated at the next run.
+     * The light is moved in the light index to its current location as well.
      * 
      * @param light the light that shall be updated.
      */
     public void refreshLight(final LightSource light) {
         synchronized (lightsListsLock) {
-            if (!tinyLights.contains(light)) {
+            if (!index.contains(light)) {
                 return;
             }
-            tinyLights.remove(light);
-
-            dirtyLights.add(light);
+            index.add(light);
+            light.refresh();
+            queue(light);
         }
-        light.refresh();
         restart();
     }
 
@@ -339,20 +620,18 @@ public final class LightTracer extends Thread implements Stoppable {
      */
     public boolean remove(final LightSource light) {
         synchronized (lightsListsLock) {
-            if (dirtyLights.contains(light)) {
-                dirtyLights.remove(light);
-                restart();
-                return true;
+            if (!index.remove(light)) {
+                return false;
             }
 
-            if (tinyLights.contains(light)) {
-                tinyLights.remove(light);
-                restart();
-                return true;
+            if (light.queued) {
+                light.queued = false;
+                dirtyLights.remove(light);
             }
+            removedLights.add(light);
         }
-
-        return false;
+        restart();
+        return true;
     }
 
     /**
@@ -371,8 +650,9 @@ public final class LightTracer extends Thread implements Stoppable {
      * and restart them.
      */
     private void restart() {
-        doRestart = true;
         synchronized (lightsListsLock) {
+            doRestart = true;
+            dirty = true;
             lightsListsLock.notify();
         }
     }
@@ -384,49 +664,26 @@ public final class LightTracer extends Thread implements Stoppable {
     @Override
     @SuppressWarnings("nls")
     public void run() {
-        while (running) {
-            if (doRestart) {
-                mapSource.resetLights();
-                lastTinyIndex = -1;
-                dirty = true;
-                doRestart = false;
-            }
-            LightSource light = null;
-            final boolean tidyLight = false;
-            synchronized (lightsListsLock) {
-                if (dirty && !pause) {
-                    if (!tinyLights.isEmpty()
-                        && ((tinyLights.size() - 1) > lastTinyIndex)) {
-                        lastTinyIndex++;
-                        light = tinyLights.get(lastTinyIndex);
-                    } else if (!dirtyLights.isEmpty()) {
-                        light = dirtyLights.removeLast();
-
-                        if (light != null) {
-                            tinyLights.add(light);
-                            lastTinyIndex++;
+        try {
+            while (running) {
+                synchronized (lightsListsLock) {
+                    if (!doRestart || pause) {
+                        try {
+                            lightsListsLock.wait();
+                        } catch (final InterruptedException e) {
+                            LOGGER.debug(
+                                "Light tracer woken up for unknown reasons",
+                                e);
                         }
-                    } else {
-                        lastTinyIndex = -1;
+                        continue;
                     }
-                } else {
-                    try {
-                        lightsListsLock.wait();
-                    } catch (final InterruptedException e) {
-                        LOGGER.debug(
-                            "Light tracer woken up for unknown reasons", e);
-                    }
-
                 }
-            }
 
-            if (light != null) {
-                if (!tidyLight) {
-                    light.calculateShadows();
-                }
-                light.apply();
-            } else {
-                setDirty(false);
+                calculateLights();
+            }
+        } finally {
+            if (workers != null) {
+                workers.shutdown();
             }
         }
     }
@@ -442,24 +699,6 @@ public final class LightTracer extends Thread implements Stoppable {
         }
     }
 
-    /**
-     * Update the dirty flag of the light tracer. This also triggers a
-     * recalculation of the entire map in case the flag becomes dirty.
-     * 
-     * @param newDirty the new value of the dirty flag
-     */
-    private void setDirty(final boolean newDirty) {
-        if (!dirty && newDirty) {
-            mapSource.resetLights();
-            dirty = true;
-        } else if (dirty && !newDirty) {
-            mapSource.renderLights();
-            dirty = false;
-        } else {
-            dirty = newDirty;
-        }
-    }
-
     /**
      * Set the running value to a new state. This is the only way to stop the
      * light tracer thread from calculating stuff.
@@ -58,11 +58,27 @@ public interface LightingMap {
      */
     int blocksView(Location loc);
 
+    /**
+     * Render the light of one map tile again. This is called for the tiles
+     * that changed their light after the light of the tile was reset with
+     * {@link #resetLight(Location)} and assigned again.
+     * 
+     * @param loc the location of the tile on the map
+     */
+    void renderLight(Location loc);
+
     /**
      * Start rendering lights after calculations are finished.
      */
     void renderLights();
 
+    /**
+     * Reset the light of one map tile to zero.
+     * 
+     * @param loc the location of the tile on the map
+     */
+    void resetLight(Location loc);
+
     /**
      * Reset all lights in the map to zero.
      */
@@ -320,6 +320,13 @@ public final class RenderedFont implements FontData, Serializable {
      */
     private final String name;
 
+    /**
+     * The glyph runs of the texts that were laid out with this font. The cache
+     * is created once the textures of the glyphes are prepared, because the
+     * sizes of the glyphes are not known before.
+     */
+    private transient volatile GlyphRunCache runs;
+
     /**
      * The size of the font.
      */
@@ -430,6 +437,39 @@ public final class RenderedFont implements FontData, Serializable {
         return glyphes.length;
     }
 
+    /**
+     * Get the glyph run of a text. The run is taken from the cache of this font
+     * in case the text was laid out before.
+     * 
+     * @param text the text that shall be rendered
+     * @return the glyph run of this text
+     */
+    @SuppressWarnings("nls")
+    @Override
+    public GlyphRun getGlyphRun(final String text) {
+        if ((text == null) || text.isEmpty()) {
+            throw new IllegalArgumentException("Text may not be null or empty");
+        }
+
+        final GlyphRunCache cache = runs;
+        if (cache != null) {
+            final GlyphRun run = cache.get(text);
+            if (run != null) {
+                return run;
+            }
+        }
+
+        final Glyph[] runGlyphes = new Glyph[text.length()];
+        for (int i = 0; i < runGlyphes.length; i++) {
+            runGlyphes[i] = getGlyphImpl(text.charAt(i));
+        }
+        final GlyphRun run = new GlyphRun(text, runGlyphes);
+        if (cache != null) {
+            cache.put(run);
+        }
+        return run;
+    }
+
     /**
      * This function simply puts the references to the glyph instances of this
      * font into a array. Make sure the array is large enough to store all the
@@ -493,23 +533,7 @@ public final class RenderedFont implements FontData, Serializable {
             throw new IllegalArgumentException("Text may not be null or empty");
         }
 
-        int penX = 0;
-        Glyph next = null;
-        Glyph last = null;
-        char currentChar;
-        boolean foundNonSpace = false;
-        for (int i = start; i < end; i++) {
-            currentChar = text.charAt(i);
-            next = getGlyphImpl(currentChar);
-            dest[i - start] = next;
-            x[i - start] = penX;
-
-            if ((currentChar != ' ') || foundNonSpace) {
-                penX += next.getAdvance() * size - next.getKerningAfter(last);
-                foundNonSpace = true;
-            }
-            last = next;
-        }
+        getGlyphRun(text).getGlyphes(start, end, size, dest, x);
     }
 
     /**
@@ -577,41 +601,14 @@ public final class RenderedFont implements FontData, Serializable {
         }
 
         final Rectangle resultRect = Rectangle.getInstance();
-        resultRect.set(0, 0, 0, 0);
-
-        Glyph next = null;
-        Glyph last = null;
-        int penX = 0;
-        int kerning = 0;
-        char currentChar;
-        final Rectangle tempRect = Rectangle.getInstance();
-        for (int i = start; i < end; i++) {
-            currentChar = text.charAt(i);
-            if ((i == start) && (currentChar == ' ')
-                && (currentChar == NEWLINE)) {
-                continue;
-            }
-            next = getGlyphImpl(currentChar);
-            kerning = next.getKerningAfter(last);
-            tempRect
-                .set((next.getX() + penX) - kerning, next.getY(),
-                    Math.max(next.getWidth(), next.getAdvance()),
-                    next.getHeight());
-            resultRect.add(tempRect);
-            last = next;
-            penX += next.getAdvance() - kerning;
-        }
-        tempRect.recycle();
+        getGlyphRun(text).getBounds(start, end, resultRect);
         
         return resultRect;
     }
     
     @Override
     public int getStringWidth(final String text) {
-        final Rectangle resultRect = getStringBoundsImpl(text, 0, text.length());
-        final int resultWidth = resultRect.getWidth();
-        resultRect.recycle();
-        return resultWidth;        
+        return getGlyphRun(text).getWidth();
     }
 
     /**
@@ -635,60 +632,7 @@ public final class RenderedFont implements FontData, Serializable {
             throw new IllegalArgumentException("Text may not be null or empty");
         }
 
-        final Rectangle currRect = Rectangle.getInstance();
-        final Rectangle tempRect = Rectangle.getInstance();
-        currRect.set(0, 0, 0, 0);
-
-        int lastFittingIndex = -1;
-
-        Glyph next = null;
-        Glyph last = null;
-        int penX = 0;
-        int kerning = 0;
-        boolean foundSpace = false;
-        char currentChar;
-        boolean foundNonSpace = false;
-        for (int i = start; i < end; i++) {
-            currentChar = text.charAt(i);
-            if (!foundNonSpace
-                && ((currentChar == ' ') || (currentChar == NEWLINE))) {
-                if (currentChar == NEWLINE) {
-                    foundNonSpace = true;
-                }
-                continue;
-            }
-            foundNonSpace = true;
-
-            if (currentChar == NEWLINE) {
-                lastFittingIndex = i - 1;
-                break;
-            }
-            next = getGlyphImpl(currentChar);
-            kerning = next.getKerningAfter(last);
-            tempRect
-                .set((next.getX() + penX) - kerning, next.getY(),
-                    Math.max(next.getWidth(), next.getAdvance()),
-                    next.getHeight());
-            currRect.add(tempRect);
-            last = next;
-            penX += next.getAdvance() - kerning;
-            if ((i + 1) == end) {
-                lastFittingIndex = i;
-                break;
-            } else if ((text.charAt(i + 1) == ' ')
-                && (!foundSpace || (currRect.getWidth() <= length))) {
-                lastFittingIndex = i;
-                foundSpace = true;
-            } else if (foundSpace && (currRect.getWidth() > length)) {
-                break;
-            } else if (text.charAt(i + 1) == NEWLINE) {
-                lastFittingIndex = i;
-                break;
-            }
-        }
-        currRect.recycle();
-        tempRect.recycle();
-        return lastFittingIndex;
+        return getGlyphRun(text).getWrap(start, end, length);
     }
 
     /**
@@ -740,6 +684,7 @@ public final class RenderedFont implements FontData, Serializable {
         for (final Glyph glyphe : glyphes) {
             glyphe.prepareTexture(path, name);
         }
+        runs = new GlyphRunCache();
     }
 
     /**
@@ -18,28 +18,24 @@
  */
 package illarion.graphics.common;
 
-import illarion.common.util.FastMath;
 import illarion.graphics.Graphics;
-import illarion.graphics.Texture;
 import illarion.graphics.TextureAtlas;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map.Entry;
-import java.util.Set;
-
-import javolution.context.ArrayFactory;
+import java.util.List;
 
 /**
  * A utility class for reading and writing the data from textures. This class
@@ -52,22 +48,91 @@ import javolution.context.ArrayFactory;
  */
 public final class TextureIO {
     public final static String FORMAT = "sgi";
-    
-    
+
     /**
-     * Read a texture atlas from a byte channel. This method does only check the
-     * texture version to be valid. Everything else remains unchecked in order
-     * not to slow down the loading of the texture.
+     * The size of the header of the binary meta data file. It contains the
+     * magic number, the amount of sub textures and the size of the string
+     * table.
+     */
+    private static final int META_HEADER_SIZE = 12;
+
+    /**
+     * The magic number at the start of a binary meta data file. Files that do
+     * not start with this number are read as the old serialized format.
+     */
+    private static final int META_MAGIC = 0x494C4D31;
+
+    /**
+     * The size of one sub texture record in the binary meta data file. Each
+     * record contains the offset of the name in the string table as integer
+     * and the length of the name, the X and Y coordinate, the width and the
+     * height as unsigned short values.
+     */
+    private static final int META_RECORD_SIZE = 14;
+
+    /**
+     * The largest value that is allowed for the values that are stored as
+     * unsigned short in the meta data file.
+     */
+    private static final int META_SHORT_MAX = 0xFFFF;
+
+    /**
+     * The character set that is used to store the names of the sub textures.
+     */
+    @SuppressWarnings("nls")
+    private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Add the sub textures to a texture atlas.
+     * 
+     * @param atlas the texture atlas that receives the sub textures
+     * @param coordinates the locations of the sub textures
+     */
+    public static void addImages(final TextureAtlas atlas,
+        final Collection<SubTextureCoord> coordinates) {
+        for (final SubTextureCoord coord : coordinates) {
+            atlas.addImage(coord.getName(), coord.getX(), coord.getY(),
+                coord.getWidth(), coord.getHeight());
+        }
+    }
+
+    /**
+     * Read the locations of the sub textures of a texture atlas. This does
+     * not require the texture atlas itself and can be done by any thread.
      * 
-     * @param inChannel the channel that is the source of the data
-     * @return the texture created from the data delivered by the input channel
-     * @throws IOException in case anything goes wrong while reading the input
-     *             channel
+     * @param metaStream the stream that supplies the locations of the sub
+     *            textures, it is closed once the data is read
+     * @param target the collection that receives the locations
+     * @throws IOException in case reading the stream failed
+     */
+    public static void readMeta(final InputStream metaStream,
+        final Collection<SubTextureCoord> target) throws IOException {
+        try {
+            final ByteBuffer meta = ByteBuffer.wrap(readFully(metaStream));
+            if (isBinaryMeta(meta)) {
+                readBinaryMeta(meta, target);
+            } else {
+                readLegacyMeta(new ByteArrayInputStream(meta.array()), target);
+            }
+        } finally {
+            metaStream.close();
+        }
+    }
+
+    /**
+     * Read a texture atlas from a image file and a meta data file. The meta
+     * data file is mapped to the memory in case its stored in the binary
+     * format.
+     * 
+     * @param dataFile the file that contains the image of the atlas
+     * @param metaFile the file that contains the locations of the sub textures
+     * @return the texture created from the data of the files
+     * @throws IOException in case anything goes wrong while reading the files
      */
     @SuppressWarnings("nls")
-    public static TextureAtlas readTexture(final File dataFile, final File metaFile)
-        throws IOException {
-        
+    public static TextureAtlas readTexture(final File dataFile,
+        final File metaFile) throws IOException {
+
         final TextureAtlas result = Graphics.getInstance().getTextureAtlas();
         try {
             result.loadTextureData(dataFile);
@@ -75,32 +140,48 @@ public final class TextureIO {
         } catch (Exception e1) {
             throw new IOException(e1);
         }
-        
-        ObjectInputStream oIn = null;
+
+        final List<SubTextureCoord> coordinates =
+            new ArrayList<SubTextureCoord>();
+        boolean binary = false;
+        final RandomAccessFile metaIn = new RandomAccessFile(metaFile, "r");
         try {
-            oIn = new ObjectInputStream(new FileInputStream(metaFile));
-            
-            final int cnt = oIn.readInt();
-            for (int i = 0; i < cnt; i++) {
-                try {
-                    result.addImage((String) oIn.readObject(), oIn.readInt(), oIn.readInt(), oIn.readInt(), oIn.readInt());
-                } catch (ClassNotFoundException e) {
-                    // one texture failed... what ever
-                }
+            final FileChannel channel = metaIn.getChannel();
+            final ByteBuffer meta =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            binary = isBinaryMeta(meta);
+            if (binary) {
+                readBinaryMeta(meta, coordinates);
             }
         } finally {
-            if (oIn != null) {
-                oIn.close();
-            }
+            metaIn.close();
         }
 
+        if (!binary) {
+            final InputStream legacyIn = new FileInputStream(metaFile);
+            try {
+                readLegacyMeta(legacyIn, coordinates);
+            } finally {
+                legacyIn.close();
+            }
+        }
+        addImages(result, coordinates);
         return result;
     }
-    
-    @SuppressWarnings("nls")
-    public static TextureAtlas readTexture(final InputStream dataStream, final InputStream metaStream)
-        throws IOException {
-        
+
+    /**
+     * Read a texture atlas from the streams of the image and the meta data.
+     * 
+     * @param dataStream the stream that supplies the image of the atlas
+     * @param metaStream the stream that supplies the locations of the sub
+     *            textures
+     * @return the texture created from the data of the streams
+     * @throws IOException in case anything goes wrong while reading the
+     *             streams
+     */
+    public static TextureAtlas readTexture(final InputStream dataStream,
+        final InputStream metaStream) throws IOException {
+
         final TextureAtlas result = Graphics.getInstance().getTextureAtlas();
         try {
             result.loadTextureData(dataStream);
@@ -108,34 +189,24 @@ public final class TextureIO {
         } catch (Exception e1) {
             throw new IOException(e1);
         }
-        
-        ObjectInputStream oIn = null;
-        try {
-            oIn = new ObjectInputStream(metaStream);
-            
-            final int cnt = oIn.readInt();
-            for (int i = 0; i < cnt; i++) {
-                try {
-                    result.addImage((String) oIn.readObject(), oIn.readInt(), oIn.readInt(), oIn.readInt(), oIn.readInt());
-                } catch (ClassNotFoundException e) {
-                    // one texture failed... what ever
-                }
-            }
-        } finally {
-            if (oIn != null) {
-                oIn.close();
-            }
-        }
 
+        final List<SubTextureCoord> coordinates =
+            new ArrayList<SubTextureCoord>();
+        readMeta(metaStream, coordinates);
+        addImages(result, coordinates);
         return result;
     }
 
     /**
-     * Write the texture data to a output channel.
+     * Write the texture data to a image file and the locations of the sub
+     * textures to a meta data file. The meta data is written in the binary
+     * format.
      * 
-     * @param outChannel the channel that shall receive the texture data
-     * @param tex the texture atlas that shall be written to the channel
-     * @throws IOException in case the writing to the channel caused any problem
+     * @param dataFile the file that receives the image of the atlas
+     * @param metaFile the file that receives the locations of the sub textures
+     * @param tex the texture atlas that shall be written
+     * @param coordinates the locations of the sub textures on the atlas
+     * @throws IOException in case the writing to the files caused any problem
      * @throws IllegalStateException in case any validation check of the texture
      *             data failed
      */
@@ -146,21 +217,181 @@ public final class TextureIO {
 
         tex.writeTextureDataToFile(dataFile);
 
-        ObjectOutputStream oOut = null;
+        final byte[][] names = new byte[coordinates.size()][];
+        int stringTableSize = 0;
+        int index = 0;
+        for (final SubTextureCoord coord : coordinates) {
+            names[index] = coord.getName().getBytes(NAME_CHARSET);
+            checkShortValue(names[index].length, coord.getName());
+            checkShortValue(coord.getX(), coord.getName());
+            checkShortValue(coord.getY(), coord.getName());
+            checkShortValue(coord.getWidth(), coord.getName());
+            checkShortValue(coord.getHeight(), coord.getName());
+            stringTableSize += names[index].length;
+            index++;
+        }
+
+        final ByteBuffer meta =
+            ByteBuffer.allocate(META_HEADER_SIZE
+                + (names.length * META_RECORD_SIZE) + stringTableSize);
+        meta.putInt(META_MAGIC);
+        meta.putInt(names.length);
+        meta.putInt(stringTableSize);
+
+        int nameOffset = 0;
+        index = 0;
+        for (final SubTextureCoord coord : coordinates) {
+            meta.putInt(nameOffset);
+            meta.putShort((short) names[index].length);
+            meta.putShort((short) coord.getX());
+            meta.putShort((short) coord.getY());
+            meta.putShort((short) coord.getWidth());
+            meta.putShort((short) coord.getHeight());
+            nameOffset += names[index].length;
+            index++;
+        }
+        for (final byte[] name : names) {
+            meta.put(name);
+        }
+        meta.flip();
+
+        final FileOutputStream metaOut = new FileOutputStream(metaFile);
         try {
-            oOut = new ObjectOutputStream(new FileOutputStream(metaFile));
-            oOut.writeInt(coordinates.size());
-            for (SubTextureCoord coord : coordinates) {
-                oOut.writeObject(coord.getName());
-                oOut.writeInt(coord.getX());
-                oOut.writeInt(coord.getY());
-                oOut.writeInt(coord.getWidth());
-                oOut.writeInt(coord.getHeight());
+            final FileChannel channel = metaOut.getChannel();
+            while (meta.hasRemaining()) {
+                channel.write(meta);
             }
-            oOut.flush();
         } finally {
-            if (oOut != null) {
-                oOut.close();
+            metaOut.close();
+        }
+    }
+
+    /**
+     * Check if a value fits into a unsigned short value of the binary meta
+     * data format.
+     * 
+     * @param value the value to check
+     * @param name the name of the sub texture the value belongs to
+     * @throws IllegalStateException in case the value does not fit
+     */
+    @SuppressWarnings("nls")
+    private static void checkShortValue(final int value, final String name) {
+        if ((value < 0) || (value > META_SHORT_MAX)) {
+            throw new IllegalStateException("Value " + value
+                + " of the texture " + name + " is out of range.");
+        }
+    }
+
+    /**
+     * Check if the meta data is stored in the binary format.
+     * 
+     * @param meta the buffer that contains the meta data
+     * @return <code>true</code> in case the meta data starts with the magic
+     *         number of the binary format
+     */
+    private static boolean isBinaryMeta(final ByteBuffer meta) {
+        return (meta.remaining() >= META_HEADER_SIZE)
+            && (meta.getInt(meta.position()) == META_MAGIC);
+    }
+
+    /**
+     * Read the locations of the sub textures from the binary meta data format.
+     * The names are decoded straight from the string table.
+     * 
+     * @param meta the buffer that contains the meta data
+     * @param target the collection that receives the locations
+     * @throws IOException in case the meta data is corrupted
+     */
+    @SuppressWarnings("nls")
+    private static void readBinaryMeta(final ByteBuffer meta,
+        final Collection<SubTextureCoord> target) throws IOException {
+        final int start = meta.position();
+        final int count = meta.getInt(start + 4);
+        final int stringTableSize = meta.getInt(start + 8);
+        final int available = meta.limit() - start - META_HEADER_SIZE;
+        if ((count < 0) || (count > (available / META_RECORD_SIZE))
+            || (stringTableSize < 0)
+            || (stringTableSize > (available - (count * META_RECORD_SIZE)))) {
+            throw new IOException("Texture meta data is corrupted.");
+        }
+        final int stringTable =
+            start + META_HEADER_SIZE + (count * META_RECORD_SIZE);
+
+        byte[] nameBuffer = null;
+        if (!meta.hasArray()) {
+            nameBuffer = new byte[stringTableSize];
+            final ByteBuffer names = meta.duplicate();
+            names.position(stringTable);
+            names.get(nameBuffer);
+        }
+
+        int record = start + META_HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            final int nameOffset = meta.getInt(record);
+            final int nameLength = meta.getChar(record + 4);
+            if ((nameOffset < 0)
+                || ((nameOffset + nameLength) > stringTableSize)) {
+                throw new IOException("Texture meta data is corrupted.");
+            }
+
+            final String name;
+            if (nameBuffer == null) {
+                name =
+                    new String(meta.array(), meta.arrayOffset() + stringTable
+                        + nameOffset, nameLength, NAME_CHARSET);
+            } else {
+                name = new String(nameBuffer, nameOffset, nameLength,
+                    NAME_CHARSET);
+            }
+            target.add(new SubTextureCoord(name, meta.getChar(record + 6),
+                meta.getChar(record + 8), meta.getChar(record + 10),
+                meta.getChar(record + 12)));
+            record += META_RECORD_SIZE;
+        }
+    }
+
+    /**
+     * Read all bytes of a stream.
+     * 
+     * @param in the stream to read
+     * @return the bytes that were read
+     * @throws IOException in case reading the stream failed
+     */
+    private static byte[] readFully(final InputStream in) throws IOException {
+        byte[] data = new byte[Math.max(in.available(), 1024)];
+        int length = 0;
+        while (true) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, data.length << 1);
+            }
+            final int count = in.read(data, length, data.length - length);
+            if (count == -1) {
+                break;
+            }
+            length += count;
+        }
+        return Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Read the locations of the sub textures from the old meta data format
+     * that stores them using object serialization.
+     * 
+     * @param in the stream that supplies the meta data
+     * @param target the collection that receives the locations
+     * @throws IOException in case reading the meta data failed
+     */
+    private static void readLegacyMeta(final InputStream in,
+        final Collection<SubTextureCoord> target) throws IOException {
+        final ObjectInputStream oIn = new ObjectInputStream(in);
+        final int cnt = oIn.readInt();
+        for (int i = 0; i < cnt; i++) {
+            try {
+                target.add(new SubTextureCoord((String) oIn.readObject(),
+                    oIn.readInt(), oIn.readInt(), oIn.readInt(),
+                    oIn.readInt()));
+            } catch (final ClassNotFoundException e) {
+                // one texture failed... what ever
             }
         }
     }
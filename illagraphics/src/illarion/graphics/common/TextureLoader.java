@@ -18,6 +18,7 @@
  */
 package illarion.graphics.common;
 
+import illarion.graphics.Graphics;
 import illarion.graphics.Texture;
 import illarion.graphics.TextureAtlas;
 
@@ -44,6 +45,15 @@ import org.apache.log4j.Logger;
  */
 public final class TextureLoader {
 
+    /**
+     * The folders the atlas textures are preloaded from, in the order they are
+     * loaded.
+     */
+    @SuppressWarnings("nls")
+    private static final String[] ATLAS_FOLDERS = new String[] {
+        "data/chars/", "data/items/", "data/gui/", "data/tiles/",
+        "data/effects/" };
+
     /**
      * The file name of the default image.
      */
@@ -61,36 +71,6 @@ public final class TextureLoader {
      */
     private static final TextureLoader INSTANCE = new TextureLoader();
 
-    /**
-     * In case {@link #loadingState} contains this value the character were
-     * loaded last time completely.
-     */
-    private static final int LOAD_CHARS = 1;
-
-    /**
-     * In case {@link #loadingState} contains this value the effects were loaded
-     * last time completely.
-     */
-    private static final int LOAD_EFFECTS = 5;
-
-    /**
-     * In case {@link #loadingState} contains this value the GUI were loaded
-     * last time completely.
-     */
-    private static final int LOAD_GUI = 3;
-
-    /**
-     * In case {@link #loadingState} contains this value the items were loaded
-     * last time completely.
-     */
-    private static final int LOAD_ITEMS = 2;
-
-    /**
-     * In case {@link #loadingState} contains this value the tiles were loaded
-     * last time completely.
-     */
-    private static final int LOAD_TILES = 4;
-
     /**
      * The error and debug logger of the client.
      */
@@ -106,22 +86,28 @@ public final class TextureLoader {
     }
 
     /**
-     * The current state of loading to ensure that the atlas files are loaded up
-     * one by one.
+     * This flag is set <code>true</code> once all atlas textures were
+     * preloaded.
      */
-    private int loadingState = 0;
+    private boolean preloadDone = false;
 
     /**
-     * Storage of all loaded textures. This is needed to keep track over the
-     * textures atlases that are already loaded.
+     * The preloader that decodes the atlas textures while they are preloaded.
      */
-    private FastMap<String, List<TextureAtlas>> textureAtlases;
+    private AtlasPreloader preloader;
 
     /**
-     * The current index of the atlas texture. This is used to improve the speed
-     * of texture loading.
+     * The residency manager that loads and removes the atlas textures on
+     * demand. This is <code>null</code> in case all atlas textures stay
+     * loaded.
      */
-    private int textureIndex = 0;
+    private TextureResidency residency;
+
+    /**
+     * Storage of all loaded textures. This is needed to keep track over the
+     * textures atlases that are already loaded.
+     */
+    private FastMap<String, List<TextureAtlas>> textureAtlases;
 
     /**
      * The list of textures available in every folder. This list is used to
@@ -356,6 +342,9 @@ public final class TextureLoader {
 
                 final TextureAtlas newTexture = TextureIO.readTexture(textureInput, metaInput);
                 newTexture.setFileName(atlasName);
+                if (residency != null) {
+                    residency.register(newTexture);
+                }
                 folderAtlas.add(newTexture);
                 newTexture.getAllTextures(folderTex);
 
@@ -389,6 +378,69 @@ public final class TextureLoader {
         return getTexture(DEFAULT_IMAGE, false, true);
     }
 
+    /**
+     * Get the amount of atlas textures that were removed from the video memory
+     * because the budget was exceeded.
+     * 
+     * @return the amount of evicted atlas textures
+     */
+    public long getResidentEvictions() {
+        if (residency == null) {
+            return 0;
+        }
+        return residency.getEvictions();
+    }
+
+    /**
+     * Get the amount of times a atlas texture was used for rendering a frame
+     * while it was loaded.
+     * 
+     * @return the amount of hits
+     */
+    public long getResidentHits() {
+        if (residency == null) {
+            return 0;
+        }
+        return residency.getHits();
+    }
+
+    /**
+     * Get the amount of times a atlas texture had to be loaded right away
+     * because it was needed for rendering.
+     * 
+     * @return the amount of misses
+     */
+    public long getResidentMisses() {
+        if (residency == null) {
+            return 0;
+        }
+        return residency.getMisses();
+    }
+
+    /**
+     * Get the amount of atlas textures that were loaded ahead of time.
+     * 
+     * @return the amount of prefetched atlas textures
+     */
+    public long getResidentPrefetches() {
+        if (residency == null) {
+            return 0;
+        }
+        return residency.getPrefetches();
+    }
+
+    /**
+     * Get the amount of video memory the loaded atlas textures use.
+     * 
+     * @return the amount of bytes
+     */
+    public long getResidentSize() {
+        if (residency == null) {
+            return 0;
+        }
+        return residency.getResidentSize();
+    }
+
     /**
      * Support function that receives the texture atlas list from the
      * {@link #textureAtlases} map. The returned list is supposed to contain all
@@ -427,74 +479,6 @@ public final class TextureLoader {
         return folderTex;
     }
 
-    /**
-     * Load all atlas files from a directory.
-     * 
-     * @param resourceDir the directory the atlas files are searched in
-     * @param smooth true in case the atlas files shall be scaled smoothly,
-     *            false if not
-     * @param compress allow the system to compress the image in order to save
-     *            storage space
-     * @return false if there is still a atlas left to load, true in case all
-     *         are loaded up
-     */
-    @SuppressWarnings("nls")
-    private boolean loadFolderAtlasTextures(final String resourceDir,
-        final boolean smooth, final boolean compress,
-        final boolean discardTexData) {
-        String existingAtlasName;
-        String atlasName = resourceDir + "atlas-" + textureIndex;
-        String textureFile = atlasName + "." + TextureIO.FORMAT;
-        String metaFile = atlasName + ".meta";
-        
-        boolean alreadyUsed = false;
-
-        final List<TextureAtlas> folderAtlas =
-            getTextureAtlasList(resourceDir);
-        final Map<String, Texture> folderTex = getTextureMap(resourceDir);
-
-        for (int i = folderAtlas.size() - 1; i >= 0; --i) {
-            existingAtlasName = folderAtlas.get(i).getFileName();
-
-            if (existingAtlasName.equals(atlasName)) {
-                alreadyUsed = true;
-                break;
-            }
-        }
-
-        if (alreadyUsed) {
-            return false;
-        }
-
-        try {
-            TextureLoader.class.getClassLoader().getResources("data");
-        } catch (final IOException e1) {
-            // TODO Auto-generated catch block
-            e1.printStackTrace();
-        }
-        final InputStream textureInput =
-            TextureLoader.class.getClassLoader()
-                .getResourceAsStream(textureFile);
-        
-        final InputStream metaInput =
-            TextureLoader.class.getClassLoader()
-                .getResourceAsStream(metaFile);
-
-        if (textureInput == null) {
-            return true;
-        }
-
-        try {
-            final TextureAtlas newTexture = TextureIO.readTexture(textureInput, metaInput);
-            newTexture.setFileName(atlasName);
-            folderAtlas.add(newTexture);
-            newTexture.getAllTextures(folderTex);
-        } catch (final IOException e) {
-            LOGGER.error("Unable to load texture: " + atlasName, e);
-        }
-        return false;
-    }
-    
     public int getTotalAtlasCount() {
         int result = getAtlasCount("data/chars/");
         result += getAtlasCount("data/items/");
@@ -526,6 +510,21 @@ public final class TextureLoader {
         return result;
     }
 
+    /**
+     * Request the atlas texture of a texture to be loaded ahead of time, as
+     * its likely needed soon. This does nothing in case all atlas textures
+     * stay loaded. This function may be called by any thread.
+     * 
+     * @param texture the texture that is likely needed soon
+     */
+    public void prefetch(final Texture texture) {
+        if ((residency == null) || (texture == null)
+            || (texture.getParent() == null)) {
+            return;
+        }
+        residency.request(texture.getParent());
+    }
+
     /**
      * Trigger preloading the atlas textures of all folders.
      * 
@@ -537,7 +536,14 @@ public final class TextureLoader {
     }
 
     /**
-     * Trigger preloading the atlas textures of all folders.
+     * Trigger preloading the atlas textures of all folders. The atlas files are
+     * decoded by background threads, each call sends one decoded atlas file to
+     * the graphic card in case one is ready. This function does not wait for
+     * the decoding. This has to be called by the render thread.
+     * <p>
+     * In case a budget for the video memory is set, only the meta data of the
+     * atlas files is read. The atlas textures are loaded once they are needed.
+     * </p>
      * 
      * @param discardTexData in case this is set true the texture data is
      *            deleted once the texture is load to OpenGL in order to
@@ -547,61 +553,80 @@ public final class TextureLoader {
      */
     @SuppressWarnings("nls")
     public boolean preloadAtlasTextures(final boolean discardTexData) {
-        ++loadingState;
-
-        switch (loadingState) {
-            case LOAD_CHARS:
-                // load characters, need to be scaled
-                if (!loadFolderAtlasTextures("data/chars/", true, true,
-                    discardTexData)) {
-                    --loadingState;
-                    textureIndex++;
-                } else {
-                    textureIndex = 0;
-                }
-                return false;
-            case LOAD_ITEMS:
-                // items, some of them need scaling as well
-                if (!loadFolderAtlasTextures("data/items/", true, true,
-                    discardTexData)) {
-                    --loadingState;
-                    textureIndex++;
-                } else {
-                    textureIndex = 0;
-                }
-                return false;
-            case LOAD_GUI:
-                // the gui, no scaling for this one
-                if (!loadFolderAtlasTextures("data/gui/", false, false,
-                    discardTexData)) {
-                    --loadingState;
-                    textureIndex++;
-                } else {
-                    textureIndex = 0;
-                }
-                return false;
-            case LOAD_TILES:
-                // the tiles, no scaling needed at all
-                if (!loadFolderAtlasTextures("data/tiles/", false, false,
-                    discardTexData)) {
-                    --loadingState;
-                    textureIndex++;
-                } else {
-                    textureIndex = 0;
-                }
+        if (preloader == null) {
+            if (preloadDone) {
+                return true;
+            }
+            preloader =
+                new AtlasPreloader(TextureLoader.class.getClassLoader(),
+                    ATLAS_FOLDERS, residency == null);
+            if (residency != null) {
+                Graphics.getInstance().getRenderManager().addTask(residency);
+            }
+        }
+
+        final AtlasPreloader.Job job = preloader.fetch();
+        if (job == null) {
+            if (!preloader.isDone()) {
                 return false;
-            case LOAD_EFFECTS:
-                // the effects, no scaling needed at all
-                if (!loadFolderAtlasTextures("data/effects/", false, true,
-                    discardTexData)) {
-                    --loadingState;
-                    textureIndex++;
-                } else {
-                    textureIndex = 0;
-                }
+            }
+            preloader = null;
+            preloadDone = true;
+            return true;
+        }
+
+        final String atlasName = job.getAtlasName();
+        if (job.getError() != null) {
+            LOGGER.error("Unable to load texture: " + atlasName,
+                job.getError());
+            return false;
+        }
+
+        final String resourceDir =
+            atlasName.substring(0, atlasName.lastIndexOf('/') + 1);
+        final List<TextureAtlas> folderAtlas =
+            getTextureAtlasList(resourceDir);
+        for (int i = folderAtlas.size() - 1; i >= 0; --i) {
+            if (folderAtlas.get(i).getFileName().equals(atlasName)) {
                 return false;
-            default:
-                return true;
+            }
+        }
+
+        final TextureAtlas newTexture = job.getAtlas();
+        newTexture.uploadTextureData();
+        newTexture.cleanup();
+        if (residency != null) {
+            residency.register(newTexture);
+        }
+        TextureIO.addImages(newTexture, job.getCoordinates());
+        newTexture.setFileName(atlasName);
+        folderAtlas.add(newTexture);
+        newTexture.getAllTextures(getTextureMap(resourceDir));
+        return false;
+    }
+
+    /**
+     * Set the amount of video memory the atlas textures are allowed to use. In
+     * case the budget is set before the atlas textures are preloaded, the
+     * atlas textures are only loaded once they are needed. Once the budget is
+     * exceeded the atlas textures that were not used for the longest time are
+     * removed from the video memory.
+     * 
+     * @param bytes the amount of bytes, <code>0</code> or less to keep all
+     *            atlas textures loaded
+     */
+    public void setResidentBudget(final long bytes) {
+        if (residency != null) {
+            residency.setBudget(bytes);
+            return;
+        }
+        if (bytes <= 0) {
+            return;
+        }
+        residency =
+            new TextureResidency(TextureLoader.class.getClassLoader(), bytes);
+        if ((preloader != null) || preloadDone) {
+            Graphics.getInstance().getRenderManager().addTask(residency);
         }
     }
 
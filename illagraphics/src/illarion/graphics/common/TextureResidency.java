@@ -0,0 +1,439 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.common;
+
+import illarion.graphics.RenderTask;
+import illarion.graphics.TextureAtlas;
+import illarion.graphics.TextureAtlasListener;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javolution.util.FastComparator;
+import javolution.util.FastMap;
+import javolution.util.FastTable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class keeps track of the texture atlases that are loaded to the video
+ * memory. Texture atlases are loaded once they are needed for rendering or
+ * once they are requested ahead of time. In case the texture atlases use more
+ * video memory then the budget allows, the atlases that were not used for the
+ * longest time are removed from the video memory again.
+ * <p>
+ * The requests may be send by any thread, all other work is done by the
+ * render thread.
+ * </p>
+ * 
+ * @author Martin Karing
+ * @since 2.00
+ * @version 2.00
+ */
+final class TextureResidency implements RenderTask, TextureAtlasListener {
+    /**
+     * The error and debug logger of the client.
+     */
+    private static final Logger LOGGER = Logger
+        .getLogger(TextureResidency.class);
+
+    /**
+     * The maximal amount of requested texture atlases that are send to the
+     * graphic card during one frame.
+     */
+    private static final int MAX_UPLOADS = 2;
+
+    /**
+     * The amount of frames a texture atlas is protected from being removed
+     * after it was used.
+     */
+    private static final int PROTECTED_FRAMES = 2;
+
+    /**
+     * The amount of threads that decode the requested texture atlases.
+     */
+    private static final int WORKERS = 2;
+
+    /**
+     * All texture atlases that are managed.
+     */
+    private final List<TextureAtlas> atlases;
+
+    /**
+     * The amount of video memory in bytes the texture atlases are allowed to
+     * use.
+     */
+    private volatile long budget;
+
+    /**
+     * The amount of texture atlases that were removed from the video memory.
+     */
+    private volatile long evictions;
+
+    /**
+     * The amount of times a texture atlas was used for rendering a frame while
+     * it was resident.
+     */
+    private volatile long hits;
+
+    /**
+     * The newest usage clock value that was seen during the last update.
+     */
+    private long lastFrame;
+
+    /**
+     * The class loader that supplies the atlas files.
+     */
+    private final ClassLoader loader;
+
+    /**
+     * The amount of times a texture atlas was needed for rendering while it
+     * was not resident.
+     */
+    private volatile long misses;
+
+    /**
+     * The texture atlases that are decoded currently.
+     */
+    private final FastMap<TextureAtlas, Future<AtlasPreloader.Job>> pending;
+
+    /**
+     * The amount of texture atlases that were loaded ahead of time.
+     */
+    private volatile long prefetches;
+
+    /**
+     * The texture atlases that were requested to be loaded ahead of time.
+     */
+    private final Queue<TextureAtlas> requests;
+
+    /**
+     * The amount of video memory in bytes the resident texture atlases used
+     * during the last update.
+     */
+    private volatile long residentSize;
+
+    /**
+     * The texture atlases that were loaded ahead of time during the current
+     * update. They are not counted as used for rendering.
+     */
+    private final List<TextureAtlas> uploaded;
+
+    /**
+     * The threads that decode the requested texture atlases.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Create a new residency manager.
+     * 
+     * @param classLoader the class loader that supplies the atlas files
+     * @param bytes the amount of video memory in bytes the texture atlases are
+     *            allowed to use
+     */
+    @SuppressWarnings("nls")
+    TextureResidency(final ClassLoader classLoader, final long bytes) {
+        loader = classLoader;
+        budget = bytes;
+        atlases =
+            new FastTable<TextureAtlas>()
+                .setValueComparator(FastComparator.IDENTITY);
+        pending =
+            new FastMap<TextureAtlas, Future<AtlasPreloader.Job>>()
+                .setKeyComparator(FastComparator.IDENTITY);
+        requests = new ConcurrentLinkedQueue<TextureAtlas>();
+        uploaded =
+            new FastTable<TextureAtlas>()
+                .setValueComparator(FastComparator.IDENTITY);
+        workers = Executors.newFixedThreadPool(WORKERS, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "TextureResidency Worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the amount of texture atlases that were removed from the video
+     * memory.
+     * 
+     * @return the amount of evictions
+     */
+    long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the amount of times a texture atlas was used for rendering a frame
+     * while it was resident.
+     * 
+     * @return the amount of hits
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the amount of times a texture atlas was needed for rendering while
+     * it was not resident and had to be loaded right away.
+     * 
+     * @return the amount of misses
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the amount of texture atlases that were loaded ahead of time.
+     * 
+     * @return the amount of prefetches
+     */
+    long getPrefetches() {
+        return prefetches;
+    }
+
+    /**
+     * Get the amount of video memory the resident texture atlases used during
+     * the last update.
+     * 
+     * @return the amount of bytes
+     */
+    long getResidentSize() {
+        return residentSize;
+    }
+
+    /**
+     * Add a texture atlas to the atlases managed by this class.
+     * 
+     * @param atlas the texture atlas
+     */
+    void register(final TextureAtlas atlas) {
+        atlas.setListener(this);
+        synchronized (atlases) {
+            atlases.add(atlas);
+        }
+    }
+
+    /**
+     * Update the residency of the texture atlases. The requested texture
+     * atlases are send to the decoding threads, the decoded ones are send to
+     * the graphic card and the texture atlases that were not used for the
+     * longest time are removed in case the budget is exceeded.
+     * 
+     * @param delta the time since the last update, irrelevant in this case
+     * @return always <code>true</code> so this task runs every frame
+     */
+    @Override
+    public boolean render(final int delta) {
+        TextureAtlas atlas = requests.poll();
+        while (atlas != null) {
+            if (!atlas.isResident() && !pending.containsKey(atlas)) {
+                pending.put(atlas, workers.submit(createJob(atlas)));
+            }
+            atlas = requests.poll();
+        }
+
+        uploadPrefetched();
+        evictUnused();
+        return true;
+    }
+
+    /**
+     * This function is called in case all references to a texture atlas got
+     * removed. The texture atlas is not managed anymore.
+     * 
+     * @param atlas the texture atlas that is not in use anymore
+     */
+    @Override
+    public void reportDeath(final TextureAtlas atlas) {
+        synchronized (atlases) {
+            atlases.remove(atlas);
+        }
+        atlas.evict();
+    }
+
+    /**
+     * This function is called in case a texture atlas is needed for rendering
+     * that is not resident. The texture atlas is loaded right away, in case
+     * its already decoding the result of this is used.
+     * 
+     * @param atlas the texture atlas that is needed
+     */
+    @Override
+    @SuppressWarnings("nls")
+    public void reportMissing(final TextureAtlas atlas) {
+        misses++;
+        AtlasPreloader.Job job = null;
+        final Future<AtlasPreloader.Job> future = pending.remove(atlas);
+        if (future != null) {
+            try {
+                job = future.get();
+            } catch (final ExecutionException e) {
+                LOGGER.error("Decoding a atlas file failed", e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (job == null) {
+            job = createJob(atlas).call();
+        }
+        upload(job);
+    }
+
+    /**
+     * Request a texture atlas to be loaded ahead of time.
+     * 
+     * @param atlas the texture atlas that is likely needed soon
+     */
+    void request(final TextureAtlas atlas) {
+        if (!atlas.isResident()) {
+            requests.offer(atlas);
+        }
+    }
+
+    /**
+     * Set the amount of video memory the texture atlases are allowed to use.
+     * 
+     * @param bytes the amount of bytes
+     */
+    void setBudget(final long bytes) {
+        budget = bytes;
+    }
+
+    /**
+     * Create a job that decodes the image of a texture atlas.
+     * 
+     * @param atlas the texture atlas
+     * @return the job
+     */
+    private AtlasPreloader.Job createJob(final TextureAtlas atlas) {
+        return new AtlasPreloader.Job(loader, 0, atlas.getFileName(), atlas,
+            true, false);
+    }
+
+    /**
+     * Count the texture atlases that were used since the last update and
+     * remove the texture atlases that were not used for the longest time in
+     * case the budget is exceeded.
+     */
+    private void evictUnused() {
+        synchronized (atlases) {
+            long newest = lastFrame;
+            long total = 0;
+            final int count = atlases.size();
+            for (int i = 0; i < count; i++) {
+                final TextureAtlas atlas = atlases.get(i);
+                final long lastUse = atlas.getLastUse();
+                if (atlas.isResident() && (lastUse > lastFrame)
+                    && !uploaded.contains(atlas)) {
+                    hits++;
+                }
+                newest = Math.max(newest, lastUse);
+                total += atlas.getResidentSize();
+            }
+            lastFrame = newest;
+
+            while ((budget > 0) && (total > budget)) {
+                TextureAtlas oldest = null;
+                for (int i = 0; i < count; i++) {
+                    final TextureAtlas atlas = atlases.get(i);
+                    if (!atlas.isResident() || pending.containsKey(atlas)
+                        || ((atlas.getLastUse() + PROTECTED_FRAMES) > newest)) {
+                        continue;
+                    }
+                    if ((oldest == null)
+                        || (atlas.getLastUse() < oldest.getLastUse())) {
+                        oldest = atlas;
+                    }
+                }
+                if (oldest == null) {
+                    break;
+                }
+                total -= oldest.getResidentSize();
+                oldest.evict();
+                evictions++;
+            }
+            residentSize = total;
+        }
+        uploaded.clear();
+    }
+
+    /**
+     * Send a decoded texture atlas to the graphic card.
+     * 
+     * @param job the job that decoded the texture atlas
+     */
+    @SuppressWarnings("nls")
+    private void upload(final AtlasPreloader.Job job) {
+        if (job.getError() != null) {
+            LOGGER.error("Unable to load texture: " + job.getAtlasName(),
+                job.getError());
+            return;
+        }
+        final TextureAtlas atlas = job.getAtlas();
+        if (!atlas.isResident()) {
+            atlas.uploadTextureData();
+        }
+        atlas.cleanup();
+    }
+
+    /**
+     * Send the requested texture atlases that are decoded to the graphic card.
+     * Only a few texture atlases are send each frame to keep the frame time
+     * steady. The texture atlases are marked as used, else they would be the
+     * first ones to be removed again in case the budget is exceeded.
+     */
+    @SuppressWarnings("nls")
+    private void uploadPrefetched() {
+        int uploads = 0;
+        for (FastMap.Entry<TextureAtlas, Future<AtlasPreloader.Job>> entry =
+            pending.head(), end = pending.tail(); (uploads < MAX_UPLOADS)
+            && ((entry = entry.getNext()) != end);) {
+            final Future<AtlasPreloader.Job> future = entry.getValue();
+            if (!future.isDone()) {
+                continue;
+            }
+            final TextureAtlas atlas = entry.getKey();
+            entry = entry.getPrevious();
+            pending.remove(atlas);
+            try {
+                upload(future.get());
+                uploads++;
+                if (atlas.isResident()) {
+                    atlas.markUsed();
+                    uploaded.add(atlas);
+                    prefetches++;
+                }
+            } catch (final ExecutionException ex) {
+                LOGGER.error("Decoding a atlas file failed", ex.getCause());
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -21,6 +21,8 @@ package illarion.graphics.jogl;
 import illarion.graphics.Drawer;
 import illarion.graphics.Graphics;
 import illarion.graphics.SpriteColor;
+import illarion.graphics.jogl.render.AbstractTextureRender;
+import illarion.graphics.jogl.render.TextureRenderBatch;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -71,6 +73,21 @@ public final class DrawerJOGL implements Drawer {
         .allocateDirect((Float.SIZE / 8) * 32).order(ByteOrder.nativeOrder())
         .asFloatBuffer();
 
+    /**
+     * Get the batching texture render in case its the texture render in use.
+     * Rectangles are added to its batches instead of being drawn one by one.
+     * 
+     * @return the batching texture render or <code>null</code> in case
+     *         another texture render is used
+     */
+    private static TextureRenderBatch getBatch() {
+        final AbstractTextureRender render = AbstractTextureRender.getInstance();
+        if (render instanceof TextureRenderBatch) {
+            return (TextureRenderBatch) render;
+        }
+        return null;
+    }
+
     /**
      * Draw a simple dot at a specified location on the screen.
      * 
@@ -221,6 +238,11 @@ public final class DrawerJOGL implements Drawer {
     @Override
     public void drawRectangle(final int x1, final int y1, final int x2,
         final int y2, final SpriteColor color) {
+        final TextureRenderBatch batch = getBatch();
+        if (batch != null) {
+            batch.drawRectangle(x1, y1, x2, y2, color, color, color, color);
+            return;
+        }
 
         final GL gl = GLU.getCurrentGL();
 
@@ -258,6 +280,12 @@ public final class DrawerJOGL implements Drawer {
         final int y2, final SpriteColor topLeftColor,
         final SpriteColor topRightColor, final SpriteColor bottomLeftColor,
         final SpriteColor bottomRightColor) {
+        final TextureRenderBatch batch = getBatch();
+        if (batch != null) {
+            batch.drawRectangle(x1, y1, x2, y2, topLeftColor, topRightColor,
+                bottomLeftColor, bottomRightColor);
+            return;
+        }
 
         final GL gl = GLU.getCurrentGL();
 
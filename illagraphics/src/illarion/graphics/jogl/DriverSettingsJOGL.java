@@ -21,6 +21,7 @@ package illarion.graphics.jogl;
 import java.lang.ref.WeakReference;
 
 import illarion.graphics.Graphics;
+import illarion.graphics.jogl.render.AbstractTextureRender;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2ES1;
@@ -186,6 +187,28 @@ public final class DriverSettingsJOGL {
             }
         }),
 
+        /**
+         * This mode should be used to draw a batch of textures using
+         * interleaved vertex, texture coordinate and color arrays.
+         */
+        DRAWTEXTUREBATCH(new SettingsHandler() {
+            @Override
+            public void disableSettings(final GL usedGL) {
+                final GL2ES1 gl = FixedFuncUtil.wrapFixedFuncEmul(usedGL);
+                gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+                gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+                gl.glDisableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+            }
+
+            @Override
+            public void enableSettings(final GL usedGL) {
+                final GL2ES1 gl = FixedFuncUtil.wrapFixedFuncEmul(usedGL);
+                gl.glEnableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+                gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+                gl.glEnableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+            }
+        }),
+
         /**
          * This mode should be used to drawn a texture using a texture pointer.
          */
@@ -304,15 +327,18 @@ public final class DriverSettingsJOGL {
 
     /**
      * Reset the driver so any change causes that a newly selected mode is
-     * properly enabled for sure.
+     * properly enabled for sure. Any textures the texture render collected are
+     * drawn before.
      */
     public void reset() {
+        AbstractTextureRender.flush();
         currentMode = null;
         activeTexture = null;
     }
 
     /**
-     * Activate a new driver mode.
+     * Activate a new driver mode. Any textures the texture render collected
+     * are drawn before the mode is changed.
      * 
      * @param gl the instance of the openGL interface
      * @param newMode the new mode to enable
@@ -321,6 +347,7 @@ public final class DriverSettingsJOGL {
      */
     public void enableMode(final GL gl, final Modes newMode,
         final TextureAtlasJOGL texture) {
+        AbstractTextureRender.flush();
         enableTexture(gl, newMode, texture);
 
         if (currentMode == newMode) {
@@ -355,7 +382,8 @@ public final class DriverSettingsJOGL {
             activeTexAtlas = activeTexture.get();
         }
 
-        if (mode != Modes.DRAWTEXTURE && mode != Modes.DRAWTEXTUREPOINTER) {
+        if (mode != Modes.DRAWTEXTURE && mode != Modes.DRAWTEXTUREPOINTER
+            && mode != Modes.DRAWTEXTUREBATCH) {
             if (activeTexAtlas != null) {
                 activeTexAtlas.disable(gl);
                 activeTexture = null;
@@ -363,13 +391,19 @@ public final class DriverSettingsJOGL {
             return;
         }
 
-        if (activeTexAtlas == texture) {
+        if ((activeTexAtlas == texture) && (texture != null)
+            && texture.isResident()) {
+            texture.markUsed();
             return;
         }
 
         if (texture != null) {
             texture.enable(gl);
-            activeTexture = new WeakReference<TextureAtlasJOGL>(texture);
+            if (texture.isResident()) {
+                activeTexture = new WeakReference<TextureAtlasJOGL>(texture);
+            } else {
+                activeTexture = null;
+            }
         } else if (activeTexAtlas != null) {
             activeTexAtlas.disable(gl);
             activeTexture = null;
@@ -19,6 +19,7 @@
 package illarion.graphics.jogl;
 
 import illarion.graphics.MaskUtil;
+import illarion.graphics.jogl.render.AbstractTextureRender;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.glu.GLU;
@@ -35,7 +36,8 @@ import javax.media.opengl.glu.GLU;
  * are acts normally again.
  * </p>
  * Note that drawing a mask takes about the same time as drawing shapes into the
- * color buffer.
+ * color buffer. The textures the texture render collected are drawn before the
+ * mask state changes.
  * 
  * @author Martin Karing
  * @version 2.00
@@ -48,6 +50,7 @@ public final class MaskUtilJOGL implements MaskUtil {
      */
     @Override
     public void defineMask() {
+        AbstractTextureRender.flush();
         final GL gl = GLU.getCurrentGL();
         gl.glDepthMask(true);
         gl.glClearDepth(1);
@@ -64,6 +67,7 @@ public final class MaskUtilJOGL implements MaskUtil {
      */
     @Override
     public void drawOffMask() {
+        AbstractTextureRender.flush();
         final GL gl = GLU.getCurrentGL();
         gl.glDepthFunc(GL.GL_NOTEQUAL);
     }
@@ -74,6 +78,7 @@ public final class MaskUtilJOGL implements MaskUtil {
      */
     @Override
     public void drawOnMask() {
+        AbstractTextureRender.flush();
         final GL gl = GLU.getCurrentGL();
         gl.glDepthFunc(GL.GL_EQUAL);
     }
@@ -85,6 +90,7 @@ public final class MaskUtilJOGL implements MaskUtil {
      */
     @Override
     public void finishDefineMask() {
+        AbstractTextureRender.flush();
         final GL gl = GLU.getCurrentGL();
         gl.glDepthMask(false);
         gl.glColorMask(true, true, true, true);
@@ -95,6 +101,7 @@ public final class MaskUtilJOGL implements MaskUtil {
      */
     @Override
     public void resetMask() {
+        AbstractTextureRender.flush();
         final GL gl = GLU.getCurrentGL();
         gl.glDisable(GL.GL_DEPTH_TEST);
     }
@@ -22,6 +22,7 @@ import illarion.common.util.Rectangle;
 import illarion.graphics.BlendingMode;
 import illarion.graphics.GraphicResolution;
 import illarion.graphics.RenderDisplay;
+import illarion.graphics.jogl.render.AbstractTextureRender;
 
 import java.awt.Component;
 import java.awt.Cursor;
@@ -191,6 +192,7 @@ public final class RenderDisplayJOGL implements RenderDisplay {
      */
     @Override
     public void applyOffset(final float offX, final float offY) {
+        AbstractTextureRender.flush();
         if (canvas != null) {
             final GL gl = GLU.getCurrentGL();
             if (gl.isGL2ES1()) {
@@ -209,6 +211,7 @@ public final class RenderDisplayJOGL implements RenderDisplay {
      */
     @Override
     public void applyScaling(final float scale) {
+        AbstractTextureRender.flush();
         if (canvas == null) {
             return;
         }
@@ -236,6 +239,7 @@ public final class RenderDisplayJOGL implements RenderDisplay {
      */
     @Override
     public void clearScreen() {
+        AbstractTextureRender.flush();
         final GL gl = GLU.getCurrentGL();
         gl.glClearColor(0.f, 0.f, 0.f, 1.f);
         gl.glClear(GL.GL_COLOR_BUFFER_BIT);
@@ -435,6 +439,7 @@ public final class RenderDisplayJOGL implements RenderDisplay {
      */
     @Override
     public void resetOffset() {
+        AbstractTextureRender.flush();
         if (canvas == null) {
             return;
         }
@@ -450,6 +455,7 @@ public final class RenderDisplayJOGL implements RenderDisplay {
      */
     @Override
     public void resetScaling() {
+        AbstractTextureRender.flush();
         if (canvas == null) {
             return;
         }
@@ -506,6 +512,7 @@ public final class RenderDisplayJOGL implements RenderDisplay {
         if (mode.equals(currentMode)) {
             return;
         }
+        AbstractTextureRender.flush();
         final GL gl = GLU.getCurrentGL();
 
         gl.glEnable(GL.GL_BLEND);
@@ -634,6 +641,7 @@ public final class RenderDisplayJOGL implements RenderDisplay {
      */
     @Override
     public void unsetAreaLimit() {
+        AbstractTextureRender.flush();
         if (canvas == null) {
             return;
         }
@@ -27,6 +27,7 @@ import org.apache.log4j.Logger;
 import illarion.graphics.Graphics;
 import illarion.graphics.RenderManager;
 import illarion.graphics.RenderTask;
+import illarion.graphics.jogl.render.AbstractTextureRender;
 
 /**
  * This render manager is supposed to ensure that all render tasks are rendered
@@ -84,13 +85,16 @@ public final class RenderManagerJOGL implements RenderManager {
     @SuppressWarnings("nls")
     private void draw(final int delta) {
         this.delta = delta;
+        TextureAtlasJOGL.advanceUsageClock();
         
         try {
             synchronized (taskList) {
                 int count = taskList.size();
                 int curr = 0;
                 while (curr < count) {
-                    if (!taskList.get(curr).render(delta)) {
+                    final boolean keep = taskList.get(curr).render(delta);
+                    AbstractTextureRender.flush();
+                    if (!keep) {
                         taskList.remove(curr);
                         --count;
                     } else {
@@ -103,6 +107,7 @@ public final class RenderManagerJOGL implements RenderManager {
             LOGGER.debug("Exception:", ex);
         }
 
+        AbstractTextureRender.finish();
         SpriteJOGL.resetDrawCount();
     }
 
@@ -18,10 +18,6 @@
  */
 package illarion.graphics.jogl;
 
-import javax.media.opengl.GL;
-import javax.media.opengl.GL2;
-import javax.media.opengl.glu.GLU;
-
 import illarion.graphics.Graphics;
 import illarion.graphics.Sprite;
 import illarion.graphics.SpriteColor;
@@ -620,34 +616,18 @@ public final class SpriteJOGL implements Sprite {
         reportDrawTexture();
     }
 
+    /**
+     * Draw the first frame of the sprite scaled around a center location. The
+     * scaling is applied to the location and the size of the image, so the
+     * texture render is able to collect it along with the other sprites.
+     */
     @Override
     public void drawNasty(int x, int y, int w, int h, int centerX,
         int centerY, float scale, SpriteColor color) {
-        final GL2 gl = GLU.getCurrentGL().getGL2();
-        
         final TextureJOGL tex = getTexture(0);
-        
-        DriverSettingsJOGL.getInstance().enableMode(gl,
-            DriverSettingsJOGL.Modes.DRAWTEXTURE, tex.getParent());
-        
-        gl.glPushMatrix();
-        gl.glTranslatef(centerX, centerY, 0.0f);
-        gl.glScalef(scale, scale, 1.0f);
-        gl.glTranslatef(-(centerX), -(centerY), 0.0f);
-
-        color.setActiveColor();
-        gl.glBegin(GL2.GL_QUADS);
-          gl.glTexCoord2f(tex.getRelX1(), tex.getRelY1()); gl.glVertex2i(x,     y);
-          gl.glTexCoord2f(tex.getRelX2(), tex.getRelY1()); gl.glVertex2i(x + w, y);
-          gl.glTexCoord2f(tex.getRelX2(), tex.getRelY2()); gl.glVertex2i(x + w, y + h);
-          gl.glTexCoord2f(tex.getRelX1(), tex.getRelY2()); gl.glVertex2i(x,     y + h);
-        gl.glEnd();
-        
-        int glError = gl.glGetError();
-        if (glError != GL.GL_NO_ERROR) {
-            System.err.println("OpenGL Error: " + glError);
-        }
 
-        gl.glPopMatrix();
+        texRender.drawTexture(centerX + ((x - centerX) * scale), centerY
+            + ((y - centerY) * scale), 0, w * scale, h * scale, tex, color,
+            false, 0.f);
     }
 }
@@ -18,6 +18,7 @@
  */
 package illarion.graphics.jogl;
 
+import gnu.trove.list.array.TIntArrayList;
 import illarion.graphics.Graphics;
 import illarion.graphics.RenderTask;
 import illarion.graphics.Texture;
@@ -129,6 +130,21 @@ public final class TextureAtlasJOGL implements TextureAtlas {
     private static final List<TextureAtlasJOGL> existingAtlasObject =
         new FastTable<TextureAtlasJOGL>();
 
+    /**
+     * The current value of the usage clock. The clock is advanced once per
+     * rendered frame and used to find the texture atlases that were not used
+     * for the longest time.
+     */
+    private static long usageClock = 1;
+
+    /**
+     * Advance the usage clock. This needs to be called once per rendered
+     * frame.
+     */
+    public static void advanceUsageClock() {
+        ++usageClock;
+    }
+
     /**
      * This removes all texture data from the video memory. After calling this
      * function, no texture can be rendered anymore.
@@ -156,6 +172,12 @@ public final class TextureAtlasJOGL implements TextureAtlas {
      */
     private boolean keepTextureData;
 
+    /**
+     * The value of the usage clock when this texture atlas was used the last
+     * time.
+     */
+    private long lastUse;
+
     /**
      * The listener class the death of the texture atlas is reported to.
      */
@@ -178,6 +200,18 @@ public final class TextureAtlasJOGL implements TextureAtlas {
      */
     private String ownFileName;
 
+    /**
+     * The locations of the sub textures on the texture atlas. Each sub texture
+     * takes four values: x, y, width and height.
+     */
+    private final TIntArrayList subTextureAreas;
+
+    /**
+     * The sub textures of this texture atlas. The texture coordinates of this
+     * textures are updated every time the texture is loaded.
+     */
+    private final List<TextureJOGL> subTextures;
+
     /**
      * A buffer of the already loaded textures to avoid that a single graphic is
      * loaded into multiple textures.
@@ -220,6 +254,8 @@ public final class TextureAtlasJOGL implements TextureAtlas {
      */
     public TextureAtlasJOGL() {
         textureBuffer = new FastMap<String, Texture>();
+        subTextures = new FastTable<TextureJOGL>();
+        subTextureAreas = new TIntArrayList();
         textureType = TYPE_RGBA;
         existingAtlasObject.add(this);
         keepTextureData = false;
@@ -271,7 +307,9 @@ public final class TextureAtlasJOGL implements TextureAtlas {
 
     /**
      * Add a image definition to the storage that marks the locations of the
-     * image on the texture.
+     * image on the texture. The texture does not need to be loaded yet, in this
+     * case the texture coordinates of the image are set once the texture is
+     * loaded.
      * 
      * @param fileName the name of the image that works as the reference to the
      *            image file
@@ -283,9 +321,16 @@ public final class TextureAtlasJOGL implements TextureAtlas {
     @Override
     public void addImage(final String fileName, final int x, final int y,
         final int w, final int h) {
-        
-        final TextureJOGL tex = new TextureJOGL(texture.getSubImageTexCoords(x, y, x + w, y + h), getTextureWidth(), getTextureHeight());
+        final TextureJOGL tex = new TextureJOGL();
+        tex.setImageArea(x, y, w, h);
+        if (texture != null) {
+            tex.setTextureCoords(
+                texture.getSubImageTexCoords(x, y, x + w, y + h),
+                getTextureWidth(), getTextureHeight());
+        }
         tex.setParent(this);
+        subTextures.add(tex);
+        subTextureAreas.add(new int[] { x, y, w, h });
         addTextureToBuffer(fileName, tex);
     }
 
@@ -332,6 +377,35 @@ public final class TextureAtlasJOGL implements TextureAtlas {
         }
     }
 
+    /**
+     * Mark this texture atlas as used and ask the listener to load the texture
+     * in case its not resident. This needs to be called before the texture
+     * coordinates of the sub textures are read, as they are only valid once
+     * the texture is loaded.
+     */
+    public final void ensureResident() {
+        markUsed();
+        if ((texture == null) && (listener != null)) {
+            listener.reportMissing(this);
+        }
+    }
+
+    /**
+     * Remove the texture from the video memory. The sub textures remain valid
+     * and the listener is asked to load the texture again once its needed.
+     * This has to be called by the render thread.
+     */
+    @Override
+    public final void evict() {
+        if (texture == null) {
+            return;
+        }
+        DriverSettingsJOGL.getInstance().reset();
+        texture.destroy(GLU.getCurrentGL());
+        texture = null;
+        textureData = null;
+    }
+
     /**
      * Finalize the texture. This causes that no more textures can be obtained
      * from the texture atlas. Call this for optimizing reasons after the
@@ -363,6 +437,31 @@ public final class TextureAtlasJOGL implements TextureAtlas {
         return ownFileName;
     }
 
+    /**
+     * Get the value of the usage clock when this texture atlas was used the
+     * last time.
+     * 
+     * @return the usage clock value of the last usage
+     */
+    @Override
+    public final long getLastUse() {
+        return lastUse;
+    }
+
+    /**
+     * Get the estimated amount of video memory the texture of this atlas uses.
+     * 
+     * @return the amount of bytes used or <code>0</code> in case the texture
+     *         is not resident
+     */
+    @Override
+    public final int getResidentSize() {
+        if (texture == null) {
+            return 0;
+        }
+        return texture.getEstimatedMemorySize();
+    }
+
     /**
      * Get one of the textures that is stored in this texture atlas. The texture
      * instance contains all data to render the image with the sprite class of
@@ -571,6 +670,16 @@ public final class TextureAtlasJOGL implements TextureAtlas {
         return ((transparencyMask.get(bufferIndex) & pixelMask) == pixelMask);
     }
 
+    /**
+     * Check if the texture of this atlas is loaded to the video memory.
+     * 
+     * @return <code>true</code> in case the texture is resident
+     */
+    @Override
+    public final boolean isResident() {
+        return (texture != null);
+    }
+
     /**
      * Check if this texture is a grey scale texture.
      * 
@@ -608,6 +717,14 @@ public final class TextureAtlasJOGL implements TextureAtlas {
         return (textureType == TYPE_RGBA);
     }
 
+    /**
+     * Mark this texture atlas as used in the current frame.
+     */
+    @Override
+    public final void markUsed() {
+        lastUse = usageClock;
+    }
+
     /**
      * Remove the texture from the video ram of the graphic card.
      */
@@ -810,6 +927,9 @@ public final class TextureAtlasJOGL implements TextureAtlas {
     @Override
     public void updateTextureArea(final int x, final int y, final int w,
         final int h, final ByteBuffer imageData) {
+        if (texture == null) {
+            return;
+        }
 
         final GL gl = GLU.getCurrentGL();
         DriverSettingsJOGL.getInstance().enableMode(gl,
@@ -848,17 +968,35 @@ public final class TextureAtlasJOGL implements TextureAtlas {
 
     @Override
     public void loadTextureData(InputStream dataStream, String string) {
+        decodeTextureData(dataStream, string);
+        uploadTextureData();
+    }
+
+    @Override
+    public void decodeTextureData(final InputStream dataStream,
+        final String format) {
         try {
-            textureData = TextureIO.newTextureData(GLProfile.getGL2ES1(), dataStream, true, string);
+            textureData = TextureIO.newTextureData(GLProfile.getGL2ES1(), dataStream, true, format);
             if (textureData == null) {
                 throw new IllegalStateException("Loading the texture failed badly.");
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
+
+    @Override
+    public void uploadTextureData() {
+        if (textureData == null) {
+            return;
+        }
         try {
+            // the upload binds the new texture, so the texture the driver
+            // settings expect to be bound is not bound anymore
+            DriverSettingsJOGL.getInstance().reset();
             texture = TextureIO.newTexture(textureData);
-                        
+            updateSubTextures();
+
             final GL gl = GLContext.getCurrentGL();
 
             int glError = gl.glGetError();
@@ -866,8 +1004,9 @@ public final class TextureAtlasJOGL implements TextureAtlas {
                 System.err.println("OpenGL Error: " + glError);
             }
             
-            enable(gl);
-            disable(gl);
+            texture.enable(gl);
+            texture.bind(gl);
+            texture.disable(gl);
             
             glError = gl.glGetError();
             if (glError != GL.GL_NO_ERROR) {
@@ -878,13 +1017,45 @@ public final class TextureAtlasJOGL implements TextureAtlas {
         }
     }
 
+    /**
+     * Enable and bind the texture of this atlas. In case the texture is not
+     * resident, the listener is asked to load it. If it is still not resident
+     * after that, nothing is bound.
+     * 
+     * @param gl the instance of the openGL interface
+     */
     public void enable(final GL gl) {
+        ensureResident();
+        if (texture == null) {
+            return;
+        }
         texture.enable(gl);
         texture.bind(gl);
     }
 
     public void disable(final GL gl) {
-        texture.disable(gl);
+        if (texture != null) {
+            texture.disable(gl);
+        }
+    }
+
+    /**
+     * Update the texture coordinates of all sub textures after the texture was
+     * loaded.
+     */
+    private void updateSubTextures() {
+        final int texWidth = texture.getWidth();
+        final int texHeight = texture.getHeight();
+        final int count = subTextures.size();
+        for (int i = 0; i < count; i++) {
+            final int x = subTextureAreas.get(i * 4);
+            final int y = subTextureAreas.get((i * 4) + 1);
+            final int w = subTextureAreas.get((i * 4) + 2);
+            final int h = subTextureAreas.get((i * 4) + 3);
+            subTextures.get(i).setTextureCoords(
+                texture.getSubImageTexCoords(x, y, x + w, y + h), texWidth,
+                texHeight);
+        }
     }
 
     @Override
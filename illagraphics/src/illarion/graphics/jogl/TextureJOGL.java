@@ -135,7 +135,20 @@ public final class TextureJOGL implements Texture {
     
     public TextureJOGL(final TextureCoords texCoords, final int newTexWidth, final int newTexHeight) {
         this();
-        
+        setTextureCoords(texCoords, newTexWidth, newTexHeight);
+    }
+
+    /**
+     * Set the texture coordinates of this texture once the parent texture is
+     * loaded. The location and the size of the image are calculated from the
+     * coordinates.
+     * 
+     * @param texCoords the texture coordinates of the image
+     * @param newTexWidth the width of the parent texture
+     * @param newTexHeight the height of the parent texture
+     */
+    final void setTextureCoords(final TextureCoords texCoords,
+        final int newTexWidth, final int newTexHeight) {
         coords = texCoords;
         texWidth = newTexWidth;
         texHeight = newTexHeight;
@@ -150,6 +163,26 @@ public final class TextureJOGL implements Texture {
         width = Math.max(x1, x2) - Math.min(x1, x2);
         y = Math.min(y1, y2);
         height = Math.max(y1, y2) - Math.min(y1, y2);
+        textureDataChanged();
+    }
+
+    /**
+     * Set the location and the size of the image on a parent texture that is
+     * not loaded yet. The texture coordinates are set once the parent texture
+     * is loaded.
+     * 
+     * @param newX the x coordinate of the image on the parent texture
+     * @param newY the y coordinate of the image on the parent texture
+     * @param newWidth the width of the image
+     * @param newHeight the height of the image
+     */
+    final void setImageArea(final int newX, final int newY,
+        final int newWidth, final int newHeight) {
+        x = newX;
+        y = newY;
+        width = newWidth;
+        height = newHeight;
+        coords = new TextureCoords(0.f, 0.f, 0.f, 0.f);
     }
 
     /**
@@ -2,6 +2,7 @@ package illarion.graphics.jogl.font;
 
 import illarion.graphics.FontData;
 import illarion.graphics.FontData.GlyphData;
+import illarion.graphics.FontData.GlyphRunData;
 import illarion.graphics.jogl.SpriteColorJOGL;
 import illarion.graphics.jogl.TextureJOGL;
 import illarion.graphics.jogl.render.AbstractTextureRender;
@@ -36,17 +37,14 @@ public class TextureFontJOGL implements FontJOGL {
     public void renderString(String text, int posX, int posY,
         SpriteColorJOGL color, float size) {
 
-        GlyphData glyph;
-        GlyphData[] glyphes = new GlyphData[text.length()];
-        int[] penPos = new int[text.length()];
-        data.getGlyphes(text, 0, text.length(), size, glyphes, penPos);
+        final GlyphRunData run = data.getGlyphRun(text);
+        final int length = run.getLength();
 
-        int penX = 0;
-
-        for (int i = 0; i < text.length(); i++) {
-            glyph = glyphes[i];
+        for (int i = 0; i < length; i++) {
+            final GlyphData glyph = run.getGlyph(i);
             final TextureJOGL texture = (TextureJOGL) glyph.getTexture();
             if (texture != null) {
+                final float penX = posX + (run.getOffset(i) * size);
                 texRender.drawTexture(penX + glyph.getX(),
                     posY + glyph.getY(), 0.f, texture.getImageWidth() * size,
                     texture.getImageHeight() * size, texture, color, false,
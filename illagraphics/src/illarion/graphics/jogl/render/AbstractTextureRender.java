@@ -41,6 +41,12 @@ public abstract class AbstractTextureRender {
     private static final Logger LOGGER = Logger
         .getLogger(AbstractTextureRender.class);
 
+    /**
+     * Constant for {@link #usedRender}. In case this constant is set the
+     * batching texture render is used.
+     */
+    private static final int RENDER_BATCH = 3;
+
     /**
      * Constant for {@link #usedRender}. In case this constant is set the
      * display list texture render is used.
@@ -63,8 +69,13 @@ public abstract class AbstractTextureRender {
      * The priority list for the renderer usable. As they are written in the
      * array they will be checked to find a fitting one.
      */
-    private static final int[] RENDER_PRIORITY = new int[] { RENDER_POINTER,
-        RENDER_DISPLAYLIST, RENDER_IMMEDIATE };
+    private static final int[] RENDER_PRIORITY = new int[] { RENDER_BATCH,
+        RENDER_POINTER, RENDER_DISPLAYLIST, RENDER_IMMEDIATE };
+
+    /**
+     * The texture render that was selected to render the textures.
+     */
+    private static AbstractTextureRender activeRender;
 
     /**
      * The selected render that is used to render the textures.
@@ -73,10 +84,23 @@ public abstract class AbstractTextureRender {
 
     /**
      * This renderer finishes the texture render operations in case the current
-     * render requires it.
+     * render requires it. This needs to be called at the end of each frame.
      */
     public static void finish() {
-        // no renderer requires the finish action
+        if (activeRender != null) {
+            activeRender.finishFrame();
+        }
+    }
+
+    /**
+     * Send all texture render operations the current render collected to the
+     * graphic card. This needs to be called before anything else is drawn or
+     * the state of OpenGL is changed.
+     */
+    public static void flush() {
+        if (activeRender != null) {
+            activeRender.flushBuffer();
+        }
     }
 
     /**
@@ -90,6 +114,8 @@ public abstract class AbstractTextureRender {
     @SuppressWarnings("nls")
     public static AbstractTextureRender getInstance() {
         switch (usedRender) {
+            case RENDER_BATCH:
+                return TextureRenderBatch.getInstance();
             case RENDER_IMMEDIATE:
                 return TextureRenderImmediate.getInstance();
             case RENDER_DISPLAYLIST:
@@ -102,6 +128,7 @@ public abstract class AbstractTextureRender {
                     usedRender = element;
                     retRender = getInstance();
                     if (retRender != null) {
+                        activeRender = retRender;
                         LOGGER.debug("Used texture render: "
                             + retRender.toString());
                         return retRender;
@@ -128,4 +155,21 @@ public abstract class AbstractTextureRender {
     public abstract void drawTexture(float x, float y, float z, float width,
         float height, TextureJOGL texture, SpriteColor color, boolean mirror,
         float rotation);
+
+    /**
+     * Finish the current frame. The default implementation does nothing but
+     * sending the collected render operations to the graphic card.
+     */
+    protected void finishFrame() {
+        flushBuffer();
+    }
+
+    /**
+     * Send the collected render operations to the graphic card. The default
+     * implementation does nothing, as most texture render draw the textures
+     * right away.
+     */
+    protected void flushBuffer() {
+        // nothing to do
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.jogl.render;
+
+import illarion.graphics.jogl.TextureAtlasJOGL;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The batch backend receives the quads the batching texture render collected
+ * and sends them to their final destination. The default backend draws them
+ * using OpenGL, other backends may record them to check the batching without
+ * a render context.
+ * 
+ * @author Martin Karing
+ * @version 2.00
+ * @since 2.00
+ */
+public interface BatchBackend {
+    /**
+     * Draw a batch of quads that all use the same texture atlas. Each quad
+     * consists of four vertices, each vertex stores
+     * {@link TextureRenderBatch#VERTEX_FLOATS} values: the x, y and z
+     * coordinate, the two texture coordinates and the red, green, blue and
+     * alpha value of the color.
+     * 
+     * @param atlas the texture atlas of the quads or <code>null</code> in case
+     *            the quads are not textured
+     * @param vertices the buffer that stores the vertices, starting at the
+     *            position <code>0</code>
+     * @param quads the amount of quads in the buffer
+     */
+    void drawQuads(TextureAtlasJOGL atlas, FloatBuffer vertices, int quads);
+
+    /**
+     * This function is called once a frame is finished and all quads of this
+     * frame were drawn.
+     */
+    void finishFrame();
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.jogl.render;
+
+import illarion.graphics.jogl.DriverSettingsJOGL;
+import illarion.graphics.jogl.TextureAtlasJOGL;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2ES1;
+import javax.media.opengl.GLContext;
+
+import com.jogamp.opengl.util.glsl.fixedfunc.FixedFuncUtil;
+
+/**
+ * This batch backend draws the quads using interleaved vertex arrays and a
+ * shared index buffer, so each batch takes a single draw call.
+ * 
+ * @author Martin Karing
+ * @version 2.00
+ * @since 2.00
+ */
+final class BatchBackendJOGL implements BatchBackend {
+    /**
+     * The amount of indices needed to draw one quad as two triangles.
+     */
+    private static final int QUAD_INDICES = 6;
+
+    /**
+     * The size of one vertex in bytes.
+     */
+    private static final int STRIDE = TextureRenderBatch.VERTEX_FLOATS
+        * (Float.SIZE / 8);
+
+    /**
+     * The buffer that stores the indices of the vertices of all quads a batch
+     * can hold.
+     */
+    private final ShortBuffer indices;
+
+    /**
+     * Create the backend and prepare the index buffer.
+     */
+    BatchBackendJOGL() {
+        indices =
+            ByteBuffer
+                .allocateDirect(
+                    (Short.SIZE / 8) * QUAD_INDICES
+                        * TextureRenderBatch.MAX_QUADS)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int i = 0; i < TextureRenderBatch.MAX_QUADS; i++) {
+            final int first = i * TextureRenderBatch.QUAD_VERTICES;
+            indices.put((short) first).put((short) (first + 1))
+                .put((short) (first + 2));
+            indices.put((short) (first + 2)).put((short) (first + 1))
+                .put((short) (first + 3));
+        }
+        indices.flip();
+    }
+
+    /**
+     * Draw a batch of quads with a single draw call.
+     * 
+     * @param atlas the texture atlas of the quads or <code>null</code> in case
+     *            the quads are not textured
+     * @param vertices the buffer that stores the vertices
+     * @param quads the amount of quads in the buffer
+     */
+    @Override
+    public void drawQuads(final TextureAtlasJOGL atlas,
+        final FloatBuffer vertices, final int quads) {
+        final GL2ES1 gl =
+            FixedFuncUtil.wrapFixedFuncEmul(GLContext.getCurrentGL());
+
+        DriverSettingsJOGL.getInstance().enableMode(gl,
+            DriverSettingsJOGL.Modes.DRAWTEXTUREBATCH, atlas);
+
+        vertices.position(0);
+        gl.glVertexPointer(3, GL.GL_FLOAT, STRIDE, vertices);
+        vertices.position(3);
+        gl.glTexCoordPointer(2, GL.GL_FLOAT, STRIDE, vertices);
+        vertices.position(5);
+        gl.glColorPointer(4, GL.GL_FLOAT, STRIDE, vertices);
+        vertices.position(0);
+
+        indices.position(0);
+        gl.glDrawElements(GL.GL_TRIANGLES, quads * QUAD_INDICES,
+            GL.GL_UNSIGNED_SHORT, indices);
+    }
+
+    /**
+     * Nothing to do once the frame is finished.
+     */
+    @Override
+    public void finishFrame() {
+        // nothing to do
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.jogl.render;
+
+import illarion.graphics.jogl.TextureAtlasJOGL;
+
+import java.nio.FloatBuffer;
+
+/**
+ * This batch backend counts the batches and quads it receives for each frame.
+ * It does not need a render context, so the batching can be checked without
+ * one. In case another backend is set, the quads are forwarded to it.
+ * 
+ * @author Martin Karing
+ * @version 2.00
+ * @since 2.00
+ */
+public final class BatchBackendRecorder implements BatchBackend {
+    /**
+     * The amount of batches drawn in the current frame.
+     */
+    private int currentFlushes;
+
+    /**
+     * The amount of quads drawn in the current frame.
+     */
+    private int currentQuads;
+
+    /**
+     * The backend the quads are forwarded to or <code>null</code>.
+     */
+    private final BatchBackend delegate;
+
+    /**
+     * The amount of batches drawn in the last finished frame.
+     */
+    private int frameFlushes;
+
+    /**
+     * The amount of quads drawn in the last finished frame.
+     */
+    private int frameQuads;
+
+    /**
+     * The amount of finished frames.
+     */
+    private int frames;
+
+    /**
+     * The texture atlas of the last batch that was drawn.
+     */
+    private TextureAtlasJOGL lastAtlas;
+
+    /**
+     * The amount of batches drawn in all frames.
+     */
+    private long totalFlushes;
+
+    /**
+     * The amount of quads drawn in all frames.
+     */
+    private long totalQuads;
+
+    /**
+     * Create a recorder that does not forward the quads.
+     */
+    public BatchBackendRecorder() {
+        this(null);
+    }
+
+    /**
+     * Create a recorder that forwards the quads to another backend.
+     * 
+     * @param forward the backend the quads are forwarded to or
+     *            <code>null</code>
+     */
+    public BatchBackendRecorder(final BatchBackend forward) {
+        delegate = forward;
+    }
+
+    /**
+     * Count a batch of quads and forward it in case a backend is set.
+     * 
+     * @param atlas the texture atlas of the quads
+     * @param vertices the buffer that stores the vertices
+     * @param quads the amount of quads in the buffer
+     */
+    @Override
+    public void drawQuads(final TextureAtlasJOGL atlas,
+        final FloatBuffer vertices, final int quads) {
+        currentFlushes++;
+        currentQuads += quads;
+        lastAtlas = atlas;
+        if (delegate != null) {
+            delegate.drawQuads(atlas, vertices, quads);
+        }
+    }
+
+    /**
+     * Store the counters of the frame that is finished and start counting the
+     * next one.
+     */
+    @Override
+    public void finishFrame() {
+        frameFlushes = currentFlushes;
+        frameQuads = currentQuads;
+        totalFlushes += currentFlushes;
+        totalQuads += currentQuads;
+        currentFlushes = 0;
+        currentQuads = 0;
+        frames++;
+        if (delegate != null) {
+            delegate.finishFrame();
+        }
+    }
+
+    /**
+     * Get the amount of batches drawn in the last finished frame.
+     * 
+     * @return the amount of batches
+     */
+    public int getFrameFlushes() {
+        return frameFlushes;
+    }
+
+    /**
+     * Get the amount of quads drawn in the last finished frame.
+     * 
+     * @return the amount of quads
+     */
+    public int getFrameQuads() {
+        return frameQuads;
+    }
+
+    /**
+     * Get the amount of finished frames.
+     * 
+     * @return the amount of frames
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * Get the texture atlas of the last batch that was drawn.
+     * 
+     * @return the texture atlas or <code>null</code> in case the last batch
+     *         was not textured
+     */
+    public TextureAtlasJOGL getLastAtlas() {
+        return lastAtlas;
+    }
+
+    /**
+     * Get the amount of batches drawn in all frames.
+     * 
+     * @return the amount of batches
+     */
+    public long getTotalFlushes() {
+        return totalFlushes;
+    }
+
+    /**
+     * Get the amount of quads drawn in all frames.
+     * 
+     * @return the amount of quads
+     */
+    public long getTotalQuads() {
+        return totalQuads;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * This file is part of the Illarion Graphics Engine.
+ *
+ * Copyright © 2011 - Illarion e.V.
+ *
+ * The Illarion Graphics Engine is free software: you can redistribute i and/or
+ * modify it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at your
+ * option) any later version.
+ * 
+ * The Illarion Graphics Engine is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * the Illarion Graphics Interface. If not, see <http://www.gnu.org/licenses/>.
+ */
+package illarion.graphics.jogl.render;
+
+import illarion.graphics.SpriteColor;
+import illarion.graphics.jogl.TextureAtlasJOGL;
+import illarion.graphics.jogl.TextureJOGL;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.glu.GLU;
+
+/**
+ * This texture render collects the textures that are drawn into one large
+ * interleaved vertex buffer. The transformation of each texture is done on
+ * the CPU, so all textures that use the same texture atlas are drawn with one
+ * draw call. The collected quads are send to the graphic card once the texture
+ * atlas changes, the buffer is full, anything else is drawn or the frame ends.
+ * 
+ * @author Martin Karing
+ * @version 2.00
+ * @since 2.00
+ */
+public final class TextureRenderBatch extends AbstractTextureRender {
+    /**
+     * The maximal amount of quads one batch can hold.
+     */
+    static final int MAX_QUADS = 2048;
+
+    /**
+     * The amount of vertices of one quad.
+     */
+    static final int QUAD_VERTICES = 4;
+
+    /**
+     * The amount of float values stored for each vertex: three for the
+     * location, two for the texture coordinates and four for the color.
+     */
+    public static final int VERTEX_FLOATS = 9;
+
+    /**
+     * The singleton instance of this class.
+     */
+    private static TextureRenderBatch instance;
+
+    /**
+     * Get the singleton instance of this class.
+     * 
+     * @return the singleton instance of the batching texture render
+     */
+    public static TextureRenderBatch getInstance() {
+        if (instance == null) {
+            final GL gl = GLU.getCurrentGL();
+            if (gl.isGL2ES1() || gl.hasGLSL()) {
+                instance = new TextureRenderBatch(new BatchBackendJOGL());
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * The texture atlas of the quads in the buffer.
+     */
+    private TextureAtlasJOGL atlas;
+
+    /**
+     * The backend that receives the collected quads.
+     */
+    private final BatchBackend backend;
+
+    /**
+     * The amount of quads in the buffer.
+     */
+    private int quads;
+
+    /**
+     * The buffer that stores the vertices of the collected quads.
+     */
+    private final FloatBuffer vertices;
+
+    /**
+     * Create a batching texture render that sends the collected quads to a
+     * backend. The singleton instance uses a backend that draws the quads with
+     * OpenGL, other instances may use a {@link BatchBackendRecorder} to check
+     * the batching without a render context.
+     * 
+     * @param batchBackend the backend that receives the collected quads
+     */
+    public TextureRenderBatch(final BatchBackend batchBackend) {
+        backend = batchBackend;
+        vertices =
+            ByteBuffer
+                .allocateDirect(
+                    (Float.SIZE / 8) * VERTEX_FLOATS * QUAD_VERTICES
+                        * MAX_QUADS).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    /**
+     * Add a rectangle that is not textured to the buffer.
+     * 
+     * @param x1 x coordinate of the first corner of the rectangle
+     * @param y1 y coordinate of the first corner of the rectangle
+     * @param x2 x coordinate of the second corner of the rectangle
+     * @param y2 y coordinate of the second corner of the rectangle
+     * @param topLeftColor the color on the top left node of the rectangle
+     * @param topRightColor the color on the top right node of the rectangle
+     * @param bottomLeftColor the color on the bottom left node of the rectangle
+     * @param bottomRightColor the color on the bottom right node of the
+     *            rectangle
+     */
+    public void drawRectangle(final float x1, final float y1, final float x2,
+        final float y2, final SpriteColor topLeftColor,
+        final SpriteColor topRightColor, final SpriteColor bottomLeftColor,
+        final SpriteColor bottomRightColor) {
+        prepareQuad(null);
+        putVertex(x1, y1, 0.f, 0.f, 0.f, topLeftColor);
+        putVertex(x1, y2, 0.f, 0.f, 0.f, bottomLeftColor);
+        putVertex(x2, y1, 0.f, 0.f, 0.f, topRightColor);
+        putVertex(x2, y2, 0.f, 0.f, 0.f, bottomRightColor);
+        quads++;
+    }
+
+    /**
+     * Add a texture to the buffer. The result is the same as the other texture
+     * render create by transforming a unit quad with the translation, scaling
+     * and rotation.
+     * 
+     * @param x the x coordinate of the texture
+     * @param y the y coordinate of the texture
+     * @param z the z coordinate (so the layer) of the texture
+     * @param width the width of the area the texture shall be rendered on
+     * @param height the height of the area the texture shall be rendered on
+     * @param texture the texture that shall be drawn
+     * @param color the color that is supposed to be used with that texture
+     * @param mirror mirror the texture horizontal
+     * @param rotation the value the texture is rotated by
+     */
+    @Override
+    public void drawTexture(final float x, final float y, final float z,
+        final float width, final float height, final TextureJOGL texture,
+        final SpriteColor color, final boolean mirror, final float rotation) {
+        prepareQuad(texture.getParent());
+
+        float originX = x;
+        float scaleX = width;
+        if (mirror) {
+            originX = x + width;
+            scaleX = -width;
+        }
+
+        float cos = 1.f;
+        float sin = 0.f;
+        if (rotation != 0.f) {
+            final double radians = Math.toRadians(rotation);
+            cos = (float) Math.cos(radians);
+            sin = (float) Math.sin(radians);
+        }
+
+        final float relX1 = texture.getRelX1();
+        final float relX2 = texture.getRelX2();
+        final float relY1 = texture.getRelY1();
+        final float relY2 = texture.getRelY2();
+
+        putCorner(originX, y, z, scaleX, height, cos, sin, -0.5f, -0.5f,
+            relX1, relY1, color);
+        putCorner(originX, y, z, scaleX, height, cos, sin, -0.5f, 0.5f,
+            relX1, relY2, color);
+        putCorner(originX, y, z, scaleX, height, cos, sin, 0.5f, -0.5f,
+            relX2, relY1, color);
+        putCorner(originX, y, z, scaleX, height, cos, sin, 0.5f, 0.5f,
+            relX2, relY2, color);
+        quads++;
+    }
+
+    @Override
+    @SuppressWarnings("nls")
+    public String toString() {
+        return "Batching Texture Render";
+    }
+
+    /**
+     * Send the collected quads to the backend and tell it that the frame is
+     * finished.
+     */
+    @Override
+    protected void finishFrame() {
+        flushBuffer();
+        backend.finishFrame();
+    }
+
+    /**
+     * Send the collected quads to the backend. The buffer is marked empty
+     * before, as the backend may cause this function to be called again.
+     */
+    @Override
+    protected void flushBuffer() {
+        if (quads == 0) {
+            return;
+        }
+        final int count = quads;
+        quads = 0;
+        vertices.flip();
+        backend.drawQuads(atlas, vertices, count);
+        vertices.clear();
+    }
+
+    /**
+     * Make sure the buffer has space for another quad of a texture atlas. In
+     * case the texture atlas changes or the buffer is full, the collected
+     * quads are send first. A texture atlas that starts a new batch is loaded
+     * in case its not resident, so the texture coordinates are valid.
+     * 
+     * @param quadAtlas the texture atlas of the next quad
+     */
+    private void prepareQuad(final TextureAtlasJOGL quadAtlas) {
+        if ((quads > 0) && ((quadAtlas != atlas) || (quads == MAX_QUADS))) {
+            flushBuffer();
+        }
+        if ((quads == 0) && (quadAtlas != null)) {
+            quadAtlas.ensureResident();
+        }
+        atlas = quadAtlas;
+    }
+
+    /**
+     * Transform one corner of the unit quad and add it to the buffer.
+     * 
+     * @param originX the x coordinate of the origin of the quad
+     * @param originY the y coordinate of the origin of the quad
+     * @param z the z coordinate of the quad
+     * @param scaleX the width of the quad, negative in case its mirrored
+     * @param scaleY the height of the quad
+     * @param cos the cosine of the rotation angle
+     * @param sin the sine of the rotation angle
+     * @param cornerX the x coordinate of the corner on the unit quad
+     * @param cornerY the y coordinate of the corner on the unit quad
+     * @param texX the x texture coordinate of the corner
+     * @param texY the y texture coordinate of the corner
+     * @param color the color of the corner
+     */
+    private void putCorner(final float originX, final float originY,
+        final float z, final float scaleX, final float scaleY,
+        final float cos, final float sin, final float cornerX,
+        final float cornerY, final float texX, final float texY,
+        final SpriteColor color) {
+        final float rotX = (cornerX * cos) - (cornerY * sin);
+        final float rotY = (cornerX * sin) + (cornerY * cos);
+        putVertex(originX + (scaleX * (rotX + 0.5f)), originY
+            + (scaleY * (rotY + 0.5f)), z, texX, texY, color);
+    }
+
+    /**
+     * Add one vertex to the buffer.
+     * 
+     * @param x the x coordinate of the vertex
+     * @param y the y coordinate of the vertex
+     * @param z the z coordinate of the vertex
+     * @param texX the x texture coordinate of the vertex
+     * @param texY the y texture coordinate of the vertex
+     * @param color the color of the vertex
+     */
+    private void putVertex(final float x, final float y, final float z,
+        final float texX, final float texY, final SpriteColor color) {
+        vertices.put(x).put(y).put(z);
+        vertices.put(texX).put(texY);
+        vertices.put(color.getRedf()).put(color.getGreenf())
+            .put(color.getBluef()).put(color.getAlphaf());
+    }
+}
@@ -563,6 +563,23 @@ public final class Map {
         }
     }
 
+    /**
+     * Render the prepared light of one tile on this map.
+     * 
+     * @param loc the location of the tile
+     * @return <code>true</code> in case the tile is on this map
+     */
+    public boolean renderLight(final Location loc) {
+        final MapTile tile = getTile(loc);
+        if (tile == null) {
+            return false;
+        }
+
+        CALC_COLOR.set(0.2f, 0.2f, 0.4f);
+        tile.renderLight(1.f - CALC_COLOR.getLuminationf(), CALC_COLOR);
+        return true;
+    }
+
     /**
      * Render the prepared lights of all tiles on this map.
      */
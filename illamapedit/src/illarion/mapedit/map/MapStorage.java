@@ -346,6 +346,17 @@ public final class MapStorage implements LightingMap {
         }
     }
 
+    @Override
+    public void renderLight(final Location loc) {
+        synchronized (loadedMaps) {
+            for (final Entry<String, Map> entry : loadedMaps.entrySet()) {
+                if (entry.getValue().renderLight(loc)) {
+                    break;
+                }
+            }
+        }
+    }
+
     @Override
     @SuppressWarnings("nls")
     public void renderLights() {
@@ -360,6 +371,14 @@ public final class MapStorage implements LightingMap {
 //        MapEditor.getMainFrame().getMessageLine().removeMessage(message);
     }
 
+    @Override
+    public void resetLight(final Location loc) {
+        final MapTile mapTile = getMapTile(loc);
+        if (mapTile != null) {
+            mapTile.resetLight();
+        }
+    }
+
     @Override
     @SuppressWarnings("nls")
     public void resetLights() {